@@ -2,6 +2,7 @@ plugins {
     id("java")
     id("org.jetbrains.intellij") version "1.16.0" // 使用与 IDEA 2024.1 兼容的插件版本
     id("org.jetbrains.kotlin.jvm") version "1.9.22" // 显式指定 Kotlin 版本
+    id("me.champeau.jmh") version "0.7.2" // 微基准测试：./gradlew jmh
 }
 
 group = "com.steins.codek"
@@ -33,6 +34,66 @@ dependencies {
     }
 }
 
+// 基准测试源码位于 src/jmh/java，只覆盖不依赖 IDE 运行时的代码
+jmh {
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    includes.set(listOf(".*Benchmark.*"))
+}
+
+// 分词器词表 (tiktoken 格式) 不提交到仓库，构建时下载并校验后打包到插件的 tokenizers/ 目录；
+// 下载失败时只给出警告，运行时退回按字符估算 token 数。可用 -Ptokenizer.baseUrl 指定镜像地址
+val tokenizerChecksums = mapOf(
+    "cl100k_base" to "223921b76ee99bde995b7ff738513eef100fb51d18c93597a113bcffe865b2a7",
+    "o200k_base" to "446a9538cb6c348e3516120d7c08b09f57c36495e2acfffe59a5bf8b0cfb1a2d"
+)
+val tokenizerBaseUrl = providers.gradleProperty("tokenizer.baseUrl")
+    .orElse("https://openaipublic.blob.core.windows.net/encodings")
+
+fun sha256Of(file: File): String =
+    java.security.MessageDigest.getInstance("SHA-256").digest(file.readBytes())
+        .joinToString("") { "%02x".format(it) }
+
+val downloadTokenizers by tasks.registering {
+    val outputDir = layout.buildDirectory.dir("generated/tokenizers")
+    val baseUrl = tokenizerBaseUrl
+    inputs.property("baseUrl", baseUrl)
+    outputs.dir(outputDir)
+    doLast {
+        val targetDir = outputDir.get().dir("tokenizers").asFile
+        targetDir.mkdirs()
+        for ((name, checksum) in tokenizerChecksums) {
+            val target = File(targetDir, "$name.tiktoken")
+            if (target.isFile && sha256Of(target) == checksum) {
+                continue
+            }
+            val temp = File(targetDir, "$name.tiktoken.tmp")
+            try {
+                uri("${baseUrl.get()}/$name.tiktoken").toURL().openStream().use { input ->
+                    temp.outputStream().use { input.copyTo(it) }
+                }
+                if (sha256Of(temp) != checksum) {
+                    logger.warn("词表 $name 的校验和不匹配，已忽略")
+                    temp.delete()
+                    continue
+                }
+                target.delete()
+                temp.renameTo(target)
+            } catch (e: java.io.IOException) {
+                logger.warn("无法下载词表 $name，token 数将按字符估算: ${e.message}")
+                temp.delete()
+            }
+        }
+    }
+}
+
+sourceSets {
+    main {
+        resources.srcDir(downloadTokenizers)
+    }
+}
+
 intellij {
     version.set("2024.1")
     type.set("IC") // Community Edition
@@ -0,0 +1,82 @@
+package com.steins.codek.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.steins.codek.model.ChatMessage;
+import okio.BufferedSink;
+import okio.Okio;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比旧的请求体构建方式 (Gson 树 → JSON 字符串 → 字节数组) 与 {@link ChatRequestBody} 直接写入连接的开销。
+ * 消息中包含一个 readFile 结果大小的工具消息。加 -Pjmh.profilers=gc 可查看每次请求的分配量。
+ * @author 0027013824
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChatRequestBodyBenchmark {
+    @Param({"64000", "1000000"})
+    public int contentChars;
+
+    private final Gson gson = new Gson();
+    private List<ChatMessage> messages;
+    private BufferedSink sink;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder(contentChars);
+        String line = "        sb.append(\"{\\\"role\\\": \\\"user\\\"}\"); // 中文注释\n";
+        while (sb.length() < contentChars) {
+            sb.append(line);
+        }
+        sb.setLength(contentChars);
+        ChatMessage tool = new ChatMessage("tool", sb.toString());
+        tool.setToolCallId("call_1");
+        messages = Arrays.asList(new ChatMessage("system", "You are CodeK."), new ChatMessage("user", "读取文件"), tool);
+        sink = Okio.buffer(Okio.blackhole());
+    }
+
+    @Benchmark
+    public int legacyGsonTree() {
+        JsonObject body = new JsonObject();
+        body.addProperty("model", "demo-model");
+        body.addProperty("temperature", 0.7);
+        body.addProperty("stream", true);
+        JsonArray array = new JsonArray();
+        for (ChatMessage message : messages) {
+            JsonObject object = new JsonObject();
+            object.addProperty("role", message.getRole());
+            if (message.getToolCallId() != null) {
+                object.addProperty("tool_call_id", message.getToolCallId());
+            }
+            object.addProperty("content", message.getContent());
+            array.add(object);
+        }
+        body.add("messages", array);
+        return body.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Benchmark
+    public long streamingBody() throws IOException {
+        ChatRequestBody body = new ChatRequestBody("demo-model", 0.7, true, messages, null, gson);
+        long length = body.contentLength();
+        body.writeTo(sink);
+        sink.flush();
+        return length;
+    }
+}
@@ -0,0 +1,62 @@
+package com.steins.codek.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文档监听器每次按键所做的工作：在 {@link EditHotspots} 中记录一次编辑 (缓冲区已满，64 个区域分布在 8 个文件中)。
+ * 连续输入落在同一区域中，跳转编辑在另一个文件中新建区域并覆盖最早的区域。
+ * 运行时加 -Pjmh.profilers=gc 可确认记录编辑时不分配对象。
+ * @author 0027013824
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EditHotspotsBenchmark {
+    private static final int CAPACITY = 64;
+    private static final int FILES = 8;
+
+    private final String[] files = new String[FILES];
+    private EditHotspots<String> hotspots;
+    private int offset;
+    private long now;
+    private int jump;
+
+    @Setup
+    public void setUp() {
+        hotspots = new EditHotspots<>(CAPACITY, 10 * 60 * 1000);
+        for (int i = 0; i < FILES; i++) {
+            files[i] = "File" + i + ".java";
+        }
+        for (int i = 0; i < CAPACITY; i++) {
+            hotspots.record(files[i % FILES], (i / FILES) * 10_000, 0, 1, i);
+        }
+        offset = 5_000;
+    }
+
+    @Benchmark
+    public void typing() {
+        hotspots.record(files[0], offset++, 0, 1, now++);
+        if (offset > 5_100) {
+            offset = 5_000;
+        }
+    }
+
+    @Benchmark
+    public void jumpingEdits() {
+        jump = (jump + 1) % FILES;
+        hotspots.record(files[jump], 100_000 + (int) (now++ % 100) * 1_000, 0, 1, now);
+    }
+
+    @Benchmark
+    public Object top() {
+        return hotspots.top(4, now);
+    }
+}
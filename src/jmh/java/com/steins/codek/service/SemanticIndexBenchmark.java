@@ -0,0 +1,151 @@
+package com.steins.codek.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 语义索引的查询延迟和召回率：对比 HNSW 近似查询与逐个比较的精确查询，以及同一语料上 BM25 查询的延迟。
+ * 语料为 repo 目录下所有 .java/.kt 文件按 60 行切分的片段 (基准测试中没有 PSI)，查询为随机抽取的代码行。
+ * 召回率 (近似查询的前 10 个结果中属于精确前 10 的比例)、建索引耗时和倒排表大小在 Setup 中输出。
+ * 在大仓库上运行时，把 repo 参数指向仓库目录 (修改默认值，或在 build.gradle.kts 的 jmh 块中设置 benchmarkParameters)。
+ * @author 0027013824
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SemanticIndexBenchmark {
+    private static final int WINDOW_LINES = 60;
+    private static final int QUERY_COUNT = 200;
+    private static final int K = 10;
+
+    @Param({"."})
+    public String repo;
+
+    @Param({"100"})
+    public int ef;
+
+    private final HashingEmbedder embedder = new HashingEmbedder();
+    private QuantizedHnswIndex index;
+    private Bm25Index lexicalIndex;
+    private List<float[]> queries;
+    private List<List<String>> queryTerms;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        List<String> chunks = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(Paths.get(repo))) {
+            paths.filter(p -> p.toString().endsWith(".java") || p.toString().endsWith(".kt"))
+                 .filter(p -> !p.toString().contains("/build/") && !p.toString().contains("/.git/"))
+                 .forEach(p -> split(p, chunks, lines));
+        }
+        if (chunks.isEmpty()) {
+            throw new IllegalStateException("No .java/.kt files under " + Paths.get(repo).toAbsolutePath());
+        }
+
+        long start = System.nanoTime();
+        index = new QuantizedHnswIndex(HashingEmbedder.DIMENSION, 16, 100);
+        for (String chunk : chunks) {
+            index.add(embedder.embed(chunk));
+        }
+        long buildMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        lexicalIndex = new Bm25Index();
+        for (String chunk : chunks) {
+            lexicalIndex.add(CodeTerms.terms(chunk));
+        }
+        long lexicalBuildMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Random random = new Random(7);
+        queries = new ArrayList<>();
+        queryTerms = new ArrayList<>();
+        for (int attempt = 0; queries.size() < QUERY_COUNT && attempt < QUERY_COUNT * 100; attempt++) {
+            String line = lines.get(random.nextInt(lines.size()));
+            if (line.trim().length() > 20) {
+                queries.add(embedder.embed(line));
+                queryTerms.add(CodeTerms.terms(line));
+            }
+        }
+        int found = 0;
+        for (float[] query : queries) {
+            Set<Integer> exact = new HashSet<>();
+            for (QuantizedHnswIndex.Neighbor neighbor : index.exactSearch(query, K)) {
+                exact.add(neighbor.node);
+            }
+            for (QuantizedHnswIndex.Neighbor neighbor : index.search(query, K, ef)) {
+                if (exact.contains(neighbor.node)) {
+                    found++;
+                }
+            }
+        }
+        System.out.printf("%n[SemanticIndexBenchmark] chunks=%d build=%dms (%.1f chunks/ms) offHeap=%dKB recall@%d=%.3f (ef=%d)%n",
+                chunks.size(), buildMs, chunks.size() / (double) Math.max(1, buildMs), index.getOffHeapBytes() / 1024,
+                K, found / (double) (queries.size() * K), ef);
+        System.out.printf("[SemanticIndexBenchmark] bm25 build=%dms terms=%d postings=%dKB%n",
+                lexicalBuildMs, lexicalIndex.getTermCount(), lexicalIndex.getPostingBytes() / 1024);
+    }
+
+    @Benchmark
+    public int hnswSearch() {
+        return index.search(nextQuery(), K, ef).size();
+    }
+
+    @Benchmark
+    public int exactSearch() {
+        return index.exactSearch(nextQuery(), K).size();
+    }
+
+    @Benchmark
+    public int bm25Search() {
+        List<String> terms = queryTerms.get(next);
+        next = (next + 1) % queryTerms.size();
+        return lexicalIndex.search(terms, K).size();
+    }
+
+    @Benchmark
+    public float[] embedQuery() {
+        return embedder.embed("where are tool calls approved before they run");
+    }
+
+    private float[] nextQuery() {
+        float[] query = queries.get(next);
+        next = (next + 1) % queries.size();
+        return query;
+    }
+
+    private static void split(Path file, List<String> chunks, List<String> allLines) {
+        List<String> fileLines;
+        try {
+            fileLines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return; // 跳过无法按 UTF-8 读取的文件
+        }
+        allLines.addAll(fileLines);
+        for (int start = 0; start < fileLines.size(); start += WINDOW_LINES) {
+            List<String> window = fileLines.subList(start, Math.min(start + WINDOW_LINES, fileLines.size()));
+            chunks.add(file.getFileName() + "\n" + String.join("\n", window));
+        }
+    }
+}
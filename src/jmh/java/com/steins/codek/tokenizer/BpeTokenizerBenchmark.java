@@ -0,0 +1,65 @@
+package com.steins.codek.tokenizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比按字符估算与 {@link BpeTokenizer} 计算约 100 KB 源代码的 token 数的耗时。
+ * 词表由构建时的 downloadTokenizers 任务下载，没有词表时无法运行。
+ * @author 0027013824
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BpeTokenizerBenchmark {
+    @Param({"cl100k_base", "o200k_base"})
+    public String encoding;
+
+    @Param({"100000"})
+    public int contentChars;
+
+    private BpeTokenizer tokenizer;
+    private String content;
+
+    @Setup
+    public void setUp() {
+        tokenizer = Tokenizers.load(encoding);
+        if (tokenizer == null) {
+            throw new IllegalStateException("没有找到词表 " + encoding + "，请先运行 ./gradlew downloadTokenizers");
+        }
+        StringBuilder sb = new StringBuilder(contentChars);
+        int i = 0;
+        while (sb.length() < contentChars) {
+            sb.append("    /**\n     * 计算第 ").append(i).append(" 个片段的 token 数。\n     */\n")
+              .append("    public int countPiece").append(i).append("(CharSequence text, int start) {\n")
+              .append("        return text.length() > start ? cache.getOrDefault(\"key_").append(i * 31)
+              .append("\", 0) : -1; // TODO: 处理空文本\n    }\n\n");
+            i++;
+        }
+        sb.setLength(contentChars);
+        content = sb.toString();
+    }
+
+    @Benchmark
+    public int estimate() {
+        return TokenCounter.ESTIMATE.count(content);
+    }
+
+    @Benchmark
+    public int count() {
+        return tokenizer.count(content);
+    }
+
+    @Benchmark
+    public int encode() {
+        return tokenizer.encode(content).length;
+    }
+}
@@ -0,0 +1,103 @@
+package com.steins.codek.tool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比旧的 String.format + 逐字符转义与 {@link ToolResultWriter} 生成 readFile 结果的开销。
+ * 运行：./gradlew jmh，加 -Pjmh.profilers=gc 可同时查看每次操作的分配量。
+ * @author 0027013824
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ToolResultWriterBenchmark {
+    @Param({"2000", "64000"})
+    public int contentChars;
+
+    private String filePath;
+    private String content;
+
+    @Setup
+    public void setUp() {
+        filePath = "src/main/java/com/steins/codek/service/LlmService.java";
+        StringBuilder sb = new StringBuilder(contentChars);
+        String line = "        sb.append(\"{\\\"role\\\": \\\"user\\\"}\"); // 中文注释\n";
+        while (sb.length() < contentChars) {
+            sb.append(line);
+        }
+        sb.setLength(contentChars);
+        content = sb.toString();
+    }
+
+    @Benchmark
+    public String legacyFormat() {
+        return String.format("{\"filePath\": \"%s\", \"startLine\": %d, \"endLine\": %d, \"totalLines\": %d, \"content\": \"%s\", \"truncated\": %b}",
+                legacyEscape(filePath), 1, 400, 400, legacyEscape(content), false);
+    }
+
+    @Benchmark
+    public String writer() {
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            return json.beginObject()
+                    .name("filePath").value(filePath)
+                    .name("startLine").value(1)
+                    .name("endLine").value(400)
+                    .name("totalLines").value(400)
+                    .name("content").value(content, 0, content.length())
+                    .name("truncated").value(false)
+                    .endObject()
+                    .toString();
+        }
+    }
+
+    @Benchmark
+    public int writerIntoRequestBody() {
+        // 结果直接追加到请求体缓冲区，不产生中间字符串
+        StringBuilder body = new StringBuilder(contentChars + 256);
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                    .name("content").value(content, 0, content.length())
+                    .endObject();
+            body.append("{\"role\": \"tool\", \"content\": \"");
+            ToolResultWriter.escapeTo(json.asCharSequence(), 0, json.asCharSequence().length(), body);
+            body.append("\"}");
+        }
+        return body.length();
+    }
+
+    /**
+     * 改造前各工具中复制的转义实现。
+     */
+    private static String legacyEscape(String str) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '/': sb.append("\\/"); break;
+                default:
+                    if (c <= '\u001F') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+}
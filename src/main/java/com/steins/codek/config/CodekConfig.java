@@ -1,5 +1,8 @@
 package com.steins.codek.config;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
 import com.intellij.credentialStore.CredentialAttributes;
 import com.intellij.credentialStore.CredentialAttributesKt;
 import com.intellij.ide.passwordSafe.PasswordSafe;
@@ -8,7 +11,13 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Computable;
 import com.intellij.util.concurrency.AppExecutorUtil;
+import com.steins.codek.tokenizer.Tokenizers;
+import com.steins.codek.tool.external.ToolServerConfig;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -25,6 +34,13 @@ public class CodekConfig {
     private static final String API_KEY_ATTR = SERVICE_PREFIX + "api_key";
     private static final String API_URL_PROPERTY = SERVICE_PREFIX + "api_url";
     private static final String MODEL_PROPERTY = SERVICE_PREFIX + "model";
+    private static final String COMMAND_DIRS_PROPERTY = SERVICE_PREFIX + "command_allowed_dirs";
+    private static final String TOOL_SERVERS_PROPERTY = SERVICE_PREFIX + "tool_servers";
+    private static final String AUTO_APPROVED_PATHS_PROPERTY = SERVICE_PREFIX + "auto_approved_paths";
+    private static final String TOOL_RECORDING_PROPERTY = SERVICE_PREFIX + "tool_recording";
+    private static final String SEMANTIC_INDEX_PROPERTY = SERVICE_PREFIX + "semantic_index";
+    private static final String CONTEXT_WINDOWS_PROPERTY = SERVICE_PREFIX + "context_windows";
+    private static final String INDEXING_CPU_SHARE_PROPERTY = SERVICE_PREFIX + "indexing_cpu_share";
     private static final String SUBSYSTEM = "CodeKAssistant"; // 用于CredentialAttributes
 
     // 默认值
@@ -47,6 +63,20 @@ public class CodekConfig {
             "custom_model"
     };
 
+    // 常见模型的上下文窗口大小 (token)，按模型名前缀匹配
+    private static final String[][] CONTEXT_WINDOWS = {
+            {"claude", "200000"},
+            {"gemini", "1000000"},
+            {"gpt-4o", "128000"},
+            {"gpt-4-omni", "128000"},
+            {"gpt-4-turbo", "128000"},
+            {"deepseek", "64000"},
+            {"gpt-3.5", "16385"}
+    };
+    public static final int DEFAULT_CONTEXT_WINDOW = 32000;
+    public static final float DEFAULT_INDEXING_CPU_SHARE = 0.25f;
+    private static final float MIN_INDEXING_CPU_SHARE = 0.05f;
+
     private final PropertiesComponent properties;
     // 缓存的API密钥，避免频繁访问PasswordSafe
     private volatile String cachedApiKey;
@@ -57,6 +87,8 @@ public class CodekConfig {
     public CodekConfig() {
         // 获取应用级的PropertiesComponent实例
         this.properties = PropertiesComponent.getInstance();
+        // 在后台加载当前模型的分词器词表
+        Tokenizers.selectModel(getCurrentModel());
         // 预加载API密钥
         preloadApiKey();
     }
@@ -196,6 +228,7 @@ public class CodekConfig {
         } else {
             properties.setValue(MODEL_PROPERTY, model.trim());
         }
+        Tokenizers.selectModel(getCurrentModel());
     }
 
     /**
@@ -205,4 +238,197 @@ public class CodekConfig {
     public String[] getSuggestedModels() {
         return SUGGESTED_MODELS;
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取 runCommand 工具允许使用的额外工作目录 (项目根目录及其子目录始终允许)。
+     * @return 目录列表。
+     */
+    public List<String> getCommandWorkingDirectoryAllowlist() {
+        String value = properties.getValue(COMMAND_DIRS_PROPERTY, "");
+        List<String> dirs = new ArrayList<>();
+        for (String dir : value.split("\n")) {
+            if (!dir.trim().isEmpty()) {
+                dirs.add(dir.trim());
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * 设置 runCommand 工具允许使用的额外工作目录。
+     * @param dirs 目录列表。
+     */
+    public void setCommandWorkingDirectoryAllowlist(List<String> dirs) {
+        properties.setValue(COMMAND_DIRS_PROPERTY, dirs == null ? "" : String.join("\n", dirs));
+    }
+
+    /**
+     * 获取始终允许修改的路径：这些路径 (及其子路径) 下的文件修改不需要用户审查。
+     * @return 系统无关的绝对路径列表。
+     */
+    public List<String> getAutoApprovedPaths() {
+        String value = properties.getValue(AUTO_APPROVED_PATHS_PROPERTY, "");
+        List<String> paths = new ArrayList<>();
+        for (String path : value.split("\n")) {
+            if (!path.trim().isEmpty()) {
+                paths.add(path.trim());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * 设置始终允许修改的路径。
+     * @param paths 系统无关的绝对路径列表。
+     */
+    public void setAutoApprovedPaths(List<String> paths) {
+        properties.setValue(AUTO_APPROVED_PATHS_PROPERTY, paths == null ? "" : String.join("\n", paths));
+    }
+
+    /**
+     * 是否把工具调用记录到会话的记录文件中 (用于分析和回放)。默认关闭。
+     */
+    public boolean isToolRecordingEnabled() {
+        return properties.getBoolean(TOOL_RECORDING_PROPERTY, false);
+    }
+
+    /**
+     * 设置是否记录工具调用。
+     */
+    public void setToolRecordingEnabled(boolean enabled) {
+        properties.setValue(TOOL_RECORDING_PROPERTY, enabled, false);
+    }
+
+    /**
+     * 是否在后台为项目代码建立本地语义索引 (semanticSearch 工具和自动附加的相关代码依赖它)。默认开启。
+     */
+    public boolean isSemanticIndexEnabled() {
+        return properties.getBoolean(SEMANTIC_INDEX_PROPERTY, true);
+    }
+
+    /**
+     * 设置是否建立本地语义索引。关闭后已启动的索引在重新打开项目前仍会保留。
+     */
+    public void setSemanticIndexEnabled(boolean enabled) {
+        properties.setValue(SEMANTIC_INDEX_PROPERTY, enabled, true);
+    }
+
+    /**
+     * 后台建立索引时最多占用的 CPU 份额 (所有核心的比例)，默认 0.25。
+     * @return (0, 1] 之间的值，配置超出范围时取最接近的有效值。
+     */
+    public float getIndexingCpuShare() {
+        float share = properties.getFloat(INDEXING_CPU_SHARE_PROPERTY, DEFAULT_INDEXING_CPU_SHARE);
+        return Math.max(MIN_INDEXING_CPU_SHARE, Math.min(1.0f, share));
+    }
+
+    /**
+     * 设置后台建立索引时最多占用的 CPU 份额，下一次建立索引时生效。
+     */
+    public void setIndexingCpuShare(float share) {
+        properties.setValue(INDEXING_CPU_SHARE_PROPERTY, share, DEFAULT_INDEXING_CPU_SHARE);
+    }
+
+    /**
+     * 获取外部工具服务器配置 (以 JSON 数组保存)。
+     * @return 配置列表，未配置或配置无法解析时为空。
+     */
+    public List<ToolServerConfig> getToolServers() {
+        String value = properties.getValue(TOOL_SERVERS_PROPERTY, "");
+        if (value.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            List<ToolServerConfig> servers = new Gson().fromJson(value, new TypeToken<List<ToolServerConfig>>() {}.getType());
+            List<ToolServerConfig> result = new ArrayList<>();
+            if (servers != null) {
+                for (ToolServerConfig server : servers) {
+                    if (server != null && server.getName() != null && server.getCommand() != null) {
+                        result.add(server);
+                    }
+                }
+            }
+            return result;
+        } catch (JsonParseException e) {
+            LOG.warn("外部工具服务器配置无法解析: " + value, e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * 设置外部工具服务器配置，已启动的服务器需要调用 ExternalToolManager.restart() 才会生效。
+     * @param servers 配置列表。
+     */
+    public void setToolServers(List<ToolServerConfig> servers) {
+        properties.setValue(TOOL_SERVERS_PROPERTY, servers == null || servers.isEmpty() ? "" : new Gson().toJson(servers));
+    }
+
+    /**
+     * 获取用户配置的模型上下文窗口大小 (每行一项 "模型名前缀=token 数")，优先于内置的常见模型列表。
+     * @return 按配置顺序排列的前缀 (小写) 和窗口大小，无法解析的行被忽略。
+     */
+    public Map<String, Integer> getContextWindowOverrides() {
+        return parseContextWindows(properties.getValue(CONTEXT_WINDOWS_PROPERTY, ""));
+    }
+
+    /**
+     * 设置模型上下文窗口大小，下一次发送消息时生效。
+     * @param windows 模型名前缀和窗口大小 (token)。
+     */
+    public void setContextWindowOverrides(Map<String, Integer> windows) {
+        StringBuilder value = new StringBuilder();
+        if (windows != null) {
+            for (Map.Entry<String, Integer> entry : windows.entrySet()) {
+                if (entry.getKey() != null && !entry.getKey().trim().isEmpty() && entry.getValue() != null && entry.getValue() > 0) {
+                    value.append(entry.getKey().trim()).append('=').append(entry.getValue()).append('\n');
+                }
+            }
+        }
+        properties.setValue(CONTEXT_WINDOWS_PROPERTY, value.toString().trim());
+    }
+
+    private static Map<String, Integer> parseContextWindows(String value) {
+        Map<String, Integer> windows = new LinkedHashMap<>();
+        for (String line : value.split("\n")) {
+            int separator = line.indexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+            try {
+                int tokens = Integer.parseInt(line.substring(separator + 1).trim());
+                if (tokens > 0) {
+                    windows.put(line.substring(0, separator).trim().toLowerCase(), tokens);
+                }
+            } catch (NumberFormatException e) {
+                LOG.warn("上下文窗口配置无法解析: " + line);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * 获取模型的上下文窗口大小，用于计算发送的上下文和工具输出的 token 预算。
+     * 先匹配用户配置 ({@link #getContextWindowOverrides()})，再匹配内置的常见模型。
+     * @param model 模型名称。
+     * @return 上下文窗口大小 (token)，未知模型返回 {@link #DEFAULT_CONTEXT_WINDOW}。
+     */
+    public static int getContextWindowTokens(String model) {
+        if (model != null) {
+            String normalized = model.trim().toLowerCase();
+            if (ApplicationManager.getApplication() != null) {
+                String configured = PropertiesComponent.getInstance().getValue(CONTEXT_WINDOWS_PROPERTY, "");
+                for (Map.Entry<String, Integer> entry : parseContextWindows(configured).entrySet()) {
+                    if (normalized.startsWith(entry.getKey())) {
+                        return entry.getValue();
+                    }
+                }
+            }
+            for (String[] entry : CONTEXT_WINDOWS) {
+                if (normalized.startsWith(entry[0])) {
+                    return Integer.parseInt(entry[1]);
+                }
+            }
+        }
+        return DEFAULT_CONTEXT_WINDOW;
+    }
+}
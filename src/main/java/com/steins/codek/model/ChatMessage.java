@@ -14,9 +14,10 @@ public class ChatMessage {
     private final String role;
     
     /**
-     * 消息的内容。
+     * 消息的内容，可以是文档文本的只读视图 (例如 {@code Document.getImmutableCharSequence()} 的子序列)，
+     * 发送请求时直接转义写入请求体，不复制为字符串。
      */
-    private final String content;
+    private final CharSequence content;
 
     // 新增字段，用于工具调用
     @Nullable
@@ -27,9 +28,9 @@ public class ChatMessage {
     /**
      * 构造函数。
      * @param role 消息的角色，例如："system", "user", "assistant", "tool"。
-     * @param content 消息的内容。
+     * @param content 消息的内容，必须是不可变的字符序列。
      */
-    public ChatMessage(String role, @Nullable String content) {
+    public ChatMessage(String role, @Nullable CharSequence content) {
         this.role = role;
         this.content = content;
     }
@@ -43,11 +44,20 @@ public class ChatMessage {
     }
 
     /**
-     * 获取消息内容。
+     * 获取消息内容。内容是字符序列视图时每次调用都会复制，只需要读取时使用 {@link #getContentSequence()}。
      * @return 消息内容。
      */
     @Nullable
     public String getContent() {
+        return content != null ? content.toString() : null;
+    }
+
+    /**
+     * 获取消息内容，不复制。
+     * @return 消息内容。
+     */
+    @Nullable
+    public CharSequence getContentSequence() {
         return content;
     }
 
@@ -1,6 +1,6 @@
 package com.steins.codek.prompt;
 
-import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolDefinition;
 import com.steins.codek.tool.ToolParameter;
 import org.jetbrains.annotations.Nullable;
 
@@ -81,7 +81,7 @@ public class SystemPromptAssembler {
      * @param customInstructions  用户自定义的额外指令 (可选)。
      * @return 组装好的系统提示词字符串。
      */
-    public static String assemblePrompt(@Nullable List<Tool> availableTools, @Nullable String customInstructions) {
+    public static String assemblePrompt(@Nullable List<ToolDefinition> availableTools, @Nullable String customInstructions) {
         StringBuilder prompt = new StringBuilder();
 
         // 1. 基本角色定义
@@ -93,7 +93,7 @@ public class SystemPromptAssembler {
         // 3. 可用工具列表
         prompt.append("## Available Tools\n");
         if (availableTools != null && !availableTools.isEmpty()) {
-            for (Tool tool : availableTools) {
+            for (ToolDefinition tool : availableTools) {
                 prompt.append("### `").append(tool.getName()).append("`\n");
                 prompt.append(tool.getDescription()).append("\n");
                 // 假设 ToolParameter 有 getType() 和 isRequired() 方法
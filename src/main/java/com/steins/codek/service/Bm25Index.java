@@ -0,0 +1,434 @@
+package com.steins.codek.service;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BM25 倒排索引，文档为代码片段，词项由 {@link CodeTerms} 提取。
+ * 每个词项的倒排表是一段字节数组，依次写入变长编码的文档编号差值和词频，通常每条记录只占 2 字节。
+ * 文档编号按加入顺序递增，与 {@link QuantizedHnswIndex} 的节点编号一一对应；删除只做标记，
+ * 被删除的文档仍计入文档频率，直到调用方通过 {@link #compact} 重建。
+ * 非线程安全：写操作需要调用方加写锁，查询可以在读锁下并发执行。
+ * @author 0027013824
+ */
+final class Bm25Index {
+    private static final int MAGIC = 0x434B424D; // "CKBM"
+    private static final int FORMAT_VERSION = 1;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int MAX_TERM_LENGTH = 64;   // 更长的 "词" 通常是编码后的数据
+    private static final int MAX_QUERY_TERMS = 32;   // 长问题只保留最罕见的词项
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private int[] lengths = new int[1024];           // 每个文档的词项数
+    private final BitSet deleted = new BitSet();
+    private int size;
+    private int deletedCount;
+    private long liveLength;                         // 未删除文档的词项总数
+
+    /**
+     * 文档总数，包括已删除的文档。
+     */
+    int size() {
+        return size;
+    }
+
+    int getDeletedCount() {
+        return deletedCount;
+    }
+
+    int getLiveCount() {
+        return size - deletedCount;
+    }
+
+    boolean isDeleted(int doc) {
+        return deleted.get(doc);
+    }
+
+    int getTermCount() {
+        return postings.size();
+    }
+
+    /**
+     * 所有倒排表占用的字节数。
+     */
+    long getPostingBytes() {
+        long bytes = 0;
+        for (Postings list : postings.values()) {
+            bytes += list.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * 加入一个文档。
+     * @param terms 文档的词项，可以重复 (重复次数即词频)，可以为空。
+     * @return 文档编号。
+     */
+    int add(@NotNull List<String> terms) {
+        int doc = size;
+        Map<String, int[]> frequencies = new HashMap<>();
+        int length = 0;
+        for (String term : terms) {
+            if (term.length() <= MAX_TERM_LENGTH) {
+                frequencies.computeIfAbsent(term, t -> new int[1])[0]++;
+                length++;
+            }
+        }
+        for (Map.Entry<String, int[]> entry : frequencies.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), t -> new Postings()).append(doc, entry.getValue()[0]);
+        }
+        if (doc == lengths.length) {
+            lengths = Arrays.copyOf(lengths, lengths.length * 2);
+        }
+        lengths[doc] = length;
+        liveLength += length;
+        size++;
+        return doc;
+    }
+
+    /**
+     * 标记删除文档。重复删除不做任何事。
+     */
+    void remove(int doc) {
+        if (doc < 0 || doc >= size || deleted.get(doc)) {
+            return;
+        }
+        deleted.set(doc);
+        deletedCount++;
+        liveLength -= lengths[doc];
+    }
+
+    /**
+     * 按 BM25 得分查询。
+     * @param queryTerms 查询的词项，重复的词项只计一次。
+     * @param k 最大结果数。
+     * @return 至少包含一个查询词项的文档，按得分从高到低排列。
+     */
+    @NotNull
+    List<Match> search(@NotNull Collection<String> queryTerms, int k) {
+        int live = getLiveCount();
+        if (live == 0 || k <= 0) {
+            return Collections.emptyList();
+        }
+        List<Postings> lists = new ArrayList<>();
+        for (String term : new LinkedHashSet<>(queryTerms)) {
+            Postings list = postings.get(term);
+            if (list != null) {
+                lists.add(list);
+            }
+        }
+        if (lists.isEmpty()) {
+            return Collections.emptyList();
+        }
+        lists.sort((a, b) -> Integer.compare(a.docFreq, b.docFreq));
+        if (lists.size() > MAX_QUERY_TERMS) {
+            lists = lists.subList(0, MAX_QUERY_TERMS);
+        }
+
+        float averageLength = Math.max(1.0f, liveLength / (float) live);
+        float[] scores = new float[size];
+        float[] matchedIdf = new float[size];
+        int[] touched = new int[64];
+        int touchedCount = 0;
+        float queryIdf = 0;
+        for (Postings list : lists) {
+            float df = Math.min(list.docFreq, live);
+            float idf = (float) Math.log(1 + (live - df + 0.5) / (df + 0.5));
+            queryIdf += idf;
+            byte[] data = list.data;
+            int position = 0;
+            int doc = -1;
+            while (position < list.length) {
+                // 内联的变长整数解码：文档编号差值，然后是词频
+                int gap = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = data[position++];
+                    gap |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                int tf = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = data[position++];
+                    tf |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                doc += gap;
+                if (deleted.get(doc)) {
+                    continue;
+                }
+                float norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                if (matchedIdf[doc] == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = doc;
+                }
+                scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+                matchedIdf[doc] += idf;
+            }
+        }
+
+        // 大小为 k 的小顶堆，键为 (得分, 文档编号)；得分为正数，浮点数的位模式与大小顺序一致
+        long[] heap = new long[Math.min(k, touchedCount)];
+        int heapSize = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int doc = touched[i];
+            long key = ((long) Float.floatToIntBits(scores[doc]) << 32) | doc;
+            if (heapSize < heap.length) {
+                heap[heapSize++] = key;
+                siftUp(heap, heapSize - 1);
+            } else if (key > heap[0]) {
+                heap[0] = key;
+                siftDown(heap, heapSize);
+            }
+        }
+        Arrays.sort(heap, 0, heapSize);
+        List<Match> matches = new ArrayList<>(heapSize);
+        for (int i = heapSize - 1; i >= 0; i--) {
+            int doc = (int) heap[i];
+            matches.add(new Match(doc, scores[doc], matchedIdf[doc], matchedIdf[doc] / queryIdf));
+        }
+        return matches;
+    }
+
+    /**
+     * 去掉已删除的文档，生成新的索引。
+     * @param mapping 旧编号到新编号的映射，已删除的文档为 -1，其余编号必须保持原来的先后顺序
+     *                (与 {@link QuantizedHnswIndex#compactInto} 返回的映射相同)。
+     * @return 压缩后的索引，文档频率只计算保留的文档。
+     */
+    @NotNull
+    Bm25Index compact(@NotNull int[] mapping) {
+        if (mapping.length != size) {
+            throw new IllegalArgumentException("Mapping size " + mapping.length + " != " + size);
+        }
+        Bm25Index target = new Bm25Index();
+        int live = 0;
+        for (int doc = 0; doc < size; doc++) {
+            if (mapping[doc] >= 0) {
+                if (deleted.get(doc) || mapping[doc] != live) {
+                    throw new IllegalArgumentException("Mapping does not match the deleted documents");
+                }
+                live++;
+            }
+        }
+        target.lengths = new int[Math.max(1024, live)];
+        for (int doc = 0; doc < size; doc++) {
+            if (mapping[doc] >= 0) {
+                target.lengths[mapping[doc]] = lengths[doc];
+                target.liveLength += lengths[doc];
+            }
+        }
+        target.size = live;
+        for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+            Postings source = entry.getValue();
+            Postings compacted = new Postings();
+            int position = 0;
+            int doc = -1;
+            int[] value = new int[1];
+            while (position < source.length) {
+                position = readVarInt(source.data, position, value);
+                doc += value[0];
+                position = readVarInt(source.data, position, value);
+                if (mapping[doc] >= 0) {
+                    compacted.append(mapping[doc], value[0]);
+                }
+            }
+            if (compacted.docFreq > 0) {
+                compacted.trim();
+                target.postings.put(entry.getKey(), compacted);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 写出索引。
+     */
+    void write(@NotNull DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(size);
+        for (int doc = 0; doc < size; doc++) {
+            out.writeInt(lengths[doc]);
+        }
+        long[] deletedWords = deleted.toLongArray();
+        out.writeInt(deletedWords.length);
+        for (long word : deletedWords) {
+            out.writeLong(word);
+        }
+        out.writeInt(postings.size());
+        for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+            Postings list = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeInt(list.docFreq);
+            out.writeInt(list.lastDoc);
+            out.writeInt(list.length);
+            out.write(list.data, 0, list.length);
+        }
+    }
+
+    /**
+     * 读取 {@link #write} 写出的索引。
+     * @throws IOException 格式不正确时抛出。
+     */
+    @NotNull
+    static Bm25Index read(@NotNull DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported BM25 index format");
+        }
+        Bm25Index index = new Bm25Index();
+        index.size = in.readInt();
+        if (index.size < 0) {
+            throw new IOException("Corrupted BM25 index");
+        }
+        index.lengths = new int[Math.max(1024, index.size)];
+        for (int doc = 0; doc < index.size; doc++) {
+            index.lengths[doc] = in.readInt();
+        }
+        long[] deletedWords = new long[in.readInt()];
+        for (int i = 0; i < deletedWords.length; i++) {
+            deletedWords[i] = in.readLong();
+        }
+        index.deleted.or(BitSet.valueOf(deletedWords));
+        index.deletedCount = index.deleted.cardinality();
+        if (index.deleted.length() > index.size) {
+            throw new IOException("Corrupted BM25 index");
+        }
+        for (int doc = 0; doc < index.size; doc++) {
+            if (!index.deleted.get(doc)) {
+                index.liveLength += index.lengths[doc];
+            }
+        }
+        int termCount = in.readInt();
+        for (int i = 0; i < termCount; i++) {
+            String term = in.readUTF();
+            Postings list = new Postings();
+            list.docFreq = in.readInt();
+            list.lastDoc = in.readInt();
+            list.length = in.readInt();
+            if (list.length < 0 || list.lastDoc >= index.size) {
+                throw new IOException("Corrupted BM25 index");
+            }
+            list.data = new byte[list.length];
+            in.readFully(list.data);
+            index.postings.put(term, list);
+        }
+        return index;
+    }
+
+    private static int readVarInt(byte[] data, int position, int[] value) {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[position++];
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                value[0] = result;
+                return position;
+            }
+        }
+    }
+
+    private static void siftUp(long[] heap, int index) {
+        long key = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] <= key) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = key;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        long key = heap[0];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= key) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = key;
+    }
+
+    /**
+     * 查询结果：文档编号、BM25 得分，以及文档包含的查询词项的 IDF 之和和它占全部查询词项 IDF 的比例。
+     * 比例只计算索引中出现过的查询词项，可以用来判断结果是否只是碰巧包含了某个常见词。
+     */
+    static final class Match {
+        final int doc;
+        final float score;
+        final float matchedIdf;
+        final float coverage;
+
+        Match(int doc, float score, float matchedIdf, float coverage) {
+            this.doc = doc;
+            this.score = score;
+            this.matchedIdf = matchedIdf;
+            this.coverage = coverage;
+        }
+    }
+
+    /**
+     * 一个词项的倒排表。
+     */
+    private static final class Postings {
+        byte[] data = new byte[8];
+        int length;
+        int lastDoc = -1;
+        int docFreq;
+
+        void append(int doc, int tf) {
+            if (data.length - length < 10) {
+                data = Arrays.copyOf(data, data.length + (data.length >> 1) + 10);
+            }
+            length = writeVarInt(doc - lastDoc, length);
+            length = writeVarInt(tf, length);
+            lastDoc = doc;
+            docFreq++;
+        }
+
+        void trim() {
+            if (data.length > length) {
+                data = Arrays.copyOf(data, length);
+            }
+        }
+
+        private int writeVarInt(int value, int position) {
+            while ((value & ~0x7F) != 0) {
+                data[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[position++] = (byte) value;
+            return position;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.steins.codek.service;
+
+import com.google.gson.Gson;
+import com.intellij.openapi.diagnostic.Logger;
+import com.steins.codek.model.ChatMessage;
+import com.steins.codek.tool.ToolResultWriter;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 聊天补全请求的请求体 (OpenAI 格式)。发送时把消息内容直接转义、按 UTF-8 编码写入连接，
+ * 不生成 JSON 树、完整的 JSON 字符串或字节数组，消息内容可以是文档的字符序列视图。
+ * 长度由一次只计数不写出的遍历得到并缓存，因此请求带 Content-Length；请求体可以重复写出，OkHttp 重试时不受影响。
+ * @author 0027013824
+ */
+final class ChatRequestBody extends RequestBody {
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final String model;
+    private final double temperature;
+    private final boolean stream;
+    private final List<ChatMessage> messages;
+    private final String toolsJson;
+    private final Gson gson;
+    private long contentLength = -1;
+
+    /**
+     * @param messages 消息列表，会复制一份，之后对原列表的修改不影响请求体。
+     * @param toolsJson 序列化后的工具定义，没有工具时为 null。
+     */
+    ChatRequestBody(@Nullable String model, double temperature, boolean stream, @NotNull List<ChatMessage> messages,
+                    @Nullable String toolsJson, @NotNull Gson gson) {
+        this.model = model;
+        this.temperature = temperature;
+        this.stream = stream;
+        this.messages = new ArrayList<>(messages);
+        this.toolsJson = toolsJson;
+        this.gson = gson;
+    }
+
+    boolean isStream() {
+        return stream;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public synchronized long contentLength() throws IOException {
+        if (contentLength < 0) {
+            Utf8JsonOutput counter = new Utf8JsonOutput(null);
+            write(counter);
+            contentLength = counter.finish();
+        }
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(@NotNull BufferedSink sink) throws IOException {
+        Utf8JsonOutput out = new Utf8JsonOutput(sink);
+        write(out);
+        out.finish();
+    }
+
+    /**
+     * 生成完整的 JSON 文本，用于日志和测试。
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        try {
+            write(new JsonOutput(text));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringBuilder 不会抛出 IOException
+        }
+        return text.toString();
+    }
+
+    private void write(@NotNull JsonOutput out) throws IOException {
+        out.raw("{\"model\": ").string(model)
+           .raw(", \"temperature\": ").raw(String.valueOf(temperature));
+        if (stream) {
+            out.raw(", \"stream\": true");
+        }
+        out.raw(", \"messages\": [");
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                out.raw(", ");
+            }
+            writeMessage(out, messages.get(i));
+        }
+        out.raw("]");
+        if (toolsJson != null) {
+            out.raw(", \"tools\": ").raw(toolsJson).raw(", \"tool_choice\": \"auto\"");
+        }
+        out.raw("}");
+    }
+
+    private void writeMessage(@NotNull JsonOutput out, @NotNull ChatMessage message) throws IOException {
+        out.raw("{\"role\": ").string(message.getRole());
+        List<ChatMessage.ToolCall> toolCalls = message.getToolCalls();
+        CharSequence content = message.getContentSequence();
+        if (toolCalls != null && !toolCalls.isEmpty()) {
+            if ("assistant".equals(message.getRole())) {
+                out.raw(", \"tool_calls\": ").raw(gson.toJson(toolCalls)).raw(", \"content\": null");
+            } else {
+                warn("消息角色 '" + message.getRole() + "' 不应包含 tool_calls，已忽略。");
+                out.raw(", \"content\": ").string(content);
+            }
+        } else if ("tool".equals(message.getRole())) {
+            out.raw(", \"tool_call_id\": ").string(message.getToolCallId())
+               .raw(", \"content\": ").string(content);
+        } else if (content != null) {
+            out.raw(", \"content\": ").string(content);
+        } else if ("assistant".equals(message.getRole())) {
+            out.raw(", \"content\": null");
+        } else {
+            warn("消息角色 '" + message.getRole() + "' 的 content 为 null。");
+            out.raw(", \"content\": \"\"");
+        }
+        out.raw("}");
+    }
+
+    /**
+     * 只在需要时获取 Logger，基准测试中不依赖 IDE 运行时。
+     */
+    private static void warn(@NotNull String message) {
+        Logger.getInstance(ChatRequestBody.class).warn(message);
+    }
+
+    /**
+     * JSON 文本的输出目标：原样写入的片段和需要转义的字符串值。
+     */
+    private static class JsonOutput implements Appendable {
+        private final Appendable target;
+
+        JsonOutput(@Nullable Appendable target) {
+            this.target = target;
+        }
+
+        final JsonOutput raw(@NotNull CharSequence json) throws IOException {
+            append(json, 0, json.length());
+            return this;
+        }
+
+        /**
+         * 写入字符串值，null 写为 JSON null。
+         */
+        final JsonOutput string(@Nullable CharSequence value) throws IOException {
+            if (value == null) {
+                return raw("null");
+            }
+            append('"');
+            ToolResultWriter.escapeTo(value, 0, value.length(), this);
+            append('"');
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            target.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            target.append(c);
+            return this;
+        }
+    }
+
+    /**
+     * 把字符按 UTF-8 编码到固定大小的缓冲区，满了再整块写入连接；sink 为 null 时只统计字节数。
+     * 不成对的代理字符编码为 '?'，与 {@code String.getBytes(UTF_8)} 一致。
+     */
+    private static final class Utf8JsonOutput extends JsonOutput {
+        private final BufferedSink sink;
+        private final byte[] buffer = new byte[8192];
+        private int position;
+        private long count;
+
+        Utf8JsonOutput(@Nullable BufferedSink sink) {
+            super(null);
+            this.sink = sink;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            byte[] bytes = buffer;
+            for (int i = start; i < end; i++) {
+                if (position > bytes.length - 4) {
+                    flushBuffer();
+                }
+                char c = csq.charAt(i);
+                if (c < 0x80) {
+                    bytes[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[position++] = (byte) (0xC0 | (c >> 6));
+                    bytes[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(csq.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, csq.charAt(++i));
+                    bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    bytes[position++] = '?';
+                } else {
+                    bytes[position++] = (byte) (0xE0 | (c >> 12));
+                    bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (c < 0x80) {
+                if (position == buffer.length) {
+                    flushBuffer();
+                }
+                buffer[position++] = (byte) c;
+                return this;
+            }
+            return append(String.valueOf(c), 0, 1);
+        }
+
+        private void flushBuffer() throws IOException {
+            if (sink != null) {
+                sink.write(buffer, 0, position);
+            }
+            count += position;
+            position = 0;
+        }
+
+        /**
+         * 写出缓冲区中剩余的字节。
+         * @return 写出的总字节数。
+         */
+        long finish() throws IOException {
+            flushBuffer();
+            return count;
+        }
+    }
+}
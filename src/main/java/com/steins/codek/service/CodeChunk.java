@@ -0,0 +1,57 @@
+package com.steins.codek.service;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 检索用的代码片段：一个类的声明部分、一个方法，或无法按 PSI 切分的文件中的一段行。
+ * @author 0027013824
+ */
+final class CodeChunk {
+    static final String KIND_CLASS = "class";
+    static final String KIND_METHOD = "method";
+    static final String KIND_LINES = "lines";
+
+    private final String kind;
+    private final String name;
+    private final int startLine;
+    private final int endLine;
+    private final String text;
+
+    /**
+     * @param kind 片段类型：class、method 或 lines。
+     * @param name 片段名称，例如 "ToolExecutor" 或 "ToolExecutor#submitToolCall"。
+     * @param startLine 起始行号 (1-based)。
+     * @param endLine 结束行号 (1-based，包含)。
+     * @param text 片段文本，用于生成向量，不长期保存。
+     */
+    CodeChunk(@NotNull String kind, @NotNull String name, int startLine, int endLine, @NotNull String text) {
+        this.kind = kind;
+        this.name = name;
+        this.startLine = startLine;
+        this.endLine = endLine;
+        this.text = text;
+    }
+
+    @NotNull
+    String getKind() {
+        return kind;
+    }
+
+    @NotNull
+    String getName() {
+        return name;
+    }
+
+    int getStartLine() {
+        return startLine;
+    }
+
+    int getEndLine() {
+        return endLine;
+    }
+
+    @NotNull
+    String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,107 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按 PSI 元素切分源文件：Java 文件的每个类 (声明、文档注释和字段) 和每个方法各为一个片段，
+ * 其他文件按固定行数切分。必须在读操作中调用。
+ * @author 0027013824
+ */
+final class CodeChunker {
+    static final int MAX_CHUNK_CHARS = 8_000; // 超长方法只取开头部分生成向量
+    private static final int WINDOW_LINES = 60;
+
+    private CodeChunker() {
+    }
+
+    /**
+     * 切分文件。
+     * @return 按文件中出现的顺序排列的片段，空文件返回空列表。
+     */
+    @NotNull
+    static List<CodeChunk> chunk(@NotNull PsiFile file) {
+        CharSequence text = file.getViewProvider().getContents();
+        List<CodeChunk> chunks = new ArrayList<>();
+        if (file instanceof PsiJavaFile) {
+            for (PsiClass psiClass : ((PsiJavaFile) file).getClasses()) {
+                addClass(psiClass, text, chunks);
+            }
+        }
+        if (chunks.isEmpty()) {
+            addLineWindows(file.getName(), text, chunks);
+        }
+        return chunks;
+    }
+
+    private static void addClass(@NotNull PsiClass psiClass, @NotNull CharSequence text, @NotNull List<CodeChunk> chunks) {
+        TextRange range = psiClass.getTextRange();
+        if (range == null) {
+            return;
+        }
+        String className = psiClass.getName() != null ? psiClass.getName() : "<anonymous>";
+        PsiElement lBrace = psiClass.getLBrace();
+        int headerEnd = lBrace != null ? lBrace.getTextRange().getEndOffset() : range.getEndOffset();
+        StringBuilder header = new StringBuilder(text.subSequence(range.getStartOffset(), headerEnd));
+        for (PsiField field : psiClass.getFields()) {
+            header.append('\n').append(field.getText());
+            headerEnd = Math.max(headerEnd, field.getTextRange().getEndOffset());
+        }
+        chunks.add(new CodeChunk(CodeChunk.KIND_CLASS, className, lineOf(text, range.getStartOffset()),
+                lineOf(text, headerEnd), truncate(header)));
+
+        for (PsiMethod method : psiClass.getMethods()) {
+            TextRange methodRange = method.getTextRange();
+            if (methodRange == null) {
+                continue;
+            }
+            chunks.add(new CodeChunk(CodeChunk.KIND_METHOD, className + "#" + method.getName(),
+                    lineOf(text, methodRange.getStartOffset()), lineOf(text, methodRange.getEndOffset()),
+                    truncate(text.subSequence(methodRange.getStartOffset(), methodRange.getEndOffset()))));
+        }
+        for (PsiClass innerClass : psiClass.getInnerClasses()) {
+            addClass(innerClass, text, chunks);
+        }
+    }
+
+    private static void addLineWindows(@NotNull String fileName, @NotNull CharSequence text, @NotNull List<CodeChunk> chunks) {
+        if (StringUtil.isEmptyOrSpaces(text)) {
+            return;
+        }
+        int lineCount = StringUtil.countNewLines(text) + 1;
+        int[] lineStarts = new int[lineCount + 1];
+        int line = 1;
+        for (int i = 0; i < text.length() && line < lineCount; i++) {
+            if (text.charAt(i) == '\n') {
+                lineStarts[line++] = i + 1;
+            }
+        }
+        lineStarts[lineCount] = text.length();
+        for (int start = 0; start < lineCount; start += WINDOW_LINES) {
+            int end = Math.min(start + WINDOW_LINES, lineCount);
+            CharSequence window = text.subSequence(lineStarts[start], lineStarts[end]);
+            if (!StringUtil.isEmptyOrSpaces(window)) {
+                chunks.add(new CodeChunk(CodeChunk.KIND_LINES, fileName + ":" + (start + 1), start + 1, end, truncate(window)));
+            }
+        }
+    }
+
+    private static int lineOf(@NotNull CharSequence text, int offset) {
+        return StringUtil.offsetToLineNumber(text, Math.min(offset, text.length())) + 1;
+    }
+
+    @NotNull
+    private static String truncate(@NotNull CharSequence text) {
+        return text.length() > MAX_CHUNK_CHARS ? text.subSequence(0, MAX_CHUNK_CHARS).toString() : text.toString();
+    }
+}
@@ -1,16 +1,33 @@
 package com.steins.codek.service;
 
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.steins.codek.tool.Tool;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.steins.codek.config.CodekConfig;
+import com.steins.codek.model.ChatMessage;
+import com.steins.codek.tool.ToolDefinition;
+import com.steins.codek.tool.ToolOutputBudget;
 import com.steins.codek.tool.ToolParameter;
 import com.steins.codek.service.ToolExecutor;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * 代码上下文提供者，负责收集当前代码环境信息并组织为上下文。
@@ -18,6 +35,25 @@ import java.util.Map;
  */
 public class CodeContextProvider {
     private static final Logger LOG = Logger.getInstance(CodeContextProvider.class);
+    private static final int RELATED_CODE_MAX_LINES = 40;
+    private static final int PACKED_RELATED_CODE_RESULTS = 6; // 打包上下文时多取几个候选，由预算决定放入多少
+    private static final int OPEN_FILE_LIMIT = 5;
+    private static final int OPEN_FILE_MAX_LINES = 60;
+    private static final long OPEN_FILE_MAX_LENGTH = 1024 * 1024;
+    private static final int RECENT_EDIT_LIMIT = 4;
+    private static final int SKELETON_MAX_TOKENS = 1500;
+    private static final String SKELETON_TITLE = "结构 (方法体已省略，行首为 readFile 可用的行号)";
+    // 候选项的价值：越接近用户当前关注点越高，同类候选项按排名或时间衰减
+    private static final double SELECTION_VALUE = 10;
+    private static final double CARET_WINDOW_VALUE = 6;
+    private static final double RELATED_CODE_VALUE = 5;
+    private static final double RECENT_EDIT_VALUE = 4;
+    private static final double OPEN_FILE_VALUE = 2;
+    private static final double CURRENT_FILE_SKELETON_VALUE = 3;
+    private static final double DEPENDENCY_VALUE = 6;    // 直接引用的声明，间接引用的类型按 DECAY 的平方递减
+    private static final double HISTORY_VALUE = 8;
+    private static final double DECAY = 0.8;
+    private static final double HISTORY_DECAY = 0.7;
     private final Project project;
     private final EditorService editorService;
     private final ToolExecutor toolExecutor;
@@ -31,6 +67,19 @@ public class CodeContextProvider {
         this.project = project;
         this.editorService = new EditorService(project);
         this.toolExecutor = toolExecutor;
+        // 提前在后台加载或构建语义索引，第一次提问时即可使用
+        SemanticIndexService.getInstance(project).ensureStarted();
+        EditHotspotService.getInstance(project).ensureStarted();
+    }
+
+    /**
+     * 获取当前编辑器上下文的快照。编辑器、光标和文档都没有变化时，多次调用共享同一个快照。
+     * 可以在任意线程中调用。
+     * @return 上下文快照。
+     */
+    @NotNull
+    public EditorContext getEditorContext() {
+        return editorService.captureContext();
     }
 
     /**
@@ -39,38 +88,7 @@ public class CodeContextProvider {
      */
     @NotNull
     public Map<String, String> getCurrentContext() {
-        Map<String, String> context = new HashMap<>();
-
-        // 获取当前文件信息
-        String fileName = editorService.getCurrentFileName();
-        String filePath = editorService.getCurrentFilePath();
-        String fileLanguage = editorService.getCurrentFileLanguage();
-        String selectedCode = editorService.getSelectedCode();
-        String cursorContext = editorService.getCurrentCursorContext();
-
-        // 放入上下文Map
-        if (fileName != null) {
-            context.put("fileName", fileName);
-        }
-        if (filePath != null) {
-            context.put("filePath", filePath);
-        }
-        context.put("language", fileLanguage);
-        if (selectedCode != null) {
-            context.put("selectedCode", selectedCode);
-        }
-        if (cursorContext != null) {
-            context.put("cursorContext", cursorContext);
-        }
-
-        // 添加项目信息
-        context.put("projectName", project.getName());
-        String projectJdkName = ProjectRootManager.getInstance(project).getProjectSdkName();
-        if (projectJdkName != null) {
-            context.put("projectJdk", projectJdkName);
-        }
-
-        return context;
+        return getEditorContext().toMap();
     }
 
     /**
@@ -79,43 +97,43 @@ public class CodeContextProvider {
      */
     @NotNull
     public String createSystemPrompt() {
-        Map<String, String> context = getCurrentContext();
+        EditorContext context = getEditorContext();
         StringBuilder prompt = new StringBuilder();
 
         prompt.append("你是一个基于 IntelliJ IDEA 的智能编程助手 CodeK，根据以下上下文和可用工具提供编程帮助。\n\n");
 
         // 添加项目信息
         prompt.append("## 项目信息：\n");
-        prompt.append("- 项目名称：").append(context.getOrDefault("projectName", "未知")).append("\n");
-        if (context.containsKey("projectJdk")) {
-            prompt.append("- 项目JDK：").append(context.get("projectJdk")).append("\n");
+        prompt.append("- 项目名称：").append(context.getProjectName()).append("\n");
+        if (context.getProjectSdk() != null) {
+            prompt.append("- 项目JDK：").append(context.getProjectSdk()).append("\n");
         }
 
         // 添加文件信息
-        if (context.containsKey("fileName")) {
+        if (context.hasFile()) {
             prompt.append("\n## 当前文件：\n");
-            prompt.append("- 文件名：").append(context.get("fileName")).append("\n");
-            if (context.containsKey("filePath")) {
-                prompt.append("- 文件路径：").append(context.get("filePath")).append("\n");
+            prompt.append("- 文件名：").append(context.getFileName()).append("\n");
+            if (context.getFilePath() != null) {
+                prompt.append("- 文件路径：").append(context.getFilePath()).append("\n");
             }
-            prompt.append("- 语言：").append(context.get("language")).append("\n");
+            prompt.append("- 语言：").append(context.getLanguage()).append("\n");
         }
 
         // 如果有选中的代码，添加到提示中
-        if (context.containsKey("selectedCode")) {
-            prompt.append("\n## 用户选中的代码：\n```").append(context.get("language")).append("\n");
-            prompt.append(context.get("selectedCode")).append("\n```\n");
+        if (context.getSelectedCode() != null) {
+            prompt.append("\n## 用户选中的代码：\n```").append(context.getLanguage()).append("\n");
+            prompt.append(context.getSelectedCode()).append("\n```\n");
         }
         // 如果有光标上下文，但没有选中代码，添加光标上下文
-        else if (context.containsKey("cursorContext")) {
-            prompt.append("\n## 光标位置上下文代码：\n```").append(context.get("language")).append("\n");
-            prompt.append(context.get("cursorContext")).append("\n```\n");
+        else if (context.getCursorContext() != null) {
+            prompt.append("\n## 光标位置上下文代码：\n```").append(context.getLanguage()).append("\n");
+            prompt.append(context.getCursorContext()).append("\n```\n");
         }
 
         // 添加可用工具描述
         prompt.append("\n## 可用工具：\n");
         prompt.append("你可以使用以下工具来帮助完成任务。请使用指定的 XML 格式调用工具：\n");
-        for (Tool tool : toolExecutor.getAvailableTools()) {
+        for (ToolDefinition tool : toolExecutor.getAvailableTools()) {
             prompt.append(tool.getDescription()).append("\n\n");
         }
 
@@ -125,18 +143,264 @@ public class CodeContextProvider {
         return prompt.toString();
     }
     
+    /**
+     * 在后台的非阻塞读操作中组织发送给模型的消息 (见 {@link #packMessages})，完成后在 EDT 上回调。
+     * 查询索引、解析引用和生成结构都不在 EDT 上进行；IDE 正在索引时等待索引完成，期间有写操作时重新开始。
+     * 出错时只发送系统提示词和当前这一轮。
+     * @param parentDisposable 释放时 (例如工具窗口关闭) 放弃组织，不再回调。
+     * @param onPacked 在 EDT 上接收要发送的消息。
+     */
+    public void packMessagesAsync(@NotNull String systemPrompt, @NotNull String query,
+                                  @NotNull List<ChatMessage> sessionMessages, @Nullable String model,
+                                  @NotNull Disposable parentDisposable, @NotNull Consumer<List<ChatMessage>> onPacked) {
+        List<ChatMessage> snapshot = new ArrayList<>(sessionMessages); // 会话在 EDT 上继续修改
+        ReadAction.nonBlocking(() -> {
+                    try {
+                        return packMessages(systemPrompt, query, snapshot, model);
+                    } catch (ProcessCanceledException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        LOG.error("组织上下文时出错，只发送当前这一轮", e);
+                        List<List<ChatMessage>> turns = splitTurns(snapshot);
+                        List<ChatMessage> messages = new ArrayList<>();
+                        messages.add(new ChatMessage("system", systemPrompt));
+                        if (!turns.isEmpty()) {
+                            messages.addAll(turns.get(turns.size() - 1));
+                        }
+                        return messages;
+                    }
+                })
+                .inSmartMode(project)
+                .expireWith(parentDisposable)
+                .finishOnUiThread(ModalityState.defaultModalityState(), onPacked)
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
+    /**
+     * 在模型的 token 预算内组织发送给模型的消息：系统提示词、按预算挑选的编辑器上下文和相关代码、历史对话和当前问题。
+     * 预算为上下文窗口扣除模型回复和工具定义后的一半，另一半留给本轮的工具结果；
+     * 系统提示词和当前这一轮的消息总是发送，其余候选项由 {@link ContextPacker} 挑选，没有放入的候选项及原因记录在日志中。
+     * 会查询索引并解析 PSI，不应在 EDT 上调用，见 {@link #packMessagesAsync}。
+     * @param systemPrompt 基础系统提示词。
+     * @param query 用户的问题，用于查找相关代码。
+     * @param sessionMessages 会话中的消息，最后一轮包含当前问题；system 消息被忽略。
+     * @param model 模型名称，用于确定上下文窗口大小。
+     * @return 要发送的消息列表，第一条为 system 消息。
+     */
+    @NotNull
+    public List<ChatMessage> packMessages(@NotNull String systemPrompt, @NotNull String query,
+                                          @NotNull List<ChatMessage> sessionMessages, @Nullable String model) {
+        List<List<ChatMessage>> turns = splitTurns(sessionMessages);
+        List<ChatMessage> currentTurn = turns.isEmpty() ? new ArrayList<>() : turns.remove(turns.size() - 1);
+
+        int available = CodekConfig.getContextWindowTokens(model) - ToolOutputBudget.RESPONSE_RESERVE_TOKENS
+                - ToolRegistry.getInstance(project).getToolsJsonTokens();
+        int budget = available / 2 - ContextPacker.countTokens(systemPrompt) - ContextPacker.MESSAGE_OVERHEAD_TOKENS
+                - ContextPacker.countTokens(currentTurn);
+
+        List<ContextPacker.Item> turnItems = new ArrayList<>();
+        double value = HISTORY_VALUE;
+        for (int i = turns.size() - 1; i >= 0; i--) {
+            turnItems.add(ContextPacker.Item.turn("倒数第 " + (turns.size() - i) + " 轮", turns.get(i), value));
+            value *= HISTORY_DECAY;
+        }
+        ContextPacker.Result result = ContextPacker.pack(collectSnippets(query), turnItems, budget);
+        LOG.info(result.describe());
+
+        StringBuilder system = new StringBuilder(systemPrompt);
+        if (!result.getSnippets().isEmpty()) {
+            system.append("\n\n## 编辑器上下文和可能相关的代码 (按 token 预算挑选，可能不完整)：\n");
+            for (ContextPacker.Item item : result.getSnippets()) {
+                system.append('\n').append(item.getText());
+            }
+        }
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(new ChatMessage("system", system));
+        for (ContextPacker.Item turn : result.getTurns()) {
+            messages.addAll(turn.getMessages());
+        }
+        messages.addAll(currentTurn);
+        return messages;
+    }
+
+    /**
+     * 按用户消息把会话分成若干轮，每轮为一条用户消息及其后的回复；忽略 system 消息。
+     */
+    @NotNull
+    private static List<List<ChatMessage>> splitTurns(@NotNull List<ChatMessage> messages) {
+        List<List<ChatMessage>> turns = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            if ("system".equals(message.getRole())) {
+                continue;
+            }
+            if (turns.isEmpty() || "user".equals(message.getRole())) {
+                turns.add(new ArrayList<>());
+            }
+            turns.get(turns.size() - 1).add(message);
+        }
+        return turns;
+    }
+
+    /**
+     * 收集上下文候选项：选中的代码 (或光标附近的代码)、相关代码、最近的修改、选中的代码引用的声明、当前文件的结构和打开的文件。
+     * 与光标窗口重叠的相关代码和修改不重复加入。
+     */
+    @NotNull
+    private List<ContextPacker.Item> collectSnippets(@NotNull String query) {
+        List<ContextPacker.Item> items = new ArrayList<>();
+        EditorContext context = getEditorContext();
+        String currentPath = context.getFilePath();
+        int windowStart = Math.max(1, context.getCaretLine() - EditorService.CURSOR_CONTEXT_LINES);
+        int windowEnd = context.getCaretLine() + EditorService.CURSOR_CONTEXT_LINES;
+        boolean hasWindow = false;
+        if (context.getSelectedCode() != null) {
+            items.add(ContextPacker.Item.snippet(ContextPacker.Kind.SELECTION, String.valueOf(context.getFileName()),
+                    codeBlock("用户选中的代码", context.getFileName(), context.getLanguage(), context.getSelectedCode()),
+                    SELECTION_VALUE));
+        } else if (context.getCursorContext() != null) {
+            hasWindow = true;
+            items.add(ContextPacker.Item.snippet(ContextPacker.Kind.CARET_WINDOW, context.getFileName() + ":" + context.getCaretLine(),
+                    codeBlock("光标位置 (第 " + context.getCaretLine() + " 行) 附近的代码", context.getFileName(),
+                            context.getLanguage(), context.getCursorContext()),
+                    CARET_WINDOW_VALUE));
+        }
+
+        SemanticIndexService index = SemanticIndexService.getInstance(project);
+        try {
+            double value = RELATED_CODE_VALUE;
+            for (SemanticIndexService.Hit hit : index.searchHybrid(query, PACKED_RELATED_CODE_RESULTS)) {
+                if (hasWindow && hit.getPath().equals(currentPath)
+                        && hit.getStartLine() <= windowEnd && hit.getEndLine() >= windowStart) {
+                    continue;
+                }
+                String snippet = index.readSnippet(hit, RELATED_CODE_MAX_LINES);
+                if (snippet != null) {
+                    String label = hit.getPath() + ":" + hit.getStartLine() + "-" + hit.getEndLine();
+                    items.add(ContextPacker.Item.snippet(ContextPacker.Kind.RELATED_CODE, label,
+                            codeBlock("相关代码：" + hit.getName(), label, "", snippet), value));
+                    value *= DECAY;
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("查询语义索引时出错", e);
+        }
+
+        // 多取几个热点，与光标窗口重叠的不计入
+        List<EditHotspotService.Hotspot> hotspots = EditHotspotService.getInstance(project).getHotspots(RECENT_EDIT_LIMIT + 1);
+        int edits = 0;
+        for (EditHotspotService.Hotspot hotspot : hotspots) {
+            String path = hotspot.getFile().getPath();
+            if (edits >= RECENT_EDIT_LIMIT || hasWindow && path.equals(currentPath)
+                    && hotspot.getStartLine() <= windowEnd && hotspot.getEndLine() >= windowStart) {
+                continue;
+            }
+            String label = path + ":" + hotspot.getStartLine() + "-" + hotspot.getEndLine();
+            // 价值按热度相对最热区域的比例，最热的区域为 RECENT_EDIT_VALUE
+            double value = RECENT_EDIT_VALUE * hotspot.getHeat() / hotspots.get(0).getHeat();
+            items.add(ContextPacker.Item.snippet(ContextPacker.Kind.RECENT_EDIT, label,
+                    codeBlock("最近修改的代码", label, "", hotspot.getText()), value));
+            edits++;
+        }
+
+        ReadAction.run(() -> {
+            FileSkeletonService skeletons = FileSkeletonService.getInstance(project);
+            PsiManager psiManager = PsiManager.getInstance(project);
+            // 当前文件比光标窗口大时，附加它的结构，帮助模型了解窗口之外的内容
+            VirtualFile currentFile = currentPath != null ? LocalFileSystem.getInstance().findFileByPath(currentPath) : null;
+            Document currentDocument = currentFile != null ? FileDocumentManager.getInstance().getCachedDocument(currentFile) : null;
+            // 选中的代码 (或光标所在的方法) 引用的项目内声明，省去模型逐个读取定义的几轮工具调用
+            PsiFile currentPsiFile = currentFile != null ? psiManager.findFile(currentFile) : null;
+            if (currentPsiFile != null && context.getSelectionStart() >= 0) {
+                List<String> levels = DependencyContextService.getInstance(project)
+                        .expand(currentPsiFile, context.getSelectionStart(), context.getSelectionEnd());
+                String scope = context.getSelectedCode() != null ? "选中的代码" : "光标所在的方法";
+                double value = DEPENDENCY_VALUE;
+                for (int depth = 0; depth < levels.size(); depth++) {
+                    String title = depth == 0 ? scope + "引用的声明" : "上述声明的签名中引用的类型 (第 " + (depth + 1) + " 层)";
+                    items.add(ContextPacker.Item.snippet(ContextPacker.Kind.DEPENDENCY, currentPath + "#" + (depth + 1),
+                            codeBlock(title + "，只有签名，行首为 readFile 可用的行号", null, "", levels.get(depth)), value));
+                    value *= DECAY * DECAY;
+                }
+            }
+            if (currentDocument != null && currentDocument.getLineCount() > 2 * EditorService.CURSOR_CONTEXT_LINES + 1) {
+                CharSequence skeleton = skeleton(skeletons, currentPsiFile);
+                if (skeleton != null) {
+                    items.add(ContextPacker.Item.snippet(ContextPacker.Kind.SKELETON, currentPath,
+                            codeBlock("当前文件的" + SKELETON_TITLE, currentPath, "", skeleton), CURRENT_FILE_SKELETON_VALUE));
+                }
+            }
+
+            double value = OPEN_FILE_VALUE;
+            int count = 0;
+            for (VirtualFile file : FileEditorManager.getInstance(project).getOpenFiles()) {
+                ProgressManager.checkCanceled();
+                if (count >= OPEN_FILE_LIMIT) {
+                    break;
+                }
+                if (file.getPath().equals(currentPath) || file.getFileType().isBinary() || file.getLength() > OPEN_FILE_MAX_LENGTH) {
+                    continue;
+                }
+                Document document = FileDocumentManager.getInstance().getDocument(file);
+                if (document == null || document.getLineCount() == 0) {
+                    continue;
+                }
+                // Java 文件用结构代替开头的若干行
+                CharSequence skeleton = skeleton(skeletons, psiManager.findFile(file));
+                if (skeleton != null) {
+                    items.add(ContextPacker.Item.snippet(ContextPacker.Kind.OPEN_FILE, file.getPath(),
+                            codeBlock("打开的文件的" + SKELETON_TITLE, file.getPath(), "", skeleton), value));
+                } else {
+                    int endLine = Math.min(document.getLineCount(), OPEN_FILE_MAX_LINES) - 1;
+                    CharSequence text = document.getImmutableCharSequence().subSequence(0, document.getLineEndOffset(endLine));
+                    String title = "打开的文件" + (endLine + 1 < document.getLineCount() ? " (前 " + (endLine + 1) + " 行)" : "");
+                    items.add(ContextPacker.Item.snippet(ContextPacker.Kind.OPEN_FILE, file.getPath(),
+                            codeBlock(title, file.getPath(), "", text), value));
+                }
+                value *= DECAY;
+                count++;
+            }
+        });
+        return items;
+    }
+
+    /**
+     * 文件的结构，完整的声明超过 {@link #SKELETON_MAX_TOKENS} 时使用紧凑的签名。不支持的文件返回 null。
+     */
+    @Nullable
+    private static CharSequence skeleton(@NotNull FileSkeletonService skeletons, @Nullable PsiFile file) {
+        if (!FileSkeletonService.isSupported(file)) {
+            return null;
+        }
+        String skeleton = skeletons.getSkeleton(file, FileSkeletonService.Detail.FULL);
+        if (skeleton != null && ContextPacker.countTokens(skeleton) > SKELETON_MAX_TOKENS) {
+            skeleton = skeletons.getSkeleton(file, FileSkeletonService.Detail.COMPACT);
+        }
+        return skeleton;
+    }
+
+    @NotNull
+    private static CharSequence codeBlock(@NotNull String title, @Nullable String location, @NotNull String language,
+                                          @NotNull CharSequence code) {
+        StringBuilder text = new StringBuilder(code.length() + 64);
+        text.append("### ").append(title);
+        if (location != null) {
+            text.append(" (").append(location).append(')');
+        }
+        return text.append("\n```").append(language).append('\n').append(code).append("\n```\n");
+    }
+
     /**
      * 获取上下文摘要（用于显示在聊天窗口）。
      * @return 上下文摘要字符串。
      */
     @NotNull
     public String getContextSummary() {
-        Map<String, String> context = getCurrentContext();
+        EditorContext context = getEditorContext();
         StringBuilder summary = new StringBuilder();
         
-        if (context.containsKey("fileName")) {
-            summary.append("文件：").append(context.get("fileName"));
-            if (context.containsKey("selectedCode")) {
+        if (context.hasFile()) {
+            summary.append("文件：").append(context.getFileName());
+            if (context.getSelectedCode() != null) {
                 summary.append(" (已选中代码)");
             }
         } else {
@@ -153,25 +417,25 @@ public class CodeContextProvider {
      */
     @NotNull
     public String getContext() {
-        Map<String, String> context = getCurrentContext();
+        EditorContext context = getEditorContext();
         StringBuilder text = new StringBuilder();
         
-        if (context.containsKey("fileName")) {
-            text.append("## 当前文件：").append(context.get("fileName")).append("\n");
+        if (context.hasFile()) {
+            text.append("## 当前文件：").append(context.getFileName()).append("\n");
             
-            if (context.containsKey("filePath")) {
-                text.append("## 文件路径：").append(context.get("filePath")).append("\n");
+            if (context.getFilePath() != null) {
+                text.append("## 文件路径：").append(context.getFilePath()).append("\n");
             }
             
-            text.append("## 语言：").append(context.get("language")).append("\n\n");
+            text.append("## 语言：").append(context.getLanguage()).append("\n\n");
             
             // 添加选中的代码或光标上下文
-            if (context.containsKey("selectedCode")) {
+            if (context.getSelectedCode() != null) {
                 text.append("## 选中的代码：\n");
-                text.append(context.get("selectedCode")).append("\n");
-            } else if (context.containsKey("cursorContext")) {
+                text.append(context.getSelectedCode()).append("\n");
+            } else if (context.getCursorContext() != null) {
                 text.append("## 当前光标位置的代码上下文：\n");
-                text.append(context.get("cursorContext")).append("\n");
+                text.append(context.getCursorContext()).append("\n");
             }
         } else {
             text.append("无活动文件");
@@ -179,4 +443,4 @@ public class CodeContextProvider {
         
         return text.toString();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,108 @@
+package com.steins.codek.service;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 代码检索用的分词：标识符按驼峰 (camelCase、HTTPConfig) 和下划线 (snake_case) 拆成小写子词，
+ * 去掉关键字和常见虚词；中文按相邻字对切分。{@link HashingEmbedder} 和 {@link Bm25Index} 共用。
+ * @author 0027013824
+ */
+final class CodeTerms {
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "public", "private", "protected", "static", "final", "void", "return", "new", "this", "null",
+            "true", "false", "if", "else", "for", "while", "int", "long", "boolean", "string", "class",
+            "import", "package", "the", "a", "an", "of", "to", "in", "is", "and", "or", "param", "get", "set"));
+
+    private CodeTerms() {
+    }
+
+    /**
+     * 把驼峰和下划线分隔的标识符拆成小写子词，例如 "parseHTTPConfig_v2" 拆为 parse、http、config、v2。
+     */
+    @NotNull
+    static List<String> splitIdentifier(@NotNull CharSequence identifier) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= identifier.length(); i++) {
+            char c = i < identifier.length() ? identifier.charAt(i) : '_';
+            boolean separator = c == '_' || c == '$' || !Character.isLetterOrDigit(c);
+            boolean boundary = false;
+            if (!separator && start >= 0) {
+                char previous = identifier.charAt(i - 1);
+                if (Character.isUpperCase(c) && Character.isLowerCase(previous)) {
+                    boundary = true; // parseConfig
+                } else if (Character.isUpperCase(c) && Character.isUpperCase(previous) && i + 1 < identifier.length()
+                        && Character.isLowerCase(identifier.charAt(i + 1))) {
+                    boundary = true; // HTTPConfig
+                }
+            }
+            if ((separator || boundary) && start >= 0) {
+                words.add(identifier.subSequence(start, i).toString().toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+            if (!separator && start < 0) {
+                start = i;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * 子词是否可以作为检索词：至少两个字符、不以数字开头、不是停用词。
+     */
+    static boolean isSearchable(@NotNull String word) {
+        return word.length() >= 2 && !Character.isDigit(word.charAt(0)) && !STOP_WORDS.contains(word);
+    }
+
+    /**
+     * 提取文本中的检索词：标识符的子词和中文字对，按出现顺序排列，可以重复。
+     */
+    @NotNull
+    static List<String> terms(@NotNull CharSequence text) {
+        List<String> terms = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                if (i + 1 < length && isCjk(text.charAt(i + 1))) {
+                    terms.add(text.subSequence(i, i + 2).toString());
+                }
+                i++;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                i = identifierEnd(text, i);
+                for (String word : splitIdentifier(text.subSequence(start, i))) {
+                    if (isSearchable(word)) {
+                        terms.add(word);
+                    }
+                }
+            } else {
+                i++;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * 从 start 开始的标识符的结束位置 (不包含中文字符)。
+     */
+    static int identifierEnd(@NotNull CharSequence text, int start) {
+        int i = start;
+        while (i < text.length() && Character.isJavaIdentifierPart(text.charAt(i)) && !isCjk(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    static boolean isCjk(char c) {
+        return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+}
@@ -0,0 +1,375 @@
+package com.steins.codek.service;
+
+import com.steins.codek.model.ChatMessage;
+import com.steins.codek.tool.ToolOutputBudget;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 在 token 预算内挑选发送给模型的上下文：选中的代码、光标附近的代码、打开的文件、最近的修改、相关代码、文件结构和历史对话。
+ * 每个候选项有价值和 token 数，按分组背包求价值最大的组合：普通候选项各自可选可不选，
+ * 历史对话只能从最近的一轮开始连续保留，作为一组互斥的选项 (保留最近 0..n 轮)。
+ * 背包按缩放后的 token 数求解，剩余的零头再按价值密度贪心补齐。没有放入的候选项连同原因一起返回。
+ * @author 0027013824
+ */
+public final class ContextPacker {
+    /**
+     * 每条消息在请求中除内容之外的开销 (角色、分隔符)。
+     */
+    public static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    private static final int SCALE = 1024; // 背包容量的格数，token 数按比例缩放到这个范围内
+
+    /**
+     * 候选项的类型。
+     */
+    public enum Kind {
+        SELECTION("选中的代码"),
+        CARET_WINDOW("光标附近的代码"),
+        OPEN_FILE("打开的文件"),
+        RECENT_EDIT("最近的修改"),
+        RELATED_CODE("相关代码"),
+        SKELETON("文件结构"),
+        DEPENDENCY("引用的声明"),
+        HISTORY("历史对话");
+
+        private final String displayName;
+
+        Kind(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @NotNull
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * 一个候选项。上下文片段以文本形式附加到系统提示词中，历史对话以一轮 (用户消息及其回复) 的消息列表保留。
+     */
+    public static final class Item {
+        private final Kind kind;
+        private final String label;
+        private final CharSequence text;
+        private final List<ChatMessage> messages;
+        private final double value;
+        private final int tokens;
+
+        private Item(@NotNull Kind kind, @NotNull String label, @Nullable CharSequence text,
+                     @NotNull List<ChatMessage> messages, double value, int tokens) {
+            this.kind = kind;
+            this.label = label;
+            this.text = text;
+            this.messages = messages;
+            this.value = value;
+            this.tokens = tokens;
+        }
+
+        /**
+         * 创建上下文片段。
+         * @param label 片段的标题，例如文件路径和行号。
+         * @param text 片段的完整文本 (包括标题和代码块标记)。
+         * @param value 片段的价值，越大越优先放入。
+         */
+        @NotNull
+        public static Item snippet(@NotNull Kind kind, @NotNull String label, @NotNull CharSequence text, double value) {
+            return new Item(kind, label, text, Collections.emptyList(), value, countTokens(text));
+        }
+
+        /**
+         * 创建一轮历史对话。
+         * @param messages 这一轮的消息，按发送顺序排列。
+         */
+        @NotNull
+        public static Item turn(@NotNull String label, @NotNull List<ChatMessage> messages, double value) {
+            return new Item(Kind.HISTORY, label, null, Collections.unmodifiableList(new ArrayList<>(messages)),
+                    value, countTokens(messages));
+        }
+
+        @NotNull
+        public Kind getKind() {
+            return kind;
+        }
+
+        @NotNull
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * 片段的文本，历史对话为 null。
+         */
+        @Nullable
+        public CharSequence getText() {
+            return text;
+        }
+
+        @NotNull
+        public List<ChatMessage> getMessages() {
+            return messages;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public int getTokens() {
+            return tokens;
+        }
+    }
+
+    /**
+     * 没有放入的候选项及原因。
+     */
+    public static final class Dropped {
+        private final Item item;
+        private final String reason;
+
+        Dropped(@NotNull Item item, @NotNull String reason) {
+            this.item = item;
+            this.reason = reason;
+        }
+
+        @NotNull
+        public Item getItem() {
+            return item;
+        }
+
+        @NotNull
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    /**
+     * 挑选结果。
+     */
+    public static final class Result {
+        private final List<Item> snippets;
+        private final List<Item> turns;
+        private final List<Dropped> dropped;
+        private final int usedTokens;
+        private final int budgetTokens;
+
+        Result(@NotNull List<Item> snippets, @NotNull List<Item> turns, @NotNull List<Dropped> dropped,
+               int usedTokens, int budgetTokens) {
+            this.snippets = snippets;
+            this.turns = turns;
+            this.dropped = dropped;
+            this.usedTokens = usedTokens;
+            this.budgetTokens = budgetTokens;
+        }
+
+        /**
+         * 放入的上下文片段，保持候选项的原始顺序。
+         */
+        @NotNull
+        public List<Item> getSnippets() {
+            return snippets;
+        }
+
+        /**
+         * 保留的历史对话，从旧到新排列。
+         */
+        @NotNull
+        public List<Item> getTurns() {
+            return turns;
+        }
+
+        @NotNull
+        public List<Dropped> getDropped() {
+            return dropped;
+        }
+
+        public int getUsedTokens() {
+            return usedTokens;
+        }
+
+        public int getBudgetTokens() {
+            return budgetTokens;
+        }
+
+        /**
+         * 用于日志的说明：用量和每个没有放入的候选项。
+         */
+        @NotNull
+        public String describe() {
+            StringBuilder text = new StringBuilder();
+            text.append("上下文使用 ").append(usedTokens).append('/').append(budgetTokens).append(" tokens，放入 ")
+                .append(snippets.size()).append(" 个片段和 ").append(turns.size()).append(" 轮历史对话");
+            if (!dropped.isEmpty()) {
+                text.append("，未放入：");
+                for (Dropped entry : dropped) {
+                    Item item = entry.getItem();
+                    text.append("\n- ").append(item.getKind().getDisplayName()).append(' ').append(item.getLabel())
+                        .append(" (").append(item.getTokens()).append(" tokens)：").append(entry.getReason());
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    private ContextPacker() {
+    }
+
+    /**
+     * 用当前模型的分词器计算文本的 token 数。
+     */
+    public static int countTokens(@Nullable CharSequence text) {
+        return ToolOutputBudget.estimateTokens(text);
+    }
+
+    /**
+     * 估算消息列表的 token 数，包括每条消息的开销和工具调用的参数。
+     */
+    public static int countTokens(@NotNull List<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += MESSAGE_OVERHEAD_TOKENS + countTokens(message.getContentSequence());
+            if (message.getToolCalls() != null) {
+                for (ChatMessage.ToolCall toolCall : message.getToolCalls()) {
+                    tokens += countTokens(toolCall.getFunction().getArguments());
+                }
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 在预算内挑选价值最大的候选项组合。
+     * @param snippets 上下文片段。
+     * @param turnsNewestFirst 历史对话，从新到旧排列；只能保留从第一项开始的连续若干项。
+     * @param budgetTokens 可用的 token 数。
+     * @return 挑选结果。
+     */
+    @NotNull
+    public static Result pack(@NotNull List<Item> snippets, @NotNull List<Item> turnsNewestFirst, int budgetTokens) {
+        int budget = Math.max(0, budgetTokens);
+        int unit = Math.max(1, (budget + SCALE - 1) / SCALE);
+        int capacity = budget / unit;
+
+        // 每组的选项：片段为 {不放, 放}，历史对话为 {保留 0 轮, 1 轮, ..., n 轮}
+        int groups = snippets.size() + 1;
+        int[][] weights = new int[groups][];
+        double[][] values = new double[groups][];
+        for (int g = 0; g < snippets.size(); g++) {
+            Item item = snippets.get(g);
+            weights[g] = new int[]{0, scaled(item.getTokens(), unit)};
+            values[g] = new double[]{0, item.getValue()};
+        }
+        int turnCount = turnsNewestFirst.size();
+        int[] turnWeights = new int[turnCount + 1];
+        double[] turnValues = new double[turnCount + 1];
+        int cumulativeTokens = 0;
+        for (int k = 1; k <= turnCount; k++) {
+            Item turn = turnsNewestFirst.get(k - 1);
+            cumulativeTokens += turn.getTokens();
+            turnWeights[k] = scaled(cumulativeTokens, unit);
+            turnValues[k] = turnValues[k - 1] + turn.getValue();
+        }
+        weights[groups - 1] = turnWeights;
+        values[groups - 1] = turnValues;
+
+        double[] best = new double[capacity + 1];
+        int[][] choice = new int[groups][capacity + 1];
+        for (int g = 0; g < groups; g++) {
+            double[] next = new double[capacity + 1];
+            for (int c = 0; c <= capacity; c++) {
+                double bestValue = best[c];
+                int bestOption = 0;
+                for (int o = 1; o < weights[g].length; o++) {
+                    int w = weights[g][o];
+                    if (w > c) {
+                        if (g == groups - 1) {
+                            break; // 历史对话的累计权重单调递增
+                        }
+                        continue;
+                    }
+                    double candidate = best[c - w] + values[g][o];
+                    if (candidate > bestValue) {
+                        bestValue = candidate;
+                        bestOption = o;
+                    }
+                }
+                next[c] = bestValue;
+                choice[g][c] = bestOption;
+            }
+            best = next;
+        }
+
+        boolean[] taken = new boolean[snippets.size()];
+        int keptTurns = 0;
+        int c = capacity;
+        for (int g = groups - 1; g >= 0; g--) {
+            int option = choice[g][c];
+            c -= weights[g][option];
+            if (g == groups - 1) {
+                keptTurns = option;
+            } else {
+                taken[g] = option == 1;
+            }
+        }
+
+        int used = 0;
+        for (int i = 0; i < snippets.size(); i++) {
+            if (taken[i]) {
+                used += snippets.get(i).getTokens();
+            }
+        }
+        for (int k = 0; k < keptTurns; k++) {
+            used += turnsNewestFirst.get(k).getTokens();
+        }
+
+        // 缩放时向上取整，剩余的零头按价值密度贪心补齐
+        Integer[] order = new Integer[snippets.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> -density(snippets.get(i))));
+        for (int i : order) {
+            if (!taken[i] && used + snippets.get(i).getTokens() <= budget) {
+                taken[i] = true;
+                used += snippets.get(i).getTokens();
+            }
+        }
+        while (keptTurns < turnCount && used + turnsNewestFirst.get(keptTurns).getTokens() <= budget) {
+            used += turnsNewestFirst.get(keptTurns).getTokens();
+            keptTurns++;
+        }
+
+        List<Item> selected = new ArrayList<>();
+        List<Dropped> dropped = new ArrayList<>();
+        for (int i = 0; i < snippets.size(); i++) {
+            Item item = snippets.get(i);
+            if (taken[i]) {
+                selected.add(item);
+            } else {
+                dropped.add(new Dropped(item, item.getTokens() > budget ? "单独超出预算 (" + budget + " tokens)"
+                        : "预算不足，优先放入了价值更高的内容"));
+            }
+        }
+        List<Item> turns = new ArrayList<>();
+        for (int k = keptTurns - 1; k >= 0; k--) {
+            turns.add(turnsNewestFirst.get(k));
+        }
+        for (int k = keptTurns; k < turnCount; k++) {
+            dropped.add(new Dropped(turnsNewestFirst.get(k), k == keptTurns ? "预算不足，只保留最近 " + keptTurns + " 轮对话"
+                    : "更近的对话未放入，较早的对话随之丢弃"));
+        }
+        return new Result(selected, turns, dropped, used, budget);
+    }
+
+    private static int scaled(int tokens, int unit) {
+        return (tokens + unit - 1) / unit;
+    }
+
+    private static double density(@NotNull Item item) {
+        return item.getValue() / Math.max(1, item.getTokens());
+    }
+}
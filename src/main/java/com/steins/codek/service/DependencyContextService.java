@@ -0,0 +1,260 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiClassInitializer;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaCodeReferenceElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.psi.PsiTypeParameter;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.psi.util.PsiTreeUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 找出一段代码引用的项目内声明 (项目级服务)，生成它们的紧凑签名，使模型不必再用 readFile 逐个查看。
+ * 第一层为代码中的引用通过 PSI 解析到的类、方法和字段；之后每一层为上一层声明的签名
+ * (返回值、参数、throws、字段类型、父类和接口) 中引用的类型，最多 {@value #MAX_DEPTH} 层。
+ * JDK 和依赖库中的声明不展开。结果按 PSI 修改计数缓存，项目中任何 PSI 修改后重新计算。目前只支持 Java 文件。
+ * @author 0027013824
+ */
+@Service(Service.Level.PROJECT)
+public final class DependencyContextService {
+    private static final int MAX_DEPTH = 2;
+    private static final int MAX_DECLARATIONS = 30; // 每层
+    private static final int MAX_REFERENCES = 2000; // 每层最多解析的引用数，限制选中整个大文件时的耗时
+    private static final int MAX_CACHE_ENTRIES = 32;
+
+    private final Project project;
+    // 按文件 URL 和范围，PSI 修改计数变化后失效
+    private final Map<String, CachedExpansion> cache = new ConcurrentHashMap<>();
+
+    public DependencyContextService(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public static DependencyContextService getInstance(@NotNull Project project) {
+        return project.getService(DependencyContextService.class);
+    }
+
+    /**
+     * 找出文件中一段代码引用的声明。范围为空 (只有光标) 时使用光标所在的方法、字段或初始化块。必须在读操作中调用。
+     * @param startOffset 起始偏移。
+     * @param endOffset 结束偏移 (不包含)。
+     * @return 每层一段骨架格式的文本 (见 {@link FileSkeletonService})，按文件和所属的类分组，第 0 个为直接引用的声明；
+     *         没有引用项目中的声明、文件不是 Java 文件或 IDE 正在索引时为空列表。
+     */
+    @NotNull
+    public List<String> expand(@NotNull PsiFile file, int startOffset, int endOffset) {
+        if (!(file instanceof PsiJavaFile) || DumbService.isDumb(project)) {
+            return Collections.emptyList();
+        }
+        TextRange range = rootRange(file, startOffset, endOffset);
+        if (range == null) {
+            return Collections.emptyList();
+        }
+        VirtualFile virtualFile = file.getVirtualFile();
+        if (virtualFile == null) {
+            return compute(file, range);
+        }
+        String key = virtualFile.getUrl() + "#" + range.getStartOffset() + "-" + range.getEndOffset();
+        long modificationCount = PsiModificationTracker.getInstance(project).getModificationCount();
+        CachedExpansion cached = cache.get(key);
+        if (cached != null && cached.modificationCount == modificationCount) {
+            return cached.levels;
+        }
+        cached = new CachedExpansion(modificationCount, compute(file, range));
+        if (cache.size() >= MAX_CACHE_ENTRIES) {
+            cache.clear();
+        }
+        cache.put(key, cached);
+        return cached.levels;
+    }
+
+    @Nullable
+    private static TextRange rootRange(@NotNull PsiFile file, int startOffset, int endOffset) {
+        int length = file.getTextLength();
+        int start = Math.max(0, Math.min(startOffset, length));
+        int end = Math.max(start, Math.min(endOffset, length));
+        if (start < end) {
+            return new TextRange(start, end);
+        }
+        PsiMember member = PsiTreeUtil.getParentOfType(file.findElementAt(start),
+                PsiMethod.class, PsiField.class, PsiClassInitializer.class);
+        return member != null ? member.getTextRange() : null;
+    }
+
+    @NotNull
+    private List<String> compute(@NotNull PsiFile file, @NotNull TextRange range) {
+        PsiElement start = file.findElementAt(range.getStartOffset());
+        PsiElement end = file.findElementAt(range.getEndOffset() - 1);
+        PsiElement root = start != null && end != null ? PsiTreeUtil.findCommonParent(start, end) : null;
+        if (root == null) {
+            return Collections.emptyList();
+        }
+        List<String> levels = new ArrayList<>();
+        Set<PsiMember> seen = new HashSet<>();
+        List<PsiElement> scopes = Collections.singletonList(root);
+        for (int depth = 0; depth < MAX_DEPTH && !scopes.isEmpty(); depth++) {
+            List<PsiMember> level = new ArrayList<>();
+            int[] references = {0};
+            for (PsiElement scope : scopes) {
+                collect(scope, depth == 0 ? range : null, file, range, seen, level, references);
+            }
+            if (level.isEmpty()) {
+                break;
+            }
+            levels.add(render(level));
+            scopes = signatureParts(level);
+        }
+        return levels;
+    }
+
+    /**
+     * 解析范围内的引用，把新的声明加入 level。
+     * @param scopeRange 只解析此范围内的引用，为 null 时解析整个 scope。
+     * @param rootRange 根范围，其中或包含它的声明 (例如选区所在的类) 不加入。
+     */
+    private void collect(@NotNull PsiElement scope, @Nullable TextRange scopeRange, @NotNull PsiFile rootFile,
+                         @NotNull TextRange rootRange, @NotNull Set<PsiMember> seen, @NotNull List<PsiMember> level,
+                         int[] references) {
+        scope.accept(new PsiRecursiveElementWalkingVisitor() {
+            @Override
+            public void visitElement(@NotNull PsiElement element) {
+                if (level.size() >= MAX_DECLARATIONS || references[0] >= MAX_REFERENCES) {
+                    stopWalking();
+                    return;
+                }
+                if (scopeRange != null && !scopeRange.intersects(element.getTextRange())) {
+                    return;
+                }
+                if (element instanceof PsiJavaCodeReferenceElement && (scopeRange == null
+                        || scopeRange.contains(element.getTextRange().getStartOffset()))) {
+                    references[0]++;
+                    PsiMember target = target(((PsiJavaCodeReferenceElement) element).resolve());
+                    if (target != null && !isInRoot(target, rootFile, rootRange) && seen.add(target)) {
+                        level.add(target);
+                    }
+                }
+                super.visitElement(element);
+            }
+        });
+    }
+
+    /**
+     * 项目源代码中有名字的类、方法或字段；局部变量、参数、类型参数和库中的声明返回 null。
+     */
+    @Nullable
+    private PsiMember target(@Nullable PsiElement resolved) {
+        if (!(resolved instanceof PsiClass || resolved instanceof PsiMethod || resolved instanceof PsiField)
+                || resolved instanceof PsiTypeParameter) {
+            return null;
+        }
+        PsiMember member = (PsiMember) resolved;
+        PsiClass owner = member instanceof PsiClass ? (PsiClass) member : member.getContainingClass();
+        if (owner == null || owner.getName() == null) {
+            return null;
+        }
+        PsiFile file = member.getContainingFile();
+        VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+        if (!(file instanceof PsiJavaFile) || virtualFile == null
+                || !ProjectFileIndex.getInstance(project).isInSourceContent(virtualFile)) {
+            return null;
+        }
+        return member;
+    }
+
+    private static boolean isInRoot(@NotNull PsiMember member, @NotNull PsiFile rootFile, @NotNull TextRange rootRange) {
+        if (member.getContainingFile() != rootFile) {
+            return false;
+        }
+        TextRange memberRange = member.getTextRange();
+        return rootRange.contains(memberRange) || memberRange.contains(rootRange);
+    }
+
+    /**
+     * 声明的签名中可能引用其他类型的部分。
+     */
+    @NotNull
+    private static List<PsiElement> signatureParts(@NotNull List<PsiMember> members) {
+        List<PsiElement> parts = new ArrayList<>();
+        for (PsiMember member : members) {
+            if (member instanceof PsiMethod) {
+                PsiMethod method = (PsiMethod) member;
+                addIfNotNull(parts, method.getReturnTypeElement());
+                parts.add(method.getParameterList());
+                parts.add(method.getThrowsList());
+            } else if (member instanceof PsiField) {
+                addIfNotNull(parts, ((PsiField) member).getTypeElement());
+            } else if (member instanceof PsiClass) {
+                addIfNotNull(parts, ((PsiClass) member).getExtendsList());
+                addIfNotNull(parts, ((PsiClass) member).getImplementsList());
+            }
+        }
+        return parts;
+    }
+
+    private static void addIfNotNull(@NotNull List<PsiElement> elements, @Nullable PsiElement element) {
+        if (element != null) {
+            elements.add(element);
+        }
+    }
+
+    /**
+     * 按文件和所属的类分组输出紧凑签名：每个文件先输出路径，每个类先输出声明头，成员缩进一层。
+     */
+    @NotNull
+    private static String render(@NotNull List<PsiMember> members) {
+        Map<PsiFile, Map<PsiClass, List<PsiMember>>> byFile = new LinkedHashMap<>();
+        for (PsiMember member : members) {
+            PsiClass owner = member instanceof PsiClass ? (PsiClass) member : member.getContainingClass();
+            List<PsiMember> classMembers = byFile.computeIfAbsent(owner.getContainingFile(), file -> new LinkedHashMap<>())
+                    .computeIfAbsent(owner, psiClass -> new ArrayList<>());
+            if (member != owner) {
+                classMembers.add(member);
+            }
+        }
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<PsiFile, Map<PsiClass, List<PsiMember>>> file : byFile.entrySet()) {
+            VirtualFile virtualFile = file.getKey().getVirtualFile();
+            out.append(virtualFile != null ? virtualFile.getPath() : file.getKey().getName()).append('\n');
+            for (Map.Entry<PsiClass, List<PsiMember>> psiClass : file.getValue().entrySet()) {
+                FileSkeletonService.appendDeclaration(out, psiClass.getKey(), 0, FileSkeletonService.Detail.COMPACT);
+                for (PsiMember member : psiClass.getValue()) {
+                    FileSkeletonService.appendDeclaration(out, member, 1, FileSkeletonService.Detail.COMPACT);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static final class CachedExpansion {
+        final long modificationCount;
+        final List<String> levels;
+
+        CachedExpansion(long modificationCount, @NotNull List<String> levels) {
+            this.modificationCount = modificationCount;
+            this.levels = Collections.unmodifiableList(levels);
+        }
+    }
+}
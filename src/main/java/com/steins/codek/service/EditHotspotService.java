@@ -0,0 +1,187 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.steins.codek.tool.FileTransaction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 记录用户最近编辑的位置 (项目级服务)。监听项目内文件的文档修改，按区域合并到 {@link EditHotspots} 中，
+ * 查询时返回热度最高的区域及其当前的代码。监听器在输入时调用，只做常数次数组操作，不分配对象。
+ * CodeK 自身的写命令 ({@link FileTransaction#isToolCommand()}) 中的修改不是用户的编辑，不记录为热点，只平移已有的区域。
+ * @author 0027013824
+ */
+@Service(Service.Level.PROJECT)
+public final class EditHotspotService implements Disposable {
+    private static final int CAPACITY = 64;
+    private static final long HALF_LIFE_MS = 10 * 60 * 1000; // 10 分钟前的编辑热度减半
+    private static final int CONTEXT_LINES = 3;              // 区域前后各多取几行
+    private static final int MAX_LINES = 40;
+
+    private final Project project;
+    private final EditHotspots<VirtualFile> hotspots = new EditHotspots<>(CAPACITY, HALF_LIFE_MS); // 由自身同步
+    private final AtomicBoolean started = new AtomicBoolean();
+    // 最近一次修改的文档及其文件 (不属于项目时为 null)，只在 EDT 上访问；连续输入时不再查找文件
+    private Document lastDocument;
+    private VirtualFile lastFile;
+
+    public EditHotspotService(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public static EditHotspotService getInstance(@NotNull Project project) {
+        return project.getService(EditHotspotService.class);
+    }
+
+    /**
+     * 第一次调用时开始监听文档修改。之后的调用不做任何事。
+     */
+    public void ensureStarted() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentListener() {
+            @Override
+            public void documentChanged(@NotNull DocumentEvent event) {
+                recordEdit(event);
+            }
+        }, this);
+    }
+
+    private void recordEdit(@NotNull DocumentEvent event) {
+        Document document = event.getDocument();
+        if (document != lastDocument) {
+            VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+            lastDocument = document;
+            lastFile = file != null && file.isInLocalFileSystem() && !project.isDisposed()
+                    && ProjectFileIndex.getInstance(project).isInContent(file) ? file : null;
+        }
+        VirtualFile file = lastFile;
+        if (file == null) {
+            return;
+        }
+        synchronized (hotspots) {
+            if (event.isWholeTextReplaced()) {
+                // 从磁盘重新加载或整体替换，原有区域的位置不再有意义
+                hotspots.forget(file);
+                return;
+            }
+            if (FileTransaction.isToolCommand()) {
+                // 不是用户的编辑，只平移已有区域，使它们仍对应修改后的文本
+                hotspots.shift(file, event.getOffset(), event.getOldLength(), event.getNewLength());
+                return;
+            }
+            hotspots.record(file, event.getOffset(), event.getOldLength(), event.getNewLength(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 热度最高的编辑区域及其当前的代码，区域扩展到整行并在前后各多取几行。
+     * 同一文件中扩展后重叠的区域只返回热度较高的一个。可以在任意线程中调用。
+     * @param maxResults 最大结果数。
+     * @return 按热度从高到低排列的区域。
+     */
+    @NotNull
+    public List<Hotspot> getHotspots(int maxResults) {
+        List<EditHotspots.Region<VirtualFile>> regions;
+        synchronized (hotspots) {
+            regions = hotspots.top(CAPACITY, System.currentTimeMillis());
+        }
+        return ReadAction.compute(() -> {
+            List<Hotspot> result = new ArrayList<>();
+            for (EditHotspots.Region<VirtualFile> region : regions) {
+                if (result.size() >= maxResults) {
+                    break;
+                }
+                VirtualFile file = region.getFile();
+                Document document = file.isValid() ? FileDocumentManager.getInstance().getDocument(file) : null;
+                if (document == null || document.getTextLength() == 0) {
+                    continue;
+                }
+                int start = Math.min(region.getStart(), document.getTextLength());
+                int end = Math.max(start, Math.min(region.getEnd(), document.getTextLength()));
+                int startLine = Math.max(0, document.getLineNumber(start) - CONTEXT_LINES);
+                int endLine = Math.min(document.getLineCount() - 1, document.getLineNumber(end) + CONTEXT_LINES);
+                endLine = Math.min(endLine, startLine + MAX_LINES - 1);
+                if (overlaps(result, file, startLine + 1, endLine + 1)) {
+                    continue;
+                }
+                CharSequence text = document.getImmutableCharSequence()
+                        .subSequence(document.getLineStartOffset(startLine), document.getLineEndOffset(endLine));
+                result.add(new Hotspot(file, startLine + 1, endLine + 1, text, region.getHeat()));
+            }
+            return result;
+        });
+    }
+
+    private static boolean overlaps(@NotNull List<Hotspot> hotspots, @NotNull VirtualFile file, int startLine, int endLine) {
+        for (Hotspot hotspot : hotspots) {
+            if (hotspot.getFile().equals(file) && hotspot.getStartLine() <= endLine && hotspot.getEndLine() >= startLine) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void dispose() {
+        // 监听器随服务一起移除
+        lastDocument = null;
+        lastFile = null;
+    }
+
+    /**
+     * 一个编辑热点：文件中的行范围 (从 1 开始，包含两端)、这些行的当前文本和热度。
+     * 热度约为最近编辑的次数，随时间衰减。
+     */
+    public static final class Hotspot {
+        private final VirtualFile file;
+        private final int startLine;
+        private final int endLine;
+        private final CharSequence text;
+        private final double heat;
+
+        Hotspot(@NotNull VirtualFile file, int startLine, int endLine, @NotNull CharSequence text, double heat) {
+            this.file = file;
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.text = text;
+            this.heat = heat;
+        }
+
+        @NotNull
+        public VirtualFile getFile() {
+            return file;
+        }
+
+        public int getStartLine() {
+            return startLine;
+        }
+
+        public int getEndLine() {
+            return endLine;
+        }
+
+        @NotNull
+        public CharSequence getText() {
+            return text;
+        }
+
+        public double getHeat() {
+            return heat;
+        }
+    }
+}
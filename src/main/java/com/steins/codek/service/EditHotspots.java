@@ -0,0 +1,204 @@
+package com.steins.codek.service;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 最近编辑的热点区域，存放在固定容量的数组中，记录编辑时不分配对象。
+ * 同一文件中重叠或相距不超过 {@link #MERGE_GAP} 个字符的编辑合并为一个区域，每次编辑使区域的热度加 1，
+ * 热度按半衰期指数衰减。每次编辑按插入和删除的长度平移同一文件中后面的区域，区域始终对应文件的当前文本。
+ * 新区域优先放入空位 (合并或删除后留下的)，没有空位时覆盖热度最低的区域。
+ * 非线程安全：由调用方同步。
+ * @param <F> 文件的类型，按引用比较。
+ * @author 0027013824
+ */
+final class EditHotspots<F> {
+    /**
+     * 相距不超过这么多字符的编辑合并为一个区域，大约是几行代码。
+     */
+    static final int MERGE_GAP = 200;
+
+    private final Object[] files; // 空位为 null
+    private final int[] starts;
+    private final int[] ends;
+    private final double[] heats; // times 对应时刻的热度
+    private final long[] times;
+    private final double decayPerMs;
+
+    /**
+     * @param capacity 最多记录的区域数。
+     * @param halfLifeMs 热度的半衰期 (毫秒)。
+     */
+    EditHotspots(int capacity, long halfLifeMs) {
+        files = new Object[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        heats = new double[capacity];
+        times = new long[capacity];
+        decayPerMs = Math.log(2) / halfLifeMs;
+    }
+
+    /**
+     * 记录一次编辑：[offset, offset + oldLength) 的文本被替换为 newLength 个字符。
+     * @param now 当前时间 (毫秒)。
+     */
+    void record(@NotNull F file, int offset, int oldLength, int newLength, long now) {
+        int newEnd = offset + newLength;
+        int merged = shiftRegions(file, offset, oldLength, newLength);
+        if (merged < 0) {
+            merged = freeSlot(now);
+            files[merged] = file;
+            starts[merged] = offset;
+            ends[merged] = newEnd;
+            heats[merged] = 1;
+            times[merged] = now;
+            return;
+        }
+        starts[merged] = Math.min(starts[merged], offset);
+        ends[merged] = Math.max(ends[merged], newEnd);
+        heats[merged] = heat(merged, now) + 1;
+        times[merged] = now;
+        // 扩大后的区域可能与同一文件的其他区域相连，把它们并入
+        for (int i = 0; i < files.length; i++) {
+            if (i != merged && files[i] == file
+                    && starts[i] <= ends[merged] + MERGE_GAP && ends[i] + MERGE_GAP >= starts[merged]) {
+                starts[merged] = Math.min(starts[merged], starts[i]);
+                ends[merged] = Math.max(ends[merged], ends[i]);
+                heats[merged] += heat(i, now);
+                files[i] = null;
+            }
+        }
+    }
+
+    /**
+     * 只按一次编辑平移同一文件中的区域，不增加热度也不新建区域。
+     * 用于不是用户输入的修改 (例如 CodeK 自身写入的文件)，使已有区域仍对应文件的当前文本。
+     */
+    void shift(@NotNull F file, int offset, int oldLength, int newLength) {
+        shiftRegions(file, offset, oldLength, newLength);
+    }
+
+    /**
+     * 平移同一文件中的区域。
+     * @return 第一个与编辑重叠或相距不超过 {@link #MERGE_GAP} 的区域，没有时返回 -1。
+     */
+    private int shiftRegions(@NotNull F file, int offset, int oldLength, int newLength) {
+        int delta = newLength - oldLength;
+        int oldEnd = offset + oldLength;
+        int newEnd = offset + newLength;
+        int merged = -1;
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] != file) {
+                continue;
+            }
+            int start = starts[i];
+            int end = ends[i];
+            // 编辑之后的区域不变，之后的平移，与被替换的文本重叠的部分收缩到替换后的文本上
+            if (start >= oldEnd) {
+                start += delta;
+            } else if (start > offset) {
+                start = offset;
+            }
+            if (end >= oldEnd) {
+                end += delta;
+            } else if (end > offset) {
+                end = newEnd;
+            }
+            starts[i] = start;
+            ends[i] = end;
+            if (merged < 0 && start <= newEnd + MERGE_GAP && end + MERGE_GAP >= offset) {
+                merged = i;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 为新区域选择位置：第一个空位，没有空位时选热度最低的区域，热度相同时选较早编辑的。
+     */
+    private int freeSlot(long now) {
+        int coldest = 0;
+        double coldestHeat = Double.MAX_VALUE;
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] == null) {
+                return i;
+            }
+            double heat = heat(i, now);
+            if (heat < coldestHeat || heat == coldestHeat && times[i] < times[coldest]) {
+                coldest = i;
+                coldestHeat = heat;
+            }
+        }
+        return coldest;
+    }
+
+    /**
+     * 删除文件的所有区域，例如文件被删除或整个文件被重新加载时。
+     */
+    void forget(@NotNull F file) {
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] == file) {
+                files[i] = null;
+            }
+        }
+    }
+
+    /**
+     * 热度最高的区域，按热度从高到低排列。
+     * @param maxResults 最大结果数。
+     * @param now 当前时间 (毫秒)。
+     */
+    @NotNull
+    List<Region<F>> top(int maxResults, long now) {
+        List<Region<F>> regions = new ArrayList<>();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] != null) {
+                @SuppressWarnings("unchecked")
+                F file = (F) files[i];
+                regions.add(new Region<>(file, starts[i], ends[i], heat(i, now)));
+            }
+        }
+        regions.sort((a, b) -> Double.compare(b.getHeat(), a.getHeat()));
+        return regions.size() > maxResults ? new ArrayList<>(regions.subList(0, maxResults)) : regions;
+    }
+
+    private double heat(int slot, long now) {
+        return heats[slot] * Math.exp(-decayPerMs * Math.max(0, now - times[slot]));
+    }
+
+    /**
+     * 一个热点区域：文件中 [start, end) 的字符范围及其当前热度。
+     */
+    static final class Region<F> {
+        private final F file;
+        private final int start;
+        private final int end;
+        private final double heat;
+
+        Region(@NotNull F file, int start, int end, double heat) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.heat = heat;
+        }
+
+        @NotNull
+        F getFile() {
+            return file;
+        }
+
+        int getStart() {
+            return start;
+        }
+
+        int getEnd() {
+            return end;
+        }
+
+        double getHeat() {
+            return heat;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.steins.codek.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 某一时刻的编辑器上下文快照：当前文件、语言、选中的代码、光标附近的代码和项目 SDK。
+ * 由 {@link EditorService#captureContext()} 在一次读操作中生成，创建后不再改变，可以在任意线程中使用。
+ * 选中的代码和光标附近的代码是文档不可变文本的子序列视图，不复制文档内容。
+ * @author 0027013824
+ */
+public final class EditorContext {
+    private final String projectName;
+    private final String projectSdk;
+    private final String fileName;
+    private final String filePath;
+    private final String language;
+    private final CharSequence selectedCode;
+    private final CharSequence cursorContext;
+    private final int caretLine;
+    private final int selectionStart;
+    private final int selectionEnd;
+    private final long modificationStamp;
+
+    EditorContext(@NotNull String projectName, @Nullable String projectSdk, @Nullable String fileName,
+                  @Nullable String filePath, @NotNull String language, @Nullable CharSequence selectedCode,
+                  @Nullable CharSequence cursorContext, int caretLine, int selectionStart, int selectionEnd,
+                  long modificationStamp) {
+        this.projectName = projectName;
+        this.projectSdk = projectSdk;
+        this.fileName = fileName;
+        this.filePath = filePath;
+        this.language = language;
+        this.selectedCode = selectedCode;
+        this.cursorContext = cursorContext;
+        this.caretLine = caretLine;
+        this.selectionStart = selectionStart;
+        this.selectionEnd = selectionEnd;
+        this.modificationStamp = modificationStamp;
+    }
+
+    @NotNull
+    public String getProjectName() {
+        return projectName;
+    }
+
+    /**
+     * 项目 SDK 的名称，没有配置时为 null。
+     */
+    @Nullable
+    public String getProjectSdk() {
+        return projectSdk;
+    }
+
+    /**
+     * 当前文件名，没有打开文件时为 null。
+     */
+    @Nullable
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Nullable
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * 语言标识符 (基于文件扩展名)，无法确定时为 "text"。
+     */
+    @NotNull
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * 选中的代码，没有选中时为 null。
+     */
+    @Nullable
+    public CharSequence getSelectedCode() {
+        return selectedCode;
+    }
+
+    /**
+     * 光标所在行前后各若干行的代码，没有文本编辑器时为 null。
+     */
+    @Nullable
+    public CharSequence getCursorContext() {
+        return cursorContext;
+    }
+
+    /**
+     * 光标所在的行号 (从 1 开始)，没有文本编辑器时为 0。
+     */
+    public int getCaretLine() {
+        return caretLine;
+    }
+
+    /**
+     * 选区在文档中的起始偏移，没有选中时等于光标位置，没有文本编辑器时为 -1。
+     */
+    public int getSelectionStart() {
+        return selectionStart;
+    }
+
+    /**
+     * 选区在文档中的结束偏移 (不包含)，没有选中时等于光标位置，没有文本编辑器时为 -1。
+     */
+    public int getSelectionEnd() {
+        return selectionEnd;
+    }
+
+    /**
+     * 生成快照时文档的修改时间戳，没有文本编辑器时为 -1。
+     */
+    public long getModificationStamp() {
+        return modificationStamp;
+    }
+
+    public boolean hasFile() {
+        return fileName != null;
+    }
+
+    /**
+     * 转换为 {@link CodeContextProvider#getCurrentContext()} 使用的键值表，值为 null 的项不放入。
+     */
+    @NotNull
+    public Map<String, String> toMap() {
+        Map<String, String> context = new HashMap<>();
+        if (fileName != null) {
+            context.put("fileName", fileName);
+        }
+        if (filePath != null) {
+            context.put("filePath", filePath);
+        }
+        context.put("language", language);
+        if (selectedCode != null) {
+            context.put("selectedCode", selectedCode.toString());
+        }
+        if (cursorContext != null) {
+            context.put("cursorContext", cursorContext.toString());
+        }
+        context.put("projectName", projectName);
+        if (projectSdk != null) {
+            context.put("projectJdk", projectSdk);
+        }
+        return context;
+    }
+}
@@ -3,22 +3,29 @@ package com.steins.codek.service;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.SelectionModel;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.lang.ref.WeakReference;
+import java.util.Objects;
+
 /**
  * 编辑器服务类，用于获取当前编辑器的代码上下文。
  * @author 0027013824
  */
 public class EditorService {
     private static final Logger LOG = Logger.getInstance(EditorService.class);
+    static final int CURSOR_CONTEXT_LINES = 10;
     private final Project project;
+    private volatile CachedContext cachedContext; // 最近一次的快照，并发调用时最多重复生成一次
 
     /**
      * 构造函数。
@@ -45,32 +52,22 @@ public class EditorService {
      */
     @Nullable
     public String getSelectedCode() {
-        return ReadAction.compute(() -> {
-            Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
-        if (editor == null) {
-            return null;
-        }
-
-        SelectionModel selectionModel = editor.getSelectionModel();
-        if (selectionModel.hasSelection()) {
-            return selectionModel.getSelectedText();
-        }
-        return null;
-        });
+        CharSequence selectedCode = captureContext().getSelectedCode();
+        return selectedCode != null ? selectedCode.toString() : null;
     }
 
     /**
      * 获取当前打开文件的全部内容。
-     * @return 文件内容，如果没有打开文件则返回null。
+     * @return 文件内容 (文档不可变文本的视图，不复制)，如果没有打开文件则返回null。
      */
     @Nullable
-    public String getCurrentFileContent() {
+    public CharSequence getCurrentFileContent() {
         return ReadAction.compute(() -> {
             Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
         if (editor == null) {
             return null;
         }
-        return editor.getDocument().getText();
+        return editor.getDocument().getImmutableCharSequence();
         });
     }
 
@@ -80,11 +77,7 @@ public class EditorService {
      */
     @Nullable
     public String getCurrentFileName() {
-        return ReadAction.compute(() -> {
-            VirtualFile[] files = FileEditorManager.getInstance(project).getSelectedFiles();
-            VirtualFile file = files.length > 0 ? files[0] : null;
-        return file != null ? file.getName() : null;
-        });
+        return captureContext().getFileName();
     }
 
     /**
@@ -93,11 +86,7 @@ public class EditorService {
      */
     @Nullable
     public String getCurrentFilePath() {
-        return ReadAction.compute(() -> {
-            VirtualFile[] files = FileEditorManager.getInstance(project).getSelectedFiles();
-            VirtualFile file = files.length > 0 ? files[0] : null;
-        return file != null ? file.getPath() : null;
-        });
+        return captureContext().getFilePath();
     }
 
     /**
@@ -106,18 +95,96 @@ public class EditorService {
      */
     @NotNull
     public String getCurrentFileLanguage() {
+        return captureContext().getLanguage();
+    }
+
+    /**
+     * 获取当前光标位置上下文代码（前后各10行）。
+     * @return 上下文代码，如果没有打开文件则返回null。
+     */
+    @Nullable
+    public String getCurrentCursorContext() {
+        CharSequence cursorContext = captureContext().getCursorContext();
+        return cursorContext != null ? cursorContext.toString() : null;
+    }
+
+    /**
+     * 在一次读操作中获取当前编辑器的上下文快照。
+     * 编辑器、文件、光标位置、选区、文档修改时间戳和项目 SDK 都没有变化时返回上一次的快照，
+     * 因此同一轮对话中多次调用只读取一次文本。可以在任意线程中调用。
+     * @return 上下文快照，没有打开文件时快照中的文件信息为 null。
+     */
+    @NotNull
+    public EditorContext captureContext() {
         return ReadAction.compute(() -> {
-            VirtualFile[] files = FileEditorManager.getInstance(project).getSelectedFiles();
+            FileEditorManager manager = FileEditorManager.getInstance(project);
+            Editor editor = manager.getSelectedTextEditor();
+            if (editor != null && editor.isDisposed()) {
+                editor = null;
+            }
+            VirtualFile[] files = manager.getSelectedFiles();
             VirtualFile file = files.length > 0 ? files[0] : null;
+            String projectSdk = ProjectRootManager.getInstance(project).getProjectSdkName();
+            CaptureKey key = new CaptureKey(editor, file, projectSdk);
+            CachedContext cached = cachedContext;
+            if (cached != null && cached.key.matches(key)) {
+                return cached.context;
+            }
+            EditorContext context = capture(editor, file, projectSdk);
+            cachedContext = new CachedContext(key, context);
+            return context;
+        });
+    }
+
+    /**
+     * 必须在读操作中调用。
+     */
+    @NotNull
+    private EditorContext capture(@Nullable Editor editor, @Nullable VirtualFile file, @Nullable String projectSdk) {
+        CharSequence selectedCode = null;
+        CharSequence cursorContext = null;
+        int caretLine = 0;
+        int selectionStart = -1;
+        int selectionEnd = -1;
+        long modificationStamp = -1;
+        if (editor != null) {
+            Document document = editor.getDocument();
+            CharSequence text = document.getImmutableCharSequence();
+            SelectionModel selectionModel = editor.getSelectionModel();
+            if (selectionModel.hasSelection()) {
+                // 多个光标时由 SelectionModel 拼接各选区，否则直接取文档文本的视图
+                selectedCode = editor.getCaretModel().getCaretCount() > 1 ? selectionModel.getSelectedText()
+                        : text.subSequence(selectionModel.getSelectionStart(), selectionModel.getSelectionEnd());
+            }
+            int lineNumber = document.getLineNumber(editor.getCaretModel().getOffset());
+            int startLine = Math.max(0, lineNumber - CURSOR_CONTEXT_LINES);
+            int endLine = Math.min(document.getLineCount() - 1, lineNumber + CURSOR_CONTEXT_LINES);
+            if (endLine >= startLine) {
+                cursorContext = text.subSequence(document.getLineStartOffset(startLine), document.getLineEndOffset(endLine));
+            } else {
+                cursorContext = "";
+            }
+            caretLine = lineNumber + 1;
+            selectionStart = selectionModel.getSelectionStart(); // 没有选区时为光标位置
+            selectionEnd = selectionModel.getSelectionEnd();
+            modificationStamp = document.getModificationStamp();
+        }
+        return new EditorContext(project.getName(), projectSdk,
+                file != null ? file.getName() : null, file != null ? file.getPath() : null, languageOf(file),
+                selectedCode, cursorContext, caretLine, selectionStart, selectionEnd, modificationStamp);
+    }
+
+    @NotNull
+    private static String languageOf(@Nullable VirtualFile file) {
         if (file == null) {
             return "text";
         }
-        
+
         String extension = file.getExtension();
         if (extension == null) {
             return "text";
         }
-        
+
         // 简单映射，可以根据需要扩展
         switch (extension.toLowerCase()) {
             case "java": return "java";
@@ -132,30 +199,59 @@ public class EditorService {
             case "md": return "markdown";
             default: return extension.toLowerCase();
         }
-        });
     }
-    
+
     /**
-     * 获取当前光标位置上下文代码（前后各10行）。
-     * @return 上下文代码，如果没有打开文件则返回null。
+     * 决定快照是否仍然有效的状态。编辑器只保留弱引用，缓存不会阻止已关闭的编辑器被回收。
      */
-    @Nullable
-    public String getCurrentCursorContext() {
-        return ReadAction.compute(() -> {
-            Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
-        if (editor == null) {
-            return null;
+    private static final class CaptureKey {
+        final WeakReference<Editor> editor;
+        final VirtualFile file;
+        final String projectSdk;
+        final int caretOffset;
+        final int selectionStart;
+        final int selectionEnd;
+        final long modificationStamp;
+
+        /**
+         * 必须在读操作中创建。
+         */
+        CaptureKey(@Nullable Editor editor, @Nullable VirtualFile file, @Nullable String projectSdk) {
+            this.editor = editor != null ? new WeakReference<>(editor) : null;
+            this.file = file;
+            this.projectSdk = projectSdk;
+            if (editor != null) {
+                SelectionModel selectionModel = editor.getSelectionModel();
+                caretOffset = editor.getCaretModel().getOffset();
+                selectionStart = selectionModel.getSelectionStart();
+                selectionEnd = selectionModel.getSelectionEnd();
+                modificationStamp = editor.getDocument().getModificationStamp();
+            } else {
+                caretOffset = selectionStart = selectionEnd = -1;
+                modificationStamp = -1;
+            }
+        }
+
+        boolean matches(@NotNull CaptureKey other) {
+            Editor thisEditor = editor != null ? editor.get() : null;
+            Editor otherEditor = other.editor != null ? other.editor.get() : null;
+            return thisEditor == otherEditor && (editor == null) == (other.editor == null)
+                    && file == other.file
+                    && Objects.equals(projectSdk, other.projectSdk)
+                    && caretOffset == other.caretOffset
+                    && selectionStart == other.selectionStart
+                    && selectionEnd == other.selectionEnd
+                    && modificationStamp == other.modificationStamp;
+        }
+    }
+
+    private static final class CachedContext {
+        final CaptureKey key;
+        final EditorContext context;
+
+        CachedContext(@NotNull CaptureKey key, @NotNull EditorContext context) {
+            this.key = key;
+            this.context = context;
         }
-        
-        int caretOffset = editor.getCaretModel().getOffset();
-        int lineNumber = editor.getDocument().getLineNumber(caretOffset);
-        int startLine = Math.max(0, lineNumber - 10);
-        int endLine = Math.min(editor.getDocument().getLineCount() - 1, lineNumber + 10);
-        
-        int startOffset = editor.getDocument().getLineStartOffset(startLine);
-        int endOffset = editor.getDocument().getLineEndOffset(endLine);
-        
-        return editor.getDocument().getText().substring(startOffset, endOffset);
-        });
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,347 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiAnnotation;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiClassInitializer;
+import com.intellij.psi.PsiComment;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiEnumConstant;
+import com.intellij.psi.PsiExpression;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiImportList;
+import com.intellij.psi.PsiImportStatementBase;
+import com.intellij.psi.PsiJavaCodeReferenceElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.PsiModifierList;
+import com.intellij.psi.PsiPackageStatement;
+import com.intellij.psi.PsiParameter;
+import com.intellij.psi.PsiType;
+import com.intellij.psi.PsiWhiteSpace;
+import com.intellij.psi.javadoc.PsiDocComment;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 生成源文件的骨架 (项目级服务)：包声明、导入、类声明、字段和方法签名，方法体和初始化块省略为 {…}。
+ * 每行以元素在文件中的行号开头 (例如 {@code 120-180: }，从 1 开始、包含两端)，模型可以按行号用 readFile 展开需要的部分。
+ * 骨架按文件的 PSI 修改戳缓存。目前只支持 Java 文件。
+ * @author 0027013824
+ */
+@Service(Service.Level.PROJECT)
+public final class FileSkeletonService {
+    private static final int MAX_CACHE_ENTRIES = 256;
+    private static final int MAX_INITIALIZER_LENGTH = 40; // 更长的字段初始值省略为 …
+    private static final int MAX_DECLARATION_LENGTH = 300;
+    private static final String INDENT = "  ";
+    private static final String ELIDED = "…";
+
+    /**
+     * 骨架的详细程度。
+     */
+    public enum Detail {
+        /**
+         * 完整的声明：注解、修饰符、参数名、throws 子句和较短的字段初始值，每个导入占一行。
+         */
+        FULL,
+        /**
+         * 紧凑的签名：只保留非 public 的可见性和 static，方法写作 {@code name(Type, Type): ReturnType}，
+         * 字段写作 {@code Type name}，导入合并为一行包名列表。大文件通常只需几百到一千多 token。
+         */
+        COMPACT
+    }
+
+    // 按文件 URL，文件的 PSI 修改戳变化后失效
+    private final Map<String, CachedSkeleton> cache = new ConcurrentHashMap<>();
+
+    public static FileSkeletonService getInstance(@NotNull Project project) {
+        return project.getService(FileSkeletonService.class);
+    }
+
+    /**
+     * 是否能为文件生成骨架。
+     */
+    public static boolean isSupported(@Nullable PsiFile file) {
+        return file instanceof PsiJavaFile;
+    }
+
+    /**
+     * 获取文件的骨架。必须在读操作中调用。
+     * @return 骨架文本，不支持的文件返回 null。
+     */
+    @Nullable
+    public String getSkeleton(@NotNull PsiFile file, @NotNull Detail detail) {
+        if (!isSupported(file)) {
+            return null;
+        }
+        VirtualFile virtualFile = file.getVirtualFile();
+        if (virtualFile == null || !file.isPhysical()) {
+            return build((PsiJavaFile) file, detail);
+        }
+        String key = virtualFile.getUrl();
+        long stamp = file.getModificationStamp();
+        CachedSkeleton cached = cache.get(key);
+        if (cached == null || cached.stamp != stamp) {
+            cached = new CachedSkeleton(stamp);
+            if (cache.size() >= MAX_CACHE_ENTRIES) {
+                cache.clear();
+            }
+            cache.put(key, cached);
+        }
+        String skeleton = cached.texts[detail.ordinal()];
+        if (skeleton == null) {
+            skeleton = build((PsiJavaFile) file, detail);
+            cached.texts[detail.ordinal()] = skeleton;
+        }
+        return skeleton;
+    }
+
+    /**
+     * 生成骨架，不使用缓存。必须在读操作中调用。
+     */
+    @NotNull
+    static String build(@NotNull PsiJavaFile file, @NotNull Detail detail) {
+        CharSequence text = file.getViewProvider().getContents();
+        StringBuilder out = new StringBuilder();
+        PsiPackageStatement packageStatement = file.getPackageStatement();
+        if (packageStatement != null) {
+            line(out, text, packageStatement, 0, collapse(packageStatement.getText()));
+        }
+        PsiImportList importList = file.getImportList();
+        if (importList != null && importList.getAllImportStatements().length > 0) {
+            addImports(out, text, importList, detail);
+        }
+        for (PsiClass psiClass : file.getClasses()) {
+            addClass(out, text, psiClass, 0, detail);
+        }
+        return out.toString();
+    }
+
+    private static void addImports(@NotNull StringBuilder out, @NotNull CharSequence text, @NotNull PsiImportList importList,
+                                   @NotNull Detail detail) {
+        PsiImportStatementBase[] imports = importList.getAllImportStatements();
+        if (detail == Detail.FULL) {
+            for (PsiImportStatementBase statement : imports) {
+                line(out, text, statement, 0, collapse(statement.getText()));
+            }
+            return;
+        }
+        // 紧凑模式只列出导入的包
+        Set<String> packages = new LinkedHashSet<>();
+        for (PsiImportStatementBase statement : imports) {
+            PsiJavaCodeReferenceElement reference = statement.getImportReference();
+            if (reference == null) {
+                continue;
+            }
+            String name = reference.getQualifiedName();
+            if (name != null) {
+                packages.add(statement.isOnDemand() ? name : StringUtil.getPackageName(name));
+            }
+        }
+        line(out, text, importList, 0, imports.length + " imports from " + String.join(", ", packages));
+    }
+
+    private static void addClass(@NotNull StringBuilder out, @NotNull CharSequence text, @NotNull PsiClass psiClass,
+                                 int depth, @NotNull Detail detail) {
+        PsiElement lBrace = psiClass.getLBrace();
+        line(out, text, psiClass, depth, describeClass(psiClass, text, detail));
+
+        StringJoiner constants = new StringJoiner(", ");
+        PsiElement firstConstant = null;
+        PsiElement lastConstant = null;
+        for (PsiField field : psiClass.getFields()) {
+            if (field instanceof PsiEnumConstant) {
+                constants.add(field.getName());
+                firstConstant = firstConstant == null ? field : firstConstant;
+                lastConstant = field;
+            }
+        }
+        if (firstConstant != null) {
+            range(out, text, firstConstant.getTextRange().getStartOffset(), lastConstant.getTextRange().getEndOffset(),
+                    depth + 1, constants.toString());
+        }
+
+        // 按文件中的顺序输出成员
+        for (PsiElement child = lBrace != null ? lBrace.getNextSibling() : null; child != null; child = child.getNextSibling()) {
+            if (child instanceof PsiEnumConstant) {
+                continue;
+            }
+            if (child instanceof PsiField) {
+                line(out, text, child, depth + 1, describeField((PsiField) child, text, detail));
+            } else if (child instanceof PsiMethod) {
+                line(out, text, child, depth + 1, describeMethod((PsiMethod) child, text, detail));
+            } else if (child instanceof PsiClassInitializer) {
+                boolean isStatic = ((PsiClassInitializer) child).hasModifierProperty(PsiModifier.STATIC);
+                line(out, text, child, depth + 1, (isStatic ? "static " : "") + "{" + ELIDED + "}");
+            } else if (child instanceof PsiClass) {
+                addClass(out, text, (PsiClass) child, depth + 1, detail);
+            }
+        }
+    }
+
+    /**
+     * 追加单个声明的一行骨架，格式与 {@link #build} 的输出相同：类只有声明头，方法体省略。必须在读操作中调用。
+     * @param member 源文件中的类、方法或字段。
+     * @param depth 缩进层数。
+     */
+    static void appendDeclaration(@NotNull StringBuilder out, @NotNull PsiMember member, int depth, @NotNull Detail detail) {
+        CharSequence text = member.getContainingFile().getViewProvider().getContents();
+        String declaration;
+        if (member instanceof PsiClass) {
+            declaration = describeClass((PsiClass) member, text, detail);
+        } else if (member instanceof PsiMethod) {
+            declaration = describeMethod((PsiMethod) member, text, detail);
+        } else if (member instanceof PsiField) {
+            declaration = describeField((PsiField) member, text, detail);
+        } else {
+            return;
+        }
+        line(out, text, member, depth, declaration);
+    }
+
+    @NotNull
+    private static String describeClass(@NotNull PsiClass psiClass, @NotNull CharSequence text, @NotNull Detail detail) {
+        PsiElement lBrace = psiClass.getLBrace();
+        int start = declarationStart(psiClass);
+        int headerEnd = lBrace != null ? lBrace.getTextRange().getStartOffset() : psiClass.getTextRange().getEndOffset();
+        int headerStart = detail == Detail.COMPACT ? afterAnnotations(psiClass, start) : start;
+        return collapse(text.subSequence(headerStart, Math.max(headerStart, headerEnd))) + " {";
+    }
+
+    @NotNull
+    private static String describeField(@NotNull PsiField field, @NotNull CharSequence text, @NotNull Detail detail) {
+        if (detail == Detail.COMPACT) {
+            return visibility(field) + field.getType().getPresentableText() + " " + field.getName();
+        }
+        int start = declarationStart(field);
+        PsiExpression initializer = field.getInitializer();
+        if (initializer == null || initializer.getTextLength() <= MAX_INITIALIZER_LENGTH) {
+            return collapse(text.subSequence(start, field.getTextRange().getEndOffset()));
+        }
+        return collapse(text.subSequence(start, initializer.getTextRange().getStartOffset())) + " " + ELIDED + ";";
+    }
+
+    @NotNull
+    private static String describeMethod(@NotNull PsiMethod method, @NotNull CharSequence text, @NotNull Detail detail) {
+        String body = method.getBody() != null ? " {" + ELIDED + "}" : ";";
+        if (detail == Detail.COMPACT) {
+            StringJoiner parameters = new StringJoiner(", ", "(", ")");
+            for (PsiParameter parameter : method.getParameterList().getParameters()) {
+                parameters.add(parameter.getType().getPresentableText());
+            }
+            PsiType returnType = method.getReturnType();
+            return visibility(method) + method.getName() + parameters
+                    + (returnType != null ? ": " + returnType.getPresentableText() : "");
+        }
+        int start = declarationStart(method);
+        int end = method.getBody() != null ? method.getBody().getTextRange().getStartOffset() : method.getTextRange().getEndOffset();
+        String signature = collapse(text.subSequence(start, Math.max(start, end)));
+        if (signature.endsWith(";")) {
+            signature = signature.substring(0, signature.length() - 1);
+        }
+        return signature + body;
+    }
+
+    /**
+     * 紧凑模式下的修饰符：public 和包可见省略，其余可见性和 static 保留。
+     */
+    @NotNull
+    private static String visibility(@NotNull PsiMember member) {
+        StringBuilder modifiers = new StringBuilder();
+        if (member.hasModifierProperty(PsiModifier.PRIVATE)) {
+            modifiers.append("private ");
+        } else if (member.hasModifierProperty(PsiModifier.PROTECTED)) {
+            modifiers.append("protected ");
+        }
+        if (member.hasModifierProperty(PsiModifier.STATIC)) {
+            modifiers.append("static ");
+        }
+        return modifiers.toString();
+    }
+
+    /**
+     * 声明的起始位置：跳过文档注释和其后的空白。
+     */
+    private static int declarationStart(@NotNull PsiElement element) {
+        PsiElement child = element.getFirstChild();
+        while (child instanceof PsiDocComment || child instanceof PsiComment || child instanceof PsiWhiteSpace) {
+            child = child.getNextSibling();
+        }
+        return child != null ? child.getTextRange().getStartOffset() : element.getTextRange().getStartOffset();
+    }
+
+    /**
+     * 紧凑模式下类声明跳过注解。
+     */
+    private static int afterAnnotations(@NotNull PsiClass psiClass, int start) {
+        PsiModifierList modifiers = psiClass.getModifierList();
+        PsiAnnotation[] annotations = modifiers != null ? modifiers.getAnnotations() : PsiAnnotation.EMPTY_ARRAY;
+        return annotations.length > 0 ? Math.max(start, annotations[annotations.length - 1].getTextRange().getEndOffset()) : start;
+    }
+
+    private static void line(@NotNull StringBuilder out, @NotNull CharSequence text, @NotNull PsiElement element, int depth,
+                             @NotNull String declaration) {
+        int start = element instanceof PsiMember ? declarationStart(element) : element.getTextRange().getStartOffset();
+        range(out, text, start, element.getTextRange().getEndOffset(), depth, declaration);
+    }
+
+    private static void range(@NotNull StringBuilder out, @NotNull CharSequence text, int startOffset, int endOffset, int depth,
+                              @NotNull String declaration) {
+        int startLine = StringUtil.offsetToLineNumber(text, startOffset) + 1;
+        int endLine = StringUtil.offsetToLineNumber(text, Math.max(startOffset, endOffset - 1)) + 1;
+        out.append(startLine);
+        if (endLine > startLine) {
+            out.append('-').append(endLine);
+        }
+        out.append(": ");
+        for (int i = 0; i < depth; i++) {
+            out.append(INDENT);
+        }
+        out.append(declaration.length() > MAX_DECLARATION_LENGTH
+                ? declaration.substring(0, MAX_DECLARATION_LENGTH) + ELIDED : declaration).append('\n');
+    }
+
+    /**
+     * 把连续的空白 (包括换行) 合并为一个空格。
+     */
+    @NotNull
+    private static String collapse(@NotNull CharSequence text) {
+        StringBuilder result = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = result.length() > 0;
+            } else {
+                if (space) {
+                    result.append(' ');
+                    space = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static final class CachedSkeleton {
+        final long stamp;
+        final String[] texts = new String[Detail.values().length]; // 按详细程度，第一次使用时生成
+
+        CachedSkeleton(long stamp) {
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.steins.codek.service;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 纯 CPU 的本地向量生成器，不依赖模型文件：把标识符按驼峰和下划线拆成子词 (见 {@link CodeTerms})，
+ * 子词、完整标识符、子词的字符三元组以及中文的相邻字对通过带符号的特征哈希映射到固定维度，
+ * 逐维做次线性缩放后归一化，向量间的内积即余弦相似度。
+ * 查询 "parse config" 能匹配 parseConfigFile、ConfigParser 和 config_parser，但无法跨语言匹配同义词。
+ * 线程安全。
+ * @author 0027013824
+ */
+final class HashingEmbedder {
+    static final int DIMENSION = 256;
+    /**
+     * 特征方案的版本，改变特征或权重时递增，使持久化的索引失效。
+     */
+    static final int VERSION = 1;
+
+    private static final float NAME_WEIGHT = 3.0f;
+    private static final float IDENTIFIER_WEIGHT = 1.0f;
+    private static final float TRIGRAM_WEIGHT = 0.3f;
+    private static final int WORD_SEED = 0x1b873593;
+    private static final int IDENTIFIER_SEED = 0x5bd1e995;
+    private static final int TRIGRAM_SEED = 0x27d4eb2f;
+    private static final int CJK_SEED = 0x165667b1;
+
+    /**
+     * 生成文本的向量。
+     * @return 单位向量；文本中没有可用特征时返回全零向量。
+     */
+    @NotNull
+    float[] embed(@NotNull CharSequence text) {
+        float[] vector = new float[DIMENSION];
+        addText(vector, text, 1.0f);
+        return normalize(vector);
+    }
+
+    /**
+     * 生成代码片段的向量，名称 (类名、方法名、文件名) 的权重高于正文。
+     */
+    @NotNull
+    float[] embed(@NotNull String name, @NotNull CharSequence text) {
+        float[] vector = new float[DIMENSION];
+        addText(vector, name, NAME_WEIGHT);
+        addText(vector, text, 1.0f);
+        return normalize(vector);
+    }
+
+    private static void addText(float[] vector, CharSequence text, float weight) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (Character.isJavaIdentifierStart(c) && !CodeTerms.isCjk(c)) {
+                int start = i;
+                i = CodeTerms.identifierEnd(text, i);
+                addIdentifier(vector, text.subSequence(start, i), weight);
+            } else if (CodeTerms.isCjk(c)) {
+                if (i + 1 < length && CodeTerms.isCjk(text.charAt(i + 1))) {
+                    addFeature(vector, hash(CJK_SEED, text, i, i + 2), weight);
+                }
+                i++;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private static void addIdentifier(float[] vector, CharSequence identifier, float weight) {
+        List<String> words = CodeTerms.splitIdentifier(identifier);
+        int used = 0;
+        for (String word : words) {
+            if (!CodeTerms.isSearchable(word)) {
+                continue;
+            }
+            used++;
+            addFeature(vector, hash(WORD_SEED, word, 0, word.length()), weight);
+            // 字符三元组让 parse/parser、config/configuration 之类的词形变化也有相似度
+            String padded = "^" + word + "$";
+            for (int j = 0; j + 3 <= padded.length(); j++) {
+                addFeature(vector, hash(TRIGRAM_SEED, padded, j, j + 3), weight * TRIGRAM_WEIGHT);
+            }
+        }
+        if (used > 1) {
+            String whole = identifier.toString().toLowerCase(Locale.ROOT);
+            addFeature(vector, hash(IDENTIFIER_SEED, whole, 0, whole.length()), weight * IDENTIFIER_WEIGHT);
+        }
+    }
+
+    private static void addFeature(float[] vector, int hash, float weight) {
+        int mixed = mix(hash);
+        int index = (mixed >>> 1) % DIMENSION;
+        vector[index] += (mixed & 1) == 0 ? weight : -weight;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (int i = 0; i < vector.length; i++) {
+            // 次线性缩放，避免长片段中反复出现的词主导向量
+            float v = vector[i];
+            vector[i] = v >= 0 ? (float) Math.sqrt(v) : (float) -Math.sqrt(-v);
+            norm += vector[i] * vector[i];
+        }
+        if (norm > 0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        }
+        return vector;
+    }
+
+    private static int hash(int seed, CharSequence text, int start, int end) {
+        int h = seed;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + Character.toLowerCase(text.charAt(i));
+        }
+        return h;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,357 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.steins.codek.config.CodekConfig;
+import com.steins.codek.tool.FileTransaction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * CodeK 自己的后台索引任务的调度器 (项目级服务)，保证建立索引不与 IDE 的索引争抢资源，也不影响输入：
+ * <ul>
+ *   <li>等 IDE 完成索引 (进入 smart mode) 后才开始，IDE 重新进入 dumb mode 时暂停；</li>
+ *   <li>用户在项目文件中输入时暂停，停止输入 {@link #TYPING_QUIET_MS} 毫秒后继续；</li>
+ *   <li>CPU 占用不超过设置中的份额 ({@link CodekConfig#getIndexingCpuShare})：份额折算成 fork/join 的线程数，
+ *       每个线程再由 {@link IndexingThrottle} 按占空比休息；</li>
+ *   <li>在可以转入后台、可以取消的进度条中显示进度和吞吐量，结束时写入 IDE 日志。</li>
+ * </ul>
+ * 同一时间只执行一个任务，后提交的任务排队。
+ * @author 0027013824
+ */
+@Service(Service.Level.PROJECT)
+public final class IndexingScheduler implements Disposable {
+    private static final Logger LOG = Logger.getInstance(IndexingScheduler.class);
+    private static final long TYPING_QUIET_MS = 1000;
+    private static final long POLL_MS = 50;                                       // 暂停时检查取消和恢复条件的间隔
+    private static final long MIN_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(20); // 避免过于频繁的短暂睡眠
+    private static final int LEAF_SIZE = 8;                                       // 每个 fork/join 叶子任务处理的条目数
+
+    private final Project project;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final Set<CompletableFuture<Stats>> pending = ConcurrentHashMap.newKeySet();
+    private final Object runLock = new Object();
+    private volatile long lastInputNanos;
+    // 最近一次修改的文档及其是否为项目内的本地文件，只在 EDT 上访问；连续输入时不再查找文件
+    private Document lastDocument;
+    private boolean lastDocumentInProject;
+    private volatile boolean disposed;
+
+    public IndexingScheduler(@NotNull Project project) {
+        this.project = project;
+        lastInputNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(TYPING_QUIET_MS);
+    }
+
+    public static IndexingScheduler getInstance(@NotNull Project project) {
+        return project.getService(IndexingScheduler.class);
+    }
+
+    /**
+     * 在后台处理一批条目。IDE 处于 smart mode 后才开始，每个条目在 fork/join 工作线程中调用一次 work，
+     * 不持有读锁，work 需要时自行获取。单个条目失败时写入日志并继续处理其余条目。
+     * @param title 进度条的标题。
+     * @param items 要处理的条目，例如文件 URL。
+     * @param work 处理一个条目，必须可以在多个线程中同时调用。
+     * @return 任务结束、被取消或项目关闭时完成，得到处理的数量和耗时。
+     */
+    @NotNull
+    public <T> CompletableFuture<Stats> submit(@NotNull String title, @NotNull List<T> items, @NotNull Consumer<? super T> work) {
+        ensureStarted();
+        CompletableFuture<Stats> future = new CompletableFuture<>();
+        if (items.isEmpty() || disposed) {
+            future.complete(new Stats(items.size(), 0, 0, 0, disposed));
+            return future;
+        }
+        pending.add(future);
+        future.whenComplete((stats, error) -> pending.remove(future));
+        ApplicationManager.getApplication().invokeLater(() -> DumbService.getInstance(project).runWhenSmart(() -> {
+            if (disposed) {
+                future.complete(new Stats(items.size(), 0, 0, 0, true));
+                return;
+            }
+            ProgressManager.getInstance().run(new Task.Backgroundable(project, title, true) {
+                @Override
+                public void run(@NotNull ProgressIndicator indicator) {
+                    synchronized (runLock) {
+                        future.complete(runJob(title, items, work, indicator));
+                    }
+                }
+
+                @Override
+                public void onFinished() {
+                    // 开始前被取消或执行出错时也要结束等待
+                    future.complete(new Stats(items.size(), 0, 0, 0, true));
+                }
+            });
+        }), project.getDisposed());
+        return future;
+    }
+
+    /**
+     * 第一次调用时开始监听文档修改，记录用户最后一次输入的时间。之后的调用不做任何事。
+     */
+    private void ensureStarted() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentListener() {
+            @Override
+            public void documentChanged(@NotNull DocumentEvent event) {
+                if (isUserEdit(event.getDocument())) {
+                    lastInputNanos = System.nanoTime();
+                }
+            }
+        }, this);
+    }
+
+    /**
+     * 判断文档修改是否是用户在项目文件中的输入。控制台、内存中的文档和 CodeK 自身的写命令
+     * ({@link FileTransaction#isToolCommand()}) 产生的修改不算，否则持续输出的构建会让索引一直暂停。
+     */
+    private boolean isUserEdit(@NotNull Document document) {
+        if (FileTransaction.isToolCommand()) {
+            return false;
+        }
+        if (document != lastDocument) {
+            VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+            lastDocument = document;
+            lastDocumentInProject = file != null && file.isInLocalFileSystem() && !project.isDisposed()
+                    && ProjectFileIndex.getInstance(project).isInContent(file);
+        }
+        return lastDocumentInProject;
+    }
+
+    @NotNull
+    private <T> Stats runJob(@NotNull String title, @NotNull List<T> items, @NotNull Consumer<? super T> work,
+                             @NotNull ProgressIndicator indicator) {
+        CodekConfig config = ApplicationManager.getApplication().getService(CodekConfig.class);
+        float share = config.getIndexingCpuShare();
+        int cores = Runtime.getRuntime().availableProcessors();
+        int parallelism = IndexingThrottle.parallelism(share, cores);
+        double duty = IndexingThrottle.duty(share, cores);
+        Job<T> job = new Job<>(items, work, indicator, duty);
+        indicator.setIndeterminate(false);
+        indicator.setFraction(0);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism, IndexingScheduler::newWorker, null, false);
+        long start = System.nanoTime();
+        try {
+            pool.invoke(job.new Shard(0, items.size()));
+        } finally {
+            pool.shutdownNow();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        Stats stats = new Stats(items.size(), job.done.get(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                TimeUnit.NANOSECONDS.toMillis(job.pausedNanos.get()), job.isStopped());
+        LOG.info(String.format("%s: %d/%d 项，%d 个线程 (CPU 份额 %.0f%%)，耗时 %d ms，其中暂停 %d ms，%.1f 项/秒%s",
+                title, stats.processed, stats.total, parallelism, share * 100, stats.elapsedMs,
+                stats.pausedMs, stats.getItemsPerSecond(), stats.cancelled ? "，已取消" : ""));
+        return stats;
+    }
+
+    @NotNull
+    private static ForkJoinWorkerThread newWorker(@NotNull ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("CodeK Indexing " + thread.getPoolIndex());
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        for (CompletableFuture<Stats> future : pending) {
+            future.complete(new Stats(0, 0, 0, 0, true));
+        }
+    }
+
+    /**
+     * 一个任务的执行状态，由所有工作线程共享。
+     */
+    private final class Job<T> {
+        private final List<T> items;
+        private final Consumer<? super T> work;
+        private final ProgressIndicator indicator;
+        private final ThreadLocal<IndexingThrottle> throttles;
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicLong pausedNanos = new AtomicLong();
+        private final long startNanos = System.nanoTime();
+
+        Job(List<T> items, Consumer<? super T> work, ProgressIndicator indicator, double duty) {
+            this.items = items;
+            this.work = work;
+            this.indicator = indicator;
+            this.throttles = ThreadLocal.withInitial(() -> new IndexingThrottle(duty, MIN_PAUSE_NANOS));
+        }
+
+        boolean isStopped() {
+            return disposed || project.isDisposed() || indicator.isCanceled();
+        }
+
+        void process(T item) {
+            if (!awaitIdle()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                work.accept(item);
+            } catch (ProcessCanceledException e) {
+                throw e;
+            } catch (Exception e) {
+                LOG.warn("后台索引处理失败: " + item, e);
+            }
+            long end = System.nanoTime();
+            int count = done.incrementAndGet();
+            indicator.setFraction((double) count / items.size());
+            double seconds = (end - startNanos) / 1e9;
+            indicator.setText2(String.format("%d/%d，%.1f 项/秒", count, items.size(), seconds > 0 ? count / seconds : 0));
+            pause(throttles.get().afterWork(end - start));
+        }
+
+        /**
+         * IDE 正在索引或用户正在输入时等待。
+         * @return 可以继续时为 true，任务已取消时为 false。
+         */
+        private boolean awaitIdle() {
+            long start = System.nanoTime();
+            while (!isStopped()) {
+                boolean dumb = DumbService.isDumb(project);
+                boolean typing = System.nanoTime() - lastInputNanos < TimeUnit.MILLISECONDS.toNanos(TYPING_QUIET_MS);
+                if (!dumb && !typing) {
+                    pausedNanos.addAndGet(System.nanoTime() - start);
+                    return true;
+                }
+                sleep(TimeUnit.MILLISECONDS.toNanos(POLL_MS));
+            }
+            return false;
+        }
+
+        /**
+         * 分段睡眠，期间可以取消。
+         */
+        private void pause(long nanos) {
+            if (nanos <= 0) {
+                return;
+            }
+            long start = System.nanoTime();
+            long deadline = start + nanos;
+            for (long remaining = nanos; remaining > 0 && !isStopped(); remaining = deadline - System.nanoTime()) {
+                sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_MS)));
+            }
+            pausedNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        private void sleep(long nanos) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessCanceledException();
+            }
+        }
+
+        /**
+         * 处理 [from, to) 的条目，超过 {@link #LEAF_SIZE} 个时一分为二，空闲的线程可以窃取另一半。
+         */
+        private final class Shard extends RecursiveAction {
+            private final int from;
+            private final int to;
+
+            Shard(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (isStopped()) {
+                    return;
+                }
+                if (to - from > LEAF_SIZE) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new Shard(from, middle), new Shard(middle, to));
+                    return;
+                }
+                for (int i = from; i < to && !isStopped(); i++) {
+                    process(items.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个任务的执行结果。
+     */
+    public static final class Stats {
+        private final int total;
+        private final int processed;
+        private final long elapsedMs;
+        private final long pausedMs;
+        private final boolean cancelled;
+
+        Stats(int total, int processed, long elapsedMs, long pausedMs, boolean cancelled) {
+            this.total = total;
+            this.processed = processed;
+            this.elapsedMs = elapsedMs;
+            this.pausedMs = pausedMs;
+            this.cancelled = cancelled;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getProcessed() {
+            return processed;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        /**
+         * 所有工作线程因 IDE 索引、用户输入和 CPU 份额暂停的时间之和。
+         */
+        public long getPausedMs() {
+            return pausedMs;
+        }
+
+        /**
+         * 任务是否被用户取消或因项目关闭而中止，为 true 时部分条目没有处理。
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public double getItemsPerSecond() {
+            return elapsedMs > 0 ? processed * 1000.0 / elapsedMs : 0;
+        }
+    }
+}
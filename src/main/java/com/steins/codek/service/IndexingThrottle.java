@@ -0,0 +1,61 @@
+package com.steins.codek.service;
+
+/**
+ * 后台索引的 CPU 占用限制。允许占用的份额 (所有核心的比例) 先折算成工作线程数，
+ * 每个线程再按占空比工作：工作了 t 纳秒后应休息 t × (1 - 占空比) / 占空比 纳秒。
+ * 休息时间先累计，达到最短休息时间后一次性休息，避免每个文件之后都进行一次很短的睡眠。
+ * 每个工作线程使用自己的实例，实例不是线程安全的。
+ * @author 0027013824
+ */
+final class IndexingThrottle {
+    private final double duty;
+    private final long minPauseNanos;
+    private long debtNanos;
+
+    /**
+     * @param duty 占空比，(0, 1]，1 表示不休息。
+     * @param minPauseNanos 累计的休息时间达到此值时才休息。
+     */
+    IndexingThrottle(double duty, long minPauseNanos) {
+        if (duty <= 0 || duty > 1) {
+            throw new IllegalArgumentException("duty must be in (0, 1]: " + duty);
+        }
+        this.duty = duty;
+        this.minPauseNanos = minPauseNanos;
+    }
+
+    /**
+     * 满足 CPU 份额所需的工作线程数：份额乘以核心数向上取整，至少为 1。
+     * @param share 允许占用的 CPU 份额，(0, 1]。
+     * @param cores 可用的核心数。
+     */
+    static int parallelism(double share, int cores) {
+        int threads = (int) Math.ceil(share * cores - 1e-9);
+        return Math.max(1, Math.min(cores, threads));
+    }
+
+    /**
+     * 每个工作线程的占空比，使 parallelism 个线程合计的占用等于 share。
+     */
+    static double duty(double share, int cores) {
+        return Math.min(1.0, share * cores / parallelism(share, cores));
+    }
+
+    /**
+     * 记录一段工作的耗时。
+     * @param busyNanos 工作耗时 (纳秒)。
+     * @return 现在应休息的纳秒数，累计的休息时间不足最短休息时间时为 0。
+     */
+    long afterWork(long busyNanos) {
+        if (duty >= 1 || busyNanos <= 0) {
+            return 0;
+        }
+        debtNanos += (long) (busyNanos * (1 - duty) / duty);
+        if (debtNanos < minPauseNanos) {
+            return 0;
+        }
+        long pause = debtNanos;
+        debtNanos = 0;
+        return pause;
+    }
+}
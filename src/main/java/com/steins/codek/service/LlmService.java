@@ -3,21 +3,20 @@ package com.steins.codek.service;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.steins.codek.config.CodekConfig;
 import com.steins.codek.model.ChatMessage;
-import com.steins.codek.tool.Tool;
-import com.steins.codek.tool.ToolParameter;
+import com.steins.codek.tool.FileTransaction;
+import com.steins.codek.tool.ToolOutputBudget;
+import com.steins.codek.tool.ToolResultWriter;
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import org.jetbrains.annotations.NotNull;
@@ -27,6 +26,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -39,7 +39,6 @@ import java.util.stream.Collectors;
  */
 public class LlmService {
     private static final Logger LOG = Logger.getInstance(LlmService.class);
-    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
     private static final int TIMEOUT_SECONDS = 120; // 增加超时时间以应对可能较长的工具执行
     
     private final OkHttpClient client;
@@ -48,7 +47,11 @@ public class LlmService {
     private final String model;
     private final String apiUrl; // API地址
     private final ToolExecutor toolExecutor; // 添加 ToolExecutor
-    private final List<Tool> availableTools; // 存储可用工具列表
+    private final ToolRegistry toolRegistry; // 工具定义按注册表版本缓存
+    private final ToolApprovalQueue approvalQueue; // 需要批准的工具调用的审查队列
+    private volatile Call currentCall; // 当前轮次正在进行的请求
+    private volatile ToolExecutor.Turn currentTurn; // 当前轮次的文件事务和工具调用
+    private volatile ToolExecutor.Turn commitFailureTurn; // 为报告提交失败而继续的轮次，它的提交失败不再继续
     
     /**
      * 构造函数。
@@ -68,8 +71,9 @@ public class LlmService {
                 .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
                 .writeTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
                 .build();
-        this.toolExecutor = new ToolExecutor(project);
-        this.availableTools = toolExecutor.getAvailableTools();
+        this.toolExecutor = ToolExecutor.getInstance(project);
+        this.toolRegistry = ToolRegistry.getInstance(project);
+        this.approvalQueue = ToolApprovalQueue.getInstance(project);
     }
     
     /**
@@ -83,31 +87,57 @@ public class LlmService {
     
     /**
      * 发送聊天消息到大模型 API 并以流式方式处理响应。
-     * 支持工具调用 (Function Calling)。
+     * 支持工具调用 (Function Calling)。每次调用是用户发起的新一轮对话，“本轮不再询问”的批准在此失效。
+     * 本轮所有文件修改暂存在一个事务 (内存覆盖层) 中，对话正常结束时统一写入磁盘，被停止时丢弃；
+     * 出错时只写入已审查的修改。写入失败时把失败告诉模型并继续一次对话。
      */
     public void streamChatCompletion(List<ChatMessage> messages, double temperature, StreamingCallback callback) {
+        approvalQueue.beginTurn();
+        ToolExecutor.Turn turn = toolExecutor.beginTurn();
+        currentTurn = turn;
+        doStreamChatCompletion(turn, messages, temperature, callback);
+    }
+
+    /**
+     * 停止当前轮次：取消进行中的请求和工具调用 (包括正在运行的命令)，放弃本轮暂存的文件修改。
+     * 只影响本服务 (所在的工具窗口) 的轮次。停止后不再回调 StreamingCallback。
+     */
+    public void cancelCurrentTurn() {
+        ToolExecutor.Turn turn = currentTurn;
+        if (turn == null) {
+            return;
+        }
+        toolExecutor.cancelRunningToolCalls(turn);
+        Call call = currentCall;
+        if (call != null) {
+            call.cancel();
+        }
+        toolExecutor.rollbackTransaction(turn);
+    }
+
+    private void doStreamChatCompletion(ToolExecutor.Turn turn, List<ChatMessage> messages, double temperature,
+                                        StreamingCallback callback) {
         if (apiKey == null || apiKey.trim().isEmpty()) {
-            handleError(callback, new IOException("API密钥未配置"));
+            handleError(turn, callback, new IOException("API密钥未配置"));
             return;
         }
         if (apiUrl == null || apiUrl.trim().isEmpty()) {
-            handleError(callback, new IOException("API地址未配置"));
+            handleError(turn, callback, new IOException("API地址未配置"));
             return;
         }
         
         try {
-            JsonObject requestBody = buildRequestBody(messages, temperature, true);
-            if (!availableTools.isEmpty()) {
-                requestBody.add("tools", buildToolsJson());
-                requestBody.addProperty("tool_choice", "auto");
-            }
-            Request request = buildRequest(requestBody);
+            // 请求体在发送时直接写入连接，消息内容 (例如读取的文件) 不会被复制成 JSON 字符串
+            String toolsJson = toolRegistry.getToolsJson().size() > 0 ? toolRegistry.getToolsJsonText() : null;
+            Request request = buildRequest(new ChatRequestBody(this.model, temperature, true, messages, toolsJson, gson));
             
-            client.newCall(request).enqueue(new Callback() {
+            Call call = client.newCall(request);
+            currentCall = call;
+            call.enqueue(new Callback() {
                 @Override
                 public void onFailure(@NotNull Call call, @NotNull IOException e) {
                     LOG.warn("API 流式请求失败: " + e.getMessage(), e);
-                    handleError(callback, e);
+                    handleError(turn, callback, e);
                 }
                 
                 @Override
@@ -115,104 +145,57 @@ public class LlmService {
                     try (ResponseBody responseBody = response.body()) {
                         if (!response.isSuccessful()) {
                             String errorBody = responseBody != null ? responseBody.string() : "未知错误";
-                            handleError(callback, new IOException("API响应错误: " + response.code() + ", " + errorBody));
+                            handleError(turn, callback, new IOException("API响应错误: " + response.code() + ", " + errorBody));
                             return;
                         }
                         if (responseBody == null) {
-                            handleError(callback, new IOException("空响应体"));
+                            handleError(turn, callback, new IOException("空响应体"));
                             return;
                         }
-                        processStream(responseBody, messages, temperature, callback);
+                        processStream(turn, responseBody, messages, temperature, callback);
                     }
                     catch (IOException e) {
                         LOG.error("处理 API 响应流时出错", e);
-                        handleError(callback, e);
+                        handleError(turn, callback, e);
                     }
                     catch (Exception e) {
                         LOG.error("处理 API 响应时发生意外错误", e);
-                        handleError(callback, e);
+                        handleError(turn, callback, e);
                     }
                 }
             });
         }
         catch (Exception e) {
             LOG.error("准备 API 流式请求时出错", e);
-            handleError(callback, e);
+            handleError(turn, callback, e);
         }
     }
     
-    private JsonObject buildRequestBody(List<ChatMessage> messages, double temperature, boolean stream) {
-        JsonObject requestBody = new JsonObject();
-        requestBody.addProperty("model", this.model);
-        requestBody.addProperty("temperature", temperature);
-        if (stream) {
-            requestBody.addProperty("stream", true);
-        }
-        requestBody.add("messages", buildMessagesJson(messages));
-        return requestBody;
-    }
-    
-    private JsonArray buildMessagesJson(List<ChatMessage> messages) {
-        JsonArray messagesArray = new JsonArray();
-        for (ChatMessage message : messages) {
-            JsonObject messageObj = new JsonObject();
-            messageObj.addProperty("role", message.getRole());
-            
-            List<ChatMessage.ToolCall> toolCalls = message.getToolCalls();
-            String toolCallId = message.getToolCallId();
-            
-            if (toolCalls != null && !toolCalls.isEmpty()) {
-                if ("assistant".equals(message.getRole())) {
-                    messageObj.add("tool_calls", gson.toJsonTree(toolCalls));
-                    messageObj.add("content", JsonNull.INSTANCE);
-                }
-                else {
-                    LOG.warn("消息角色 '" + message.getRole() + "' 不应包含 tool_calls，已忽略。");
-                    messageObj.addProperty("content", message.getContent());
-                }
-            }
-            else if ("tool".equals(message.getRole())) {
-                messageObj.addProperty("tool_call_id", toolCallId);
-                messageObj.addProperty("content", message.getContent());
-            }
-            else {
-                if (message.getContent() != null) {
-                    messageObj.addProperty("content", message.getContent());
-                }
-                else if ("assistant".equals(message.getRole())) {
-                    messageObj.add("content", JsonNull.INSTANCE);
-                }
-                else {
-                    LOG.warn("消息角色 '" + message.getRole() + "' 的 content 为 null。");
-                    messageObj.addProperty("content", "");
-                }
-            }
-            messagesArray.add(messageObj);
-        }
-        return messagesArray;
-    }
-    
-    private Request buildRequest(JsonObject requestBody) {
+    private Request buildRequest(ChatRequestBody requestBody) {
         Request.Builder builder = new Request.Builder()
                 .url(this.apiUrl)
                 .addHeader("Authorization", "Bearer " + apiKey)
                 .addHeader("Content-Type", "application/json");
         
-        if (requestBody.has("stream") && requestBody.get("stream").getAsBoolean()) {
+        if (requestBody.isStream()) {
             builder.addHeader("Accept", "text/event-stream");
         }
         
-        builder.post(RequestBody.create(requestBody.toString(), JSON));
+        builder.post(requestBody);
         return builder.build();
     }
     
-    private void processStream(ResponseBody responseBody, List<ChatMessage> originalMessages, double temperature, StreamingCallback callback) throws IOException {
+    private void processStream(ToolExecutor.Turn turn, ResponseBody responseBody, List<ChatMessage> originalMessages,
+                               double temperature, StreamingCallback callback) throws IOException {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(responseBody.byteStream()))) {
             String line;
             StringBuilder accumulatedContent = new StringBuilder();
             List<ToolCall> currentToolCalls = new ArrayList<>();
             
             while ((line = reader.readLine()) != null) {
+                if (turn.isCancelled()) {
+                    return;
+                }
                 if (line.startsWith("data:")) {
                     String jsonData = line.substring(5).trim();
                     if (jsonData.equals("[DONE]")) {
@@ -239,7 +222,7 @@ public class LlmService {
                                             if (contentElement.isJsonPrimitive() && contentElement.getAsJsonPrimitive().isString()) {
                                                 String contentChunk = contentElement.getAsString();
                                                 accumulatedContent.append(contentChunk);
-                                                handleChunkReceived(callback, contentChunk);
+                                                handleChunkReceived(turn, callback, contentChunk);
                                             }
                                             else {
                                                 LOG.warn("Received non-null, non-string content in delta: " + contentElement.toString());
@@ -251,7 +234,7 @@ public class LlmService {
                                 if (choice.has("finish_reason") && !choice.get("finish_reason").isJsonNull()) {
                                     String finishReason = choice.get("finish_reason").getAsString();
                                     if ("tool_calls".equals(finishReason)) {
-                                        handleToolCalls(currentToolCalls, originalMessages, temperature, callback);
+                                        handleToolCalls(turn, currentToolCalls, originalMessages, temperature, callback);
                                         return;
                                     }
                                     else if ("stop".equals(finishReason)) {
@@ -270,7 +253,7 @@ public class LlmService {
                     }
                 }
             }
-            handleComplete(callback, accumulatedContent.toString());
+            handleComplete(turn, originalMessages, accumulatedContent.toString(), temperature, callback);
         }
     }
     
@@ -334,7 +317,8 @@ public class LlmService {
         return element.toString();
     }
     
-    private void handleToolCalls(List<ToolCall> toolCalls, List<ChatMessage> currentMessages, double temperature, StreamingCallback callback) {
+    private void handleToolCalls(ToolExecutor.Turn turn, List<ToolCall> toolCalls, List<ChatMessage> currentMessages,
+                                 double temperature, StreamingCallback callback) {
         List<ChatMessage> messagesForNextTurn = new ArrayList<>(currentMessages);
         
         ChatMessage assistantMessageWithCalls = new ChatMessage("assistant", null);
@@ -349,37 +333,49 @@ public class LlmService {
         }
         else {
             LOG.warn("模型指示 tool_calls 结束，但未收到有效的工具调用数据。");
-            handleComplete(callback, "");
+            handleComplete(turn, currentMessages, "", temperature, callback);
             return;
         }
         
-        List<CompletableFuture<ToolExecutor.ToolExecutionResult>> futures = new ArrayList<>();
+        // 工具结果的预算取决于下一次请求剩余的上下文窗口，由本轮各工具调用平分
+        ToolOutputBudget outputBudget = ToolOutputBudget.forRemainingContext(
+                CodekConfig.getContextWindowTokens(model), estimatePromptTokens(messagesForNextTurn), validToolCalls.size());
+
+        List<ToolExecutor.PendingToolCall> pendingCalls = new ArrayList<>();
         for (ToolCall toolCall : toolCalls) {
             if (toolCall.id == null || toolCall.functionName == null) {
                 continue;
             }
-            
-            String argumentsStr = toolCall.arguments.toString();
-            
-            CompletableFuture<ToolExecutor.ToolExecutionResult> future = new CompletableFuture<>();
-            ApplicationManager.getApplication().executeOnPooledThread(() -> {
-                try {
-                    ToolExecutor.ToolExecutionResult result = toolExecutor.executeToolCall(toolCall.functionName, argumentsStr);
-                    result.setToolCallId(toolCall.id);
-                    future.complete(result);
-                }
-                catch (Exception e) {
-                    future.completeExceptionally(e);
-                }
-            });
-            futures.add(future);
+            pendingCalls.add(new ToolExecutor.PendingToolCall(toolCall.functionName, toolCall.arguments.toString(), toolCall.id));
         }
+        // 由 ToolExecutor 按工具策略和资源依赖调度：冲突的调用按消息顺序执行，超时返回结构化结果而不会挂起本轮对话
+        List<CompletableFuture<ToolExecutor.ToolExecutionResult>> futures = toolExecutor.submitToolCalls(turn, pendingCalls,
+                outputBudget, (toolCallId, text) -> handleToolOutput(turn, callback, toolCallId, text));
         
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenAcceptAsync(v -> {
+        // 全部调用完成后审查这条消息暂存的文件修改，拒绝的修改回退到上一个检查点；审查期间不阻塞任何线程
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenCompose(v -> toolExecutor.reviewPendingChanges(turn))
+                .thenAcceptAsync(rejections -> {
+            if (turn.isCancelled()) {
+                return;
+            }
+            toolExecutor.checkpointTransaction(turn);
             for (CompletableFuture<ToolExecutor.ToolExecutionResult> future : futures) {
                 try {
                     ToolExecutor.ToolExecutionResult result = future.join();
-                    ChatMessage toolResultMessage = new ChatMessage("tool", result.getResultForLLM());
+                    String content = result.getResultForLLM();
+                    String rejectedPaths = result.getToolCallId() != null ? rejections.get(result.getToolCallId()) : null;
+                    if (rejectedPaths != null) {
+                        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+                            content = json.beginObject()
+                                    .name("error").value("rejected")
+                                    .name("message").value("The user rejected the changes to " + rejectedPaths
+                                            + " in review; they were not applied. Do not retry them unchanged.")
+                                    .endObject()
+                                    .toString();
+                        }
+                    }
+                    ChatMessage toolResultMessage = new ChatMessage("tool", content);
                     toolResultMessage.setToolCallId(result.getToolCallId());
                     messagesForNextTurn.add(toolResultMessage);
                 }
@@ -387,83 +383,116 @@ public class LlmService {
                     LOG.error("获取工具执行结果时出错", e);
                     String failedToolCallId = "unknown";
                     ChatMessage errorMsg = new ChatMessage("tool",
-                            String.format("{\"error\": \"Failed to get tool execution result: %s\"}", escapeJson(e.getMessage())));
+                            ToolResultWriter.error("Failed to get tool execution result: " + e.getMessage()));
                     errorMsg.setToolCallId(failedToolCallId);
                     messagesForNextTurn.add(errorMsg);
                 }
             }
             
             LOG.info("将工具结果发送回 LLM 进行下一步处理...");
-            streamChatCompletion(messagesForNextTurn, temperature, callback);
+            doStreamChatCompletion(turn, messagesForNextTurn, temperature, callback);
             
         }).exceptionally(e -> {
             LOG.error("执行一个或多个工具时出错", e);
-            handleError(callback, new IOException("执行工具时出错: " + e.getMessage(), e));
+            handleError(turn, callback, new IOException("执行工具时出错: " + e.getMessage(), e));
             return null;
         });
     }
     
-    private JsonArray buildToolsJson() {
-        JsonArray toolsJson = new JsonArray();
-        for (Tool tool : availableTools) {
-            JsonObject toolObject = new JsonObject();
-            toolObject.addProperty("type", "function");
-            JsonObject functionObject = new JsonObject();
-            functionObject.addProperty("name", tool.getName());
-            functionObject.addProperty("description", tool.getDescription());
-            
-            JsonObject parametersObject = new JsonObject();
-            parametersObject.addProperty("type", "object");
-            JsonObject propertiesObject = new JsonObject();
-            JsonArray requiredArray = new JsonArray();
-            
-            if (tool.getParameters() != null) {
-                for (ToolParameter param : tool.getParameters()) {
-                    JsonObject paramProps = new JsonObject();
-                    String paramType = param.getType();
-                    String jsonType = mapTypeToJsonSchema(paramType);
-                    paramProps.addProperty("type", jsonType);
-                    paramProps.addProperty("description", param.getDescription());
-                    propertiesObject.add(param.getName(), paramProps);
-                    if (param.isRequired()) {
-                        requiredArray.add(param.getName());
-                    }
-                }
-            }
-            parametersObject.add("properties", propertiesObject);
-            if (requiredArray.size() > 0) {
-                parametersObject.add("required", requiredArray);
-            }
-            
-            functionObject.add("parameters", parametersObject);
-            toolObject.add("function", functionObject);
-            toolsJson.add(toolObject);
-        }
-        return toolsJson;
-    }
-    
-    private String mapTypeToJsonSchema(String toolType) {
-        if (toolType == null) {
-            return "string";
-        }
-        return switch (toolType.toLowerCase()) {
-            case "integer", "int" -> "integer";
-            case "number", "float", "double" -> "number";
-            case "boolean", "bool" -> "boolean";
-            case "string", "text", "file_path", "filepath" -> "string";
-            default -> "string";
-        };
+    /**
+     * 估算请求消息和工具定义占用的 token 数。
+     */
+    private int estimatePromptTokens(List<ChatMessage> messages) {
+        return toolRegistry.getToolsJsonTokens() + ContextPacker.countTokens(messages);
     }
     
-    private void handleChunkReceived(StreamingCallback callback, String chunk) {
+    private void handleChunkReceived(ToolExecutor.Turn turn, StreamingCallback callback, String chunk) {
+        if (turn.isCancelled()) return;
         ApplicationManager.getApplication().invokeLater(() -> callback.onChunkReceived(chunk));
     }
+
+    private void handleToolOutput(ToolExecutor.Turn turn, StreamingCallback callback, String toolCallId, String text) {
+        if (turn.isCancelled()) return;
+        ApplicationManager.getApplication().invokeLater(() -> callback.onToolOutput(toolCallId, text));
+    }
     
-    private void handleComplete(StreamingCallback callback, String finalContent) {
+    private void handleComplete(ToolExecutor.Turn turn, List<ChatMessage> messages, String finalContent, double temperature,
+                                StreamingCallback callback) {
+        if (turn.isCancelled()) return;
+        // 对话正常结束：本轮暂存的文件修改一次写入磁盘
+        FileTransaction.CommitResult commitResult = toolExecutor.commitTransaction(turn);
+        if (!commitResult.isSuccessful()) {
+            handleChunkReceived(turn, callback, describeFailures(commitResult));
+            if (turn != commitFailureTurn && !turn.isCancelled()) {
+                // 工具结果中已告诉模型修改成功：把失败发给模型，由它重新修改或向用户说明。
+                // 最后一条助手消息没有工具调用可以回应，只能作为一条用户消息发送，并注明来自 CodeK 而不是用户的输入
+                List<ChatMessage> followUp = new ArrayList<>(messages);
+                if (finalContent != null && !finalContent.isEmpty()) {
+                    followUp.add(new ChatMessage("assistant", finalContent));
+                }
+                followUp.add(new ChatMessage("user", commitFailureMessage(commitResult)));
+                ToolExecutor.Turn next = toolExecutor.beginTurn();
+                commitFailureTurn = next;
+                currentTurn = next;
+                LOG.info("本轮的文件修改部分未能写入，将失败发送给 LLM: " + commitResult.getFailuresByPath().keySet());
+                doStreamChatCompletion(next, followUp, temperature, callback);
+                return;
+            }
+        }
         ApplicationManager.getApplication().invokeLater(callback::onComplete);
     }
+
+    /**
+     * 提交失败时发给模型的消息：一句说明来源的文字，后接列出每个文件失败原因的 JSON。
+     */
+    private static String commitFailureMessage(FileTransaction.CommitResult commitResult) {
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                    .name("error").value("commit_failed")
+                    .name("files").beginObject();
+            for (Map.Entry<String, String> failure : commitResult.getFailuresByPath().entrySet()) {
+                json.name(failure.getKey()).value(failure.getValue());
+            }
+            return "[Automatic notice from the CodeK plugin, not typed by the user] "
+                    + "Some file edits from your previous turn could not be saved:\n"
+                    + json.endObject()
+                    .name("message").value("Tool results earlier in this turn reported these edits as successful, "
+                            + "but they could not be written when the turn ended and were not applied. "
+                            + "Re-read the files and redo the edits if they are still needed, or tell the user.")
+                    .endObject()
+                    .toString();
+        }
+    }
+
+    private static String describeFailures(FileTransaction.CommitResult commitResult) {
+        StringBuilder notice = new StringBuilder();
+        if (!commitResult.getDiscarded().isEmpty()) {
+            notice.append("\n\n对话出错，以下文件中尚未审查的修改已放弃:");
+            for (String path : commitResult.getDiscarded()) {
+                notice.append("\n- ").append(path);
+            }
+        }
+        if (!commitResult.isSuccessful()) {
+            notice.append("\n\n以下文件修改未能写入:");
+            for (Map.Entry<String, String> failure : commitResult.getFailuresByPath().entrySet()) {
+                notice.append("\n- ").append(failure.getKey()).append(": ").append(failure.getValue());
+            }
+        }
+        return notice.toString();
+    }
     
-    private void handleError(StreamingCallback callback, Exception e) {
+    private void handleError(ToolExecutor.Turn turn, StreamingCallback callback, Exception e) {
+        if (turn.isCancelled()) {
+            // 用户停止时本轮的修改已放弃，请求被取消产生的错误不再上报
+            toolExecutor.rollbackTransaction(turn);
+            return;
+        }
+        // 已审查的修改已在工具结果中告诉模型成功，照常写入；只放弃出错时还未审查的修改，并告诉用户
+        FileTransaction.CommitResult commitResult = toolExecutor.commitCheckpoint(turn);
+        String notice = describeFailures(commitResult);
+        if (!notice.isEmpty()) {
+            handleChunkReceived(turn, callback, notice);
+        }
         ApplicationManager.getApplication().invokeLater(() -> callback.onError(e));
     }
     
@@ -492,50 +521,14 @@ public class LlmService {
         void onComplete();
         
         void onError(Exception e);
-    }
-    
-    private static String escapeJson(String str) {
-        if (str == null) {
-            return "";
-        }
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < str.length(); i++) {
-            char c = str.charAt(i);
-            switch (c) {
-                case '"':
-                    sb.append("\\\"");
-                    break;
-                case '\\':
-                    sb.append("\\\\");
-                    break;
-                case '\b':
-                    sb.append("\\b");
-                    break;
-                case '\f':
-                    sb.append("\\f");
-                    break;
-                case '\n':
-                    sb.append("\\n");
-                    break;
-                case '\r':
-                    sb.append("\\r");
-                    break;
-                case '\t':
-                    sb.append("\\t");
-                    break;
-                case '/':
-                    sb.append("\\/");
-                    break;
-                default:
-                    if (c <= '\u001F') {
-                        sb.append(String.format("\\u%04x", (int) c));
-                    }
-                    else {
-                        sb.append(c);
-                    }
-            }
+
+        /**
+         * 工具执行过程中的实时输出 (例如 runCommand 的命令输出)，只用于展示。
+         * @param toolCallId 工具调用 ID。
+         * @param text 输出文本。
+         */
+        default void onToolOutput(String toolCallId, String text) {
         }
-        return sb.toString();
     }
 }
 
@@ -0,0 +1,666 @@
+package com.steins.codek.service;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * int8 量化的 HNSW 近似最近邻索引，相似度为内积 (输入应为单位向量)。
+ * 量化后的向量 (每个节点一个 float 缩放系数加 dimension 个字节) 和第 0 层邻接表存放在堆外的 direct buffer 中，
+ * 只有少数节点才有的上层邻接表留在堆内。删除只做标记，被删除的节点仍参与图的遍历但不出现在结果中，
+ * 删除过多时由调用方通过 {@link #compactInto} 重建。
+ * 非线程安全：写操作需要调用方加写锁，查询可以在读锁下并发执行。
+ * @author 0027013824
+ */
+final class QuantizedHnswIndex {
+    private static final int MAGIC = 0x434B4856; // "CKHV"
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_LEVEL = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int slotBytes;
+    private final double levelMultiplier;
+    private final Random random = new Random(42); // 固定种子，同样的插入顺序得到同样的图
+
+    private ByteBuffer vectors;      // 每个节点 slotBytes 字节：缩放系数 + 量化后的分量
+    private IntBuffer layer0;        // 每个节点 1 + maxM0 个 int：邻居数 + 邻居
+    private int[][][] upperLayers;   // upperLayers[node][level - 1] = {邻居数, 邻居...}
+    private byte[] levels;
+    private BitSet deleted = new BitSet();
+    private int capacity;
+    private int size;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * @param dimension 向量维度。
+     * @param m 上层每个节点的最大邻居数，第 0 层为 2m。
+     * @param efConstruction 插入时的候选集大小，越大图的质量越高、插入越慢。
+     */
+    QuantizedHnswIndex(int dimension, int m, int efConstruction) {
+        if (dimension < 1 || m < 2 || efConstruction < 1) {
+            throw new IllegalArgumentException("Invalid HNSW parameters");
+        }
+        this.dimension = dimension;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.slotBytes = Float.BYTES + dimension;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * 节点总数，包括已删除的节点。
+     */
+    int size() {
+        return size;
+    }
+
+    int getDeletedCount() {
+        return deletedCount;
+    }
+
+    int getLiveCount() {
+        return size - deletedCount;
+    }
+
+    boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+
+    /**
+     * 堆外内存占用 (字节)。
+     */
+    long getOffHeapBytes() {
+        return (long) vectors.capacity() + (long) layer0.capacity() * Integer.BYTES;
+    }
+
+    /**
+     * 插入一个向量。
+     * @return 新节点的编号，从 0 开始连续分配。
+     */
+    int add(@NotNull float[] vector) {
+        checkDimension(vector);
+        ensureCapacity(size + 1);
+        int node = size++;
+        byte[] quantized = new byte[dimension];
+        float scale = quantize(vector, quantized);
+        int base = node * slotBytes;
+        vectors.putFloat(base, scale);
+        for (int i = 0; i < dimension; i++) {
+            vectors.put(base + Float.BYTES + i, quantized[i]);
+        }
+        int level = randomLevel();
+        levels[node] = (byte) level;
+        if (level > 0) {
+            upperLayers[node] = new int[level][m + 1];
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        BitSet visited = new BitSet(size);
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(quantized, scale, current, l, visited);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            long[] candidates = searchLayer(quantized, scale, current, efConstruction, l, visited);
+            int[] neighbors = selectNeighbors(candidates, candidates.length, l == 0 ? maxM0 : m);
+            setNeighbors(node, l, neighbors, neighbors.length);
+            for (int neighbor : neighbors) {
+                connect(neighbor, node, l);
+            }
+            current = nodeOf(candidates[0]);
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * 标记删除一个节点。
+     */
+    void remove(int node) {
+        if (node >= 0 && node < size && !deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+        }
+    }
+
+    /**
+     * 近似查询与向量最相似的 k 个未删除节点。
+     * @param ef 查询时的候选集大小，不小于 k；越大召回率越高、越慢。
+     * @return 按相似度从高到低排列的结果。
+     */
+    @NotNull
+    List<Neighbor> search(@NotNull float[] query, int k, int ef) {
+        checkDimension(query);
+        if (entryPoint < 0 || k <= 0) {
+            return new ArrayList<>();
+        }
+        byte[] quantized = new byte[dimension];
+        float scale = quantize(query, quantized);
+        BitSet visited = new BitSet(size);
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedyClosest(quantized, scale, current, l, visited);
+        }
+        // 被删除的节点会占用候选位置，按删除比例放大候选集
+        int effectiveEf = Math.max(ef, k) + (int) ((long) Math.max(ef, k) * deletedCount / Math.max(1, size));
+        long[] candidates = searchLayer(quantized, scale, current, effectiveEf, 0, visited);
+        List<Neighbor> result = new ArrayList<>(k);
+        for (long candidate : candidates) {
+            int node = nodeOf(candidate);
+            if (!deleted.get(node)) {
+                result.add(new Neighbor(node, similarityOf(candidate)));
+                if (result.size() >= k) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 精确查询：逐个比较所有未删除的节点，用于评估近似查询的召回率。
+     */
+    @NotNull
+    List<Neighbor> exactSearch(@NotNull float[] query, int k) {
+        checkDimension(query);
+        byte[] quantized = new byte[dimension];
+        float scale = quantize(query, quantized);
+        long[] keys = new long[getLiveCount()];
+        int count = 0;
+        for (int node = 0; node < size; node++) {
+            if (!deleted.get(node)) {
+                keys[count++] = key(similarity(quantized, scale, node), node);
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        List<Neighbor> result = new ArrayList<>(Math.min(k, count));
+        for (int i = count - 1; i >= 0 && result.size() < k; i--) {
+            result.add(new Neighbor(nodeOf(keys[i]), similarityOf(keys[i])));
+        }
+        return result;
+    }
+
+    /**
+     * 反量化后的向量。
+     */
+    @NotNull
+    float[] getVector(int node) {
+        int base = node * slotBytes;
+        float scale = vectors.getFloat(base);
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = vectors.get(base + Float.BYTES + i) * scale;
+        }
+        return vector;
+    }
+
+    /**
+     * 把未删除的节点按编号顺序插入到空的目标索引中。
+     * @return 旧编号到新编号的映射，已删除的节点映射为 -1。
+     */
+    @NotNull
+    int[] compactInto(@NotNull QuantizedHnswIndex target) {
+        if (target.size != 0 || target.dimension != dimension) {
+            throw new IllegalArgumentException("Target index must be empty and have the same dimension");
+        }
+        int[] mapping = new int[size];
+        for (int node = 0; node < size; node++) {
+            mapping[node] = deleted.get(node) ? -1 : target.add(getVector(node));
+        }
+        return mapping;
+    }
+
+    /**
+     * 写出索引，格式见 {@link #read}。
+     */
+    void write(@NotNull DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(dimension);
+        out.writeInt(m);
+        out.writeInt(efConstruction);
+        out.writeInt(size);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        out.write(levels, 0, size);
+        long[] deletedBits = deleted.toLongArray();
+        out.writeInt(deletedBits.length);
+        for (long bits : deletedBits) {
+            out.writeLong(bits);
+        }
+        ByteBuffer vectorData = vectors.duplicate();
+        vectorData.position(0).limit(size * slotBytes);
+        byte[] buffer = new byte[64 * 1024];
+        while (vectorData.hasRemaining()) {
+            int length = Math.min(buffer.length, vectorData.remaining());
+            vectorData.get(buffer, 0, length);
+            out.write(buffer, 0, length);
+        }
+        for (int i = 0, end = size * (maxM0 + 1); i < end; i++) {
+            out.writeInt(layer0.get(i));
+        }
+        for (int node = 0; node < size; node++) {
+            for (int l = 1; l <= levels[node]; l++) {
+                int[] neighbors = upperLayers[node][l - 1];
+                out.writeInt(neighbors[0]);
+                for (int i = 1; i <= neighbors[0]; i++) {
+                    out.writeInt(neighbors[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取 {@link #write} 写出的索引。
+     * @throws IOException 数据损坏或格式版本不同。
+     */
+    @NotNull
+    static QuantizedHnswIndex read(@NotNull DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported vector index format");
+        }
+        int dimension = in.readInt();
+        int m = in.readInt();
+        int efConstruction = in.readInt();
+        int size = in.readInt();
+        if (size < 0 || dimension < 1 || m < 2 || efConstruction < 1) {
+            throw new IOException("Corrupted vector index header");
+        }
+        QuantizedHnswIndex index = new QuantizedHnswIndex(dimension, m, efConstruction);
+        index.ensureCapacity(size);
+        index.size = size;
+        index.entryPoint = in.readInt();
+        index.maxLevel = in.readInt();
+        in.readFully(index.levels, 0, size);
+        long[] deletedBits = new long[in.readInt()];
+        for (int i = 0; i < deletedBits.length; i++) {
+            deletedBits[i] = in.readLong();
+        }
+        index.deleted = BitSet.valueOf(deletedBits);
+        index.deletedCount = index.deleted.cardinality();
+        byte[] buffer = new byte[64 * 1024];
+        int remaining = size * index.slotBytes;
+        int position = 0;
+        while (remaining > 0) {
+            int length = Math.min(buffer.length, remaining);
+            in.readFully(buffer, 0, length);
+            ByteBuffer target = index.vectors.duplicate();
+            target.position(position);
+            target.put(buffer, 0, length);
+            position += length;
+            remaining -= length;
+        }
+        for (int i = 0, end = size * (index.maxM0 + 1); i < end; i++) {
+            index.layer0.put(i, in.readInt());
+        }
+        for (int node = 0; node < size; node++) {
+            int level = index.levels[node];
+            if (level < 0 || level > MAX_LEVEL) {
+                throw new IOException("Corrupted vector index level");
+            }
+            if (level > 0) {
+                index.upperLayers[node] = new int[level][m + 1];
+                for (int l = 1; l <= level; l++) {
+                    int count = in.readInt();
+                    if (count < 0 || count > m) {
+                        throw new IOException("Corrupted vector index graph");
+                    }
+                    int[] neighbors = index.upperLayers[node][l - 1];
+                    neighbors[0] = count;
+                    for (int i = 1; i <= count; i++) {
+                        neighbors[i] = in.readInt();
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 在一层中贪心地移动到与查询最相似的节点。
+     */
+    private int greedyClosest(byte[] query, float queryScale, int entry, int level, BitSet visited) {
+        long[] closest = searchLayer(query, queryScale, entry, 1, level, visited);
+        return nodeOf(closest[0]);
+    }
+
+    /**
+     * 在一层中做有界的最佳优先搜索。
+     * @return 最多 ef 个候选，按相似度从高到低排列，元素为 {@link #key} 编码的 (相似度, 节点)。
+     */
+    private long[] searchLayer(byte[] query, float queryScale, int entry, int ef, int level, BitSet visited) {
+        visited.clear();
+        LongHeap candidates = new LongHeap(); // 存取反后的键，堆顶为最相似的候选
+        LongHeap results = new LongHeap();    // 堆顶为结果中最不相似的节点
+        long entryKey = key(similarity(query, queryScale, entry), entry);
+        candidates.push(~entryKey);
+        results.push(entryKey);
+        visited.set(entry);
+        while (!candidates.isEmpty()) {
+            long candidate = ~candidates.pop();
+            if (results.size() >= ef && candidate < results.peek()) {
+                break;
+            }
+            int node = nodeOf(candidate);
+            int count = neighborCount(node, level);
+            for (int i = 0; i < count; i++) {
+                int neighbor = neighborAt(node, level, i);
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                long neighborKey = key(similarity(query, queryScale, neighbor), neighbor);
+                if (results.size() < ef || neighborKey > results.peek()) {
+                    candidates.push(~neighborKey);
+                    results.push(neighborKey);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        long[] sorted = results.toSortedArray();
+        for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+            long t = sorted[i];
+            sorted[i] = sorted[j];
+            sorted[j] = t;
+        }
+        return sorted;
+    }
+
+    /**
+     * HNSW 的邻居选择启发式：候选比已选中的任何邻居都更接近基准节点时才选中，使邻居分布在不同方向上；
+     * 不足 max 个时用被跳过的候选补足。
+     * @param candidates 按与基准节点的相似度从高到低排列的候选键。
+     */
+    private int[] selectNeighbors(long[] candidates, int count, int max) {
+        int[] selected = new int[Math.min(max, count)];
+        int selectedCount = 0;
+        boolean[] taken = new boolean[count];
+        for (int i = 0; i < count && selectedCount < max; i++) {
+            int candidate = nodeOf(candidates[i]);
+            float toBase = similarityOf(candidates[i]);
+            boolean diverse = true;
+            for (int j = 0; j < selectedCount; j++) {
+                if (similarity(candidate, selected[j]) > toBase) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[selectedCount++] = candidate;
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < count && selectedCount < selected.length; i++) {
+            if (!taken[i]) {
+                selected[selectedCount++] = nodeOf(candidates[i]);
+            }
+        }
+        return selectedCount == selected.length ? selected : Arrays.copyOf(selected, selectedCount);
+    }
+
+    /**
+     * 把 node 加入 neighbor 的邻居。
+     */
+    private void connect(int neighbor, int node, int level) {
+        int max = level == 0 ? maxM0 : m;
+        int count = neighborCount(neighbor, level);
+        if (count < max) {
+            setNeighborAt(neighbor, level, count, node);
+            setNeighborCount(neighbor, level, count + 1);
+            return;
+        }
+        long[] candidates = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            int existing = neighborAt(neighbor, level, i);
+            candidates[i] = key(similarity(neighbor, existing), existing);
+        }
+        candidates[count] = key(similarity(neighbor, node), node);
+        Arrays.sort(candidates);
+        for (int i = 0, j = candidates.length - 1; i < j; i++, j--) {
+            long t = candidates[i];
+            candidates[i] = candidates[j];
+            candidates[j] = t;
+        }
+        // 邻居已满时只保留最相似的 max 个：重新运行启发式需要两两比较全部候选，插入会慢一个数量级
+        for (int i = 0; i < max; i++) {
+            setNeighborAt(neighbor, level, i, nodeOf(candidates[i]));
+        }
+    }
+
+    private int neighborCount(int node, int level) {
+        return level == 0 ? layer0.get(node * (maxM0 + 1)) : upperLayers[node][level - 1][0];
+    }
+
+    private int neighborAt(int node, int level, int i) {
+        return level == 0 ? layer0.get(node * (maxM0 + 1) + 1 + i) : upperLayers[node][level - 1][1 + i];
+    }
+
+    private void setNeighborAt(int node, int level, int i, int neighbor) {
+        if (level == 0) {
+            layer0.put(node * (maxM0 + 1) + 1 + i, neighbor);
+        } else {
+            upperLayers[node][level - 1][1 + i] = neighbor;
+        }
+    }
+
+    private void setNeighborCount(int node, int level, int count) {
+        if (level == 0) {
+            layer0.put(node * (maxM0 + 1), count);
+        } else {
+            upperLayers[node][level - 1][0] = count;
+        }
+    }
+
+    private void setNeighbors(int node, int level, int[] neighbors, int count) {
+        for (int i = 0; i < count; i++) {
+            setNeighborAt(node, level, i, neighbors[i]);
+        }
+        setNeighborCount(node, level, count);
+    }
+
+    private float similarity(byte[] query, float queryScale, int node) {
+        int base = node * slotBytes;
+        int dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += query[i] * vectors.get(base + Float.BYTES + i);
+        }
+        return dot * queryScale * vectors.getFloat(base);
+    }
+
+    private float similarity(int a, int b) {
+        int baseA = a * slotBytes;
+        int baseB = b * slotBytes;
+        int dot = 0;
+        for (int i = Float.BYTES; i < slotBytes; i++) {
+            dot += vectors.get(baseA + i) * vectors.get(baseB + i);
+        }
+        return dot * vectors.getFloat(baseA) * vectors.getFloat(baseB);
+    }
+
+    /**
+     * 对称量化到 [-127, 127]。
+     * @return 缩放系数，分量约等于量化值乘以缩放系数。
+     */
+    private static float quantize(float[] vector, byte[] out) {
+        float max = 0;
+        for (float v : vector) {
+            max = Math.max(max, Math.abs(v));
+        }
+        if (max == 0) {
+            Arrays.fill(out, (byte) 0);
+            return 0;
+        }
+        float scale = max / 127f;
+        for (int i = 0; i < vector.length; i++) {
+            out[i] = (byte) Math.round(vector[i] / scale);
+        }
+        return scale;
+    }
+
+    private int randomLevel() {
+        double r = 1.0 - random.nextDouble(); // (0, 1]
+        return Math.min(MAX_LEVEL, (int) (-Math.log(r) * levelMultiplier));
+    }
+
+    private void checkDimension(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected dimension " + dimension + " but got " + vector.length);
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, INITIAL_CAPACITY);
+        while (newCapacity < required) {
+            newCapacity *= 2;
+        }
+        ByteBuffer oldVectors = vectors;
+        IntBuffer oldLayer0 = layer0;
+        allocate(newCapacity);
+        ByteBuffer vectorData = oldVectors.duplicate();
+        vectorData.position(0).limit(size * slotBytes);
+        vectors.duplicate().put(vectorData);
+        IntBuffer graphData = oldLayer0.duplicate();
+        graphData.position(0).limit(size * (maxM0 + 1));
+        layer0.duplicate().put(graphData);
+    }
+
+    private void allocate(int newCapacity) {
+        vectors = ByteBuffer.allocateDirect(newCapacity * slotBytes);
+        layer0 = ByteBuffer.allocateDirect(newCapacity * (maxM0 + 1) * Integer.BYTES).asIntBuffer();
+        upperLayers = upperLayers == null ? new int[newCapacity][][] : Arrays.copyOf(upperLayers, newCapacity);
+        levels = levels == null ? new byte[newCapacity] : Arrays.copyOf(levels, newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * 把 (相似度, 节点) 编码为一个 long，按 long 比较即按相似度比较：高 32 位为保序变换后的 float 位，低 32 位为节点编号。
+     */
+    private static long key(float similarity, int node) {
+        int bits = Float.floatToIntBits(similarity);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return ((long) bits << 32) | (node & 0xffffffffL);
+    }
+
+    private static int nodeOf(long key) {
+        return (int) key;
+    }
+
+    private static float similarityOf(long key) {
+        int bits = (int) (key >> 32);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return Float.intBitsToFloat(bits);
+    }
+
+    /**
+     * 查询结果：节点编号和与查询的相似度。
+     */
+    static final class Neighbor {
+        final int node;
+        final float score;
+
+        Neighbor(int node, float score) {
+            this.node = node;
+            this.score = score;
+        }
+    }
+
+    /**
+     * long 的最小堆，避免搜索时装箱。
+     */
+    private static final class LongHeap {
+        private long[] heap = new long[64];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long peek() {
+            return heap[0];
+        }
+
+        void push(long value) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= value) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = value;
+        }
+
+        long pop() {
+            long top = heap[0];
+            long last = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[child] >= last) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+
+        /**
+         * 从小到大排列的堆中元素。
+         */
+        long[] toSortedArray() {
+            long[] sorted = Arrays.copyOf(heap, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
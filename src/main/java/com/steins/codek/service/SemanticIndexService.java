@@ -0,0 +1,807 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.VirtualFileVisitor;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.steins.codek.config.CodekConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 项目代码的本地语义索引 (项目级服务)：按 PSI 元素切分项目中的源文件，用 {@link HashingEmbedder} 生成向量，
+ * 存入堆外的量化 HNSW 索引 ({@link QuantizedHnswIndex})；同一批片段同时加入 BM25 倒排索引 ({@link Bm25Index})，
+ * 两个索引的编号一一对应。{@link #search} 按向量查询，{@link #searchLexical} 按词项查询，
+ * {@link #searchHybrid} 用倒数排名融合合并两者。
+ * 索引快照保存在 IDE 系统目录下的 codek-index/&lt;项目哈希&gt;.bin 中，重新打开项目时只处理时间戳或长度变化的文件；
+ * 之后通过 VFS 事件和 PSI 修改增量更新。打开项目时的批量更新由 {@link IndexingScheduler} 在 IDE 索引完成后多线程执行，
+ * 增量更新在后台单线程中执行；查询不等待构建完成，只返回已索引的内容。
+ * @author 0027013824
+ */
+@Service(Service.Level.PROJECT)
+public final class SemanticIndexService implements Disposable {
+    private static final Logger LOG = Logger.getInstance(SemanticIndexService.class);
+    private static final int SNAPSHOT_MAGIC = 0x434B5349; // "CKSI"
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final String INDEX_DIRECTORY = "codek-index";
+    private static final long MAX_FILE_LENGTH = 512 * 1024;
+    private static final long UPDATE_DELAY_MS = 1500; // 合并连续输入产生的 PSI 修改
+    private static final int HNSW_M = 16;
+    private static final int HNSW_EF_CONSTRUCTION = 100;
+    private static final int SEARCH_EF = 100;
+    private static final int MIN_COMPACT_DELETED = 1024;
+    private static final int NAME_REPEAT = 2;                  // 名称中的词项按两倍词频计入，相当于 BM25F 的字段权重
+    private static final int RRF_K = 60;                       // 倒数排名融合的平滑常数
+    private static final int MIN_HYBRID_CANDIDATES = 20;
+    private static final float MIN_SEMANTIC_SCORE = 0.3f;      // 低于此相似度的片段通常只是碰巧共享常见词
+    private static final float MIN_LEXICAL_COVERAGE = 0.5f;    // 至少包含一半 (按 IDF 加权) 的查询词项
+    private static final float MIN_LEXICAL_IDF = 1.5f;         // 且不只是常见词：单个词项约需只出现在五分之一以下的片段中
+
+    private final Project project;
+    private final HashingEmbedder embedder = new HashingEmbedder();
+    private final ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("CodeK Semantic Index", 1);
+    private final Set<String> dirtyUrls = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+    private volatile boolean scanning;
+    private volatile boolean disposed;
+
+    // 以下字段由 lock 保护
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private QuantizedHnswIndex index = newIndex();
+    private Bm25Index lexicalIndex = new Bm25Index();           // 文档编号与 index 的节点编号相同
+    private final List<ChunkRef> nodes = new ArrayList<>();      // 按节点编号，已删除的节点为 null
+    private final Map<String, FileEntry> files = new HashMap<>(); // 按文件 URL
+    private boolean changedSinceSave;
+
+    public SemanticIndexService(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public static SemanticIndexService getInstance(@NotNull Project project) {
+        return project.getService(SemanticIndexService.class);
+    }
+
+    /**
+     * 第一次调用时加载索引快照、开始监听文件变化并在后台索引过期的文件。之后的调用不做任何事。
+     * 在设置中关闭语义索引时不启动。
+     */
+    public void ensureStarted() {
+        CodekConfig config = ApplicationManager.getApplication().getService(CodekConfig.class);
+        if (!config.isSemanticIndexEnabled() || disposed || !started.compareAndSet(false, true)) {
+            return;
+        }
+        scanning = true;
+        subscribeToChanges();
+        executor.execute(() -> {
+            try {
+                loadSnapshot();
+                scanProject();
+            } catch (Exception e) {
+                LOG.warn("构建语义索引失败", e);
+            } finally {
+                scanning = false;
+            }
+        });
+    }
+
+    /**
+     * 查询与文本语义最接近的代码片段。索引尚未启动时启动它，本次查询返回空结果。
+     * @param query 查询文本，例如用户的问题或一段代码。
+     * @param maxResults 最大结果数。
+     * @return 按相似度从高到低排列的结果。
+     */
+    @NotNull
+    public List<Hit> search(@NotNull String query, int maxResults) {
+        ensureStarted();
+        float[] vector = embedder.embed(query);
+        List<Hit> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (QuantizedHnswIndex.Neighbor neighbor : index.search(vector, maxResults, Math.max(SEARCH_EF, maxResults))) {
+                ChunkRef chunk = nodes.get(neighbor.node);
+                if (chunk != null && neighbor.score > 0) {
+                    hits.add(new Hit(chunk, neighbor.score));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return hits;
+    }
+
+    /**
+     * 按 BM25 查询包含问题中的标识符子词或注释用词的代码片段。索引尚未启动时启动它，本次查询返回空结果。
+     * @param query 查询文本，标识符会按驼峰和下划线拆分。
+     * @param maxResults 最大结果数。
+     * @return 按 BM25 得分从高到低排列的结果。
+     */
+    @NotNull
+    public List<Hit> searchLexical(@NotNull String query, int maxResults) {
+        ensureStarted();
+        List<String> terms = CodeTerms.terms(query);
+        List<Hit> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Bm25Index.Match match : lexicalIndex.search(terms, maxResults)) {
+                ChunkRef chunk = nodes.get(match.doc);
+                if (chunk != null) {
+                    hits.add(new Hit(chunk, match.score));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return hits;
+    }
+
+    /**
+     * 同时按向量和 BM25 查询，用倒数排名融合 (每个结果的得分为它在两个排名中 1 / (60 + 名次) 之和) 合并。
+     * 只返回向量相似度足够高，或包含足够多罕见查询词项的片段，结果可能少于 maxResults。
+     * @param query 查询文本，例如用户的问题。
+     * @param maxResults 最大结果数。
+     * @return 按融合得分从高到低排列的结果。
+     */
+    @NotNull
+    public List<Hit> searchHybrid(@NotNull String query, int maxResults) {
+        ensureStarted();
+        float[] vector = embedder.embed(query);
+        List<String> terms = CodeTerms.terms(query);
+        int candidates = Math.max(maxResults * 4, MIN_HYBRID_CANDIDATES);
+        Map<Integer, Float> fused = new HashMap<>();
+        Set<Integer> relevant = new HashSet<>();
+        List<Hit> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            List<QuantizedHnswIndex.Neighbor> neighbors = index.search(vector, candidates, Math.max(SEARCH_EF, candidates));
+            for (int rank = 0; rank < neighbors.size(); rank++) {
+                QuantizedHnswIndex.Neighbor neighbor = neighbors.get(rank);
+                fused.merge(neighbor.node, 1.0f / (RRF_K + rank + 1), Float::sum);
+                if (neighbor.score >= MIN_SEMANTIC_SCORE) {
+                    relevant.add(neighbor.node);
+                }
+            }
+            List<Bm25Index.Match> matches = lexicalIndex.search(terms, candidates);
+            for (int rank = 0; rank < matches.size(); rank++) {
+                Bm25Index.Match match = matches.get(rank);
+                fused.merge(match.doc, 1.0f / (RRF_K + rank + 1), Float::sum);
+                if (match.coverage >= MIN_LEXICAL_COVERAGE && match.matchedIdf >= MIN_LEXICAL_IDF) {
+                    relevant.add(match.doc);
+                }
+            }
+            List<Integer> ranked = new ArrayList<>(relevant);
+            ranked.sort((a, b) -> Float.compare(fused.get(b), fused.get(a)));
+            for (int node : ranked) {
+                ChunkRef chunk = nodes.get(node);
+                if (chunk != null) {
+                    hits.add(new Hit(chunk, fused.get(node)));
+                    if (hits.size() == maxResults) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return hits;
+    }
+
+    /**
+     * 读取结果对应的代码，优先使用编辑器中的文档 (包括未保存的修改)。
+     * @param maxLines 最多读取的行数。
+     * @return 代码文本，文件已不存在或行号超出范围时返回 null。
+     */
+    @Nullable
+    public String readSnippet(@NotNull Hit hit, int maxLines) {
+        return ReadAction.compute(() -> {
+            VirtualFile file = VirtualFileManager.getInstance().findFileByUrl(hit.chunk.url);
+            Document document = file != null ? FileDocumentManager.getInstance().getDocument(file) : null;
+            if (document == null || hit.getStartLine() > document.getLineCount()) {
+                return null;
+            }
+            int startLine = hit.getStartLine() - 1;
+            int endLine = Math.min(Math.min(hit.getEndLine(), document.getLineCount()), hit.getStartLine() + maxLines - 1) - 1;
+            return document.getImmutableCharSequence()
+                    .subSequence(document.getLineStartOffset(startLine), document.getLineEndOffset(endLine)).toString();
+        });
+    }
+
+    /**
+     * 是否正在构建索引或有待处理的文件修改。为 true 时查询结果可能不完整。
+     */
+    public boolean isIndexing() {
+        return scanning || !dirtyUrls.isEmpty();
+    }
+
+    public int getIndexedFileCount() {
+        lock.readLock().lock();
+        try {
+            return files.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getChunkCount() {
+        lock.readLock().lock();
+        try {
+            return index.getLiveCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 立即重新索引指定的文件 (不存在的文件从索引中移除)，在调用线程中执行。不能在 EDT 或读操作中调用。
+     * @param urls 文件或目录的 URL。
+     */
+    void reindex(@NotNull Collection<String> urls) {
+        for (String url : urls) {
+            if (disposed || project.isDisposed()) {
+                return;
+            }
+            reindexFile(url);
+        }
+    }
+
+    private void subscribeToChanges() {
+        project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    String protocol = event.getFileSystem().getProtocol();
+                    markDirty(VirtualFileManager.constructUrl(protocol, event.getPath()));
+                    if (event instanceof VFileMoveEvent) {
+                        markDirty(VirtualFileManager.constructUrl(protocol, ((VFileMoveEvent) event).getOldPath()));
+                    } else if (event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename()) {
+                        markDirty(VirtualFileManager.constructUrl(protocol, ((VFilePropertyChangeEvent) event).getOldPath()));
+                    }
+                }
+                scheduleUpdate();
+            }
+        });
+        // 未保存的修改在文档提交到 PSI 时触发更新，保证查询到的行号与编辑器一致
+        PsiManager.getInstance(project).addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+            @Override
+            public void childAdded(@NotNull PsiTreeChangeEvent event) {
+                psiChanged(event);
+            }
+
+            @Override
+            public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+                psiChanged(event);
+            }
+
+            @Override
+            public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+                psiChanged(event);
+            }
+
+            @Override
+            public void childMoved(@NotNull PsiTreeChangeEvent event) {
+                psiChanged(event);
+            }
+
+            @Override
+            public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+                psiChanged(event);
+            }
+        }, this);
+    }
+
+    private void psiChanged(@NotNull PsiTreeChangeEvent event) {
+        PsiFile file = event.getFile();
+        VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+        if (virtualFile != null) {
+            markDirty(virtualFile.getUrl());
+            scheduleUpdate();
+        }
+    }
+
+    private void markDirty(@NotNull String url) {
+        dirtyUrls.add(url);
+    }
+
+    private void scheduleUpdate() {
+        if (dirtyUrls.isEmpty() || disposed || !updateScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+            if (!disposed) {
+                executor.execute(this::processDirty);
+            }
+        }, UPDATE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void processDirty() {
+        updateScheduled.set(false);
+        try {
+            while (!dirtyUrls.isEmpty() && !disposed) {
+                List<String> urls = new ArrayList<>(dirtyUrls);
+                dirtyUrls.removeAll(urls);
+                reindex(urls);
+            }
+            compactIfNeeded();
+            saveSnapshot();
+        } catch (Exception e) {
+            LOG.warn("更新语义索引失败", e);
+        }
+    }
+
+    /**
+     * 找出新增、修改过和已删除的文件并重新索引。
+     */
+    private void scanProject() {
+        Set<String> stale = new HashSet<>();
+        Set<String> seen = new HashSet<>();
+        ReadAction.nonBlocking(() -> {
+            stale.clear();
+            seen.clear();
+            ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+            fileIndex.iterateContent(file -> {
+                if (isIndexable(file)) {
+                    String url = file.getUrl();
+                    seen.add(url);
+                    FileEntry entry = getFileEntry(url);
+                    if (entry == null || entry.timestamp != file.getTimeStamp() || entry.length != file.getLength()) {
+                        stale.add(url);
+                    }
+                }
+                return !disposed;
+            });
+            return null;
+        }).executeSynchronously();
+
+        lock.readLock().lock();
+        try {
+            for (String url : files.keySet()) {
+                if (!seen.contains(url)) {
+                    stale.add(url);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        LOG.info("语义索引: " + stale.size() + " 个文件需要更新");
+        // 大批量的更新交给调度器：等 IDE 索引完成后多线程执行，限制 CPU 占用，输入时暂停。
+        // 本线程等待它结束，之后的增量更新仍在本线程中排在它之后
+        IndexingScheduler.Stats stats = IndexingScheduler.getInstance(project)
+                .submit("CodeK: 建立语义索引", new ArrayList<>(stale), this::reindexFile)
+                .join();
+        if (stats.isCancelled()) {
+            // 未处理的文件在下次打开项目时重新扫描
+            LOG.info("语义索引: 已取消，" + (stats.getTotal() - stats.getProcessed()) + " 个文件未更新");
+        }
+        compactIfNeeded();
+        saveSnapshot();
+        scheduleUpdate();
+    }
+
+    private void reindexFile(@NotNull String url) {
+        List<String> children = new ArrayList<>();
+        PreparedFile prepared = ReadAction.nonBlocking(() -> prepare(url, children)).executeSynchronously();
+        if (!children.isEmpty()) {
+            // 新建或移动进来的目录
+            reindex(children);
+        }
+        List<float[]> vectors = new ArrayList<>();
+        List<List<String>> termLists = new ArrayList<>();
+        if (prepared != null && prepared.chunks != null) {
+            String fileName = url.substring(url.lastIndexOf('/') + 1);
+            for (CodeChunk chunk : prepared.chunks) {
+                String name = chunk.getName() + " " + fileName;
+                vectors.add(embedder.embed(name, chunk.getText()));
+                termLists.add(chunkTerms(name, chunk.getText()));
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            FileEntry old = files.remove(url);
+            if (old != null) {
+                removeNodes(old);
+            }
+            if (prepared == null) {
+                // 文件或目录已被删除，同时移除目录下的文件
+                String prefix = url + "/";
+                for (Iterator<Map.Entry<String, FileEntry>> it = files.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<String, FileEntry> entry = it.next();
+                    if (entry.getKey().startsWith(prefix)) {
+                        removeNodes(entry.getValue());
+                        it.remove();
+                        changedSinceSave = true;
+                    }
+                }
+                changedSinceSave |= old != null;
+                return;
+            }
+            if (prepared.chunks == null) {
+                changedSinceSave |= old != null;
+                return;
+            }
+            int[] fileNodes = new int[prepared.chunks.size()];
+            for (int i = 0; i < fileNodes.length; i++) {
+                CodeChunk chunk = prepared.chunks.get(i);
+                fileNodes[i] = index.add(vectors.get(i));
+                if (lexicalIndex.add(termLists.get(i)) != fileNodes[i]) {
+                    throw new IllegalStateException("BM25 index is out of sync with the vector index");
+                }
+                nodes.add(new ChunkRef(url, chunk.getStartLine(), chunk.getEndLine(), chunk.getKind(), chunk.getName()));
+            }
+            files.put(url, new FileEntry(prepared.timestamp, prepared.length, fileNodes));
+            changedSinceSave = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @NotNull
+    private static List<String> chunkTerms(@NotNull String name, @NotNull CharSequence text) {
+        List<String> nameTerms = CodeTerms.terms(name);
+        List<String> terms = new ArrayList<>(nameTerms.size() * NAME_REPEAT + text.length() / 8);
+        for (int i = 0; i < NAME_REPEAT; i++) {
+            terms.addAll(nameTerms);
+        }
+        terms.addAll(CodeTerms.terms(text));
+        return terms;
+    }
+
+    /**
+     * 在读操作中切分文件。
+     * @param children 收集目录下需要索引的文件。
+     * @return 切分结果；文件不存在时返回 null，是目录或不需要索引时返回 {@link PreparedFile#SKIPPED}。
+     */
+    @Nullable
+    private PreparedFile prepare(@NotNull String url, @NotNull List<String> children) {
+        if (project.isDisposed()) {
+            return null;
+        }
+        VirtualFile file = VirtualFileManager.getInstance().findFileByUrl(url);
+        if (file == null || !file.isValid()) {
+            return null;
+        }
+        if (file.isDirectory()) {
+            if (ProjectFileIndex.getInstance(project).isInContent(file)) {
+                VfsUtilCore.visitChildrenRecursively(file, new VirtualFileVisitor<Void>() {
+                    @Override
+                    public boolean visitFile(@NotNull VirtualFile child) {
+                        if (!child.isDirectory() && isIndexable(child)) {
+                            children.add(child.getUrl());
+                        }
+                        return !ProjectFileIndex.getInstance(project).isExcluded(child);
+                    }
+                });
+            }
+            return PreparedFile.SKIPPED;
+        }
+        if (!isIndexable(file)) {
+            return PreparedFile.SKIPPED;
+        }
+        PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+        if (psiFile == null) {
+            return PreparedFile.SKIPPED;
+        }
+        return new PreparedFile(file.getTimeStamp(), file.getLength(), CodeChunker.chunk(psiFile));
+    }
+
+    private boolean isIndexable(@NotNull VirtualFile file) {
+        return file.isValid() && !file.isDirectory() && file.getLength() <= MAX_FILE_LENGTH
+                && !file.getFileType().isBinary()
+                && ProjectFileIndex.getInstance(project).isInContent(file);
+    }
+
+    @Nullable
+    private FileEntry getFileEntry(@NotNull String url) {
+        lock.readLock().lock();
+        try {
+            return files.get(url);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 必须持有写锁。
+     */
+    private void removeNodes(@NotNull FileEntry entry) {
+        for (int node : entry.nodes) {
+            index.remove(node);
+            lexicalIndex.remove(node);
+            nodes.set(node, null);
+        }
+    }
+
+    /**
+     * 被删除的节点超过四分之一时重建索引，释放它们占用的空间和查询时间。
+     */
+    private void compactIfNeeded() {
+        lock.writeLock().lock();
+        try {
+            if (index.getDeletedCount() < Math.max(MIN_COMPACT_DELETED, index.size() / 4)) {
+                return;
+            }
+            QuantizedHnswIndex compacted = newIndex();
+            int[] mapping = index.compactInto(compacted);
+            List<ChunkRef> compactedNodes = new ArrayList<>(compacted.size());
+            for (int node = 0; node < mapping.length; node++) {
+                if (mapping[node] >= 0) {
+                    compactedNodes.add(nodes.get(node));
+                }
+            }
+            for (FileEntry entry : files.values()) {
+                for (int i = 0; i < entry.nodes.length; i++) {
+                    entry.nodes[i] = mapping[entry.nodes[i]];
+                }
+            }
+            index = compacted;
+            lexicalIndex = lexicalIndex.compact(mapping);
+            nodes.clear();
+            nodes.addAll(compactedNodes);
+            changedSinceSave = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static QuantizedHnswIndex newIndex() {
+        return new QuantizedHnswIndex(HashingEmbedder.DIMENSION, HNSW_M, HNSW_EF_CONSTRUCTION);
+    }
+
+    @NotNull
+    private Path snapshotFile() {
+        return Paths.get(PathManager.getSystemPath(), INDEX_DIRECTORY, project.getLocationHash() + ".bin");
+    }
+
+    /**
+     * 写出索引快照：先写临时文件再原子替换，写到一半时进程退出不会损坏已有的快照。
+     */
+    private void saveSnapshot() {
+        Path file = snapshotFile();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        lock.readLock().lock();
+        try {
+            if (!changedSinceSave) {
+                return;
+            }
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(HashingEmbedder.VERSION);
+                out.writeInt(files.size());
+                for (Map.Entry<String, FileEntry> entry : files.entrySet()) {
+                    FileEntry fileEntry = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(fileEntry.timestamp);
+                    out.writeLong(fileEntry.length);
+                    out.writeInt(fileEntry.nodes.length);
+                    for (int node : fileEntry.nodes) {
+                        ChunkRef chunk = nodes.get(node);
+                        out.writeInt(node);
+                        out.writeInt(chunk.startLine);
+                        out.writeInt(chunk.endLine);
+                        out.writeUTF(chunk.kind);
+                        out.writeUTF(chunk.name);
+                    }
+                }
+                index.write(out);
+                lexicalIndex.write(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changedSinceSave = false;
+        } catch (IOException e) {
+            LOG.warn("保存语义索引失败: " + file, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 读取索引快照。快照不存在、已损坏或版本不同时从空索引开始。
+     */
+    private void loadSnapshot() {
+        Path file = snapshotFile();
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION || in.readInt() != HashingEmbedder.VERSION) {
+                LOG.info("语义索引快照的版本不同，重新构建");
+                return;
+            }
+            Map<String, FileEntry> loadedFiles = new HashMap<>();
+            Map<Integer, ChunkRef> loadedNodes = new HashMap<>();
+            int fileCount = in.readInt();
+            for (int f = 0; f < fileCount; f++) {
+                String url = in.readUTF();
+                long timestamp = in.readLong();
+                long length = in.readLong();
+                int[] fileNodes = new int[in.readInt()];
+                for (int i = 0; i < fileNodes.length; i++) {
+                    fileNodes[i] = in.readInt();
+                    int startLine = in.readInt();
+                    int endLine = in.readInt();
+                    String kind = in.readUTF();
+                    String name = in.readUTF();
+                    loadedNodes.put(fileNodes[i], new ChunkRef(url, startLine, endLine, kind, name));
+                }
+                loadedFiles.put(url, new FileEntry(timestamp, length, fileNodes));
+            }
+            QuantizedHnswIndex loadedIndex = QuantizedHnswIndex.read(in);
+            Bm25Index loadedLexicalIndex = Bm25Index.read(in);
+            if (loadedIndex.getDimension() != HashingEmbedder.DIMENSION || loadedLexicalIndex.size() != loadedIndex.size()) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                index = loadedIndex;
+                lexicalIndex = loadedLexicalIndex;
+                nodes.clear();
+                for (int node = 0; node < loadedIndex.size(); node++) {
+                    nodes.add(loadedIndex.isDeleted(node) ? null : loadedNodes.get(node));
+                }
+                files.clear();
+                files.putAll(loadedFiles);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            LOG.info("已加载语义索引: " + loadedFiles.size() + " 个文件, " + loadedIndex.getLiveCount() + " 个片段");
+        } catch (IOException | RuntimeException e) {
+            LOG.info("语义索引快照无法读取，重新构建: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        executor.shutdownNow();
+    }
+
+    /**
+     * 查询结果：代码片段的位置、名称和得分。
+     */
+    public static final class Hit {
+        private final ChunkRef chunk;
+        private final float score;
+
+        Hit(@NotNull ChunkRef chunk, float score) {
+            this.chunk = chunk;
+            this.score = score;
+        }
+
+        /**
+         * 文件路径。
+         */
+        @NotNull
+        public String getPath() {
+            return VfsUtilCore.urlToPath(chunk.url);
+        }
+
+        public int getStartLine() {
+            return chunk.startLine;
+        }
+
+        public int getEndLine() {
+            return chunk.endLine;
+        }
+
+        /**
+         * 片段类型：class、method 或 lines。
+         */
+        @NotNull
+        public String getKind() {
+            return chunk.kind;
+        }
+
+        /**
+         * 片段名称，例如 "ToolExecutor#submitToolCall"。
+         */
+        @NotNull
+        public String getName() {
+            return chunk.name;
+        }
+
+        /**
+         * 得分：{@link #search} 为余弦相似度，{@link #searchLexical} 为 BM25 得分，{@link #searchHybrid} 为融合得分。
+         */
+        public float getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * 索引中一个节点对应的片段，不保存片段文本。
+     */
+    private static final class ChunkRef {
+        final String url;
+        final int startLine;
+        final int endLine;
+        final String kind;
+        final String name;
+
+        ChunkRef(String url, int startLine, int endLine, String kind, String name) {
+            this.url = url;
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.kind = kind;
+            this.name = name;
+        }
+    }
+
+    /**
+     * 已索引的文件：索引时的时间戳和长度，以及它的节点。
+     */
+    private static final class FileEntry {
+        final long timestamp;
+        final long length;
+        final int[] nodes;
+
+        FileEntry(long timestamp, long length, int[] nodes) {
+            this.timestamp = timestamp;
+            this.length = length;
+            this.nodes = nodes;
+        }
+    }
+
+    /**
+     * 在读操作中切分好的文件。
+     */
+    private static final class PreparedFile {
+        /**
+         * 存在但不需要索引的文件或目录。
+         */
+        static final PreparedFile SKIPPED = new PreparedFile(0, 0, null);
+
+        final long timestamp;
+        final long length;
+        final List<CodeChunk> chunks; // SKIPPED 时为 null
+
+        PreparedFile(long timestamp, long length, @Nullable List<CodeChunk> chunks) {
+            this.timestamp = timestamp;
+            this.length = length;
+            this.chunks = chunks;
+        }
+    }
+}
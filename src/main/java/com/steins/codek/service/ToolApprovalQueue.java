@@ -0,0 +1,300 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.steins.codek.config.CodekConfig;
+import com.steins.codek.tool.ToolResource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 需要用户批准的工具调用 ({@link com.steins.codek.tool.Tool#requiresApproval()}) 的审查队列。项目级服务。
+ * 同一轮 (一条模型消息) 中的修改性调用合并到一个审查面板中一次批准：写文件的工具照常执行，修改只暂存在文件事务中，
+ * 审查时展示差异；执行命令等无法暂存的调用在批准前不执行。只读调用不经过审查，审查期间继续执行。
+ * 两种策略可以减少等待：本轮对话中不再询问 (直到用户发送下一条消息)，以及始终允许修改指定路径下的文件。
+ * @author 0027013824
+ */
+@Service(Service.Level.PROJECT)
+public final class ToolApprovalQueue {
+    private static final Logger LOG = Logger.getInstance(ToolApprovalQueue.class);
+
+    private final Project project;
+    private volatile Reviewer reviewer; // 由工具窗口安装，未安装时拒绝所有待审查项
+    private volatile boolean allowedForTurn;
+    private final Map<CompletableFuture<ReviewDecision>, Object> openReviews = new ConcurrentHashMap<>(); // 打开的审查 -> 发起的轮次
+
+    public ToolApprovalQueue(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public static ToolApprovalQueue getInstance(@NotNull Project project) {
+        return project.getService(ToolApprovalQueue.class);
+    }
+
+    /**
+     * 设置展示审查面板的审查者。
+     */
+    public void setReviewer(@Nullable Reviewer reviewer) {
+        this.reviewer = reviewer;
+    }
+
+    /**
+     * 用户发送了新消息：清除“本轮不再询问”。
+     */
+    public void beginTurn() {
+        allowedForTurn = false;
+    }
+
+    public boolean isAllowedForTurn() {
+        return allowedForTurn;
+    }
+
+    /**
+     * 路径是否位于始终允许修改的路径下。
+     * @param absolutePath 系统无关的绝对路径。
+     */
+    public boolean isAlwaysAllowed(@NotNull String absolutePath) {
+        CodekConfig config = ApplicationManager.getApplication().getService(CodekConfig.class);
+        if (config == null) {
+            return false;
+        }
+        for (String allowed : config.getAutoApprovedPaths()) {
+            if (FileUtil.isAncestor(allowed, absolutePath, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 调用是否不需要审查：本轮已允许，或声明了写入资源且全部位于始终允许的路径下。
+     */
+    boolean isAutoApproved(@NotNull Collection<ToolResource> resources) {
+        if (allowedForTurn) {
+            return true;
+        }
+        boolean writes = false;
+        for (ToolResource resource : resources) {
+            if (resource.isWrite()) {
+                if (!isAlwaysAllowed(resource.getPath())) {
+                    return false;
+                }
+                writes = true;
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * 把一批待审查项交给审查者，并应用审查结果中的策略。
+     * @param owner 发起审查的轮次，用于 {@link #cancelReviews(Object)}。
+     * @return 审查结果；被取消或没有审查者时以拒绝全部完成。
+     */
+    @NotNull
+    CompletableFuture<ReviewDecision> review(@NotNull List<ReviewItem> items, @NotNull Object owner) {
+        Reviewer current = reviewer;
+        if (current == null) {
+            LOG.warn("没有可用的审查面板，拒绝 " + items.size() + " 项需要批准的修改");
+            return CompletableFuture.completedFuture(ReviewDecision.rejectAll());
+        }
+        CompletableFuture<ReviewDecision> review = current.review(items);
+        openReviews.put(review, owner);
+        return review.handle((decision, error) -> {
+            openReviews.remove(review);
+            if (decision == null) {
+                return ReviewDecision.rejectAll();
+            }
+            applyPolicy(decision);
+            return decision;
+        });
+    }
+
+    private void applyPolicy(ReviewDecision decision) {
+        if (decision.isAllowForTurn()) {
+            allowedForTurn = true;
+        }
+        if (!decision.getAlwaysAllowPaths().isEmpty()) {
+            CodekConfig config = ApplicationManager.getApplication().getService(CodekConfig.class);
+            if (config != null) {
+                Set<String> paths = new LinkedHashSet<>(config.getAutoApprovedPaths());
+                for (String path : decision.getAlwaysAllowPaths()) {
+                    paths.add(FileUtil.toSystemIndependentName(path));
+                }
+                config.setAutoApprovedPaths(new ArrayList<>(paths));
+            }
+        }
+    }
+
+    /**
+     * 关闭某一轮打开的审查面板 (用户停止了该轮)，待审查项视为拒绝。其他工具窗口的审查不受影响。
+     * @param owner 发起审查的轮次。
+     */
+    void cancelReviews(@NotNull Object owner) {
+        for (Map.Entry<CompletableFuture<ReviewDecision>, Object> review : new ArrayList<>(openReviews.entrySet())) {
+            if (review.getValue() == owner) {
+                review.getKey().cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 展示审查面板的审查者，例如工具窗口中的审查对话框。
+     */
+    public interface Reviewer {
+        /**
+         * 展示一批待审查项。审查期间不得阻塞调用线程。
+         * 返回的 Future 被取消时应关闭面板。
+         * @param items 待审查项。
+         * @return 审查结果。
+         */
+        @NotNull
+        CompletableFuture<ReviewDecision> review(@NotNull List<ReviewItem> items);
+    }
+
+    /**
+     * 一个待审查项：一个暂存的文件修改，或一个在批准前不执行的工具调用。
+     */
+    public static final class ReviewItem {
+        private final String toolName;
+        private final String title;
+        private final String path;
+        private final String oldText;
+        private final String newText;
+        private final Set<String> owners;
+
+        private ReviewItem(String toolName, String title, @Nullable String path, @Nullable String oldText,
+                           @Nullable String newText, Set<String> owners) {
+            this.toolName = toolName;
+            this.title = title;
+            this.path = path;
+            this.oldText = oldText;
+            this.newText = newText;
+            this.owners = owners;
+        }
+
+        /**
+         * 暂存的文件修改。
+         * @param path 文件的绝对路径。
+         * @param oldText 当前内容，新建文件为 null。
+         * @param newText 修改后的内容。
+         * @param owners 暂存过该文件的工具调用标识。
+         */
+        @NotNull
+        public static ReviewItem fileChange(@NotNull String path, @Nullable String oldText, @NotNull String newText,
+                                            @NotNull Set<String> owners) {
+            return new ReviewItem(null, path, path, oldText, newText, owners);
+        }
+
+        /**
+         * 批准后才执行的工具调用。
+         * @param toolName 工具名称。
+         * @param description 调用参数的可读描述。
+         * @param owner 工具调用标识。
+         */
+        @NotNull
+        public static ReviewItem toolCall(@NotNull String toolName, @NotNull String description, @NotNull String owner) {
+            return new ReviewItem(toolName, description, null, null, null, Collections.singleton(owner));
+        }
+
+        public boolean isFileChange() {
+            return path != null;
+        }
+
+        /**
+         * 工具名称，文件修改为 null。
+         */
+        @Nullable
+        public String getToolName() {
+            return toolName;
+        }
+
+        /**
+         * 文件修改为文件路径，工具调用为参数描述。
+         */
+        @NotNull
+        public String getTitle() {
+            return title;
+        }
+
+        @Nullable
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * 文件的当前内容，新建文件或工具调用为 null。
+         */
+        @Nullable
+        public String getOldText() {
+            return oldText;
+        }
+
+        @Nullable
+        public String getNewText() {
+            return newText;
+        }
+
+        public boolean isCreated() {
+            return path != null && oldText == null;
+        }
+
+        @NotNull
+        public Set<String> getOwners() {
+            return owners;
+        }
+
+        @Override
+        public String toString() {
+            return isFileChange() ? (isCreated() ? "create " : "edit ") + path : toolName + ": " + title;
+        }
+    }
+
+    /**
+     * 审查结果：批准的项，以及用户选择的策略。
+     */
+    public static final class ReviewDecision {
+        private final Set<ReviewItem> approved;
+        private final boolean allowForTurn;
+        private final List<String> alwaysAllowPaths;
+
+        public ReviewDecision(@NotNull Collection<ReviewItem> approved, boolean allowForTurn, @NotNull List<String> alwaysAllowPaths) {
+            this.approved = new LinkedHashSet<>(approved);
+            this.allowForTurn = allowForTurn;
+            this.alwaysAllowPaths = alwaysAllowPaths;
+        }
+
+        @NotNull
+        public static ReviewDecision rejectAll() {
+            return new ReviewDecision(Collections.emptyList(), false, Collections.emptyList());
+        }
+
+        public boolean isApproved(@NotNull ReviewItem item) {
+            return approved.contains(item);
+        }
+
+        public boolean isAllowForTurn() {
+            return allowForTurn;
+        }
+
+        /**
+         * 以后始终允许修改的路径 (目录或文件)。
+         */
+        @NotNull
+        public List<String> getAlwaysAllowPaths() {
+            return alwaysAllowPaths;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.steins.codek.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 工具调用记录器：把每次工具执行的名称、参数、结果和耗时按完成顺序追加到会话的记录文件中，
+ * 用于分析代理的行为，或由 {@link ToolCallReplay} 确定性地回放。
+ * 记录文件为 JSON Lines，每行一条 {@link Record}；每条写入后立即刷新，进程异常退出时最多丢失正在写的一行。
+ * @author 0027013824
+ */
+public final class ToolCallRecorder implements Closeable {
+    private static final Logger LOG = Logger.getInstance(ToolCallRecorder.class);
+    private static final String LOG_DIRECTORY = "codek-tool-calls";
+
+    private final Path file;
+    private final Writer writer;
+    private final Gson gson = new Gson();
+    private int sequence;
+
+    /**
+     * 打开记录文件，已存在时追加。
+     * @param file 记录文件路径。
+     */
+    public ToolCallRecorder(@NotNull Path file) throws IOException {
+        this.file = file;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        if (Files.exists(file)) {
+            // 追加时序号接着已有的记录
+            try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+                sequence = (int) lines.filter(line -> !line.trim().isEmpty()).count();
+            }
+        }
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 会话的记录文件：IDE 日志目录下的 codek-tool-calls/&lt;会话 ID&gt;.jsonl。
+     */
+    @NotNull
+    public static Path sessionLogFile(@NotNull String sessionId) {
+        return Paths.get(PathManager.getLogPath(), LOG_DIRECTORY, sessionId.replaceAll("[^A-Za-z0-9._-]", "_") + ".jsonl");
+    }
+
+    @NotNull
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * 追加一条记录。写入失败只记录日志，不影响工具调用。
+     * @param toolName 工具名称。
+     * @param argumentsJson 模型给出的参数 JSON。
+     * @param success 工具是否执行成功。
+     * @param result 返回给模型的结果。
+     * @param durationNanos 从调度到完成的耗时 (纳秒)。
+     */
+    public synchronized void record(@NotNull String toolName, @NotNull String argumentsJson, boolean success,
+                                    @NotNull String result, long durationNanos) {
+        Record record = new Record(++sequence, toolName, argumentsJson, success, result, hash(result),
+                durationNanos / 1000, System.currentTimeMillis());
+        try {
+            writer.write(gson.toJson(record));
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            LOG.warn("写入工具调用记录失败: " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOG.warn("关闭工具调用记录失败: " + file, e);
+        }
+    }
+
+    /**
+     * 读取记录文件。无法解析的行 (例如进程退出时写了一半的最后一行) 被跳过。
+     * @return 按记录顺序排列的记录。
+     */
+    @NotNull
+    public static List<Record> read(@NotNull Path file) throws IOException {
+        Gson gson = new Gson();
+        List<Record> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    Record record = gson.fromJson(line, Record.class);
+                    if (record != null && record.tool != null && record.result != null) {
+                        records.add(record);
+                    }
+                } catch (JsonParseException e) {
+                    LOG.warn("跳过无法解析的工具调用记录: " + file);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 结果的 SHA-256 摘要 (十六进制)，用于比较两次执行的结果是否一致。
+     */
+    @NotNull
+    public static String hash(@NotNull String result) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(result.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 一次工具执行的记录。
+     */
+    public static final class Record {
+        private int seq;
+        private String tool;
+        private String arguments;
+        private boolean success;
+        private String result;
+        private String resultHash;
+        private long durationMicros;
+        private long timestamp;
+
+        private Record() {
+            // 供 Gson 反序列化
+        }
+
+        Record(int seq, String tool, String arguments, boolean success, String result, String resultHash,
+               long durationMicros, long timestamp) {
+            this.seq = seq;
+            this.tool = tool;
+            this.arguments = arguments;
+            this.success = success;
+            this.result = result;
+            this.resultHash = resultHash;
+            this.durationMicros = durationMicros;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * 记录序号，从 1 开始，按完成顺序递增。
+         */
+        public int getSeq() {
+            return seq;
+        }
+
+        @NotNull
+        public String getTool() {
+            return tool;
+        }
+
+        /**
+         * 模型给出的参数 JSON。
+         */
+        @Nullable
+        public String getArguments() {
+            return arguments;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        @NotNull
+        public String getResult() {
+            return result;
+        }
+
+        @Nullable
+        public String getResultHash() {
+            return resultHash;
+        }
+
+        public long getDurationMicros() {
+            return durationMicros;
+        }
+
+        /**
+         * 完成时间 (毫秒时间戳)。
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
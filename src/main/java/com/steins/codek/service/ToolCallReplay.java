@@ -0,0 +1,111 @@
+package com.steins.codek.service;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * 工具调用回放：从 {@link ToolCallRecorder} 的记录中返回结果，不执行工具、不访问项目。
+ * 按工具名称和参数 (忽略键的顺序和空白) 匹配记录；同样的调用出现多次时按记录顺序依次返回，
+ * 因此同一段对话的每次回放结果都相同，与工具调用的完成顺序无关。
+ * @author 0027013824
+ */
+public final class ToolCallReplay {
+    private final Map<String, Deque<ToolCallRecorder.Record>> pending = new HashMap<>();
+    private final boolean simulateDurations;
+    private int remaining;
+    private int missCount;
+
+    /**
+     * @param records 按记录顺序排列的记录。
+     * @param simulateDurations 是否按记录的耗时延迟返回结果，用于还原真实会话的时序。
+     */
+    public ToolCallReplay(@NotNull List<ToolCallRecorder.Record> records, boolean simulateDurations) {
+        this.simulateDurations = simulateDurations;
+        for (ToolCallRecorder.Record record : records) {
+            pending.computeIfAbsent(key(record.getTool(), record.getArguments()), k -> new ArrayDeque<>()).add(record);
+        }
+        this.remaining = records.size();
+    }
+
+    /**
+     * 从记录文件创建回放。
+     */
+    @NotNull
+    public static ToolCallReplay load(@NotNull Path file, boolean simulateDurations) throws IOException {
+        return new ToolCallReplay(ToolCallRecorder.read(file), simulateDurations);
+    }
+
+    /**
+     * 取出与调用匹配的下一条记录。
+     * @return 匹配的记录，没有时返回 null 并计入未命中数。
+     */
+    @Nullable
+    public synchronized ToolCallRecorder.Record next(@NotNull String toolName, @Nullable String argumentsJson) {
+        Deque<ToolCallRecorder.Record> queue = pending.get(key(toolName, argumentsJson));
+        ToolCallRecorder.Record record = queue != null ? queue.poll() : null;
+        if (record == null) {
+            missCount++;
+        } else {
+            remaining--;
+        }
+        return record;
+    }
+
+    public boolean isSimulateDurations() {
+        return simulateDurations;
+    }
+
+    /**
+     * 尚未被回放的记录数。
+     */
+    public synchronized int getRemainingCount() {
+        return remaining;
+    }
+
+    /**
+     * 没有匹配记录的调用数。回放与录制不一致时大于 0。
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * 匹配用的键：工具名称加上按键排序的参数 JSON。无法解析的参数按原文匹配。
+     */
+    static String key(@NotNull String toolName, @Nullable String argumentsJson) {
+        String arguments = argumentsJson != null ? argumentsJson.trim() : "";
+        try {
+            arguments = canonical(JsonParser.parseString(arguments)).toString();
+        } catch (JsonParseException e) {
+            // 按原文匹配
+        }
+        return toolName + '\n' + arguments;
+    }
+
+    private static JsonElement canonical(JsonElement element) {
+        if (!element.isJsonObject()) {
+            return element;
+        }
+        Map<String, JsonElement> sorted = new TreeMap<>();
+        for (Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+            sorted.put(entry.getKey(), canonical(entry.getValue()));
+        }
+        JsonObject object = new JsonObject();
+        sorted.forEach(object::add);
+        return object;
+    }
+}
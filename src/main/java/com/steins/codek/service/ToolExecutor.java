@@ -1,11 +1,24 @@
 package com.steins.codek.service;
 
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.steins.codek.config.CodekConfig;
+import com.steins.codek.model.ChatSession;
+import com.steins.codek.tool.FileTransaction;
 import com.steins.codek.tool.Tool;
-import com.steins.codek.tool.impl.ReadFileTool; // 导入我们实现的第一个工具
-import com.steins.codek.tool.impl.WriteFileTool; // 导入写文件工具
-import com.steins.codek.tool.impl.CreateFileTool; // 导入创建文件工具
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolDefinition;
+import com.steins.codek.tool.ToolOutputBudget;
+import com.steins.codek.tool.ToolOutputListener;
+import com.steins.codek.tool.ToolOutputPager;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResource;
+import com.steins.codek.tool.ToolResultWriter;
+import com.steins.codek.tool.external.ExternalToolManager;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -13,23 +26,47 @@ import org.jetbrains.annotations.Nullable;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
 import java.lang.reflect.Type;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * 负责管理和执行 LLM 请求的工具。
+ * 负责管理和执行 LLM 请求的工具。项目级服务。
  * @author 0027013824
  */
-public class ToolExecutor {
+@Service(Service.Level.PROJECT)
+public final class ToolExecutor implements Disposable {
     private static final Logger LOG = Logger.getInstance(ToolExecutor.class);
-    private final Map<String, Tool> availableTools = new HashMap<>();
-    private final Project project; // 需要 Project 来实例化某些工具
+    private final Project project;
+    private final ToolRegistry toolRegistry; // 通过 codek.tool 扩展点注册的工具
     private final Gson gson; // 用于解析 JSON 参数
+    private final ToolOutputPager outputPager = new ToolOutputPager(); // 超出预算的结果分页
+    private final ToolApprovalQueue approvalQueue; // 需要批准的调用按轮合并审查
+    private volatile ToolCallReplay replay; // 回放模式下从记录返回结果，不执行工具
+    private ToolCallRecorder recorder; // 当前会话的记录器，开启记录后按需打开
+    private String recorderSessionId;
+
+    private static final int MAX_PARALLEL_TOOLS = 8; // 所有工具共享的最大并行调用数
+    private final ExecutorService toolPool =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("CodeK Tool Executor", MAX_PARALLEL_TOOLS);
+    private final ToolScheduler scheduler = new ToolScheduler(); // 每个工具的舱壁和写文件的工具之间的互斥
 
     /**
      * 构造函数。
@@ -38,35 +75,564 @@ public class ToolExecutor {
     public ToolExecutor(@NotNull Project project) {
         this.project = project;
         this.gson = new Gson();
-        registerTools();
+        this.toolRegistry = ToolRegistry.getInstance(project);
+        this.approvalQueue = ToolApprovalQueue.getInstance(project);
+        // 外部工具服务器的进程在后台启动并保持运行，导出的工具注册到 toolRegistry
+        ExternalToolManager.getInstance(project).start();
+    }
+
+    /**
+     * 获取项目级的工具执行器，工具窗口和 LlmService 共享同一个实例。
+     * @param project 当前项目。
+     * @return ToolExecutor 实例。
+     */
+    public static ToolExecutor getInstance(@NotNull Project project) {
+        return project.getService(ToolExecutor.class);
+    }
+
+    /**
+     * 获取超出预算的工具结果的分页器。
+     */
+    @NotNull
+    public ToolOutputPager getOutputPager() {
+        return outputPager;
+    }
+
+    /**
+     * 获取所有已注册工具的定义，不会创建工具实例。
+     * @return 工具定义列表。
+     */
+    @NotNull
+    public List<ToolDefinition> getAvailableTools() {
+        return toolRegistry.getDefinitions();
+    }
+
+    /**
+     * 开始一轮对话，在用户发送一条消息时调用。每轮有自己的文件事务：写入/创建文件的工具只暂存修改，
+     * 读取文件的工具看到暂存的内容，直到 {@link #commitTransaction(Turn)} 时在一个写命令中统一应用。
+     * 各工具窗口的轮次互相独立，提交、回滚和取消只影响自己的轮次。
+     * @return 新的轮次。
+     */
+    @NotNull
+    public Turn beginTurn() {
+        return new Turn(new FileTransaction(project));
+    }
+
+    /**
+     * 提交一轮的文件事务：一次 VFS 刷新、一个撤销单元、一次保存。
+     * 不能在 EDT 上调用。
+     * @return 提交结果；事务已经提交或回滚时返回空结果。
+     */
+    @NotNull
+    public FileTransaction.CommitResult commitTransaction(@NotNull Turn turn) {
+        if (!turn.finish()) {
+            return new FileTransaction.CommitResult();
+        }
+        FileTransaction.CommitResult result = turn.transaction.commit();
+        if (!result.isSuccessful()) {
+            LOG.warn("文件事务提交时部分修改失败: " + result.getFailuresByPath());
+        }
+        return result;
     }
 
     /**
-     * 注册所有可用的工具。
+     * 一轮对话出错结束时提交其中已审查 (已建立检查点) 的修改，放弃之后暂存、尚未审查的修改。
+     * 不能在 EDT 上调用。
+     * @return 提交结果，包含被放弃的文件；事务已经提交或回滚时返回空结果。
      */
-    private void registerTools() {
-        // 注册 ReadFileTool
-        ReadFileTool readFileTool = new ReadFileTool(project);
-        availableTools.put(readFileTool.getName(), readFileTool);
+    @NotNull
+    public FileTransaction.CommitResult commitCheckpoint(@NotNull Turn turn) {
+        if (!turn.finish()) {
+            return new FileTransaction.CommitResult();
+        }
+        FileTransaction.CommitResult result = turn.transaction.commitCheckpoint();
+        if (!result.isSuccessful()) {
+            LOG.warn("文件事务提交时部分修改失败: " + result.getFailuresByPath());
+        }
+        return result;
+    }
 
-        // 注册 WriteFileTool
-        WriteFileTool writeFileTool = new WriteFileTool(project);
-        availableTools.put(writeFileTool.getName(), writeFileTool);
+    /**
+     * 为一轮对话的下一条模型消息建立检查点：已审查的暂存修改在之后的审查中不会被回退。
+     */
+    public void checkpointTransaction(@NotNull Turn turn) {
+        if (!turn.finished.get()) {
+            turn.transaction.checkpoint();
+        }
+    }
 
-        // 注册 CreateFileTool
-        CreateFileTool createFileTool = new CreateFileTool(project);
-        availableTools.put(createFileTool.getName(), createFileTool);
+    /**
+     * 在 IDE 之外读取文件的工具执行前，把覆盖层中暂存的修改写入磁盘。
+     * 调用方持有读许可，期间写文件的工具不会暂存新的修改。
+     * @return 写入失败 (例如与用户在编辑器中的修改冲突) 的文件，全部成功时为空。
+     */
+    @NotNull
+    private static Map<String, String> flushTransaction(FileTransaction transaction) {
+        try {
+            FileTransaction.CommitResult result = transaction.flush();
+            if (!result.isSuccessful()) {
+                LOG.warn("写入暂存的修改时部分文件失败: " + result.getFailuresByPath());
+            }
+            return result.getFailuresByPath();
+        } catch (IllegalStateException e) {
+            // 事务已被回滚 (本轮被停止)，没有需要写入的修改
+            return Collections.emptyMap();
+        }
+    }
 
-        // TODO: 在此注册其他工具，例如 ListFilesTool 等
+    /**
+     * 放弃一轮的文件事务中暂存的所有修改。
+     */
+    public void rollbackTransaction(@NotNull Turn turn) {
+        if (turn.finish()) {
+            turn.transaction.rollback();
+        }
     }
 
     /**
-     * 获取所有已注册的工具列表。
-     * @return 工具列表。
+     * 调度同一条模型消息中的一组工具调用。
+     * 根据各工具声明的资源 ({@link Tool#getResources}) 建立依赖图：与前面某个调用在同一路径上冲突
+     * (至少一方写入) 的调用等待该调用完成后才开始，其余调用并行执行。结果因此与消息顺序一致，不受线程调度影响。
+     * 需要批准的调用 ({@link Tool#requiresApproval()}) 由 {@link ToolApprovalQueue} 合并审查：写文件的调用照常暂存，
+     * 提交前由 {@link #reviewPendingChanges(Turn)} 审查差异；其他调用在批准前不执行，被拒绝时返回 rejected 结果。
+     * @param turn 调用所属的轮次。
+     * @param calls 按消息顺序排列的工具调用。
+     * @param outputBudget 每个调用结果的 token 预算。
+     * @param outputListener 接收工具实时输出的监听器。
+     * @return 与 calls 一一对应的结果 Future，总会正常完成。
      */
     @NotNull
-    public List<Tool> getAvailableTools() {
-        return new ArrayList<>(availableTools.values());
+    public List<CompletableFuture<ToolExecutionResult>> submitToolCalls(@NotNull Turn turn,
+                                                                        @NotNull List<PendingToolCall> calls,
+                                                                        @NotNull ToolOutputBudget outputBudget,
+                                                                        @NotNull ToolOutputListener outputListener) {
+        FileTransaction transaction = turn.transaction;
+        ToolReviewRound round = new ToolReviewRound(approvalQueue, transaction);
+        turn.round = round;
+        List<Collection<ToolResource>> resources = new ArrayList<>(calls.size());
+        for (PendingToolCall call : calls) {
+            resources.add(declaredResources(call));
+        }
+        List<List<Integer>> graph = dependencyGraph(resources);
+        List<CompletableFuture<ToolExecutionResult>> futures = new ArrayList<>(calls.size());
+        boolean[] blocked = new boolean[calls.size()]; // 等待批准，或依赖等待批准的调用
+        List<CompletableFuture<ToolExecutionResult>> stagingCalls = new ArrayList<>();
+        for (int i = 0; i < calls.size(); i++) {
+            PendingToolCall call = calls.get(i);
+            Collection<ToolResource> own = resources.get(i);
+            List<CompletableFuture<?>> dependencies = new ArrayList<>();
+            for (int j : graph.get(i)) {
+                dependencies.add(futures.get(j));
+                blocked[i] |= blocked[j];
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("工具调用 #" + i + " (" + call.toolName + ") 依赖 #" + j + " (" + calls.get(j).toolName + ")");
+                }
+            }
+
+            // 写文件的调用在事务中只暂存修改，提交前审查；其他需要批准的调用在批准后才执行。
+            // 在 IDE 之外写磁盘的工具 (例如外部工具服务器) 无法暂存，同样在批准后才执行
+            Tool tool = toolRegistry.getTool(call.toolName);
+            boolean needsApproval = tool != null && tool.requiresApproval() && replay == null;
+            boolean staging = needsApproval && tool.getPolicy().isWritesFiles() && !tool.getPolicy().isReadsFromDisk();
+            CompletableFuture<Boolean> approval = null;
+            if (staging) {
+                round.requireReview(call.toolCallId != null ? call.toolCallId : "");
+            } else if (needsApproval && !approvalQueue.isAutoApproved(own)) {
+                approval = round.gate(ToolApprovalQueue.ReviewItem.toolCall(call.toolName, describeArguments(call),
+                        call.toolCallId != null ? call.toolCallId : ""));
+                dependencies.add(approval.thenApply(approved -> null));
+                blocked[i] = true;
+            }
+
+            CompletableFuture<ToolExecutionResult> future;
+            if (dependencies.isEmpty()) {
+                future = submitToolCall(turn, call.toolName, call.argumentsJson, call.toolCallId, outputBudget, outputListener);
+            } else {
+                // 依赖的 Future 总会正常完成，不会中断这条链
+                CompletableFuture<Boolean> finalApproval = approval;
+                future = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0])).thenCompose(v ->
+                        turn.cancelled
+                                ? CompletableFuture.completedFuture(cancelledResult(call.toolName, call.toolCallId))
+                                : finalApproval != null && !finalApproval.join()
+                                ? CompletableFuture.completedFuture(rejectedResult(call.toolName, call.toolCallId))
+                                : submitToolCall(turn, call.toolName, call.argumentsJson, call.toolCallId, outputBudget, outputListener));
+            }
+            if (staging && !blocked[i]) {
+                stagingCalls.add(future);
+            }
+            futures.add(future);
+        }
+        round.open(stagingCalls);
+        return futures;
+    }
+
+    /**
+     * 审查这条模型消息的工具调用暂存的文件修改，在 {@link #checkpointTransaction(Turn)} 之前调用。
+     * 被拒绝的文件回退到上一个检查点，不会被提交。
+     * @return 工具调用 ID 到被拒绝文件的映射，全部批准或无需审查时为空。
+     */
+    @NotNull
+    public CompletableFuture<Map<String, String>> reviewPendingChanges(@NotNull Turn turn) {
+        ToolReviewRound round = turn.round;
+        turn.round = null;
+        return round != null ? round.finish() : CompletableFuture.completedFuture(Collections.emptyMap());
+    }
+
+    /**
+     * 审查面板中展示的调用参数，每个参数一行。
+     */
+    private String describeArguments(PendingToolCall call) {
+        try {
+            Type type = new TypeToken<Map<String, String>>(){}.getType();
+            Map<String, String> arguments = gson.fromJson(call.argumentsJson, type);
+            if (arguments == null || arguments.isEmpty()) {
+                return call.argumentsJson;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> entry : arguments.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+            return sb.toString();
+        } catch (RuntimeException e) {
+            return call.argumentsJson;
+        }
+    }
+
+    private Collection<ToolResource> declaredResources(PendingToolCall call) {
+        Tool tool = toolRegistry.getTool(call.toolName);
+        if (tool == null) {
+            return Collections.emptyList();
+        }
+        try {
+            Type type = new TypeToken<Map<String, String>>(){}.getType();
+            Map<String, String> arguments = gson.fromJson(call.argumentsJson, type);
+            return tool.getResources(arguments != null ? arguments : new HashMap<>());
+        } catch (RuntimeException e) {
+            // 参数无效时调用会直接返回错误，不需要排序
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 同一条消息中各调用的依赖：第 i 项为排在它前面、与它的资源冲突的调用的下标，按消息顺序排列。
+     * @param resources 按消息顺序排列的各调用声明的资源。
+     */
+    @NotNull
+    static List<List<Integer>> dependencyGraph(@NotNull List<? extends Collection<ToolResource>> resources) {
+        List<List<Integer>> graph = new ArrayList<>(resources.size());
+        for (int i = 0; i < resources.size(); i++) {
+            List<Integer> dependencies = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                if (conflicts(resources.get(j), resources.get(i))) {
+                    dependencies.add(j);
+                }
+            }
+            graph.add(dependencies);
+        }
+        return graph;
+    }
+
+    private static boolean conflicts(Collection<ToolResource> first, Collection<ToolResource> second) {
+        for (ToolResource a : first) {
+            for (ToolResource b : second) {
+                if (a.conflictsWith(b)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在任何轮次之外调度一个工具调用：不使用文件事务，写文件的工具直接修改文件。
+     * @see #submitToolCall(Turn, String, String, String, ToolOutputBudget, ToolOutputListener)
+     */
+    @NotNull
+    public CompletableFuture<ToolExecutionResult> submitToolCall(@NotNull String toolName, @NotNull String argumentsJson,
+                                                                 @Nullable String toolCallId,
+                                                                 @NotNull ToolOutputBudget outputBudget,
+                                                                 @NotNull ToolOutputListener outputListener) {
+        return submitToolCall(null, toolName, argumentsJson, toolCallId, outputBudget, outputListener);
+    }
+
+    /**
+     * 按工具的 {@link ToolPolicy} 异步调度一个工具调用：
+     * 同一工具的并发调用数受舱壁限制，写文件的工具互斥执行，超过截止时间的调用被取消并返回超时结果。
+     * 返回的 Future 总会在截止时间内正常完成，不会以异常结束。
+     * @param turn 调用所属的轮次，在该轮的文件事务中执行并随该轮取消；为 null 时不使用文件事务。
+     * @param toolName 要执行的工具名称。
+     * @param argumentsJson 工具参数的 JSON 字符串。
+     * @param toolCallId LLM 工具调用 ID (可选)。
+     * @param outputBudget 结果的 token 预算。
+     * @param outputListener 接收工具实时输出的监听器。
+     * @return 工具执行结果的 Future。
+     */
+    @NotNull
+    public CompletableFuture<ToolExecutionResult> submitToolCall(@Nullable Turn turn, @NotNull String toolName,
+                                                                 @NotNull String argumentsJson, @Nullable String toolCallId,
+                                                                 @NotNull ToolOutputBudget outputBudget,
+                                                                 @NotNull ToolOutputListener outputListener) {
+        ToolCallReplay activeReplay = replay;
+        if (activeReplay != null) {
+            return replayToolCall(activeReplay, toolName, argumentsJson, toolCallId);
+        }
+        long startNanos = System.nanoTime();
+        Tool tool = toolRegistry.getTool(toolName);
+        ToolPolicy policy = tool != null ? tool.getPolicy() : ToolPolicy.DEFAULT;
+        long timeoutMillis = policy.getTimeoutMillis();
+        FileTransaction transaction = turn != null ? turn.transaction : null;
+        ToolContext context = new ToolContext(toolCallId, transaction, outputBudget, outputListener);
+        CompletableFuture<ToolExecutionResult> future = new CompletableFuture<>();
+
+        // 许可发放后才把调用放入线程池，等待舱壁空位或写操作的调用不占用线程
+        ToolScheduler.Access access = policy.isWritesFiles() ? ToolScheduler.Access.WRITE
+                : policy.isParallelWithWrites() ? ToolScheduler.Access.SHARED_WITH_WRITES : ToolScheduler.Access.READ;
+        ToolScheduler.Request request = scheduler.acquire(toolName, policy.getMaxConcurrency(), access);
+        AtomicBoolean claimed = new AtomicBoolean(); // 工具开始执行或调用被放弃，二者只会发生一个
+        AtomicReference<Future<?>> task = new AtomicReference<>();
+        Runnable body = () -> {
+            if (claimed.getAndSet(true)) {
+                return; // 调用已超时或被取消，许可由取消方归还
+            }
+            try {
+                if (!future.isDone()) {
+                    Map<String, String> flushFailures = policy.isReadsFromDisk() && transaction != null
+                            ? flushTransaction(transaction) : Collections.emptyMap();
+                    future.complete(withCallId(flushFailures.isEmpty()
+                            ? executeInContext(toolName, argumentsJson, context)
+                            : flushFailedResult(toolName, flushFailures), toolCallId));
+                }
+            } catch (Throwable e) {
+                LOG.error("调度工具 '" + toolName + "' 时发生意外错误", e);
+                future.complete(withCallId(new ToolExecutionResult(toolName, false,
+                        ToolResultWriter.error("Internal error executing tool " + toolName + ": " + e.getMessage()), null),
+                        toolCallId));
+            } finally {
+                request.release();
+            }
+        };
+        request.getPermit().thenRun(() -> {
+            FutureTask<Void> runnable = new FutureTask<>(body, null);
+            task.set(runnable); // 先登记再执行，执行开始后的取消总能中断它
+            toolPool.execute(runnable);
+        });
+
+        // 取消时中断仍在执行的工具；超时或被取消的调用之后暂存的修改不应随本轮事务提交
+        Runnable canceller = () -> {
+            context.cancel();
+            if (!claimed.getAndSet(true)) {
+                request.cancel(); // 还没开始执行：放弃排队或归还已发放的许可
+            }
+            Future<?> running = task.get();
+            if (running != null) {
+                running.cancel(true);
+            }
+            if (transaction != null && toolCallId != null) {
+                transaction.cancelOwner(toolCallId);
+            }
+        };
+        Runnable userCancel = () -> {
+            if (future.complete(cancelledResult(toolName, toolCallId))) {
+                canceller.run();
+            }
+        };
+        if (turn != null) {
+            turn.runningCalls.add(userCancel);
+            if (turn.cancelled) {
+                userCancel.run(); // 该轮在登记之前已被取消
+            }
+        }
+
+        // 截止时间到达时返回超时结果
+        ScheduledFuture<?> watchdog = AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+            String phase = claimed.get() ? "running"
+                    : request.getPermit().isDone() || !request.isWaitingForWrites() ? "waiting for a free slot"
+                    : "waiting for file writes to finish";
+            if (future.complete(timeoutResult(toolName, toolCallId, timeoutMillis, phase))) {
+                LOG.warn("工具 '" + toolName + "' 超过截止时间 " + timeoutMillis + " ms，已取消。");
+                canceller.run();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((r, e) -> {
+            watchdog.cancel(false);
+            if (turn != null) {
+                turn.runningCalls.remove(userCancel);
+            }
+            record(toolName, argumentsJson, r, startNanos);
+        });
+        return future;
+    }
+
+    /**
+     * 进入回放模式：之后的工具调用从记录中返回结果，不执行工具、不审查、不修改文件。
+     * @param replay 由 {@link ToolCallReplay#load} 创建的回放。
+     */
+    public void startReplay(@NotNull ToolCallReplay replay) {
+        this.replay = replay;
+    }
+
+    /**
+     * 退出回放模式。
+     */
+    public void stopReplay() {
+        this.replay = null;
+    }
+
+    @Nullable
+    public ToolCallReplay getReplay() {
+        return replay;
+    }
+
+    private static CompletableFuture<ToolExecutionResult> replayToolCall(@NotNull ToolCallReplay replay, @NotNull String toolName,
+                                                                         @NotNull String argumentsJson, @Nullable String toolCallId) {
+        ToolCallRecorder.Record record = replay.next(toolName, argumentsJson);
+        if (record == null) {
+            LOG.warn("回放记录中没有匹配的调用: " + toolName + " " + argumentsJson);
+            return CompletableFuture.completedFuture(
+                    toolErrorResult(toolName, toolCallId, "replay", "No recorded result for this call."));
+        }
+        ToolExecutionResult result = withCallId(new ToolExecutionResult(toolName, record.isSuccess(), record.getResult(), null), toolCallId);
+        if (!replay.isSimulateDurations() || record.getDurationMicros() <= 0) {
+            return CompletableFuture.completedFuture(result);
+        }
+        CompletableFuture<ToolExecutionResult> future = new CompletableFuture<>();
+        AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> future.complete(result),
+                record.getDurationMicros(), TimeUnit.MICROSECONDS);
+        return future;
+    }
+
+    /**
+     * 开启记录时，把完成的调用追加到当前会话的记录文件。
+     */
+    private void record(@NotNull String toolName, @NotNull String argumentsJson, @Nullable ToolExecutionResult result,
+                        long startNanos) {
+        if (result == null) {
+            return;
+        }
+        ToolCallRecorder current = recorderForActiveSession();
+        if (current != null) {
+            current.record(toolName, argumentsJson, result.isSuccess(), result.getResult(), System.nanoTime() - startNanos);
+        }
+    }
+
+    @Nullable
+    private synchronized ToolCallRecorder recorderForActiveSession() {
+        CodekConfig config = ApplicationManager.getApplication().getService(CodekConfig.class);
+        if (config == null || !config.isToolRecordingEnabled()) {
+            closeRecorder();
+            return null;
+        }
+        ChatSession session = SessionManager.getInstance().getActiveSession();
+        String sessionId = session != null ? session.getId() : "default";
+        if (recorder == null || !sessionId.equals(recorderSessionId)) {
+            closeRecorder();
+            try {
+                recorder = new ToolCallRecorder(ToolCallRecorder.sessionLogFile(sessionId));
+                recorderSessionId = sessionId;
+            } catch (IOException e) {
+                LOG.warn("无法打开工具调用记录文件", e);
+            }
+        }
+        return recorder;
+    }
+
+    private synchronized void closeRecorder() {
+        if (recorder != null) {
+            recorder.close();
+            recorder = null;
+            recorderSessionId = null;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        closeRecorder();
+    }
+
+    /**
+     * 取消一轮中所有正在执行或排队的工具调用 (例如用户停止了该轮)，它们的 Future 以取消结果完成。
+     * 其他轮次 (例如另一个工具窗口) 的调用不受影响。
+     */
+    public void cancelRunningToolCalls(@NotNull Turn turn) {
+        turn.cancelled = true;
+        ToolReviewRound round = turn.round;
+        if (round != null) {
+            round.cancel();
+        }
+        for (Runnable cancel : turn.runningCalls.toArray(new Runnable[0])) {
+            cancel.run();
+        }
+    }
+
+    private static ToolExecutionResult cancelledResult(String toolName, @Nullable String toolCallId) {
+        return toolErrorResult(toolName, toolCallId, "cancelled", "The user stopped the current turn.");
+    }
+
+    private static ToolExecutionResult rejectedResult(String toolName, @Nullable String toolCallId) {
+        return toolErrorResult(toolName, toolCallId, "rejected",
+                "The user rejected this call in review. Do not retry it unchanged; adjust the approach or ask the user.");
+    }
+
+    /**
+     * 构造 {@code {"error": ..., "tool": ..., "message": ...}} 形式的结构化错误结果。
+     */
+    private static ToolExecutionResult toolErrorResult(String toolName, @Nullable String toolCallId,
+                                                       String error, String message) {
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                    .name("error").value(error)
+                    .name("tool").value(toolName)
+                    .name("message").value(message)
+                    .endObject();
+            return withCallId(new ToolExecutionResult(toolName, false, json.toString(), null), toolCallId);
+        }
+    }
+
+    /**
+     * 暂存的修改没能写入磁盘时不执行读取磁盘的工具，告诉模型哪些修改被放弃。
+     */
+    private static ToolExecutionResult flushFailedResult(String toolName, Map<String, String> failures) {
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                    .name("error").value("conflict")
+                    .name("tool").value(toolName)
+                    .name("files").beginObject();
+            for (Map.Entry<String, String> failure : failures.entrySet()) {
+                json.name(failure.getKey()).value(failure.getValue());
+            }
+            json.endObject()
+                    .name("message").value("Edits made earlier in this turn to these files could not be written to disk "
+                            + "(usually because the user edited the same lines in the meantime) and were discarded. "
+                            + "The tool was not run. Re-read the files and redo the edits if they are still needed.")
+                    .endObject();
+            return new ToolExecutionResult(toolName, false, json.toString(), null);
+        }
+    }
+
+    private static ToolExecutionResult withCallId(ToolExecutionResult result, @Nullable String toolCallId) {
+        result.setToolCallId(toolCallId);
+        return result;
+    }
+
+    /**
+     * 构造返回给模型的结构化超时结果。
+     * @param phase 超时发生的阶段 (排队、等待写操作或执行中)。
+     */
+    private static ToolExecutionResult timeoutResult(String toolName, @Nullable String toolCallId, long timeoutMillis, String phase) {
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                    .name("error").value("timeout")
+                    .name("tool").value(toolName)
+                    .name("timeoutMs").value(timeoutMillis)
+                    .name("phase").value(phase)
+                    .name("message").value("Tool " + toolName + " did not finish within " + timeoutMillis + " ms (" + phase
+                            + ") and was cancelled. Try a narrower request or a different tool.")
+                    .endObject();
+            return withCallId(new ToolExecutionResult(toolName, false, json.toString(), null), toolCallId);
+        }
     }
 
     /**
@@ -77,11 +643,52 @@ public class ToolExecutor {
      */
     @NotNull
     public ToolExecutionResult executeToolCall(@NotNull String toolName, @NotNull String argumentsJson) {
-        Tool tool = availableTools.get(toolName);
+        return executeToolCall(toolName, argumentsJson, null);
+    }
+
+    /**
+     * 执行单个工具调用，不使用文件事务。
+     * @param toolName 要执行的工具名称。
+     * @param argumentsJson 工具参数的 JSON 字符串。
+     * @param toolCallId LLM 工具调用 ID (可选)。
+     * @return 工具执行结果。
+     */
+    @NotNull
+    public ToolExecutionResult executeToolCall(@NotNull String toolName, @NotNull String argumentsJson,
+                                               @Nullable String toolCallId) {
+        return executeToolCall(toolName, argumentsJson, toolCallId, ToolOutputBudget.DEFAULT);
+    }
+
+    /**
+     * 执行单个工具调用，结果超出 token 预算时分页返回。
+     * @param toolName 要执行的工具名称。
+     * @param argumentsJson 工具参数的 JSON 字符串。
+     * @param toolCallId LLM 工具调用 ID (可选)。
+     * @param outputBudget 结果的 token 预算。
+     * @return 工具执行结果。
+     */
+    @NotNull
+    public ToolExecutionResult executeToolCall(@NotNull String toolName, @NotNull String argumentsJson,
+                                               @Nullable String toolCallId, @NotNull ToolOutputBudget outputBudget) {
+        ToolCallReplay activeReplay = replay;
+        if (activeReplay != null) {
+            return replayToolCall(activeReplay, toolName, argumentsJson, toolCallId).join();
+        }
+        long startNanos = System.nanoTime();
+        ToolExecutionResult result = withCallId(
+                executeInContext(toolName, argumentsJson, new ToolContext(toolCallId, null, outputBudget)), toolCallId);
+        record(toolName, argumentsJson, result, startNanos);
+        return result;
+    }
+
+    @NotNull
+    private ToolExecutionResult executeInContext(@NotNull String toolName, @NotNull String argumentsJson,
+                                                 @NotNull ToolContext context) {
+        Tool tool = toolRegistry.getTool(toolName);
         if (tool == null) {
             LOG.warn("未找到名为 '" + toolName + "' 的工具。");
             return new ToolExecutionResult(toolName, false, 
-                    String.format("{\"error\": \"Tool not found: %s\"}", escapeJson(toolName)), null);
+                    ToolResultWriter.error("Tool not found: " + toolName), null);
         }
 
         Map<String, String> arguments = null;
@@ -102,7 +709,9 @@ public class ToolExecutor {
             
             // 执行工具
             LOG.info("执行工具: " + toolName + "，参数: " + argumentsJson);
-            String result = tool.execute(arguments); // Tool 接口的 execute 需要 Map<String, String>
+            String result = tool.execute(arguments, context);
+            // 兜底：工具自身未按预算截断的结果在这里按整行/整条目分页
+            result = outputPager.paginate(toolName, result, context.getOutputBudget());
             LOG.info("工具 '" + toolName + "' 执行完成。结果片段: " + 
                      (result.length() > 100 ? result.substring(0, 100) + "..." : result));
             return new ToolExecutionResult(toolName, true, result, arguments);
@@ -110,18 +719,59 @@ public class ToolExecutor {
         } catch (JsonSyntaxException e) {
             LOG.warn("执行工具 '" + toolName + "' 时参数 JSON 解析错误: " + argumentsJson, e);
             return new ToolExecutionResult(toolName, false, 
-                    String.format("{\"error\": \"Invalid JSON arguments for tool %s: %s\"}", 
-                                 escapeJson(toolName), escapeJson(e.getMessage())), null);
+                    ToolResultWriter.error("Invalid JSON arguments for tool " + toolName + ": " + e.getMessage()), null);
         } catch (IllegalArgumentException e) {
             LOG.warn("执行工具 '" + toolName + "' 时参数错误: " + e.getMessage(), e);
             return new ToolExecutionResult(toolName, false, 
-                    String.format("{\"error\": \"Invalid arguments for tool %s: %s\"}", 
-                                 escapeJson(toolName), escapeJson(e.getMessage())), arguments);
+                    ToolResultWriter.error("Invalid arguments for tool " + toolName + ": " + e.getMessage()), arguments);
         } catch (Exception e) {
             LOG.error("执行工具 '" + toolName + "' 时发生意外错误", e);
             return new ToolExecutionResult(toolName, false, 
-                    String.format("{\"error\": \"Internal error executing tool %s: %s\"}", 
-                                 escapeJson(toolName), escapeJson(e.getMessage())), arguments);
+                    ToolResultWriter.error("Internal error executing tool " + toolName + ": " + e.getMessage()), arguments);
+        }
+    }
+
+    /**
+     * 一轮对话 (用户的一条消息及其引发的所有工具调用) 的状态：文件事务、当前的审查和进行中的调用。
+     * 由 {@link #beginTurn()} 创建，调用方 (例如 {@link LlmService}) 在整轮中持有。
+     */
+    public static final class Turn {
+        private final FileTransaction transaction;
+        private final Set<Runnable> runningCalls = ConcurrentHashMap.newKeySet(); // 进行中调用的取消操作
+        private final AtomicBoolean finished = new AtomicBoolean(); // 事务已提交或回滚
+        private volatile ToolReviewRound round; // 当前模型消息的审查
+        private volatile boolean cancelled; // 用户停止了该轮，等待依赖的调用据此放弃执行
+
+        private Turn(@NotNull FileTransaction transaction) {
+            this.transaction = transaction;
+        }
+
+        private boolean finish() {
+            return finished.compareAndSet(false, true);
+        }
+
+        @NotNull
+        public FileTransaction getTransaction() {
+            return transaction;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * 待调度的工具调用。
+     */
+    public static class PendingToolCall {
+        private final String toolName;
+        private final String argumentsJson;
+        private final String toolCallId;
+
+        public PendingToolCall(@NotNull String toolName, @NotNull String argumentsJson, @Nullable String toolCallId) {
+            this.toolName = toolName;
+            this.argumentsJson = argumentsJson;
+            this.toolCallId = toolCallId;
         }
     }
 
@@ -177,34 +827,4 @@ public class ToolExecutor {
             return result;
         }
     }
-    
-    /**
-     * 简单的 JSON 字符串转义（用于错误消息）。
-     * @param str 原始字符串
-     * @return 转义后的字符串
-     */
-    private static String escapeJson(String str) {
-        if (str == null) return "";
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < str.length(); i++) {
-            char c = str.charAt(i);
-            switch (c) {
-                case '"': sb.append("\\\""); break;
-                case '\\': sb.append("\\\\"); break;
-                case '\b': sb.append("\\b"); break;
-                case '\f': sb.append("\\f"); break;
-                case '\n': sb.append("\\n"); break;
-                case '\r': sb.append("\\r"); break;
-                case '\t': sb.append("\\t"); break;
-                case '/': sb.append("\\/"); break;
-                default:
-                    if (c <= '\u001F') {
-                        sb.append(String.format("\\u%04x", (int) c));
-                    } else {
-                        sb.append(c);
-                    }
-            }
-        }
-        return sb.toString();
-    }
 }
\ No newline at end of file
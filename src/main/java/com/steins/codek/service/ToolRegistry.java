@@ -0,0 +1,299 @@
+package com.steins.codek.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolBean;
+import com.steins.codek.tool.ToolDefinition;
+import com.steins.codek.tool.ToolOutputBudget;
+import com.steins.codek.tool.ToolParameter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 项目级工具注册表，工具通过 {@code codek.tool} 扩展点声明。
+ * 工具实例在第一次调用时创建，每个项目只创建一次；创建失败的工具记录下来，版本变化前不再重试。
+ * 工具定义优先从扩展点声明的定义文件读取，生成发送给模型的工具列表时不创建工具实例。
+ * 工具定义 JSON 按注册表版本缓存，扩展点变化 (插件动态加载/卸载) 或运行时注册的工具
+ * (例如外部工具服务器导出的工具) 变化时版本递增。
+ * @author 0027013824
+ */
+@Service(Service.Level.PROJECT)
+public final class ToolRegistry implements Disposable {
+    private static final Logger LOG = Logger.getInstance(ToolRegistry.class);
+    public static final ExtensionPointName<ToolBean> EP_NAME = ExtensionPointName.create("codek.tool");
+
+    private final Project project;
+    private final Map<String, Tool> instances = new ConcurrentHashMap<>();
+    private final Map<String, ToolDefinition> definitions = new ConcurrentHashMap<>(); // 扩展点声明的工具的定义
+    private final Set<String> failedTools = ConcurrentHashMap.newKeySet(); // 创建实例或读取定义失败的工具
+    private final Map<String, Tool> registeredTools = new LinkedHashMap<>(); // 运行时注册的工具，按注册顺序排列
+    private final AtomicLong version = new AtomicLong();
+    private volatile ToolSchema schema; // 按版本缓存的工具定义
+
+    public ToolRegistry(@NotNull Project project) {
+        this.project = project;
+        EP_NAME.addChangeListener(this::invalidate, this);
+    }
+
+    public static ToolRegistry getInstance(@NotNull Project project) {
+        return project.getService(ToolRegistry.class);
+    }
+
+    /**
+     * 获取注册表版本，每次扩展点变化时递增。
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * 在运行时注册一个工具，{@code parentDisposable} 释放时自动注销。
+     * 与扩展点声明的工具同名时，扩展点中的工具优先。
+     * @param tool 工具实例。
+     * @param parentDisposable 工具的生命周期。
+     */
+    public void registerTool(@NotNull Tool tool, @NotNull Disposable parentDisposable) {
+        String name = tool.getName();
+        synchronized (registeredTools) {
+            registeredTools.put(name, tool);
+        }
+        version.incrementAndGet();
+        Disposer.register(parentDisposable, () -> {
+            synchronized (registeredTools) {
+                registeredTools.remove(name, tool);
+            }
+            version.incrementAndGet();
+        });
+    }
+
+    /**
+     * 按名称获取工具，只创建这一个工具的实例。
+     * @param name 工具名称。
+     * @return 工具实例，未注册或创建失败时返回 null。
+     */
+    @Nullable
+    public Tool getTool(@NotNull String name) {
+        Tool tool = instances.get(name);
+        if (tool != null) {
+            return tool;
+        }
+        for (ToolBean bean : EP_NAME.getExtensionList()) {
+            if (name.equals(bean.name)) {
+                return instantiate(bean);
+            }
+        }
+        synchronized (registeredTools) {
+            return registeredTools.get(name);
+        }
+    }
+
+    /**
+     * 获取所有已注册工具的定义，按扩展点声明顺序排列，运行时注册的工具排在最后。
+     * 声明了定义文件的工具不创建实例。
+     * @return 工具定义列表。
+     */
+    @NotNull
+    public List<ToolDefinition> getDefinitions() {
+        List<ToolDefinition> result = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (ToolBean bean : EP_NAME.getExtensionList()) {
+            ToolDefinition definition = definition(bean);
+            if (definition != null && names.add(definition.getName())) {
+                result.add(definition);
+            }
+        }
+        synchronized (registeredTools) {
+            for (Tool tool : registeredTools.values()) {
+                if (names.add(tool.getName())) {
+                    result.add(ToolDefinition.of(tool));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取发送给模型的工具定义 (OpenAI function calling 格式)。
+     * 同一版本内返回同一个实例，调用方不能修改。
+     */
+    @NotNull
+    public JsonArray getToolsJson() {
+        return getSchema().json;
+    }
+
+    /**
+     * 获取序列化后的工具定义，同一版本内只序列化一次，可以直接写入请求体。
+     */
+    @NotNull
+    public String getToolsJsonText() {
+        return getSchema().text;
+    }
+
+    /**
+     * 获取工具定义占用的估算 token 数。
+     */
+    public int getToolsJsonTokens() {
+        return getSchema().tokens;
+    }
+
+    private ToolSchema getSchema() {
+        ToolSchema current = schema;
+        long currentVersion = version.get();
+        if (current == null || current.version != currentVersion) {
+            JsonArray json = buildToolsJson(getDefinitions());
+            String text = json.toString();
+            current = new ToolSchema(currentVersion, json, text, ToolOutputBudget.estimateTokens(text));
+            schema = current;
+        }
+        return current;
+    }
+
+    /**
+     * 扩展点声明的工具的定义：有定义文件时读取定义文件，否则创建工具实例取其自身的定义。
+     */
+    @Nullable
+    private ToolDefinition definition(ToolBean bean) {
+        ToolDefinition cached = definitions.get(bean.name);
+        if (cached != null || failedTools.contains(bean.name)) {
+            return cached;
+        }
+        ToolDefinition definition;
+        if (bean.schema != null) {
+            try {
+                definition = bean.loadDefinition();
+            } catch (IOException e) {
+                failedTools.add(bean.name);
+                LOG.error("无法读取工具 '" + bean.name + "' 的定义文件: " + bean.schema, e);
+                return null;
+            }
+        } else {
+            Tool tool = instantiate(bean);
+            definition = tool != null ? ToolDefinition.of(tool) : null;
+        }
+        if (definition != null) {
+            definitions.put(bean.name, definition);
+        }
+        return definition;
+    }
+
+    @Nullable
+    private Tool instantiate(ToolBean bean) {
+        if (failedTools.contains(bean.name)) {
+            return null;
+        }
+        // computeIfAbsent 返回 null 时不会记录，失败的工具单独记录，避免每次查找都重新创建并报错
+        return instances.computeIfAbsent(bean.name, name -> {
+            try {
+                Tool tool = bean.createTool(project);
+                if (!name.equals(tool.getName())) {
+                    LOG.warn("工具声明的名称 '" + name + "' 与实现类返回的名称 '" + tool.getName() + "' 不一致: " + bean.implementationClass);
+                }
+                return tool;
+            } catch (ClassNotFoundException | RuntimeException e) {
+                failedTools.add(name);
+                LOG.error("无法创建工具 '" + name + "': " + bean.implementationClass, e);
+                return null;
+            }
+        });
+    }
+
+    private void invalidate() {
+        instances.clear();
+        definitions.clear();
+        failedTools.clear();
+        version.incrementAndGet();
+    }
+
+    private static JsonArray buildToolsJson(List<ToolDefinition> tools) {
+        JsonArray toolsJson = new JsonArray();
+        for (ToolDefinition tool : tools) {
+            JsonObject toolObject = new JsonObject();
+            toolObject.addProperty("type", "function");
+            JsonObject functionObject = new JsonObject();
+            functionObject.addProperty("name", tool.getName());
+            functionObject.addProperty("description", tool.getDescription());
+            
+            JsonObject parametersObject = new JsonObject();
+            parametersObject.addProperty("type", "object");
+            JsonObject propertiesObject = new JsonObject();
+            JsonArray requiredArray = new JsonArray();
+            
+            for (ToolParameter param : tool.getParameters()) {
+                JsonObject paramProps = new JsonObject();
+                String paramType = param.getType();
+                String jsonType = mapTypeToJsonSchema(paramType);
+                paramProps.addProperty("type", jsonType);
+                paramProps.addProperty("description", param.getDescription());
+                propertiesObject.add(param.getName(), paramProps);
+                if (param.isRequired()) {
+                    requiredArray.add(param.getName());
+                }
+            }
+            parametersObject.add("properties", propertiesObject);
+            if (requiredArray.size() > 0) {
+                parametersObject.add("required", requiredArray);
+            }
+            
+            functionObject.add("parameters", parametersObject);
+            toolObject.add("function", functionObject);
+            toolsJson.add(toolObject);
+        }
+        return toolsJson;
+    }
+
+    private static String mapTypeToJsonSchema(String toolType) {
+        if (toolType == null) {
+            return "string";
+        }
+        return switch (toolType.toLowerCase()) {
+            case "integer", "int" -> "integer";
+            case "number", "float", "double" -> "number";
+            case "boolean", "bool" -> "boolean";
+            case "string", "text", "file_path", "filepath" -> "string";
+            default -> "string";
+        };
+    }
+
+    @Override
+    public void dispose() {
+        instances.clear();
+        definitions.clear();
+        synchronized (registeredTools) {
+            registeredTools.clear();
+        }
+    }
+
+    /**
+     * 某一版本的工具定义缓存。
+     */
+    private static final class ToolSchema {
+        final long version;
+        final JsonArray json;
+        final String text;
+        final int tokens;
+
+        ToolSchema(long version, JsonArray json, String text, int tokens) {
+            this.version = version;
+            this.json = json;
+            this.text = text;
+            this.tokens = tokens;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.steins.codek.service.ToolApprovalQueue.ReviewDecision;
+import com.steins.codek.service.ToolApprovalQueue.ReviewItem;
+import com.steins.codek.tool.FileTransaction;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一轮工具调用 (一条模型消息) 的审查。
+ * 有等待批准的调用时，在本轮不依赖这些调用的写文件调用暂存完成后打开一次审查，同时展示这些调用和已暂存的差异；
+ * 提交事务前再审查之后新暂存或又被修改过的文件。通常一轮只需要审查一次。
+ * @author 0027013824
+ */
+final class ToolReviewRound {
+    private final ToolApprovalQueue queue;
+    private final FileTransaction transaction;
+    private final Map<ReviewItem, CompletableFuture<Boolean>> gates = new LinkedHashMap<>(); // 等待批准的调用
+    private final Set<String> reviewedOwners = ConcurrentHashMap.newKeySet(); // 暂存的修改需要审查的工具调用
+    private final Map<String, String> approvedContent = new HashMap<>(); // 已批准的文件及批准时的内容
+    private final Map<String, String> rejections = new LinkedHashMap<>(); // 工具调用 -> 被拒绝的文件
+    private volatile CompletableFuture<Void> firstReview = CompletableFuture.completedFuture(null);
+    private volatile boolean cancelled;
+
+    ToolReviewRound(@NotNull ToolApprovalQueue queue, @Nullable FileTransaction transaction) {
+        this.queue = queue;
+        this.transaction = transaction;
+    }
+
+    /**
+     * 登记一个批准后才执行的调用。
+     * @return 审查结果，true 表示批准；本轮被取消时为 false。
+     */
+    @NotNull
+    synchronized CompletableFuture<Boolean> gate(@NotNull ReviewItem item) {
+        CompletableFuture<Boolean> decision = new CompletableFuture<>();
+        gates.put(item, decision);
+        return decision;
+    }
+
+    /**
+     * 登记一个暂存修改需要审查的工具调用。
+     */
+    void requireReview(@NotNull String owner) {
+        reviewedOwners.add(owner);
+    }
+
+    /**
+     * 有等待批准的调用时，在给定的写文件调用完成后打开审查。
+     * @param stagingCalls 不依赖等待批准的调用的写文件调用。
+     */
+    void open(@NotNull List<? extends CompletableFuture<?>> stagingCalls) {
+        synchronized (this) {
+            if (gates.isEmpty()) {
+                return;
+            }
+        }
+        firstReview = CompletableFuture.allOf(stagingCalls.toArray(new CompletableFuture[0])).thenCompose(v -> reviewPending());
+    }
+
+    /**
+     * 审查剩余的暂存修改，在提交事务前调用。
+     * @return 工具调用标识到被拒绝文件的映射。
+     */
+    @NotNull
+    CompletableFuture<Map<String, String>> finish() {
+        return firstReview.thenCompose(v -> reviewPending()).thenApply(v -> {
+            synchronized (this) {
+                return new LinkedHashMap<>(rejections);
+            }
+        });
+    }
+
+    /**
+     * 本轮被取消：等待批准的调用视为拒绝，关闭本轮打开的审查面板，不再打开审查。
+     */
+    void cancel() {
+        cancelled = true;
+        List<CompletableFuture<Boolean>> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(gates.values());
+        }
+        for (CompletableFuture<Boolean> gate : pending) {
+            gate.complete(false);
+        }
+        queue.cancelReviews(this);
+    }
+
+    private CompletableFuture<Void> reviewPending() {
+        List<ReviewItem> items = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<ReviewItem, CompletableFuture<Boolean>> entry : gates.entrySet()) {
+                if (!entry.getValue().isDone()) {
+                    items.add(entry.getKey());
+                }
+            }
+        }
+        items.addAll(pendingFileChanges());
+        if (items.isEmpty() || cancelled) {
+            apply(items, ReviewDecision.rejectAll());
+            return CompletableFuture.completedFuture(null);
+        }
+        return queue.review(items, this).thenAccept(decision -> apply(items, cancelled ? ReviewDecision.rejectAll() : decision));
+    }
+
+    /**
+     * 需要审查的暂存文件：由需要批准的调用暂存、不在允许的路径下，且自上次批准后内容有变化。
+     */
+    private List<ReviewItem> pendingFileChanges() {
+        if (transaction == null || reviewedOwners.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ReviewItem> items = new ArrayList<>();
+        for (FileTransaction.StagedChange change : transaction.getStagedChanges()) {
+            if (Collections.disjoint(change.getOwners(), reviewedOwners)
+                    || queue.isAllowedForTurn() || queue.isAlwaysAllowed(change.getPath())) {
+                continue;
+            }
+            synchronized (this) {
+                if (change.getContent().equals(approvedContent.get(change.getPath()))) {
+                    continue;
+                }
+            }
+            // 修改前的内容：之前的消息已暂存过的文件取检查点时的内容，否则取磁盘上的内容
+            String oldText = change.getCheckpointContent() != null ? change.getCheckpointContent()
+                    : change.isCreated() || change.getFile() == null ? null : ReadAction.compute(() -> {
+                        Document document = FileDocumentManager.getInstance().getDocument(change.getFile());
+                        return document != null ? document.getText() : "";
+                    });
+            items.add(ReviewItem.fileChange(change.getPath(), oldText, change.getContent(), change.getOwners()));
+        }
+        return items;
+    }
+
+    private void apply(List<ReviewItem> items, ReviewDecision decision) {
+        for (ReviewItem item : items) {
+            boolean approved = decision.isApproved(item);
+            if (!item.isFileChange()) {
+                CompletableFuture<Boolean> gate;
+                synchronized (this) {
+                    gate = gates.get(item);
+                }
+                gate.complete(approved);
+            } else if (approved) {
+                synchronized (this) {
+                    approvedContent.put(item.getPath(), item.getNewText());
+                }
+            } else {
+                Set<String> owners = transaction.discard(item.getPath());
+                synchronized (this) {
+                    for (String owner : owners) {
+                        rejections.merge(owner, item.getPath(), (a, b) -> a + ", " + b);
+                    }
+                }
+            }
+        }
+    }
+}
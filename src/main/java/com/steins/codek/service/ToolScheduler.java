@@ -0,0 +1,194 @@
+package com.steins.codek.service;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 工具调用的准入控制：每个工具的并发数上限 (舱壁) 和写文件的工具之间的互斥。
+ * 许可异步发放，调用在拿到许可之前不占用工具线程池的线程，排队的调用不会挡住其他可以执行的调用。
+ * 等待中的请求按提交顺序检查：写操作在等待时，之后提交的读操作也等待，避免写操作一直等不到。
+ * @author 0027013824
+ */
+final class ToolScheduler {
+
+    /**
+     * 调用对文件写操作的互斥要求。
+     */
+    enum Access {
+        /** 与所有调用并行，例如只读取 IDE 索引的工具。 */
+        SHARED_WITH_WRITES,
+        /** 与其他读操作并行，不与写操作同时执行。 */
+        READ,
+        /** 独占，不与读操作和其他写操作同时执行。 */
+        WRITE
+    }
+
+    private final Map<String, Integer> runningByTool = new HashMap<>();
+    private final Set<Request> waiting = new LinkedHashSet<>();
+    private int runningReads;
+    private boolean writing;
+
+    /**
+     * 申请一个许可。
+     * @param toolName 工具名称，同一工具的许可数不超过 maxConcurrency。
+     * @param maxConcurrency 该工具的并发数上限。
+     * @param access 互斥要求。
+     * @return 等待许可的请求，许可发放后 {@link Request#getPermit()} 完成。
+     */
+    @NotNull
+    Request acquire(@NotNull String toolName, int maxConcurrency, @NotNull Access access) {
+        Request request = new Request(toolName, Math.max(1, maxConcurrency), access);
+        List<Request> granted;
+        synchronized (this) {
+            waiting.add(request);
+            granted = dispatch();
+        }
+        complete(granted);
+        return request;
+    }
+
+    /**
+     * 当前正在执行 (已拿到许可且未释放) 的调用数。
+     */
+    synchronized int getRunningCount() {
+        int count = 0;
+        for (int running : runningByTool.values()) {
+            count += running;
+        }
+        return count;
+    }
+
+    private void release(@NotNull Request request) {
+        List<Request> granted;
+        synchronized (this) {
+            runningByTool.merge(request.toolName, -1, Integer::sum);
+            if (request.access == Access.WRITE) {
+                writing = false;
+            } else if (request.access == Access.READ) {
+                runningReads--;
+            }
+            granted = dispatch();
+        }
+        complete(granted);
+    }
+
+    private void cancel(@NotNull Request request) {
+        List<Request> granted;
+        synchronized (this) {
+            if (!waiting.remove(request)) {
+                return;
+            }
+            granted = dispatch(); // 取消的写操作可能挡住了之后的读操作
+        }
+        complete(granted);
+    }
+
+    /**
+     * 按提交顺序发放所有可以发放的许可，调用方持有锁。
+     */
+    private List<Request> dispatch() {
+        List<Request> granted = new ArrayList<>();
+        boolean writeWaiting = false;
+        for (Iterator<Request> iterator = waiting.iterator(); iterator.hasNext(); ) {
+            Request request = iterator.next();
+            boolean slotFree = runningByTool.getOrDefault(request.toolName, 0) < request.maxConcurrency;
+            boolean lockFree = switch (request.access) {
+                case SHARED_WITH_WRITES -> true;
+                case READ -> !writing && !writeWaiting;
+                case WRITE -> !writing && runningReads == 0 && !writeWaiting;
+            };
+            if (slotFree && lockFree) {
+                iterator.remove();
+                runningByTool.merge(request.toolName, 1, Integer::sum);
+                if (request.access == Access.WRITE) {
+                    writing = true;
+                } else if (request.access == Access.READ) {
+                    runningReads++;
+                }
+                granted.add(request);
+                continue;
+            }
+            request.waitingForWrites = slotFree;
+            if (request.access == Access.WRITE && slotFree) {
+                writeWaiting = true;
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * 在锁外完成许可，回调不在锁中执行。已被取消的请求直接归还许可。
+     */
+    private void complete(@NotNull List<Request> granted) {
+        for (Request request : granted) {
+            if (!request.permit.complete(request)) {
+                request.release();
+            }
+        }
+    }
+
+    /**
+     * 一次许可申请。许可发放后必须调用 {@link #release()} 归还；不再需要时调用 {@link #cancel()}。
+     */
+    final class Request {
+        private final String toolName;
+        private final int maxConcurrency;
+        private final Access access;
+        private final CompletableFuture<Request> permit = new CompletableFuture<>();
+        private volatile boolean waitingForWrites; // 最近一次检查时舱壁有空位，只是在等待写操作
+        private boolean released;
+
+        private Request(String toolName, int maxConcurrency, Access access) {
+            this.toolName = toolName;
+            this.maxConcurrency = maxConcurrency;
+            this.access = access;
+        }
+
+        /**
+         * 许可发放时完成；请求被取消后不会再完成。
+         */
+        @NotNull
+        CompletableFuture<Request> getPermit() {
+            return permit;
+        }
+
+        /**
+         * 还没拿到许可时，是否在等待写操作完成 (否则是在等待舱壁的空位)。
+         */
+        boolean isWaitingForWrites() {
+            return waitingForWrites;
+        }
+
+        /**
+         * 归还许可，重复调用无效。
+         */
+        void release() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            ToolScheduler.this.release(this);
+        }
+
+        /**
+         * 放弃申请：还在等待时移出队列；许可已经发放时归还许可。
+         */
+        void cancel() {
+            if (permit.cancel(false)) {
+                ToolScheduler.this.cancel(this);
+            } else if (!permit.isCompletedExceptionally()) {
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.steins.codek.tokenizer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * 字节级 BPE 分词器，读取 tiktoken 格式的词表 (每行为 base64 编码的字节串和它的序号)，结果与 tiktoken 相同。
+ * 文本先由 {@link PreTokenizer} 切成片段，片段按 UTF-8 编码后反复合并序号最小的相邻字节对。
+ * <p>
+ * 词表的字节串依次存放在一个数组中，通过开放寻址的哈希表按字节范围查找，查找时不创建对象。
+ * 整个片段就是一个词时直接计为 1 个 token；否则合并的结果按片段的 64 位哈希缓存，
+ * 缓存为直接映射的 long 数组，并发访问时最多重复计算，不加锁。
+ * @author 0027013824
+ */
+public final class BpeTokenizer implements TokenCounter {
+    private static final int NO_RANK = Integer.MAX_VALUE;
+    private static final int HEAP_MERGE_MIN_BYTES = 64; // 更长的片段用堆合并，避免逐次扫描的平方复杂度
+    private static final int CACHE_BITS = 16;
+    private static final int COUNT_BITS = 24; // 缓存项的低 24 位为 token 数，其余为片段哈希的高位
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String name;
+    private final PreTokenizer preTokenizer;
+    private final byte[] tokenBytes;
+    private final int[] tokenOffsets; // 第 i 个词为 tokenBytes[tokenOffsets[i], tokenOffsets[i + 1])
+    private final int[] tokenRanks;
+    private final int[] table; // 值为词的下标加 1，0 表示空位
+    private final int tableMask;
+    private final int size;
+    private final long[] cache = new long[1 << CACHE_BITS];
+
+    private BpeTokenizer(@NotNull String name, @NotNull PreTokenizer preTokenizer, byte[] tokenBytes, int[] tokenOffsets,
+                         int[] tokenRanks, int size) {
+        this.name = name;
+        this.preTokenizer = preTokenizer;
+        this.tokenBytes = tokenBytes;
+        this.tokenOffsets = tokenOffsets;
+        this.tokenRanks = tokenRanks;
+        this.size = size;
+        int capacity = Integer.highestOneBit(Math.max(16, size * 2 - 1)) << 1;
+        this.table = new int[capacity];
+        this.tableMask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int from = tokenOffsets[i];
+            int to = tokenOffsets[i + 1];
+            int slot = slot(hash(tokenBytes, from, to));
+            while (table[slot] != 0) {
+                slot = (slot + 1) & tableMask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * 读取 tiktoken 格式的词表。
+     * @param name 词表名称，例如 cl100k_base。
+     * @param in 词表内容，读取后不关闭。
+     * @throws IOException 读取失败或格式错误。
+     */
+    @NotNull
+    static BpeTokenizer read(@NotNull String name, @NotNull PreTokenizer preTokenizer, @NotNull InputStream in) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(1 << 20);
+        in.transferTo(data);
+        String text = data.toString(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length());
+        int[] offsets = new int[1024];
+        int[] ranks = new int[1024];
+        int size = 0;
+        Base64.Decoder decoder = Base64.getDecoder();
+        int lineStart = 0;
+        while (lineStart < text.length()) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = text.length();
+            }
+            String line = text.substring(lineStart, lineEnd).trim();
+            lineStart = lineEnd + 1;
+            if (line.isEmpty()) {
+                continue;
+            }
+            int separator = line.indexOf(' ');
+            if (separator <= 0) {
+                throw new IOException("词表 " + name + " 的格式错误: " + line);
+            }
+            byte[] token;
+            int rank;
+            try {
+                token = decoder.decode(line.substring(0, separator));
+                rank = Integer.parseInt(line.substring(separator + 1).trim());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("词表 " + name + " 的格式错误: " + line, e);
+            }
+            if (size + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                ranks = Arrays.copyOf(ranks, ranks.length * 2);
+            }
+            offsets[size] = bytes.size();
+            ranks[size] = rank;
+            bytes.write(token);
+            size++;
+        }
+        offsets[size] = bytes.size();
+        return new BpeTokenizer(name, preTokenizer, bytes.toByteArray(), offsets, ranks, size);
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 词表中词的数量。
+     */
+    public int getVocabularySize() {
+        return size;
+    }
+
+    @Override
+    public int count(@NotNull CharSequence text) {
+        Scratch scratch = new Scratch();
+        int count = 0;
+        int start = 0;
+        while (start < text.length()) {
+            int end = preTokenizer.next(text, start);
+            count += countPiece(text, start, end, scratch);
+            start = end;
+        }
+        return count;
+    }
+
+    /**
+     * 编码为 token 序号。
+     */
+    @NotNull
+    public int[] encode(@NotNull CharSequence text) {
+        Scratch scratch = new Scratch();
+        int[] tokens = new int[16];
+        int size = 0;
+        int start = 0;
+        while (start < text.length()) {
+            int end = preTokenizer.next(text, start);
+            int length = scratch.encode(text, start, end);
+            int whole = rank(scratch.bytes, 0, length);
+            int pieceTokens = whole != NO_RANK ? 1 : merge(scratch, length);
+            if (size + pieceTokens > tokens.length) {
+                tokens = Arrays.copyOf(tokens, Math.max(tokens.length * 2, size + pieceTokens));
+            }
+            if (whole != NO_RANK) {
+                tokens[size++] = whole;
+            } else {
+                int[] starts = scratch.starts;
+                for (int i = 0; i < pieceTokens; i++) {
+                    tokens[size++] = rank(scratch.bytes, starts[i], starts[i + 1]);
+                }
+            }
+            start = end;
+        }
+        return Arrays.copyOf(tokens, size);
+    }
+
+    private int countPiece(CharSequence text, int start, int end, Scratch scratch) {
+        int length = scratch.encode(text, start, end);
+        if (length == 1) {
+            return 1;
+        }
+        byte[] bytes = scratch.bytes;
+        long hash = hash(bytes, 0, length);
+        if (rank(bytes, 0, length, hash) != NO_RANK) {
+            return 1;
+        }
+        int cacheSlot = (int) hash & ((1 << CACHE_BITS) - 1);
+        long cached = cache[cacheSlot];
+        if (cached != 0 && cached >>> COUNT_BITS == hash >>> COUNT_BITS) {
+            return (int) (cached & ((1L << COUNT_BITS) - 1));
+        }
+        int count = merge(scratch, length);
+        cache[cacheSlot] = (hash >>> COUNT_BITS << COUNT_BITS) | Math.min(count, (1 << COUNT_BITS) - 1);
+        return count;
+    }
+
+    /**
+     * 合并 scratch.bytes 中的片段。
+     * @return token 数；各 token 的起始位置依次写入 scratch.starts，最后一项为片段长度。
+     */
+    private int merge(Scratch scratch, int length) {
+        scratch.ensureMergeCapacity(length);
+        return length < HEAP_MERGE_MIN_BYTES ? mergeByScan(scratch, length) : mergeByHeap(scratch, length);
+    }
+
+    /**
+     * 与 tiktoken 相同的合并过程：每次合并序号最小的相邻一对 (序号相同时取最靠前的)，只更新两侧的序号。
+     */
+    private int mergeByScan(Scratch scratch, int length) {
+        byte[] bytes = scratch.bytes;
+        int[] starts = scratch.starts;
+        int[] ranks = scratch.ranks;
+        for (int i = 0; i <= length; i++) {
+            starts[i] = i;
+            ranks[i] = i + 2 <= length ? rank(bytes, i, i + 2) : NO_RANK;
+        }
+        int parts = length + 1;
+        while (true) {
+            int minRank = NO_RANK;
+            int minIndex = -1;
+            for (int i = 0; i < parts - 1; i++) {
+                if (ranks[i] < minRank) {
+                    minRank = ranks[i];
+                    minIndex = i;
+                }
+            }
+            if (minIndex < 0) {
+                break;
+            }
+            int i = minIndex;
+            if (i > 0) {
+                ranks[i - 1] = i + 2 < parts ? rank(bytes, starts[i - 1], starts[i + 2]) : NO_RANK;
+            }
+            ranks[i] = i + 3 < parts ? rank(bytes, starts[i], starts[i + 3]) : NO_RANK;
+            System.arraycopy(starts, i + 2, starts, i + 1, parts - i - 2);
+            System.arraycopy(ranks, i + 2, ranks, i + 1, parts - i - 2);
+            parts--;
+        }
+        return parts - 1;
+    }
+
+    /**
+     * 长片段的合并：相邻的部分组成双向链表，候选对按 (序号, 位置) 放入最小堆，过期的堆项在取出时跳过。
+     * 合并顺序与 {@link #mergeByScan} 相同。一个部分每次更新后覆盖的字节更多，序号不会重复，
+     * 所以堆项的序号与当前序号相同即说明它仍然有效。
+     */
+    private int mergeByHeap(Scratch scratch, int length) {
+        byte[] bytes = scratch.bytes;
+        int[] next = scratch.next;
+        int[] previous = scratch.previous;
+        int[] ranks = scratch.ranks;
+        long[] heap = scratch.heap;
+        int heapSize = 0;
+        for (int i = 0; i <= length; i++) {
+            next[i] = i + 1;
+            previous[i] = i - 1;
+            ranks[i] = i + 2 <= length ? rank(bytes, i, i + 2) : NO_RANK;
+            if (ranks[i] != NO_RANK) {
+                heapSize = push(heap, heapSize, (long) ranks[i] << 32 | i);
+            }
+        }
+        int parts = length + 1;
+        while (heapSize > 0) {
+            long top = heap[0];
+            heapSize = pop(heap, heapSize);
+            int i = (int) top;
+            if (ranks[i] != (int) (top >>> 32)) {
+                continue;
+            }
+            int removed = next[i];
+            next[i] = next[removed];
+            previous[next[removed]] = i;
+            ranks[removed] = NO_RANK;
+            parts--;
+            ranks[i] = next[i] < length ? rank(bytes, i, next[next[i]]) : NO_RANK;
+            if (ranks[i] != NO_RANK) {
+                heapSize = push(heap, heapSize, (long) ranks[i] << 32 | i);
+            }
+            int before = previous[i];
+            if (before >= 0) {
+                ranks[before] = rank(bytes, before, next[i]);
+                if (ranks[before] != NO_RANK) {
+                    heapSize = push(heap, heapSize, (long) ranks[before] << 32 | before);
+                }
+            }
+        }
+        int[] starts = scratch.starts;
+        int count = 0;
+        for (int i = 0; i < length; i = next[i]) {
+            starts[count++] = i;
+        }
+        starts[count] = length;
+        return parts - 1;
+    }
+
+    private static int push(long[] heap, int size, long value) {
+        int i = size;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= value) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = value;
+        return size + 1;
+    }
+
+    private static int pop(long[] heap, int size) {
+        int last = size - 1;
+        long value = heap[last];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= last) {
+                break;
+            }
+            if (child + 1 < last && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= value) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+        return last;
+    }
+
+    private int rank(byte[] bytes, int from, int to) {
+        return rank(bytes, from, to, hash(bytes, from, to));
+    }
+
+    /**
+     * 查找字节串的序号，不在词表中时返回 {@link #NO_RANK}。
+     */
+    private int rank(byte[] bytes, int from, int to, long hash) {
+        int length = to - from;
+        int slot = slot(hash);
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return NO_RANK;
+            }
+            int token = entry - 1;
+            int tokenFrom = tokenOffsets[token];
+            if (tokenOffsets[token + 1] - tokenFrom == length
+                    && Arrays.equals(tokenBytes, tokenFrom, tokenFrom + length, bytes, from, to)) {
+                return tokenRanks[token];
+            }
+            slot = (slot + 1) & tableMask;
+        }
+    }
+
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & tableMask;
+    }
+
+    private static long hash(byte[] bytes, int from, int to) {
+        long hash = FNV_OFFSET;
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * 一次计数或编码使用的缓冲区。
+     */
+    private static final class Scratch {
+        byte[] bytes = new byte[256];
+        int[] starts = new int[0];
+        int[] ranks = new int[0];
+        int[] next = new int[0];
+        int[] previous = new int[0];
+        long[] heap = new long[0];
+
+        /**
+         * 把片段按 UTF-8 编码到 bytes 中，不成对的代理字符编码为 U+FFFD。
+         * @return 字节数。
+         */
+        int encode(CharSequence text, int start, int end) {
+            if (bytes.length < (end - start) * 3) {
+                bytes = new byte[(end - start) * 3];
+            }
+            byte[] out = bytes;
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    out[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    out[length++] = (byte) (0xC0 | (c >> 6));
+                    out[length++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    out[length++] = (byte) (0xF0 | (codePoint >> 18));
+                    out[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    out[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    out[length++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    if (Character.isSurrogate(c)) {
+                        c = '\uFFFD';
+                    }
+                    out[length++] = (byte) (0xE0 | (c >> 12));
+                    out[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    out[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return length;
+        }
+
+        void ensureMergeCapacity(int length) {
+            if (starts.length <= length) {
+                int capacity = Math.max(length + 1, starts.length * 2);
+                starts = new int[capacity];
+                ranks = new int[capacity];
+                next = new int[capacity];
+                previous = new int[capacity];
+                heap = new long[capacity * 2];
+            }
+        }
+    }
+}
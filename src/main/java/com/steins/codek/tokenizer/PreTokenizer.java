@@ -0,0 +1,287 @@
+package com.steins.codek.tokenizer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * BPE 之前的预切分：把文本切成片段，每个片段单独做字节对合并。
+ * 与 tiktoken 的切分正则表达式等价，但按字符类别手工扫描，不使用正则引擎，没有回溯。
+ * @author 0027013824
+ */
+enum PreTokenizer {
+    /**
+     * cl100k_base：{@code (?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\r\n\p{L}\p{N}]?\p{L}+|\p{N}{1,3}| ?[^\s\p{L}\p{N}]+[\r\n]*|\s*[\r\n]+|\s+(?!\S)|\s+}
+     */
+    CL100K {
+        @Override
+        int next(@NotNull CharSequence text, int start) {
+            int n = text.length();
+            int c = Character.codePointAt(text, start);
+            int width = Character.charCount(c);
+            int flags = flags(c);
+            if (c == '\'') {
+                int end = contraction(text, start);
+                if (end > 0) {
+                    return end;
+                }
+            }
+            if ((flags & (LETTER | NUMBER | NEWLINE)) == 0 && start + width < n
+                    && (flags(Character.codePointAt(text, start + width)) & LETTER) != 0) {
+                return run(text, start + width, LETTER);
+            }
+            if ((flags & LETTER) != 0) {
+                return run(text, start, LETTER);
+            }
+            return numbersPunctuationOrSpace(text, start, c, flags, false);
+        }
+    },
+
+    /**
+     * o200k_base：在 cl100k_base 的基础上按大小写切分单词，缩写跟在单词后面，标点后可以跟 '/'。
+     * {@code [^\r\n\p{L}\p{N}]?[\p{Lu}\p{Lt}\p{Lm}\p{Lo}\p{M}]*[\p{Ll}\p{Lm}\p{Lo}\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?
+     * |[^\r\n\p{L}\p{N}]?[\p{Lu}\p{Lt}\p{Lm}\p{Lo}\p{M}]+[\p{Ll}\p{Lm}\p{Lo}\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?
+     * |\p{N}{1,3}| ?[^\s\p{L}\p{N}]+[\r\n/]*|\s*[\r\n]+|\s+(?!\S)|\s+}
+     */
+    O200K {
+        @Override
+        int next(@NotNull CharSequence text, int start) {
+            int c = Character.codePointAt(text, start);
+            int width = Character.charCount(c);
+            int flags = flags(c);
+            boolean prefix = (flags & (LETTER | NUMBER | NEWLINE)) == 0 && start + width < text.length();
+            int end;
+            if (prefix && (end = lowerTail(text, start + width)) > 0) {
+                return end;
+            }
+            if ((end = lowerTail(text, start)) > 0) {
+                return end;
+            }
+            if (prefix && (end = upperHead(text, start + width)) > 0) {
+                return end;
+            }
+            if ((end = upperHead(text, start)) > 0) {
+                return end;
+            }
+            return numbersPunctuationOrSpace(text, start, c, flags, true);
+        }
+
+        /**
+         * {@code [\p{Lu}\p{Lt}\p{Lm}\p{Lo}\p{M}]*[\p{Ll}\p{Lm}\p{Lo}\p{M}]+} 加可选的缩写；不匹配时返回 -1。
+         * 前一部分贪婪匹配后回退到最后一个也属于后一部分的字符，结果与回溯的正则引擎相同。
+         */
+        private int lowerTail(CharSequence text, int start) {
+            int n = text.length();
+            int position = start;
+            int lastLower = -1;
+            while (position < n) {
+                int c = Character.codePointAt(text, position);
+                int flags = flags(c);
+                if ((flags & UPPER_OR_OTHER) == 0) {
+                    break;
+                }
+                if ((flags & LOWER_OR_OTHER) != 0) {
+                    lastLower = position;
+                }
+                position += Character.charCount(c);
+            }
+            int lowerStart = position < n && (flags(Character.codePointAt(text, position)) & LOWER_OR_OTHER) != 0
+                    ? position : lastLower;
+            if (lowerStart < 0) {
+                return -1;
+            }
+            return optionalContraction(text, run(text, lowerStart, LOWER_OR_OTHER));
+        }
+
+        /**
+         * {@code [\p{Lu}\p{Lt}\p{Lm}\p{Lo}\p{M}]+[\p{Ll}\p{Lm}\p{Lo}\p{M}]*} 加可选的缩写；不匹配时返回 -1。
+         */
+        private int upperHead(CharSequence text, int start) {
+            if (start >= text.length() || (flags(Character.codePointAt(text, start)) & UPPER_OR_OTHER) == 0) {
+                return -1;
+            }
+            return optionalContraction(text, run(text, run(text, start, UPPER_OR_OTHER), LOWER_OR_OTHER));
+        }
+    };
+
+    private static final int LETTER = 1;          // \p{L}
+    private static final int NUMBER = 1 << 1;     // \p{N}
+    private static final int SPACE = 1 << 2;      // \s (Unicode White_Space)
+    private static final int NEWLINE = 1 << 3;    // [\r\n]
+    private static final int UPPER_OR_OTHER = 1 << 4; // [\p{Lu}\p{Lt}\p{Lm}\p{Lo}\p{M}]
+    private static final int LOWER_OR_OTHER = 1 << 5; // [\p{Ll}\p{Lm}\p{Lo}\p{M}]
+    private static final int PUNCTUATION = 1 << 6;    // [^\s\p{L}\p{N}]
+    private static final byte[] ASCII_FLAGS = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            ASCII_FLAGS[c] = (byte) computeFlags(c);
+        }
+    }
+
+    /**
+     * 返回从 {@code start} 开始的片段的结束位置 (不含)。{@code start} 必须小于文本长度，返回值大于 {@code start}。
+     */
+    abstract int next(@NotNull CharSequence text, int start);
+
+    /**
+     * 两种切分共有的后几项：{@code \p{N}{1,3}| ?[^\s\p{L}\p{N}]+[\r\n]*|\s*[\r\n]+|\s+(?!\S)|\s+}。
+     */
+    private static int numbersPunctuationOrSpace(CharSequence text, int start, int c, int flags, boolean slashAfterPunctuation) {
+        int n = text.length();
+        if ((flags & NUMBER) != 0) {
+            int end = start;
+            for (int i = 0; i < 3 && end < n; i++) {
+                int d = Character.codePointAt(text, end);
+                if ((flags(d) & NUMBER) == 0) {
+                    break;
+                }
+                end += Character.charCount(d);
+            }
+            return end;
+        }
+        int punctuationStart = -1;
+        if ((flags & PUNCTUATION) != 0) {
+            punctuationStart = start;
+        } else if (c == ' ' && start + 1 < n && (flags(Character.codePointAt(text, start + 1)) & PUNCTUATION) != 0) {
+            punctuationStart = start + 1;
+        }
+        if (punctuationStart >= 0) {
+            int end = run(text, punctuationStart, PUNCTUATION);
+            while (end < n) {
+                char next = text.charAt(end);
+                if (next != '\r' && next != '\n' && !(slashAfterPunctuation && next == '/')) {
+                    break;
+                }
+                end++;
+            }
+            return end;
+        }
+        // 空白字符都在基本多文种平面内，下面按 char 处理
+        int end = start;
+        int lastNewline = -1;
+        while (end < n && (flags(text.charAt(end)) & SPACE) != 0) {
+            if ((flags(text.charAt(end)) & NEWLINE) != 0) {
+                lastNewline = end;
+            }
+            end++;
+        }
+        if (end == start) {
+            return start + Character.charCount(c); // 不会出现：每个字符都属于上面的某一类
+        }
+        if (lastNewline >= 0) {
+            return lastNewline + 1;
+        }
+        if (end < n && end - start >= 2) {
+            return end - 1; // 留下最后一个空白字符，与后面的单词或标点合为一个片段
+        }
+        return end;
+    }
+
+    /**
+     * 匹配缩写 {@code (?i:'s|'t|'re|'ve|'m|'ll|'d)}，{@code start} 处为单引号。
+     * @return 结束位置，不匹配时返回 -1。
+     */
+    private static int contraction(CharSequence text, int start) {
+        int n = text.length();
+        if (start + 1 >= n) {
+            return -1;
+        }
+        char first = Character.toLowerCase(text.charAt(start + 1));
+        if (first == 's' || first == 'ſ' || first == 't' || first == 'm' || first == 'd') {
+            return start + 2;
+        }
+        if (start + 2 >= n) {
+            return -1;
+        }
+        char second = Character.toLowerCase(text.charAt(start + 2));
+        if ((first == 'r' || first == 'v') && second == 'e' || first == 'l' && second == 'l') {
+            return start + 3;
+        }
+        return -1;
+    }
+
+    private static int optionalContraction(CharSequence text, int end) {
+        if (end < text.length() && text.charAt(end) == '\'') {
+            int contraction = contraction(text, end);
+            if (contraction > 0) {
+                return contraction;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 从 {@code start} 开始跳过具有指定类别的字符。
+     */
+    private static int run(CharSequence text, int start, int flag) {
+        int n = text.length();
+        int position = start;
+        while (position < n) {
+            char ch = text.charAt(position);
+            if (ch < 128) {
+                if ((ASCII_FLAGS[ch] & flag) == 0) {
+                    break;
+                }
+                position++;
+            } else {
+                int c = Character.codePointAt(text, position);
+                if ((computeFlags(c) & flag) == 0) {
+                    break;
+                }
+                position += Character.charCount(c);
+            }
+        }
+        return position;
+    }
+
+    private static int flags(int c) {
+        return c < 128 ? ASCII_FLAGS[c] : computeFlags(c);
+    }
+
+    private static int computeFlags(int c) {
+        int flags;
+        switch (Character.getType(c)) {
+            case Character.UPPERCASE_LETTER:
+            case Character.TITLECASE_LETTER:
+                flags = LETTER | UPPER_OR_OTHER;
+                break;
+            case Character.LOWERCASE_LETTER:
+                flags = LETTER | LOWER_OR_OTHER;
+                break;
+            case Character.MODIFIER_LETTER:
+            case Character.OTHER_LETTER:
+                flags = LETTER | UPPER_OR_OTHER | LOWER_OR_OTHER;
+                break;
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+                flags = UPPER_OR_OTHER | LOWER_OR_OTHER;
+                break;
+            case Character.DECIMAL_DIGIT_NUMBER:
+            case Character.LETTER_NUMBER:
+            case Character.OTHER_NUMBER:
+                flags = NUMBER;
+                break;
+            default:
+                flags = 0;
+        }
+        if (isWhiteSpace(c)) {
+            flags |= SPACE;
+            if (c == '\r' || c == '\n') {
+                flags |= NEWLINE;
+            }
+        }
+        if ((flags & (LETTER | NUMBER | SPACE)) == 0) {
+            flags |= PUNCTUATION;
+        }
+        return flags;
+    }
+
+    /**
+     * Unicode White_Space 属性 (正则表达式中 Unicode 模式的 {@code \s})。
+     * 与 {@link Character#isWhitespace} 不同，包括不换行空格，不包括 U+001C 到 U+001F。
+     */
+    private static boolean isWhiteSpace(int c) {
+        return c >= 0x09 && c <= 0x0D || c == 0x20 || c == 0x85 || c == 0xA0 || c == 0x1680
+                || c >= 0x2000 && c <= 0x200A || c == 0x2028 || c == 0x2029 || c == 0x202F || c == 0x205F || c == 0x3000;
+    }
+}
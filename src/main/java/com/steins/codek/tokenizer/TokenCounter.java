@@ -0,0 +1,28 @@
+package com.steins.codek.tokenizer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 计算文本的 token 数。实现必须是线程安全的。
+ * @author 0027013824
+ */
+public interface TokenCounter {
+    /**
+     * 按字符估算：ASCII 字符约 4 个一个 token，其他字符 (如中文) 约每个一个 token。
+     * 在分词器的词表加载完成前或词表不可用时使用。
+     */
+    TokenCounter ESTIMATE = text -> {
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 0x80) {
+                ascii++;
+            } else {
+                other++;
+            }
+        }
+        return (ascii + 3) / 4 + other;
+    };
+
+    int count(@NotNull CharSequence text);
+}
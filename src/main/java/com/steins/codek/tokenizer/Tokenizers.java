@@ -0,0 +1,109 @@
+package com.steins.codek.tokenizer;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按模型选择分词器。词表 (tiktoken 格式) 在构建时打包到插件的 {@code tokenizers/} 目录下，第一次使用时在后台加载；
+ * 加载完成前或词表不可用时使用 {@link TokenCounter#ESTIMATE} 估算，调用方不会被阻塞。
+ * <p>
+ * 只有 OpenAI 公开了词表：gpt-4o、gpt-4.1、o 系列等新模型使用 o200k_base，其他模型 (包括 Claude、DeepSeek、Gemini)
+ * 使用 cl100k_base，对这些模型是近似值，但比按字符估算准确得多，尤其是中文。
+ * @author 0027013824
+ */
+public final class Tokenizers {
+    public static final String CL100K_BASE = "cl100k_base";
+    public static final String O200K_BASE = "o200k_base";
+    // 使用 o200k_base 的模型名前缀，其余模型使用 cl100k_base
+    private static final String[] O200K_MODEL_PREFIXES = {"gpt-4o", "gpt-4-omni", "gpt-4.1", "gpt-4.5", "gpt-5", "o1", "o3", "o4", "chatgpt-4o"};
+    private static final Map<String, CompletableFuture<BpeTokenizer>> LOADING = new ConcurrentHashMap<>();
+    private static volatile String defaultEncoding = CL100K_BASE;
+
+    private Tokenizers() {
+    }
+
+    /**
+     * 模型使用的词表名称。
+     */
+    @NotNull
+    public static String encodingForModel(@Nullable String model) {
+        if (model != null) {
+            String normalized = model.trim().toLowerCase();
+            for (String prefix : O200K_MODEL_PREFIXES) {
+                if (normalized.startsWith(prefix)) {
+                    return O200K_BASE;
+                }
+            }
+        }
+        return CL100K_BASE;
+    }
+
+    /**
+     * 设置默认分词器对应的模型，并在后台开始加载它的词表。
+     */
+    public static void selectModel(@Nullable String model) {
+        defaultEncoding = encodingForModel(model);
+        start(defaultEncoding);
+    }
+
+    /**
+     * 获取当前模型的分词器，词表尚未加载完成或不可用时返回按字符估算的计数器。
+     */
+    @NotNull
+    public static TokenCounter getDefault() {
+        return forEncoding(defaultEncoding);
+    }
+
+    /**
+     * 获取模型的分词器，词表尚未加载完成或不可用时返回按字符估算的计数器。
+     */
+    @NotNull
+    public static TokenCounter forModel(@Nullable String model) {
+        return forEncoding(encodingForModel(model));
+    }
+
+    @NotNull
+    private static TokenCounter forEncoding(@NotNull String encoding) {
+        BpeTokenizer tokenizer = start(encoding).getNow(null);
+        return tokenizer != null ? tokenizer : TokenCounter.ESTIMATE;
+    }
+
+    /**
+     * 加载词表并等待完成。
+     * @return 分词器，词表不可用时返回 null。
+     */
+    @Nullable
+    public static BpeTokenizer load(@NotNull String encoding) {
+        return start(encoding).join();
+    }
+
+    @NotNull
+    private static CompletableFuture<BpeTokenizer> start(@NotNull String encoding) {
+        return LOADING.computeIfAbsent(encoding, name -> CompletableFuture.supplyAsync(() -> read(name)));
+    }
+
+    /**
+     * Logger 只在出错时获取，基准测试中不依赖 IDE 运行时。
+     */
+    @Nullable
+    private static BpeTokenizer read(@NotNull String encoding) {
+        PreTokenizer preTokenizer = O200K_BASE.equals(encoding) ? PreTokenizer.O200K : PreTokenizer.CL100K;
+        try (InputStream in = Tokenizers.class.getResourceAsStream("/tokenizers/" + encoding + ".tiktoken")) {
+            if (in == null) {
+                Logger.getInstance(Tokenizers.class).warn("没有找到词表 " + encoding + "，token 数将按字符估算");
+                return null;
+            }
+            return BpeTokenizer.read(encoding, preTokenizer, in);
+        } catch (IOException | RuntimeException e) {
+            Logger.getInstance(Tokenizers.class).warn("无法加载词表 " + encoding + "，token 数将按字符估算", e);
+            return null;
+        }
+    }
+}
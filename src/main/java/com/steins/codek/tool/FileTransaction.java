@@ -0,0 +1,617 @@
+package com.steins.codek.tool;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.command.UndoConfirmationPolicy;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 一轮对话 (用户的一条消息及其引发的所有工具调用) 中的文件修改事务，即内存中的覆盖层。
+ * 写入/创建文件的工具在事务中只暂存结果，读取文件的工具通过 {@link #getOverlayDocument} 看到暂存的内容；
+ * 对话结束提交时在一个写命令（一个撤销单元）中统一应用，只刷新一次 VFS、只保存一次文档。
+ * 在此之前磁盘不被修改，不会触发重新索引和编译；回滚只需丢弃暂存的内容。
+ * 每条模型消息的工具调用结束后建立检查点 ({@link #checkpoint()})，审查时拒绝的修改回退到检查点。
+ * 文件第一次暂存时记录文档当时的内容作为基础版本；提交时如果文档已被修改 (例如用户在本轮期间编辑了文件)，
+ * 与暂存的内容按行三方合并，有冲突时不应用该文件并在提交结果中报告冲突，不会覆盖用户的修改。
+ * @author 0027013824
+ */
+public class FileTransaction {
+    private static final Logger LOG = Logger.getInstance(FileTransaction.class);
+    /** CodeK 自身修改文件的写命令名称的前缀，用于区分工具的修改和用户的输入。 */
+    public static final String COMMAND_NAME_PREFIX = "CodeK: ";
+
+    private final Project project;
+    // 按暂存顺序记录的文件修改，key 为系统无关的绝对路径
+    private final Map<String, StagedFile> stagedFiles = new LinkedHashMap<>();
+    private final Set<String> cancelledOwners = new LinkedHashSet<>(); // 已超时取消的工具调用
+    private boolean completed;
+
+    public FileTransaction(@NotNull Project project) {
+        this.project = project;
+    }
+
+    /**
+     * 当前是否在 CodeK 自身修改文件的写命令中 (提交暂存的修改、工具直接写入文件)，只在 EDT 上调用。
+     * 这些写命令的名称以 {@link #COMMAND_NAME_PREFIX} 开头。
+     */
+    public static boolean isToolCommand() {
+        String name = CommandProcessor.getInstance().getCurrentCommandName();
+        return name != null && name.startsWith(COMMAND_NAME_PREFIX);
+    }
+
+    /**
+     * 将工具参数中的路径解析为系统无关的绝对路径，相对路径相对于项目根目录。
+     */
+    @NotNull
+    public static String resolvePath(@NotNull Project project, @NotNull String filePath) {
+        String path = FileUtil.toSystemIndependentName(filePath.trim());
+        if (!new File(path).isAbsolute() && project.getBasePath() != null) {
+            path = project.getBasePath() + "/" + path;
+        }
+        return FileUtil.toCanonicalPath(path);
+    }
+
+    /**
+     * 暂存对已存在文件的完整内容替换。文件第一次暂存时记录文档当前的内容作为提交时合并的基础版本。
+     * @param file 目标文件。
+     * @param newText 新的完整内容。
+     * @param owner 发起修改的工具调用标识。
+     */
+    public void stageWrite(@NotNull VirtualFile file, @NotNull String newText, @NotNull String owner) {
+        String key = file.getPath();
+        // 在事务的锁之外读取文档，避免持有锁时等待读操作
+        DocumentBase base = getStagedText(key) == null ? DocumentBase.read(file) : null;
+        synchronized (this) {
+            checkActive();
+            checkOwner(owner);
+            StagedFile staged = stagedFiles.get(key);
+            if (staged == null) {
+                staged = new StagedFile(key, file, false);
+                staged.base = base;
+                stagedFiles.put(key, staged);
+            }
+            staged.setContent(newText);
+            staged.owners.add(owner);
+        }
+    }
+
+    /**
+     * 暂存新文件的创建。
+     * @param absolutePath 新文件的绝对路径。
+     * @param content 文件内容。
+     * @param owner 发起修改的工具调用标识。
+     */
+    public synchronized void stageCreate(@NotNull String absolutePath, @NotNull String content, @NotNull String owner) {
+        checkActive();
+        checkOwner(owner);
+        String key = FileUtil.toSystemIndependentName(absolutePath);
+        StagedFile staged = stagedFiles.get(key);
+        if (staged == null) {
+            staged = new StagedFile(key, null, true);
+            stagedFiles.put(key, staged);
+        }
+        staged.setContent(content);
+        staged.owners.add(owner);
+    }
+
+    /**
+     * 获取路径在本事务中暂存的内容。
+     * @return 暂存内容，未暂存时返回 null。
+     */
+    @Nullable
+    public synchronized String getStagedText(@NotNull String absolutePath) {
+        StagedFile staged = stagedFiles.get(FileUtil.toSystemIndependentName(absolutePath));
+        return staged != null ? staged.content : null;
+    }
+
+    /**
+     * 判断路径是否已在本事务中暂存为新建文件。
+     */
+    public synchronized boolean isStagedForCreate(@NotNull String absolutePath) {
+        StagedFile staged = stagedFiles.get(FileUtil.toSystemIndependentName(absolutePath));
+        return staged != null && staged.created;
+    }
+
+    public synchronized boolean isEmpty() {
+        return stagedFiles.isEmpty();
+    }
+
+    /**
+     * 获取路径暂存内容的只读文档，供读取文件的工具查看覆盖层。同一内容重复读取时返回同一个文档。
+     * @return 暂存内容的文档，未暂存时返回 null。
+     */
+    @Nullable
+    public Document getOverlayDocument(@NotNull String absolutePath) {
+        StagedFile staged;
+        String content;
+        synchronized (this) {
+            staged = stagedFiles.get(FileUtil.toSystemIndependentName(absolutePath));
+            if (staged == null) {
+                return null;
+            }
+            if (staged.overlay != null) {
+                return staged.overlay;
+            }
+            content = staged.content;
+        }
+        Document document = EditorFactory.getInstance().createDocument(content);
+        document.setReadOnly(true);
+        synchronized (this) {
+            // 创建文档期间内容可能又被暂存，只缓存与当前内容一致的文档
+            if (staged.content.equals(content) && staged.overlay == null) {
+                staged.overlay = document;
+            }
+        }
+        return document;
+    }
+
+    /**
+     * 获取当前暂存的全部修改的快照，按暂存顺序排列。
+     */
+    @NotNull
+    public synchronized List<StagedChange> getStagedChanges() {
+        List<StagedChange> changes = new ArrayList<>(stagedFiles.size());
+        for (StagedFile staged : stagedFiles.values()) {
+            changes.add(new StagedChange(staged.path, staged.file, staged.created, staged.content, staged.checkpointContent,
+                    new LinkedHashSet<>(staged.owners)));
+        }
+        return changes;
+    }
+
+    /**
+     * 放弃某个文件自上一个检查点以来的暂存修改 (例如用户在审查时拒绝了它)，回退到检查点时的内容。
+     * @param absolutePath 文件的绝对路径。
+     * @return 自上一个检查点以来暂存过该文件的工具调用标识，文件未暂存时为空。
+     */
+    @NotNull
+    public synchronized Set<String> discard(@NotNull String absolutePath) {
+        String key = FileUtil.toSystemIndependentName(absolutePath);
+        StagedFile staged = stagedFiles.get(key);
+        if (staged == null) {
+            return new LinkedHashSet<>();
+        }
+        Set<String> owners = new LinkedHashSet<>(staged.owners);
+        revert(staged);
+        return owners;
+    }
+
+    /**
+     * 取消某个工具调用（例如已超时）的修改：回退自上一个检查点以来只由它暂存的文件，并拒绝它之后的暂存请求。
+     * 已被其他工具调用在其基础上继续修改的文件会保留。
+     * @param owner 工具调用标识。
+     */
+    public synchronized void cancelOwner(@NotNull String owner) {
+        cancelledOwners.add(owner);
+        for (StagedFile staged : new ArrayList<>(stagedFiles.values())) {
+            if (staged.owners.size() == 1 && staged.owners.contains(owner)) {
+                revert(staged);
+            }
+        }
+    }
+
+    /**
+     * 建立检查点：当前暂存的内容成为之后 {@link #discard} 回退的目标。在每条模型消息的工具调用审查完成后调用。
+     */
+    public synchronized void checkpoint() {
+        for (StagedFile staged : stagedFiles.values()) {
+            staged.checkpointContent = staged.content;
+            staged.owners.clear();
+        }
+    }
+
+    private void revert(StagedFile staged) {
+        if (staged.checkpointContent == null) {
+            stagedFiles.remove(staged.path);
+        } else {
+            staged.setContent(staged.checkpointContent);
+            staged.owners.clear();
+        }
+    }
+
+    /**
+     * 放弃所有暂存的修改。
+     */
+    public synchronized void rollback() {
+        stagedFiles.clear();
+        completed = true;
+    }
+
+    /**
+     * 提交所有暂存的修改并结束事务：一次 VFS 刷新、一个写命令（一个撤销单元）、一次保存。
+     * 不能在 EDT 上持有读锁时调用。
+     * @return 提交结果，包含失败的文件及对应的工具调用。
+     */
+    @NotNull
+    public CommitResult commit() {
+        return apply(true);
+    }
+
+    /**
+     * 只提交上一个检查点时 (已审查) 的内容并结束事务，放弃之后暂存、尚未审查的修改。
+     * 用于一轮对话出错结束时保留用户已经批准、模型也已被告知成功的修改。不能在 EDT 上持有读锁时调用。
+     * @return 提交结果，{@link CommitResult#getDiscarded()} 为被放弃修改的文件。
+     */
+    @NotNull
+    public CommitResult commitCheckpoint() {
+        Set<String> discarded = new LinkedHashSet<>();
+        synchronized (this) {
+            checkActive();
+            for (StagedFile staged : new ArrayList<>(stagedFiles.values())) {
+                if (!staged.content.equals(staged.checkpointContent)) {
+                    discarded.add(staged.path);
+                    revert(staged);
+                }
+            }
+        }
+        CommitResult result = apply(true);
+        result.discarded.addAll(discarded);
+        return result;
+    }
+
+    /**
+     * 把目前暂存的修改写入磁盘，事务继续进行。用于在 IDE 之外读取文件的工具 (例如运行构建命令) 执行之前。
+     * 写入完成前覆盖层保持不变，读取文件的工具不会看到中间状态；调用方需保证期间没有新的暂存。
+     * 写入失败 (例如与用户的修改冲突) 的文件同样从事务中移除，之后读取时看到的是文档中的内容。
+     * 不能在 EDT 上持有读锁时调用。
+     * @return 提交结果，包含失败的文件及对应的工具调用。
+     */
+    @NotNull
+    public CommitResult flush() {
+        return apply(false);
+    }
+
+    private CommitResult apply(boolean complete) {
+        List<StagedFile> files;
+        synchronized (this) {
+            checkActive();
+            files = new ArrayList<>(stagedFiles.values());
+            if (complete) {
+                completed = true;
+                stagedFiles.clear();
+            }
+        }
+        CommitResult result = new CommitResult();
+        if (files.isEmpty()) {
+            return result;
+        }
+
+        // 1. 一次性刷新所有新建文件的父目录，保证 VFS 与磁盘一致
+        Set<File> parents = new LinkedHashSet<>();
+        for (StagedFile staged : files) {
+            if (staged.created) {
+                File parent = nearestExistingAncestor(new File(staged.path).getParentFile());
+                if (parent != null) {
+                    parents.add(parent);
+                }
+            }
+        }
+        if (!parents.isEmpty()) {
+            VfsUtil.markDirtyAndRefresh(false, false, false, parents.toArray(new File[0]));
+        }
+
+        // 2. 在一个写命令中应用所有修改，作为一个撤销单元
+        List<Document> touchedDocuments = new ArrayList<>();
+        WriteCommandAction.writeCommandAction(project)
+                .withName(COMMAND_NAME_PREFIX + "应用 " + files.size() + " 个文件修改")
+                .withGlobalUndo()
+                .withUndoConfirmationPolicy(UndoConfirmationPolicy.DO_NOT_REQUEST_CONFIRMATION)
+                .run(() -> {
+                    for (StagedFile staged : files) {
+                        try {
+                            Document document = applyStaged(staged);
+                            if (document != null) {
+                                touchedDocuments.add(document);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            LOG.warn("Failed to apply staged change to " + staged.path, e);
+                            result.addFailure(staged, e.getMessage() != null ? e.getMessage() : e.toString());
+                        } catch (MergeConflictException e) {
+                            LOG.info("Staged change conflicts with editor changes: " + staged.path);
+                            result.addConflict(staged, e.getMessage());
+                        }
+                    }
+                });
+
+        // 3. 一次保存所有修改过的文档
+        WriteAction.runAndWait(() -> {
+            FileDocumentManager documentManager = FileDocumentManager.getInstance();
+            for (Document document : touchedDocuments) {
+                documentManager.saveDocument(document);
+            }
+        });
+        if (!complete) {
+            synchronized (this) {
+                for (StagedFile staged : files) {
+                    stagedFiles.remove(staged.path, staged);
+                }
+            }
+        }
+        result.appliedCount = touchedDocuments.size();
+        return result;
+    }
+
+    @Nullable
+    private Document applyStaged(@NotNull StagedFile staged) throws IOException, MergeConflictException {
+        VirtualFile file = staged.file;
+        if (staged.created) {
+            File ioFile = new File(staged.path);
+            VirtualFile parent = VfsUtil.createDirectoryIfMissing(ioFile.getParent());
+            if (parent == null) {
+                throw new IOException("Could not create parent directory: " + ioFile.getParent());
+            }
+            file = parent.findChild(ioFile.getName());
+            if (file != null) {
+                throw new IOException("File already exists: " + staged.path);
+            }
+            file = parent.createChildData(this, ioFile.getName());
+        }
+        if (file == null || !file.isValid()) {
+            throw new IOException("File no longer exists: " + staged.path);
+        }
+        Document document = FileDocumentManager.getInstance().getDocument(file);
+        if (document == null) {
+            throw new IOException("Could not get document for file: " + staged.path);
+        }
+        String content = staged.content;
+        DocumentBase base = staged.base;
+        if (base != null && document.getModificationStamp() != base.stamp
+                && !StringUtil.equals(document.getImmutableCharSequence(), base.text)) {
+            // 暂存之后文档被修改过 (例如用户在本轮期间编辑了文件)，合并双方的修改而不是覆盖
+            content = TextMerge.merge(base.text, content, document.getText());
+            if (content == null) {
+                throw new MergeConflictException(
+                        "The file was modified in the editor after the edit was made, and the changes overlap; the edit was not applied");
+            }
+        }
+        replaceChangedRegion(document, content);
+        return document;
+    }
+
+    /**
+     * 只替换文档中与新内容不同的中间区域，保留未改动部分的标记和光标位置。
+     */
+    private static void replaceChangedRegion(@NotNull Document document, @NotNull String newText) {
+        CharSequence oldText = document.getImmutableCharSequence();
+        int oldLength = oldText.length();
+        int newLength = newText.length();
+        int prefix = 0;
+        int maxPrefix = Math.min(oldLength, newLength);
+        while (prefix < maxPrefix && oldText.charAt(prefix) == newText.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        int maxSuffix = Math.min(oldLength, newLength) - prefix;
+        while (suffix < maxSuffix && oldText.charAt(oldLength - 1 - suffix) == newText.charAt(newLength - 1 - suffix)) {
+            suffix++;
+        }
+        if (prefix == oldLength && prefix == newLength) {
+            return;
+        }
+        document.replaceString(prefix, oldLength - suffix, newText.substring(prefix, newLength - suffix));
+    }
+
+    @Nullable
+    private static File nearestExistingAncestor(@Nullable File dir) {
+        File current = dir;
+        while (current != null && !current.exists()) {
+            current = current.getParentFile();
+        }
+        return current;
+    }
+
+    private void checkOwner(String owner) {
+        if (cancelledOwners.contains(owner)) {
+            throw new IllegalStateException("Tool call was cancelled: " + owner);
+        }
+    }
+
+    private void checkActive() {
+        if (completed) {
+            throw new IllegalStateException("File transaction already completed");
+        }
+    }
+
+    /**
+     * 文件第一次暂存时文档的内容和修改标记，即工具修改所基于的版本。
+     */
+    private static final class DocumentBase {
+        final String text;
+        final long stamp;
+
+        DocumentBase(@NotNull String text, long stamp) {
+            this.text = text;
+            this.stamp = stamp;
+        }
+
+        @Nullable
+        static DocumentBase read(@NotNull VirtualFile file) {
+            return ReadAction.compute(() -> {
+                Document document = file.isValid() ? FileDocumentManager.getInstance().getDocument(file) : null;
+                return document != null
+                        ? new DocumentBase(document.getImmutableCharSequence().toString(), document.getModificationStamp())
+                        : null;
+            });
+        }
+    }
+
+    /**
+     * 暂存的内容与文档中之后的修改冲突，无法合并。
+     */
+    private static final class MergeConflictException extends Exception {
+        MergeConflictException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 一个暂存的文件修改。
+     */
+    private static final class StagedFile {
+        final String path;
+        final VirtualFile file;
+        final boolean created;
+        final Set<String> owners = new LinkedHashSet<>(); // 自上一个检查点以来暂存过该文件的工具调用
+        DocumentBase base; // 已存在文件第一次暂存时的文档，新建文件或无法获取文档时为 null
+        String content;
+        String checkpointContent; // 上一个检查点时的内容，检查点之后才暂存的文件为 null
+        Document overlay; // 当前内容的只读文档，按需创建
+
+        StagedFile(String path, @Nullable VirtualFile file, boolean created) {
+            this.path = path;
+            this.file = file;
+            this.created = created;
+        }
+
+        /**
+         * 设置暂存内容。文档只接受 '\n' 换行，模型给出的 CRLF 内容在这里统一转换，
+         * 之后的读取、合并和写入都基于同一份文本；保存时按文件原有的换行符写入磁盘。
+         */
+        void setContent(String content) {
+            this.content = StringUtil.convertLineSeparators(content);
+            this.overlay = null;
+        }
+    }
+
+    /**
+     * 暂存修改的只读快照，用于在提交前展示给用户审查。
+     */
+    public static final class StagedChange {
+        private final String path;
+        private final VirtualFile file;
+        private final boolean created;
+        private final String content;
+        private final String checkpointContent;
+        private final Set<String> owners;
+
+        private StagedChange(String path, @Nullable VirtualFile file, boolean created, String content,
+                             @Nullable String checkpointContent, Set<String> owners) {
+            this.path = path;
+            this.file = file;
+            this.created = created;
+            this.content = content;
+            this.checkpointContent = checkpointContent;
+            this.owners = owners;
+        }
+
+        @NotNull
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * 被修改的已存在文件，新建文件为 null。
+         */
+        @Nullable
+        public VirtualFile getFile() {
+            return file;
+        }
+
+        public boolean isCreated() {
+            return created;
+        }
+
+        @NotNull
+        public String getContent() {
+            return content;
+        }
+
+        /**
+         * 上一个检查点时暂存的内容，即本次审查的修改之前的内容；检查点之后才暂存的文件为 null。
+         */
+        @Nullable
+        public String getCheckpointContent() {
+            return checkpointContent;
+        }
+
+        /**
+         * 自上一个检查点以来暂存过该文件的工具调用标识。
+         */
+        @NotNull
+        public Set<String> getOwners() {
+            return owners;
+        }
+    }
+
+    /**
+     * 事务提交结果。
+     */
+    public static class CommitResult {
+        private final Map<String, String> failuresByOwner = new LinkedHashMap<>();
+        private final Map<String, String> failuresByPath = new LinkedHashMap<>();
+        private final Set<String> conflicts = new LinkedHashSet<>();
+        private final Set<String> discarded = new LinkedHashSet<>();
+        private int appliedCount;
+
+        private synchronized void addFailure(StagedFile staged, String message) {
+            failuresByPath.put(staged.path, message);
+            for (String owner : staged.owners) {
+                failuresByOwner.merge(owner, staged.path + ": " + message, (a, b) -> a + "; " + b);
+            }
+        }
+
+        private synchronized void addConflict(StagedFile staged, String message) {
+            conflicts.add(staged.path);
+            addFailure(staged, message);
+        }
+
+        public int getAppliedCount() {
+            return appliedCount;
+        }
+
+        public boolean isSuccessful() {
+            return failuresByPath.isEmpty();
+        }
+
+        /**
+         * 获取某个工具调用暂存的修改在提交时的失败信息。
+         * @param owner 工具调用标识。
+         * @return 失败信息，没有失败时返回 null。
+         */
+        @Nullable
+        public String getFailure(@Nullable String owner) {
+            return owner != null ? failuresByOwner.get(owner) : null;
+        }
+
+        @NotNull
+        public Map<String, String> getFailuresByPath() {
+            return failuresByPath;
+        }
+
+        /**
+         * 因暂存之后文档被修改且无法合并而没有应用的文件，是 {@link #getFailuresByPath()} 的子集。
+         */
+        @NotNull
+        public Set<String> getConflicts() {
+            return conflicts;
+        }
+
+        /**
+         * 由 {@link #commitCheckpoint()} 放弃了未审查修改的文件。
+         */
+        @NotNull
+        public Set<String> getDiscarded() {
+            return discarded;
+        }
+    }
+}
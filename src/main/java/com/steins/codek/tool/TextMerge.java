@@ -0,0 +1,118 @@
+package com.steins.codek.tool;
+
+import com.intellij.diff.comparison.ComparisonManager;
+import com.intellij.diff.comparison.ComparisonPolicy;
+import com.intellij.diff.comparison.DiffTooBigException;
+import com.intellij.diff.fragments.LineFragment;
+import com.intellij.openapi.progress.DumbProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 按行的三方合并：把同一基础版本上的两组修改合并到一起。
+ * 两组修改分别与基础版本按行比较，修改的行互不重叠也不相邻时合并成功；
+ * 修改了相同或相邻的行时视为冲突 (两边完全相同的修改除外)。
+ * @author 0027013824
+ */
+final class TextMerge {
+
+    private TextMerge() {
+    }
+
+    /**
+     * 合并两组修改。
+     * @param base 基础版本。
+     * @param ours 一方修改后的内容。
+     * @param theirs 另一方修改后的内容。
+     * @return 合并后的内容，有冲突时返回 null。
+     */
+    @Nullable
+    static String merge(@NotNull String base, @NotNull String ours, @NotNull String theirs) {
+        if (ours.equals(theirs) || theirs.equals(base)) {
+            return ours;
+        }
+        if (ours.equals(base)) {
+            return theirs;
+        }
+        // 三份内容都补一个换行，使最后一行也以换行结尾，按行拼接时不会丢失或多出换行
+        String baseText = base + "\n";
+        List<Change> changes = new ArrayList<>();
+        try {
+            collectChanges(baseText, ours + "\n", changes);
+            collectChanges(baseText, theirs + "\n", changes);
+        } catch (DiffTooBigException e) {
+            return null;
+        }
+        changes.sort(Comparator.comparingInt((Change change) -> change.startLine).thenComparingInt(change -> change.endLine));
+
+        int[] baseLines = lineStarts(baseText);
+        StringBuilder merged = new StringBuilder(Math.max(ours.length(), theirs.length()) + 1);
+        int line = 0;
+        Change previous = null;
+        for (Change change : changes) {
+            if (previous != null && change.startLine <= previous.endLine) {
+                if (change.startLine == previous.startLine && change.endLine == previous.endLine
+                        && change.text.equals(previous.text)) {
+                    continue; // 两边相同的修改只应用一次
+                }
+                return null;
+            }
+            merged.append(baseText, baseLines[line], baseLines[change.startLine]).append(change.text);
+            line = change.endLine;
+            previous = change;
+        }
+        merged.append(baseText, baseLines[line], baseText.length());
+        return merged.substring(0, merged.length() - 1);
+    }
+
+    private static void collectChanges(@NotNull String base, @NotNull String text, @NotNull List<Change> changes) {
+        int[] lines = lineStarts(text);
+        List<LineFragment> fragments = ComparisonManager.getInstance()
+                .compareLines(base, text, ComparisonPolicy.DEFAULT, DumbProgressIndicator.INSTANCE);
+        for (LineFragment fragment : fragments) {
+            changes.add(new Change(fragment.getStartLine1(), fragment.getEndLine1(),
+                    text.substring(lines[fragment.getStartLine2()], lines[fragment.getEndLine2()])));
+        }
+    }
+
+    /**
+     * 每一行的起始偏移，最后追加文本长度，第 i 行为 [starts[i], starts[i + 1])，包含行尾的换行。
+     */
+    @NotNull
+    private static int[] lineStarts(@NotNull String text) {
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        int[] starts = new int[count + 1];
+        int line = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                starts[line++] = i + 1;
+            }
+        }
+        starts[count] = text.length();
+        return starts;
+    }
+
+    /**
+     * 一组修改中的一处：基础版本的 [startLine, endLine) 行替换为 text。
+     */
+    private static final class Change {
+        final int startLine;
+        final int endLine;
+        final String text;
+
+        Change(int startLine, int endLine, String text) {
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.text = text;
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.steins.codek.tool.ToolParameter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -24,17 +26,23 @@ public interface Tool {
     /**
      * 获取工具的描述。
      * 这段描述将包含在系统提示词中，告知 LLM 工具的功能、使用场景和参数。
+     * 在 plugin.xml 中声明了定义文件的工具 (见 {@link ToolBean#schema}) 使用定义文件中的描述，不需要实现此方法。
      * @return 工具描述。
      */
     @NotNull
-    String getDescription();
+    default String getDescription() {
+        return "";
+    }
 
     /**
      * 获取工具所需的参数列表。
+     * 在 plugin.xml 中声明了定义文件的工具使用定义文件中的参数，不需要实现此方法。
      * @return 参数描述列表。
      */
     @NotNull
-    List<ToolParameter> getParameters();
+    default List<ToolParameter> getParameters() {
+        return Collections.emptyList();
+    }
 
     /**
      * 执行工具。
@@ -46,6 +54,20 @@ public interface Tool {
     @NotNull
     String execute(@NotNull Map<String, String> arguments) throws Exception;
 
+    /**
+     * 在指定上下文中执行工具。
+     * 支持文件事务的工具应覆盖此方法，在上下文包含事务时只暂存文件修改。
+     *
+     * @param arguments 从 LLM 调用中解析出的参数键值对。
+     * @param context 本次调用的执行上下文。
+     * @return 工具执行的结果字符串，将返回给 LLM。
+     * @throws Exception 如果执行过程中发生错误。
+     */
+    @NotNull
+    default String execute(@NotNull Map<String, String> arguments, @NotNull ToolContext context) throws Exception {
+        return execute(arguments);
+    }
+
     /**
      * (可选) 指定此工具执行前是否需要用户明确批准。
      * 默认为 false。对于修改文件、执行命令等敏感操作应返回 true。
@@ -54,4 +76,25 @@ public interface Tool {
     default boolean requiresApproval() {
         return false;
     }
+
+    /**
+     * (可选) 指定此工具的执行策略：最大并发数、截止时间以及是否可与写操作并行。
+     * 默认为 {@link ToolPolicy#DEFAULT}。
+     * @return 执行策略。
+     */
+    @NotNull
+    default ToolPolicy getPolicy() {
+        return ToolPolicy.DEFAULT;
+    }
+
+    /**
+     * (可选) 声明一次调用会读取或写入的路径。同一轮中资源冲突的调用按消息顺序执行，其余调用并行执行。
+     * 默认不声明任何资源，即与其他调用互不依赖。
+     * @param arguments 调用参数。
+     * @return 资源列表。
+     */
+    @NotNull
+    default Collection<ToolResource> getResources(@NotNull Map<String, String> arguments) {
+        return Collections.emptyList();
+    }
 } 
\ No newline at end of file
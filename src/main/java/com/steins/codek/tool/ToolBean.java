@@ -0,0 +1,98 @@
+package com.steins.codek.tool;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.intellij.openapi.extensions.PluginAware;
+import com.intellij.openapi.extensions.PluginDescriptor;
+import com.intellij.openapi.extensions.RequiredElement;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.xmlb.annotations.Attribute;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@code codek.tool} 扩展点的描述符。
+ * 只在 plugin.xml 中声明工具名称、实现类和定义文件，工具实例在第一次调用时才创建，
+ * 实现类需要提供 {@code (Project)} 构造函数。
+ * 定义文件是插件中的 JSON 资源，格式与 MCP tools/list 中的一项相同 ({@code description} 和 {@code inputSchema})，
+ * 生成发送给模型的工具列表时只读取定义文件，不创建工具实例；没有声明定义文件的工具仍然创建实例，
+ * 使用 {@link Tool#getDescription()} 和 {@link Tool#getParameters()}。
+ * <pre>{@code
+ * <extensions defaultExtensionNs="codek">
+ *     <tool name="myTool" schema="tools/myTool.json" implementationClass="com.example.MyTool"/>
+ * </extensions>
+ * }</pre>
+ * @author 0027013824
+ */
+public final class ToolBean implements PluginAware {
+    /**
+     * 工具名称，必须与 {@link Tool#getName()} 一致。
+     */
+    @Attribute("name")
+    @RequiredElement
+    public String name;
+
+    /**
+     * 实现 {@link Tool} 的类的全限定名。
+     */
+    @Attribute("implementationClass")
+    @RequiredElement
+    public String implementationClass;
+
+    /**
+     * 定义文件在插件类路径中的位置 (可选)。
+     */
+    @Attribute("schema")
+    public String schema;
+
+    private PluginDescriptor pluginDescriptor;
+
+    @Override
+    public void setPluginDescriptor(@NotNull PluginDescriptor pluginDescriptor) {
+        this.pluginDescriptor = pluginDescriptor;
+    }
+
+    /**
+     * 用声明该工具的插件的类加载器创建工具实例。
+     * @param project 当前项目，注入到工具的构造函数。
+     * @return 工具实例。
+     * @throws ClassNotFoundException 实现类不存在时抛出。
+     */
+    @NotNull
+    public Tool createTool(@NotNull Project project) throws ClassNotFoundException {
+        Class<Tool> toolClass = project.loadClass(implementationClass, pluginDescriptor);
+        return project.instantiateClass(toolClass, pluginDescriptor.getPluginId());
+    }
+
+    /**
+     * 用声明该工具的插件的类加载器读取定义文件。
+     * @return 工具定义，没有声明定义文件时返回 null。
+     * @throws IOException 定义文件不存在或无法读取时抛出。
+     */
+    @Nullable
+    public ToolDefinition loadDefinition() throws IOException {
+        if (schema == null) {
+            return null;
+        }
+        ClassLoader classLoader = pluginDescriptor != null ? pluginDescriptor.getPluginClassLoader() : null;
+        if (classLoader == null) {
+            classLoader = ToolBean.class.getClassLoader();
+        }
+        try (InputStream in = classLoader.getResourceAsStream(schema)) {
+            if (in == null) {
+                throw new FileNotFoundException(schema);
+            }
+            JsonObject json = JsonParser.parseReader(new InputStreamReader(in, StandardCharsets.UTF_8)).getAsJsonObject();
+            return ToolDefinition.fromJson(name, json, name);
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Invalid tool definition " + schema, e);
+        }
+    }
+}
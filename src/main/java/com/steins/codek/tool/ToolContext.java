@@ -0,0 +1,103 @@
+package com.steins.codek.tool;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 单次工具调用的执行上下文，由 ToolExecutor 创建并传递给工具。
+ * @author 0027013824
+ */
+public class ToolContext {
+    /**
+     * 无事务、无调用 ID 的空上下文，文件操作立即写入磁盘。
+     */
+    public static final ToolContext EMPTY = new ToolContext(null, null);
+
+    private final String toolCallId;
+    private final FileTransaction transaction;
+    private final ToolOutputBudget outputBudget;
+    private final ToolOutputListener outputListener;
+    private volatile boolean cancelled;
+
+    /**
+     * 构造函数。
+     * @param toolCallId 对应 LLM 工具调用的 ID (可选)。
+     * @param transaction 当前轮次的文件事务 (可选)，存在时文件修改只暂存，由 ToolExecutor 统一提交。
+     */
+    public ToolContext(@Nullable String toolCallId, @Nullable FileTransaction transaction) {
+        this(toolCallId, transaction, ToolOutputBudget.DEFAULT);
+    }
+
+    /**
+     * 构造函数。
+     * @param toolCallId 对应 LLM 工具调用的 ID (可选)。
+     * @param transaction 当前轮次的文件事务 (可选)。
+     * @param outputBudget 本次调用结果的 token 预算，由当前请求剩余的上下文窗口决定。
+     */
+    public ToolContext(@Nullable String toolCallId, @Nullable FileTransaction transaction,
+                       @NotNull ToolOutputBudget outputBudget) {
+        this(toolCallId, transaction, outputBudget, ToolOutputListener.NONE);
+    }
+
+    /**
+     * 构造函数。
+     * @param toolCallId 对应 LLM 工具调用的 ID (可选)。
+     * @param transaction 当前轮次的文件事务 (可选)。
+     * @param outputBudget 本次调用结果的 token 预算。
+     * @param outputListener 接收实时输出的监听器，例如将命令输出显示在聊天界面中。
+     */
+    public ToolContext(@Nullable String toolCallId, @Nullable FileTransaction transaction,
+                       @NotNull ToolOutputBudget outputBudget, @NotNull ToolOutputListener outputListener) {
+        this.toolCallId = toolCallId;
+        this.transaction = transaction;
+        this.outputBudget = outputBudget;
+        this.outputListener = outputListener;
+    }
+
+    @Nullable
+    public String getToolCallId() {
+        return toolCallId;
+    }
+
+    @Nullable
+    public FileTransaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * 获取本次调用结果的 token 预算。工具应在预算内按语义边界截断输出并返回续读游标，
+     * 超出预算的结果会被 ToolExecutor 分页。
+     */
+    @NotNull
+    public ToolOutputBudget getOutputBudget() {
+        return outputBudget;
+    }
+
+    /**
+     * 发布一段实时输出。只用于展示，不会成为返回给模型的结果。
+     * @param text 输出文本。
+     */
+    public void publishOutput(@NotNull String text) {
+        outputListener.onOutput(toolCallId, text);
+    }
+
+    /**
+     * 取消本次调用 (超时或用户停止了当前轮次)。长时间运行的工具应定期检查 {@link #isCancelled()}。
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 获取暂存文件修改时使用的归属标识，用于在提交失败时定位到对应的工具调用。
+     * @return 工具调用 ID，没有时返回空字符串。
+     */
+    @NotNull
+    public String getOwner() {
+        return toolCallId != null ? toolCallId : "";
+    }
+}
@@ -0,0 +1,89 @@
+package com.steins.codek.tool;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 发送给模型的工具定义：名称、描述和参数。
+ * 与工具实例分开，使注册表生成工具列表时不必创建每个工具的实例。
+ * @author 0027013824
+ */
+public final class ToolDefinition {
+    private final String name;
+    private final String description;
+    private final List<ToolParameter> parameters;
+
+    public ToolDefinition(@NotNull String name, @NotNull String description, @NotNull List<ToolParameter> parameters) {
+        this.name = name;
+        this.description = description;
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+    }
+
+    /**
+     * 取工具实例自身声明的定义，用于没有静态定义的工具 (例如运行时注册的工具)。
+     */
+    @NotNull
+    public static ToolDefinition of(@NotNull Tool tool) {
+        return new ToolDefinition(tool.getName(), tool.getDescription(), tool.getParameters());
+    }
+
+    /**
+     * 按 MCP tools/list 的格式读取定义：{@code description} 和 JSON Schema 格式的 {@code inputSchema}，
+     * 参数按 {@code properties} 中的顺序排列。
+     * @param name 工具名称。
+     * @param json 定义的 JSON 对象。
+     * @param defaultDescription 没有 description 字段时使用的描述。
+     */
+    @NotNull
+    public static ToolDefinition fromJson(@NotNull String name, @NotNull JsonObject json, @NotNull String defaultDescription) {
+        String description = json.has("description") ? json.get("description").getAsString() : defaultDescription;
+        JsonObject schema = json.has("inputSchema") && json.get("inputSchema").isJsonObject()
+                ? json.getAsJsonObject("inputSchema") : null;
+        return new ToolDefinition(name, description, readParameters(schema));
+    }
+
+    @NotNull
+    private static List<ToolParameter> readParameters(@Nullable JsonObject schema) {
+        if (schema == null || !schema.has("properties") || !schema.get("properties").isJsonObject()) {
+            return Collections.emptyList();
+        }
+        Set<String> required = new HashSet<>();
+        if (schema.has("required") && schema.get("required").isJsonArray()) {
+            for (JsonElement element : schema.getAsJsonArray("required")) {
+                required.add(element.getAsString());
+            }
+        }
+        List<ToolParameter> parameters = new ArrayList<>();
+        for (Map.Entry<String, JsonElement> entry : schema.getAsJsonObject("properties").entrySet()) {
+            JsonObject property = entry.getValue().isJsonObject() ? entry.getValue().getAsJsonObject() : new JsonObject();
+            String type = property.has("type") && property.get("type").isJsonPrimitive() ? property.get("type").getAsString() : "string";
+            String paramDescription = property.has("description") ? property.get("description").getAsString() : entry.getKey();
+            parameters.add(new ToolParameter(entry.getKey(), type, paramDescription, required.contains(entry.getKey())));
+        }
+        return parameters;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public String getDescription() {
+        return description;
+    }
+
+    @NotNull
+    public List<ToolParameter> getParameters() {
+        return parameters;
+    }
+}
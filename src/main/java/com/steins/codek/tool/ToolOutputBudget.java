@@ -0,0 +1,128 @@
+package com.steins.codek.tool;
+
+import com.steins.codek.tokenizer.Tokenizers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 工具输出的 token 预算。
+ * 以估算的 token 数衡量输出大小，并提供按行截断和续读游标的编解码。
+ * @author 0027013824
+ */
+public class ToolOutputBudget {
+    /**
+     * 未知上下文窗口时使用的默认预算。
+     */
+    public static final ToolOutputBudget DEFAULT = new ToolOutputBudget(8_000);
+
+    static final int MIN_TOKENS = 500; // 上下文即将用尽时仍保留的最小预算
+    static final int MAX_TOKENS = 24_000; // 单个工具结果的上限，避免一次调用占满上下文
+    public static final int RESPONSE_RESERVE_TOKENS = 4_096; // 为模型回复预留的 token
+    private static final String CURSOR_SEPARATOR = "\u0000";
+
+    private final int maxTokens;
+
+    public ToolOutputBudget(int maxTokens) {
+        this.maxTokens = Math.max(1, maxTokens);
+    }
+
+    /**
+     * 根据当前请求剩余的上下文窗口计算每个工具调用的预算。
+     * @param contextWindowTokens 模型上下文窗口大小。
+     * @param usedTokens 当前请求已占用的 token 数 (估算)。
+     * @param toolCallCount 本轮并行的工具调用数，剩余空间在它们之间平分。
+     * @return 工具输出预算。
+     */
+    @NotNull
+    public static ToolOutputBudget forRemainingContext(int contextWindowTokens, int usedTokens, int toolCallCount) {
+        int remaining = contextWindowTokens - usedTokens - RESPONSE_RESERVE_TOKENS;
+        int perCall = remaining / Math.max(1, toolCallCount);
+        return new ToolOutputBudget(Math.max(MIN_TOKENS, Math.min(MAX_TOKENS, perCall)));
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public boolean fits(@Nullable CharSequence text) {
+        return estimateTokens(text) <= maxTokens;
+    }
+
+    /**
+     * 计算文本的 token 数：使用当前模型的 BPE 分词器 (见 {@link Tokenizers})，
+     * 词表加载完成前按字符估算 (ASCII 字符约 4 个一个 token，其他字符约每个一个 token)。
+     */
+    public static int estimateTokens(@Nullable CharSequence text) {
+        return text == null ? 0 : Tokenizers.getDefault().count(text);
+    }
+
+    /**
+     * 从 {@code start} 开始，找出不超过预算的最长整行范围。
+     * 至少包含一整行，即使这一行本身超过预算，保证续读总能前进。
+     * @param text 文本。
+     * @param start 起始偏移 (行首)。
+     * @param reservedTokens 结果中文本之外的部分 (字段名、元数据) 占用的 token。
+     * @return 结束偏移 (不含)，位于某一行的换行符之后或文本末尾。
+     */
+    public int fitLines(@NotNull CharSequence text, int start, int reservedTokens) {
+        int budget = maxTokens - reservedTokens;
+        int end = start;
+        int used = 0;
+        while (end < text.length()) {
+            int lineEnd = end;
+            while (lineEnd < text.length() && text.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd < text.length()) {
+                lineEnd++; // 包含换行符
+            }
+            int lineTokens = estimateTokens(text.subSequence(end, lineEnd));
+            if (end > start && used + lineTokens > budget) {
+                break;
+            }
+            used += lineTokens;
+            end = lineEnd;
+        }
+        return end;
+    }
+
+    /**
+     * 将续读所需的状态编码为对模型不透明的游标。
+     * @param kind 游标类型，解码时用于校验游标是否属于当前工具。
+     * @param fields 状态字段。
+     */
+    @NotNull
+    public static String encodeCursor(@NotNull String kind, @NotNull String... fields) {
+        StringBuilder sb = new StringBuilder(kind);
+        for (String field : fields) {
+            sb.append(CURSOR_SEPARATOR).append(field);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码游标。
+     * @return 状态字段；游标无效或类型不匹配时返回 null。
+     */
+    @Nullable
+    public static String[] decodeCursor(@NotNull String kind, @Nullable String cursor) {
+        if (cursor == null || cursor.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+            String[] parts = decoded.split(CURSOR_SEPARATOR, -1);
+            if (parts.length == 0 || !kind.equals(parts[0])) {
+                return null;
+            }
+            String[] fields = new String[parts.length - 1];
+            System.arraycopy(parts, 1, fields, 0, fields.length);
+            return fields;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
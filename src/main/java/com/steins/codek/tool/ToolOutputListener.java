@@ -0,0 +1,24 @@
+package com.steins.codek.tool;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 接收工具执行过程中实时输出 (例如命令的 stdout/stderr) 的监听器。
+ * 回调可能来自任意后台线程。
+ * @author 0027013824
+ */
+@FunctionalInterface
+public interface ToolOutputListener {
+    /**
+     * 丢弃所有输出的监听器。
+     */
+    ToolOutputListener NONE = (toolCallId, text) -> { };
+
+    /**
+     * 工具产生了一段实时输出。
+     * @param toolCallId 工具调用 ID (可能为 null)。
+     * @param text 输出文本。
+     */
+    void onOutput(@Nullable String toolCallId, @NotNull String text);
+}
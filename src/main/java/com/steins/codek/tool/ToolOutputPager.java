@@ -0,0 +1,129 @@
+package com.steins.codek.tool;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 超出 token 预算的工具结果的分页器。
+ * 结果按整行或整条 JSON 条目切分，完整结果暂存在内存中，模型通过续读游标读取后续页。
+ * @author 0027013824
+ */
+public class ToolOutputPager {
+    static final String CURSOR_KIND = "out";
+    private static final int MAX_STORED_OUTPUTS = 32; // 最多保留的完整结果数，超出时淘汰最久未读的
+    private static final int PAGE_OVERHEAD_TOKENS = 80; // 分页结果中元数据字段占用的 token
+    private static final int ESCAPE_EXPANSION_PERCENT = 125; // 结果本身是 JSON，作为字符串内容转义后约膨胀 25%
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<String, String> outputs = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_STORED_OUTPUTS;
+        }
+    };
+
+    /**
+     * 结果在预算内时原样返回，否则暂存完整结果并返回第一页。
+     * @param toolName 产生结果的工具名称。
+     * @param result 工具的完整结果。
+     * @param budget 输出预算。
+     * @return 原结果或第一页。
+     */
+    @NotNull
+    public String paginate(@NotNull String toolName, @NotNull String result, @NotNull ToolOutputBudget budget) {
+        if (budget.fits(result)) {
+            return result;
+        }
+        String id = toolName + "-" + nextId.incrementAndGet();
+        synchronized (outputs) {
+            outputs.put(id, result);
+        }
+        return page(id, result, 0, budget);
+    }
+
+    /**
+     * 读取游标指向的下一页。
+     * @param cursor 上一页返回的 nextCursor。
+     * @param budget 输出预算。
+     * @return 下一页，游标无效或结果已过期时返回错误。
+     */
+    @NotNull
+    public String nextPage(@Nullable String cursor, @NotNull ToolOutputBudget budget) {
+        String[] fields = ToolOutputBudget.decodeCursor(CURSOR_KIND, cursor);
+        if (fields == null || fields.length != 2) {
+            return ToolResultWriter.error("Invalid cursor");
+        }
+        String text;
+        synchronized (outputs) {
+            text = outputs.get(fields[0]);
+        }
+        if (text == null) {
+            return ToolResultWriter.error("Cursor expired, please call the original tool again");
+        }
+        int offset;
+        try {
+            offset = Integer.parseInt(fields[1]);
+        } catch (NumberFormatException e) {
+            return ToolResultWriter.error("Invalid cursor");
+        }
+        if (offset < 0 || offset >= text.length()) {
+            return ToolResultWriter.error("Invalid cursor");
+        }
+        return page(fields[0], text, offset, budget);
+    }
+
+    private static String page(String id, String text, int offset, ToolOutputBudget budget) {
+        int contentTokens = (budget.getMaxTokens() - PAGE_OVERHEAD_TOKENS) * 100 / ESCAPE_EXPANSION_PERCENT;
+        int end = fitEntries(text, offset, new ToolOutputBudget(contentTokens));
+        boolean more = end < text.length();
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                .name("truncated").value(more)
+                .name("offset").value(offset)
+                .name("totalChars").value(text.length())
+                .name("content").value(text, offset, end);
+            if (more) {
+                json.name("nextCursor").value(ToolOutputBudget.encodeCursor(CURSOR_KIND, id, String.valueOf(end)))
+                    .name("message").value("Output exceeded the token budget. Call continueOutput with nextCursor to read the rest.");
+            }
+            return json.endObject().toString();
+        }
+    }
+
+    /**
+     * 在预算内切分：优先按整行；单行超出预算时 (例如单行 JSON) 退到最后一个条目边界。
+     */
+    static int fitEntries(String text, int offset, ToolOutputBudget budget) {
+        int end = budget.fitLines(text, offset, 0);
+        if (budget.fits(text.subSequence(offset, end)) || end == offset) {
+            return end;
+        }
+        // 用与预算相同的分词器二分查找预算内的最远位置：[offset, low) 在预算内，[offset, high) 超出预算
+        int low = offset;
+        int high = end;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (budget.fits(text.subSequence(offset, mid))) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        int hardEnd = low;
+        if (hardEnd > offset && Character.isHighSurrogate(text.charAt(hardEnd - 1))) {
+            hardEnd--; // 不拆开代理对
+        }
+        // 回退到最后一个条目/字段边界
+        for (int i = hardEnd - 1; i > offset; i--) {
+            char c = text.charAt(i);
+            if (c == '\n' || (c == ',' && (text.charAt(i - 1) == '}' || text.charAt(i - 1) == ']'))) {
+                return i + 1;
+            }
+        }
+        return hardEnd > offset ? hardEnd : offset + Character.charCount(Character.codePointAt(text, offset));
+    }
+}
@@ -0,0 +1,74 @@
+package com.steins.codek.tool;
+
+/**
+ * 工具的执行策略，由 ToolExecutor 的调度器强制执行。
+ * @author 0027013824
+ */
+public class ToolPolicy {
+    /**
+     * 默认策略：最多 4 个并发、30 秒超时、只读、可与写操作并行。
+     */
+    public static final ToolPolicy DEFAULT = new ToolPolicy(4, 30_000, false, true);
+
+    private final int maxConcurrency;
+    private final long timeoutMillis;
+    private final boolean writesFiles;
+    private final boolean parallelWithWrites;
+    private final boolean readsFromDisk;
+
+    /**
+     * 构造函数。
+     * @param maxConcurrency 同一工具同时执行的最大调用数 (舱壁)。
+     * @param timeoutMillis 单次调用的截止时间（毫秒），包括排队等待的时间。
+     * @param writesFiles 工具是否修改文件。修改文件的工具之间互斥执行。
+     * @param parallelWithWrites 只读工具是否可以与修改文件的工具同时执行。
+     *                           为 false 时，读操作不会观察到进行到一半的写操作。
+     */
+    public ToolPolicy(int maxConcurrency, long timeoutMillis, boolean writesFiles, boolean parallelWithWrites) {
+        this(maxConcurrency, timeoutMillis, writesFiles, parallelWithWrites, false);
+    }
+
+    /**
+     * 构造函数。
+     * @param maxConcurrency 同一工具同时执行的最大调用数 (舱壁)。
+     * @param timeoutMillis 单次调用的截止时间（毫秒），包括排队等待的时间。
+     * @param writesFiles 工具是否修改文件。修改文件的工具之间互斥执行。
+     * @param parallelWithWrites 只读工具是否可以与修改文件的工具同时执行。
+     * @param readsFromDisk 工具是否在 IDE 之外读取磁盘上的文件 (例如启动外部进程)。
+     *                      为 true 时，执行前先把本轮对话暂存的修改写入磁盘。
+     */
+    public ToolPolicy(int maxConcurrency, long timeoutMillis, boolean writesFiles, boolean parallelWithWrites,
+                      boolean readsFromDisk) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be positive");
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.timeoutMillis = timeoutMillis;
+        this.writesFiles = writesFiles;
+        this.parallelWithWrites = parallelWithWrites && !writesFiles;
+        this.readsFromDisk = readsFromDisk;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public boolean isWritesFiles() {
+        return writesFiles;
+    }
+
+    public boolean isParallelWithWrites() {
+        return parallelWithWrites;
+    }
+
+    public boolean isReadsFromDisk() {
+        return readsFromDisk;
+    }
+}
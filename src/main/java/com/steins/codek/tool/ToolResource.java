@@ -0,0 +1,61 @@
+package com.steins.codek.tool;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 工具调用声明的资源 (读取或写入的路径)，用于确定同一轮中工具调用之间的先后依赖。
+ * 路径包含关系视为重叠，例如读取目录与写入目录下的文件冲突。
+ * @author 0027013824
+ */
+public final class ToolResource {
+    private final String path;
+    private final boolean write;
+
+    private ToolResource(@NotNull String path, boolean write) {
+        this.path = FileUtil.toSystemIndependentName(path);
+        this.write = write;
+    }
+
+    /**
+     * 读取路径 (文件或目录) 的资源。
+     * @param absolutePath 绝对路径，通常由 {@link FileTransaction#resolvePath} 得到。
+     */
+    @NotNull
+    public static ToolResource read(@NotNull String absolutePath) {
+        return new ToolResource(absolutePath, false);
+    }
+
+    /**
+     * 写入路径的资源。
+     * @param absolutePath 绝对路径，通常由 {@link FileTransaction#resolvePath} 得到。
+     */
+    @NotNull
+    public static ToolResource write(@NotNull String absolutePath) {
+        return new ToolResource(absolutePath, true);
+    }
+
+    @NotNull
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isWrite() {
+        return write;
+    }
+
+    /**
+     * 两个资源冲突：路径重叠且至少一方写入。并发读取同一路径不冲突。
+     */
+    public boolean conflictsWith(@NotNull ToolResource other) {
+        if (!write && !other.write) {
+            return false;
+        }
+        return FileUtil.isAncestor(path, other.path, false) || FileUtil.isAncestor(other.path, path, false);
+    }
+
+    @Override
+    public String toString() {
+        return (write ? "write:" : "read:") + path;
+    }
+}
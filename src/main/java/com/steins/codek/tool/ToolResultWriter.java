@@ -0,0 +1,283 @@
+package com.steins.codek.tool;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * 所有工具共用的 JSON 结果写入器。
+ * 直接把转义后的内容追加到每个线程复用的缓冲区中，避免 {@code String.format} 和中间字符串；
+ * 转义按查表进行，连续的无需转义的字符整段复制。
+ * <pre>{@code
+ * try (ToolResultWriter json = ToolResultWriter.obtain()) {
+ *     return json.beginObject()
+ *             .name("filePath").value(path)
+ *             .name("content").value(document.getImmutableCharSequence(), start, end)
+ *             .endObject()
+ *             .toString();
+ * }
+ * }</pre>
+ * @author 0027013824
+ */
+public final class ToolResultWriter implements AutoCloseable {
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20; // 超过 1M 字符的缓冲区用完后不再保留
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char LINE_SEPARATOR = 0x2028;
+    private static final char PARAGRAPH_SEPARATOR = 0x2029;
+    private static final String[] ESCAPES = new String[128]; // ASCII 字符的转义表，null 表示无需转义
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = "\\u00" + HEX[c >> 4] + HEX[c & 0xF];
+        }
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\t'] = "\\t";
+    }
+
+    private static final ThreadLocal<ToolResultWriter> CACHE = ThreadLocal.withInitial(ToolResultWriter::new);
+
+    private StringBuilder buffer = new StringBuilder(256);
+    private boolean inUse;
+    private boolean needsComma; // 当前容器中是否已有元素
+    private boolean afterName; // 刚写完字段名，下一个值不需要逗号
+
+    private ToolResultWriter() {
+    }
+
+    /**
+     * 获取当前线程可复用的写入器；同一线程上嵌套使用时返回新的实例。
+     * 使用完毕后应调用 {@link #close()} 归还。
+     */
+    @NotNull
+    public static ToolResultWriter obtain() {
+        ToolResultWriter writer = CACHE.get();
+        if (writer.inUse) {
+            writer = new ToolResultWriter();
+        }
+        writer.inUse = true;
+        writer.buffer.setLength(0);
+        writer.needsComma = false;
+        writer.afterName = false;
+        return writer;
+    }
+
+    @Override
+    public void close() {
+        inUse = false;
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(256);
+        }
+    }
+
+    public ToolResultWriter beginObject() {
+        beforeValue();
+        buffer.append('{');
+        needsComma = false;
+        return this;
+    }
+
+    public ToolResultWriter endObject() {
+        buffer.append('}');
+        needsComma = true;
+        return this;
+    }
+
+    public ToolResultWriter beginArray() {
+        beforeValue();
+        buffer.append('[');
+        needsComma = false;
+        return this;
+    }
+
+    public ToolResultWriter endArray() {
+        buffer.append(']');
+        needsComma = true;
+        return this;
+    }
+
+    public ToolResultWriter name(@NotNull String name) {
+        if (needsComma) {
+            buffer.append(", ");
+        }
+        buffer.append('"');
+        escapeTo(name, 0, name.length(), buffer);
+        buffer.append("\": ");
+        afterName = true;
+        return this;
+    }
+
+    public ToolResultWriter value(@Nullable CharSequence value) {
+        if (value == null) {
+            return nullValue();
+        }
+        return value(value, 0, value.length());
+    }
+
+    /**
+     * 写入字符序列的一段作为字符串值，不会复制出中间字符串。
+     */
+    public ToolResultWriter value(@NotNull CharSequence value, int start, int end) {
+        beforeValue();
+        buffer.append('"');
+        escapeTo(value, start, end, buffer);
+        buffer.append('"');
+        needsComma = true;
+        return this;
+    }
+
+    public ToolResultWriter value(long value) {
+        beforeValue();
+        buffer.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * 写入浮点数，NaN 和无穷大写为 null。
+     */
+    public ToolResultWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        beforeValue();
+        buffer.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    public ToolResultWriter value(boolean value) {
+        beforeValue();
+        buffer.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    public ToolResultWriter nullValue() {
+        beforeValue();
+        buffer.append("null");
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * 写入已经是合法 JSON 的片段 (例如另一个工具的结果)，不做转义。
+     */
+    public ToolResultWriter rawValue(@NotNull CharSequence json) {
+        beforeValue();
+        buffer.append(json);
+        needsComma = true;
+        return this;
+    }
+
+    private void beforeValue() {
+        if (!afterName && needsComma) {
+            buffer.append(", ");
+        }
+        afterName = false;
+    }
+
+    /**
+     * 已写入内容的视图，在下一次写入或 {@link #close()} 之前有效。
+     */
+    @NotNull
+    public CharSequence asCharSequence() {
+        return buffer;
+    }
+
+    /**
+     * 将已写入的内容追加到目标，例如直接写入请求体。
+     */
+    public void writeTo(@NotNull Appendable target) throws IOException {
+        target.append(buffer);
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+
+    /**
+     * 生成只包含 error 字段的结果。
+     * @param message 错误信息。
+     * @return {@code {"error": "..."}}
+     */
+    @NotNull
+    public static String error(@Nullable String message) {
+        try (ToolResultWriter json = obtain()) {
+            return json.beginObject().name("error").value(message != null ? message : "").endObject().toString();
+        }
+    }
+
+    /**
+     * 转义字符串，用于在 JSON 字符串字面量中嵌入文本。null 视为空字符串。
+     */
+    @NotNull
+    public static String escapeJson(@Nullable CharSequence str) {
+        if (str == null) {
+            return "";
+        }
+        int length = str.length();
+        int i = 0;
+        while (i < length && !needsEscape(str.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return str.toString();
+        }
+        StringBuilder sb = new StringBuilder(length + 16);
+        escapeTo(str, 0, length, sb);
+        return sb.toString();
+    }
+
+    /**
+     * 将 {@code str[start, end)} 转义后追加到目标中，连续的无需转义的字符整段复制。
+     */
+    public static void escapeTo(@NotNull CharSequence str, int start, int end, @NotNull StringBuilder target) {
+        try {
+            escapeTo(str, start, end, (Appendable) target);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringBuilder 不会抛出 IOException
+        }
+    }
+
+    /**
+     * 将 {@code str[start, end)} 转义后追加到任意目标中，例如直接编码写入请求体的输出。
+     * 连续的无需转义的字符通过 {@link Appendable#append(CharSequence, int, int)} 整段传给目标，
+     * 代理对不会被拆开。
+     */
+    public static void escapeTo(@NotNull CharSequence str, int start, int end, @NotNull Appendable target) throws IOException {
+        int runStart = start;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            String escape;
+            if (c < 128) {
+                escape = ESCAPES[c];
+            } else if (c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+                // 部分 JavaScript 解析器不接受字符串中的行分隔符
+                escape = c == LINE_SEPARATOR ? "\\u2028" : "\\u2029";
+            } else {
+                continue;
+            }
+            if (escape != null) {
+                if (i > runStart) {
+                    target.append(str, runStart, i);
+                }
+                target.append(escape);
+                runStart = i + 1;
+            }
+        }
+        if (end > runStart) {
+            target.append(str, runStart, end);
+        }
+    }
+
+    private static boolean needsEscape(char c) {
+        return c < 128 ? ESCAPES[c] != null : c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR;
+    }
+}
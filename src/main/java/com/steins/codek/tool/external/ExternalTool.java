@@ -0,0 +1,118 @@
+package com.steins.codek.tool.external;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolDefinition;
+import com.steins.codek.tool.ToolParameter;
+import com.steins.codek.tool.ToolPolicy;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 外部工具服务器导出的一个工具，调用转发给服务器的常驻进程。
+ * @author 0027013824
+ */
+final class ExternalTool implements Tool {
+    private static final int CALLS_PER_PROCESS = 4; // 每个进程同时处理的调用数上限
+
+    private final ExternalToolServer server;
+    private final String name;
+    private final String description;
+    private final List<ToolParameter> parameters;
+    private final Map<String, String> parameterTypes = new HashMap<>();
+    private final ToolPolicy policy;
+
+    /**
+     * @param server 所属服务器。
+     * @param definition MCP tools/list 中的一项：name、description、inputSchema。
+     */
+    ExternalTool(@NotNull ExternalToolServer server, @NotNull JsonObject definition) {
+        this.server = server;
+        ToolDefinition parsed = ToolDefinition.fromJson(definition.get("name").getAsString(), definition,
+                "External tool provided by " + server.getConfig().getName());
+        this.name = parsed.getName();
+        this.description = parsed.getDescription();
+        this.parameters = parsed.getParameters();
+        for (ToolParameter parameter : parameters) {
+            parameterTypes.put(parameter.getName(), parameter.getType());
+        }
+        ToolServerConfig config = server.getConfig();
+        // 外部进程可能读取正在修改的文件，不与写操作交错，执行前把暂存的修改写入磁盘；声明会写文件的服务器与其他写操作互斥
+        this.policy = new ToolPolicy(config.getPoolSize() * CALLS_PER_PROCESS, config.getTimeoutSeconds() * 1000L,
+                config.isWritesFiles(), false, true);
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @NotNull
+    @Override
+    public List<ToolParameter> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public boolean requiresApproval() {
+        return server.getConfig().isRequiresApproval();
+    }
+
+    @NotNull
+    @Override
+    public ToolPolicy getPolicy() {
+        return policy;
+    }
+
+    @NotNull
+    @Override
+    public String execute(@NotNull Map<String, String> arguments) throws Exception {
+        return execute(arguments, ToolContext.EMPTY);
+    }
+
+    @NotNull
+    @Override
+    public String execute(@NotNull Map<String, String> arguments, @NotNull ToolContext context) throws Exception {
+        return server.callTool(name, toJsonArguments(arguments), context);
+    }
+
+    /**
+     * 按 inputSchema 中声明的类型还原参数值；无法转换时按字符串传递，由服务器报告错误。
+     */
+    @NotNull
+    JsonObject toJsonArguments(@NotNull Map<String, String> arguments) {
+        JsonObject json = new JsonObject();
+        for (Map.Entry<String, String> entry : arguments.entrySet()) {
+            String value = entry.getValue();
+            if (value == null) {
+                continue;
+            }
+            String type = parameterTypes.getOrDefault(entry.getKey(), "string");
+            try {
+                switch (type) {
+                    case "integer" -> json.addProperty(entry.getKey(), Long.parseLong(value.trim()));
+                    case "number" -> json.addProperty(entry.getKey(), Double.parseDouble(value.trim()));
+                    case "boolean" -> json.addProperty(entry.getKey(), Boolean.parseBoolean(value.trim()));
+                    case "object", "array" -> json.add(entry.getKey(), JsonParser.parseString(value));
+                    default -> json.addProperty(entry.getKey(), value);
+                }
+            } catch (NumberFormatException | JsonParseException e) {
+                json.addProperty(entry.getKey(), value);
+            }
+        }
+        return json;
+    }
+}
@@ -0,0 +1,153 @@
+package com.steins.codek.tool.external;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.steins.codek.config.CodekConfig;
+import com.steins.codek.service.ToolRegistry;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 项目级的外部工具服务器管理器。
+ * 按配置启动各服务器的常驻进程，把导出的工具注册到 {@link ToolRegistry}，并定期做健康检查。
+ * @author 0027013824
+ */
+@Service(Service.Level.PROJECT)
+public final class ExternalToolManager implements Disposable {
+    private static final Logger LOG = Logger.getInstance(ExternalToolManager.class);
+    private static final long HEALTH_CHECK_INTERVAL_SECONDS = 30;
+
+    private final Project project;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final List<ExternalToolServer> servers = new ArrayList<>();
+    private ScheduledFuture<?> healthCheck;
+    private volatile boolean disposed;
+
+    public ExternalToolManager(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public static ExternalToolManager getInstance(@NotNull Project project) {
+        return project.getService(ExternalToolManager.class);
+    }
+
+    /**
+     * 在后台启动所有已配置的工具服务器，重复调用无效果。
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        CodekConfig config = ApplicationManager.getApplication().getService(CodekConfig.class);
+        List<ToolServerConfig> configs = config != null ? config.getToolServers() : List.of();
+        if (configs.isEmpty()) {
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            for (ToolServerConfig serverConfig : configs) {
+                startServer(serverConfig);
+            }
+        });
+        healthCheck = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(
+                this::checkHealth, HEALTH_CHECK_INTERVAL_SECONDS, HEALTH_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 启动一个工具服务器并注册它导出的工具；与已有工具同名的工具被跳过。
+     * @param serverConfig 服务器配置。
+     * @return 注册的工具数，启动失败时返回 0。
+     */
+    public int startServer(@NotNull ToolServerConfig serverConfig) {
+        ExternalToolServer server = new ExternalToolServer(serverConfig, project.getBasePath());
+        synchronized (servers) {
+            if (disposed) {
+                return 0;
+            }
+            servers.add(server);
+            Disposer.register(this, server);
+        }
+        JsonArray definitions;
+        try {
+            definitions = server.start();
+        } catch (Exception e) {
+            LOG.warn("无法启动工具服务器 " + serverConfig + ": " + e.getMessage());
+            stopServer(server);
+            return 0;
+        }
+        ToolRegistry registry = ToolRegistry.getInstance(project);
+        int registered = 0;
+        for (JsonElement definition : definitions) {
+            if (!definition.isJsonObject() || !definition.getAsJsonObject().has("name")) {
+                continue;
+            }
+            ExternalTool tool = new ExternalTool(server, definition.getAsJsonObject());
+            if (registry.getTool(tool.getName()) != null) {
+                LOG.warn("工具服务器 " + serverConfig.getName() + " 导出的工具 '" + tool.getName() + "' 与已有工具同名，已跳过");
+                continue;
+            }
+            registry.registerTool(tool, server);
+            registered++;
+        }
+        return registered;
+    }
+
+    /**
+     * 停止所有服务器并按当前配置重新启动，配置修改后调用。
+     */
+    public void restart() {
+        for (ExternalToolServer server : getServers()) {
+            stopServer(server);
+        }
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+        }
+        started.set(false);
+        start();
+    }
+
+    private void stopServer(ExternalToolServer server) {
+        synchronized (servers) {
+            servers.remove(server);
+        }
+        Disposer.dispose(server); // 同时注销该服务器导出的工具
+    }
+
+    private List<ExternalToolServer> getServers() {
+        synchronized (servers) {
+            return new ArrayList<>(servers);
+        }
+    }
+
+    private void checkHealth() {
+        for (ExternalToolServer server : getServers()) {
+            try {
+                server.checkHealth();
+            } catch (RuntimeException e) {
+                LOG.warn("工具服务器 " + server.getConfig().getName() + " 健康检查失败", e);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+        }
+        synchronized (servers) {
+            servers.clear();
+        }
+    }
+}
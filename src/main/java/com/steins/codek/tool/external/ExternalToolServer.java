@@ -0,0 +1,301 @@
+package com.steins.codek.tool.external;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.util.execution.ParametersListUtil;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolResultWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 一个外部工具服务器：同一命令的若干常驻进程组成的连接池。
+ * 进程启动时完成 MCP 握手并保持运行，工具调用分配给待处理请求最少的进程；
+ * 定期健康检查 (ping) 替换已退出或无响应的进程，调用时发现没有可用进程也会立即补充。
+ * @author 0027013824
+ */
+final class ExternalToolServer implements Disposable {
+    private static final Logger LOG = Logger.getInstance(ExternalToolServer.class);
+    static final String PROTOCOL_VERSION = "2024-11-05";
+    private static final long HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+    private static final long PING_TIMEOUT_MILLIS = 5_000;
+    private static final long POLL_MILLIS = 100; // 等待结果时检查取消的间隔
+
+    private final ToolServerConfig config;
+    private final String defaultWorkingDirectory;
+    private final List<JsonRpcConnection> connections = new CopyOnWriteArrayList<>();
+    private volatile boolean disposed;
+
+    ExternalToolServer(@NotNull ToolServerConfig config, @Nullable String defaultWorkingDirectory) {
+        this.config = config;
+        this.defaultWorkingDirectory = defaultWorkingDirectory;
+    }
+
+    @NotNull
+    ToolServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 启动连接池中的全部进程，并读取服务器导出的工具列表。
+     * @return 工具定义 (MCP tools/list 结果中的 tools 数组)。
+     * @throws Exception 进程无法启动或握手失败。
+     */
+    @NotNull
+    JsonArray start() throws Exception {
+        for (int i = 0; i < config.getPoolSize(); i++) {
+            connections.add(spawn());
+        }
+        JsonElement result = await(connections.get(0).request("tools/list", new JsonObject(), null), HANDSHAKE_TIMEOUT_MILLIS);
+        JsonArray tools = result.isJsonObject() && result.getAsJsonObject().has("tools")
+                ? result.getAsJsonObject().getAsJsonArray("tools") : new JsonArray();
+        LOG.info("工具服务器 " + config.getName() + " 已启动 " + connections.size() + " 个进程，导出 " + tools.size() + " 个工具");
+        return tools;
+    }
+
+    /**
+     * 调用服务器导出的工具，等待期间把进度通知推送到界面；调用方取消时通知服务器停止处理。
+     * 调用结束后刷新 VFS，工具在磁盘上做的修改对之后的调用和编辑器可见。
+     * @param toolName 工具名称。
+     * @param arguments 调用参数。
+     * @param context 执行上下文。
+     * @return 工具结果 JSON。
+     * @throws Exception 调用失败或被中断。
+     */
+    @NotNull
+    String callTool(@NotNull String toolName, @NotNull JsonObject arguments, @NotNull ToolContext context) throws Exception {
+        JsonRpcConnection connection = acquire();
+        JsonObject params = new JsonObject();
+        params.addProperty("name", toolName);
+        params.add("arguments", arguments);
+        JsonRpcConnection.Call call = connection.request("tools/call", params, context::publishOutput);
+        JsonElement result;
+        try {
+            while (true) {
+                if (context.isCancelled()) {
+                    connection.cancel(call, "Cancelled by user");
+                    throw new CancellationException("Tool call cancelled");
+                }
+                try {
+                    result = call.result.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException ignored) {
+                    // 继续等待
+                }
+            }
+        } catch (InterruptedException e) {
+            connection.cancel(call, "Timed out");
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (java.util.concurrent.ExecutionException e) {
+            refreshFiles();
+            Throwable cause = e.getCause();
+            return ToolResultWriter.error("Tool server " + config.getName() + " failed: " + (cause != null ? cause.getMessage() : e.getMessage()));
+        }
+        refreshFiles();
+        return toResult(result);
+    }
+
+    /**
+     * 同步刷新配置的路径 (默认为工作目录) 下的 VFS。没有工作目录时不刷新。
+     */
+    private void refreshFiles() {
+        String workDir = workingDirectory();
+        List<File> roots = new ArrayList<>();
+        for (String path : config.getRefreshPaths()) {
+            File file = new File(path);
+            if (!file.isAbsolute() && workDir == null) {
+                continue;
+            }
+            roots.add(file.isAbsolute() ? file : new File(workDir, path));
+        }
+        if (roots.isEmpty() && workDir != null) {
+            roots.add(new File(workDir));
+        }
+        if (!roots.isEmpty()) {
+            VfsUtil.markDirtyAndRefresh(false, true, true, roots.toArray(new File[0]));
+        }
+    }
+
+    @Nullable
+    private String workingDirectory() {
+        return config.getWorkingDirectory() != null && !config.getWorkingDirectory().isBlank()
+                ? config.getWorkingDirectory() : defaultWorkingDirectory;
+    }
+
+    /**
+     * 将 MCP 工具结果转换为返回给模型的 JSON：单个 JSON 文本原样返回，其他文本放入 content 字段。
+     */
+    @NotNull
+    static String toResult(@NotNull JsonElement result) {
+        StringBuilder text = new StringBuilder();
+        boolean isError = false;
+        if (result.isJsonObject()) {
+            JsonObject object = result.getAsJsonObject();
+            isError = object.has("isError") && object.get("isError").getAsBoolean();
+            if (object.has("content") && object.get("content").isJsonArray()) {
+                for (JsonElement item : object.getAsJsonArray("content")) {
+                    if (item.isJsonObject() && item.getAsJsonObject().has("text")) {
+                        if (text.length() > 0) {
+                            text.append('\n');
+                        }
+                        text.append(item.getAsJsonObject().get("text").getAsString());
+                    }
+                }
+            }
+        }
+        if (isError) {
+            return ToolResultWriter.error(text.toString());
+        }
+        String trimmed = text.toString().trim();
+        if (trimmed.startsWith("{") && trimmed.endsWith("}")) {
+            return trimmed;
+        }
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            return json.beginObject().name("content").value(text).endObject().toString();
+        }
+    }
+
+    /**
+     * 检查每个进程：已退出或 ping 无响应的进程被关闭并替换。
+     */
+    void checkHealth() {
+        for (JsonRpcConnection connection : connections) {
+            if (disposed) {
+                return;
+            }
+            boolean healthy = connection.isAlive();
+            if (healthy && connection.getPendingCount() == 0) {
+                try {
+                    await(connection.request("ping", null, null), PING_TIMEOUT_MILLIS);
+                } catch (Exception e) {
+                    LOG.warn("工具服务器 " + config.getName() + " 的进程未响应 ping: " + e.getMessage());
+                    healthy = false;
+                }
+            }
+            if (!healthy) {
+                replace(connection);
+            }
+        }
+    }
+
+    int getLiveConnectionCount() {
+        int count = 0;
+        for (JsonRpcConnection connection : connections) {
+            if (connection.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 选择待处理请求最少的存活进程；全部不可用时同步启动一个替换进程。
+     */
+    private JsonRpcConnection acquire() throws Exception {
+        JsonRpcConnection best = null;
+        for (JsonRpcConnection connection : connections) {
+            if (connection.isAlive() && (best == null || connection.getPendingCount() < best.getPendingCount())) {
+                best = connection;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        synchronized (this) {
+            for (JsonRpcConnection connection : connections) {
+                if (connection.isAlive()) {
+                    return connection;
+                }
+            }
+            JsonRpcConnection dead = connections.isEmpty() ? null : connections.get(0);
+            return dead != null ? replace(dead) : add(spawn());
+        }
+    }
+
+    private synchronized JsonRpcConnection replace(JsonRpcConnection dead) {
+        connections.remove(dead);
+        dead.close();
+        if (disposed) {
+            return dead;
+        }
+        try {
+            return add(spawn());
+        } catch (Exception e) {
+            LOG.warn("无法重启工具服务器 " + config.getName() + " 的进程: " + e.getMessage());
+            return dead;
+        }
+    }
+
+    private JsonRpcConnection add(JsonRpcConnection connection) {
+        connections.add(connection);
+        return connection;
+    }
+
+    private JsonRpcConnection spawn() throws Exception {
+        if (disposed) {
+            throw new IOException("Tool server " + config.getName() + " is stopped");
+        }
+        List<String> command = ParametersListUtil.parse(config.getCommand());
+        if (command.isEmpty()) {
+            throw new ExecutionException("Tool server " + config.getName() + " has no command");
+        }
+        String workDir = workingDirectory();
+        GeneralCommandLine commandLine = new GeneralCommandLine(command)
+                .withCharset(StandardCharsets.UTF_8)
+                .withParentEnvironmentType(GeneralCommandLine.ParentEnvironmentType.CONSOLE);
+        if (workDir != null) {
+            commandLine.withWorkDirectory(workDir);
+        }
+        JsonRpcConnection connection = new JsonRpcConnection(config.getName(), commandLine.createProcess());
+        try {
+            JsonObject params = new JsonObject();
+            params.addProperty("protocolVersion", PROTOCOL_VERSION);
+            params.add("capabilities", new JsonObject());
+            JsonObject clientInfo = new JsonObject();
+            clientInfo.addProperty("name", "codek");
+            clientInfo.addProperty("version", "1.0");
+            params.add("clientInfo", clientInfo);
+            await(connection.request("initialize", params, null), HANDSHAKE_TIMEOUT_MILLIS);
+            connection.sendNotification("notifications/initialized", null);
+            return connection;
+        } catch (Exception e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private static JsonElement await(JsonRpcConnection.Call call, long timeoutMillis) throws Exception {
+        try {
+            return call.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        List<JsonRpcConnection> toClose = new ArrayList<>(connections);
+        connections.clear();
+        for (JsonRpcConnection connection : toClose) {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.steins.codek.tool.external;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 与一个外部进程之间的 JSON-RPC 2.0 连接，消息按行分隔 (MCP stdio 传输)。
+ * 同一连接上可以同时有多个请求，响应按 id 分发；进度通知按 progressToken (即请求 id) 转发给对应请求。
+ * @author 0027013824
+ */
+final class JsonRpcConnection implements AutoCloseable {
+    private static final Logger LOG = Logger.getInstance(JsonRpcConnection.class);
+    private static final int STDERR_TAIL_LINES = 20; // 进程异常退出时附带在错误信息中的 stderr 行数
+    private static final long KILL_GRACE_MILLIS = 2_000;
+
+    private final String name;
+    private final Process process;
+    private final Writer writer;
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<Long, Call> pending = new ConcurrentHashMap<>();
+    private final Deque<String> stderrTail = new ArrayDeque<>();
+    private volatile boolean closed;
+
+    JsonRpcConnection(@NotNull String name, @NotNull Process process) {
+        this.name = name;
+        this.process = process;
+        this.writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        AppExecutorUtil.getAppExecutorService().execute(this::readMessages);
+        AppExecutorUtil.getAppExecutorService().execute(this::readStderr);
+    }
+
+    /**
+     * 发送请求。
+     * @param method 方法名。
+     * @param params 参数，可为 null。
+     * @param progress 接收该请求进度通知中的 message，可为 null。
+     * @return 请求句柄，结果在收到响应时完成；连接断开时以 IOException 失败。
+     */
+    @NotNull
+    Call request(@NotNull String method, @Nullable JsonObject params, @Nullable Consumer<String> progress) {
+        long id = nextId.incrementAndGet();
+        Call call = new Call(id, progress);
+        pending.put(id, call);
+        JsonObject message = new JsonObject();
+        message.addProperty("jsonrpc", "2.0");
+        message.addProperty("id", id);
+        message.addProperty("method", method);
+        if (params != null) {
+            if (progress != null) {
+                JsonObject meta = params.has("_meta") ? params.getAsJsonObject("_meta") : new JsonObject();
+                meta.addProperty("progressToken", id);
+                params.add("_meta", meta);
+            }
+            message.add("params", params);
+        }
+        try {
+            send(message);
+        } catch (IOException e) {
+            pending.remove(id);
+            call.result.completeExceptionally(e);
+        }
+        return call;
+    }
+
+    /**
+     * 发送通知 (不需要响应)。
+     */
+    void sendNotification(@NotNull String method, @Nullable JsonObject params) throws IOException {
+        JsonObject message = new JsonObject();
+        message.addProperty("jsonrpc", "2.0");
+        message.addProperty("method", method);
+        if (params != null) {
+            message.add("params", params);
+        }
+        send(message);
+    }
+
+    /**
+     * 取消请求：通知服务器停止处理，并立即以 CancellationException 结束该请求。
+     */
+    void cancel(@NotNull Call call, @NotNull String reason) {
+        if (pending.remove(call.id) == null) {
+            return;
+        }
+        call.result.completeExceptionally(new CancellationException(reason));
+        JsonObject params = new JsonObject();
+        params.addProperty("requestId", call.id);
+        params.addProperty("reason", reason);
+        try {
+            sendNotification("notifications/cancelled", params);
+        } catch (IOException e) {
+            LOG.debug("无法向工具服务器 " + name + " 发送取消通知", e);
+        }
+    }
+
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    boolean isAlive() {
+        return !closed && process.isAlive();
+    }
+
+    private void send(JsonObject message) throws IOException {
+        if (closed) {
+            throw new IOException("Tool server " + name + " is closed");
+        }
+        String line = message.toString(); // Gson 会转义换行，保证一条消息占一行
+        synchronized (writer) {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    private void readMessages() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    dispatch(JsonParser.parseString(line).getAsJsonObject());
+                } catch (JsonParseException e) {
+                    LOG.warn("工具服务器 " + name + " 输出了无法解析的消息: " + line);
+                } catch (RuntimeException e) {
+                    // 字段类型不符合预期的消息只丢弃这一条，读取线程继续处理后面的消息
+                    LOG.warn("工具服务器 " + name + " 输出了格式不正确的消息: " + line, e);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOG.debug("读取工具服务器 " + name + " 输出失败", e);
+            }
+        } finally {
+            // 读取线程因任何原因结束后，连接都不能再使用，等待中的调用立即失败而不是等到超时
+            closed = true;
+            failPending("Tool server " + name + " exited" + describeStderr());
+        }
+    }
+
+    /**
+     * 解析消息中的请求 id。本端发出的 id 都是整数，其他形式 (字符串、小数等) 的 id 不对应任何等待中的调用。
+     * @return 整数 id，无法解析时返回 null。
+     */
+    @Nullable
+    private static Long parseRequestId(@Nullable JsonElement id) {
+        if (id == null || !id.isJsonPrimitive()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(id.getAsString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void dispatch(JsonObject message) {
+        JsonElement id = message.get("id");
+        boolean hasId = id != null && !id.isJsonNull();
+        if (message.has("method")) {
+            String method = message.get("method").getAsString();
+            if (hasId) {
+                answerServerRequest(id, method);
+            } else if ("notifications/progress".equals(method) && message.has("params")) {
+                JsonObject params = message.getAsJsonObject("params");
+                Long token = parseRequestId(params.get("progressToken"));
+                Call call = token != null ? pending.get(token) : null;
+                if (call != null && call.progress != null && params.has("message")) {
+                    call.progress.accept(params.get("message").getAsString());
+                }
+            }
+            return;
+        }
+        if (!hasId) {
+            return;
+        }
+        Long requestId = parseRequestId(id);
+        Call call = requestId != null ? pending.remove(requestId) : null;
+        if (call == null) {
+            return; // 已取消或已超时的请求，或不是本端发出的 id
+        }
+        if (message.has("error")) {
+            JsonObject error = message.getAsJsonObject("error");
+            int code = error.has("code") ? error.get("code").getAsInt() : 0;
+            String errorMessage = error.has("message") ? error.get("message").getAsString() : "Unknown error";
+            call.result.completeExceptionally(new JsonRpcException(code, errorMessage));
+        } else {
+            JsonElement result = message.get("result");
+            call.result.complete(result != null ? result : JsonNull.INSTANCE);
+        }
+    }
+
+    /**
+     * 服务器发来的请求：只支持 ping，其他方法返回 method not found。
+     */
+    private void answerServerRequest(JsonElement id, String method) {
+        JsonObject response = new JsonObject();
+        response.addProperty("jsonrpc", "2.0");
+        response.add("id", id);
+        if ("ping".equals(method)) {
+            response.add("result", new JsonObject());
+        } else {
+            JsonObject error = new JsonObject();
+            error.addProperty("code", JsonRpcException.METHOD_NOT_FOUND);
+            error.addProperty("message", "Method not found: " + method);
+            response.add("error", error);
+        }
+        try {
+            send(response);
+        } catch (IOException e) {
+            LOG.debug("无法响应工具服务器 " + name + " 的请求 " + method, e);
+        }
+    }
+
+    private void readStderr() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LOG.debug("[" + name + "] " + line);
+                synchronized (stderrTail) {
+                    if (stderrTail.size() == STDERR_TAIL_LINES) {
+                        stderrTail.removeFirst();
+                    }
+                    stderrTail.addLast(line);
+                }
+            }
+        } catch (IOException ignored) {
+            // 进程退出
+        }
+    }
+
+    private String describeStderr() {
+        synchronized (stderrTail) {
+            return stderrTail.isEmpty() ? "" : ": " + String.join("\n", stderrTail);
+        }
+    }
+
+    private void failPending(String message) {
+        for (Long id : pending.keySet()) {
+            Call call = pending.remove(id);
+            if (call != null) {
+                call.result.completeExceptionally(new IOException(message));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed && !process.isAlive()) {
+            return;
+        }
+        closed = true;
+        failPending("Tool server " + name + " was stopped");
+        try {
+            synchronized (writer) {
+                writer.close(); // 关闭 stdin 让服务器自行退出
+            }
+        } catch (IOException ignored) {
+            // 进程可能已退出
+        }
+        process.destroy();
+        AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }, KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 一个已发出的请求。
+     */
+    static final class Call {
+        final long id;
+        final CompletableFuture<JsonElement> result = new CompletableFuture<>();
+        @Nullable
+        final Consumer<String> progress;
+
+        Call(long id, @Nullable Consumer<String> progress) {
+            this.id = id;
+            this.progress = progress;
+        }
+    }
+
+    /**
+     * 服务器返回的 JSON-RPC 错误。
+     */
+    static final class JsonRpcException extends Exception {
+        static final int METHOD_NOT_FOUND = -32601;
+
+        final int code;
+
+        JsonRpcException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.steins.codek.tool.external;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 外部工具服务器的配置：通过 stdio 以 JSON-RPC 通信的常驻进程。
+ * @author 0027013824
+ */
+public class ToolServerConfig {
+    public static final int DEFAULT_POOL_SIZE = 2;
+    public static final int DEFAULT_TIMEOUT_SECONDS = 60;
+
+    private String name;
+    private String command; // 完整命令行，按 shell 规则拆分参数
+    private String workingDirectory; // 为空时使用项目根目录
+    private int poolSize = DEFAULT_POOL_SIZE; // 常驻进程数
+    private int timeoutSeconds = DEFAULT_TIMEOUT_SECONDS; // 单次工具调用的截止时间
+    private boolean requiresApproval = true; // 外部工具可能修改文件，默认需要用户批准
+    private boolean writesFiles; // 工具会修改磁盘上的文件，调用与其他写文件的工具互斥
+    private List<String> refreshPaths = new ArrayList<>(); // 每次调用后刷新的路径，为空时刷新工作目录
+
+    public ToolServerConfig() {
+    }
+
+    public ToolServerConfig(@NotNull String name, @NotNull String command) {
+        this.name = name;
+        this.command = command;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public void setCommand(String command) {
+        this.command = command;
+    }
+
+    @Nullable
+    public String getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+    public void setWorkingDirectory(@Nullable String workingDirectory) {
+        this.workingDirectory = workingDirectory;
+    }
+
+    public int getPoolSize() {
+        return Math.max(1, poolSize);
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getTimeoutSeconds() {
+        return timeoutSeconds > 0 ? timeoutSeconds : DEFAULT_TIMEOUT_SECONDS;
+    }
+
+    public void setTimeoutSeconds(int timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    public boolean isRequiresApproval() {
+        return requiresApproval;
+    }
+
+    public void setRequiresApproval(boolean requiresApproval) {
+        this.requiresApproval = requiresApproval;
+    }
+
+    public boolean isWritesFiles() {
+        return writesFiles;
+    }
+
+    public void setWritesFiles(boolean writesFiles) {
+        this.writesFiles = writesFiles;
+    }
+
+    /**
+     * 每次调用后刷新 VFS 的路径，绝对路径或相对于工作目录的路径；为空时刷新整个工作目录。
+     */
+    @NotNull
+    public List<String> getRefreshPaths() {
+        return refreshPaths != null ? refreshPaths : new ArrayList<>();
+    }
+
+    public void setRefreshPaths(@Nullable List<String> refreshPaths) {
+        this.refreshPaths = refreshPaths != null ? new ArrayList<>(refreshPaths) : new ArrayList<>();
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + command + ")";
+    }
+}
@@ -0,0 +1,711 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.steins.codek.tool.FileTransaction;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResource;
+import com.steins.codek.tool.ToolResultWriter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 以补丁方式修改文件的工具实现。
+ * 支持 unified diff 和 SEARCH/REPLACE 两种格式，模型只需输出改动部分，而不是整个文件。
+ * @author 0027013824
+ */
+public class ApplyPatchTool implements Tool {
+    private static final Logger LOG = Logger.getInstance(ApplyPatchTool.class);
+    private static final ToolPolicy POLICY = new ToolPolicy(1, 30_000, true, false);
+    private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@.*$");
+    private static final String SEARCH_MARKER = "<<<<<<< SEARCH";
+    private static final String DIVIDER_MARKER = "=======";
+    private static final String REPLACE_MARKER = ">>>>>>> REPLACE";
+    private static final int CONTEXT_LINES = 3; // 拒绝补丁时附带的上下文行数
+    private static final int MAX_CANDIDATES = 5; // 查找文本有歧义时最多列出的匹配位置
+
+    private final Project project;
+
+    public ApplyPatchTool(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public String getName() {
+        return "applyPatch";
+    }
+
+    @Override
+    public ToolPolicy getPolicy() {
+        return POLICY;
+    }
+
+    @Override
+    public Collection<ToolResource> getResources(Map<String, String> arguments) {
+        String filePath = arguments.get("filePath");
+        if (filePath == null || filePath.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(ToolResource.write(FileTransaction.resolvePath(project, filePath)));
+    }
+
+    @Override
+    public boolean requiresApproval() {
+        return true; // 修改文件操作需要用户批准
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments) {
+        return execute(arguments, ToolContext.EMPTY);
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments, ToolContext context) {
+        String filePath = arguments.get("filePath");
+        String patch = arguments.get("patch");
+
+        if (filePath == null || filePath.trim().isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: filePath");
+        }
+        if (patch == null || patch.trim().isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: patch");
+        }
+
+        List<Hunk> hunks;
+        try {
+            hunks = parseHunks(patch);
+        } catch (IllegalArgumentException e) {
+            return ToolResultWriter.error("Invalid patch: " + e.getMessage());
+        }
+        if (hunks.isEmpty()) {
+            return ToolResultWriter.error("Invalid patch: no hunks found");
+        }
+
+        final String finalFilePath = filePath.trim();
+        try {
+            return ApplicationManager.getApplication().executeOnPooledThread(() -> {
+                FileTransaction transaction = context.getTransaction();
+                if (transaction != null) {
+                    return stagePatch(transaction, context, finalFilePath, hunks);
+                }
+
+                VirtualFile virtualFile = findVirtualFile(finalFilePath);
+                if (virtualFile == null) {
+                    return ToolResultWriter.error("File not found: " + finalFilePath);
+                }
+                if (virtualFile.isDirectory()) {
+                    return ToolResultWriter.error("Path is a directory, not a file: " + finalFilePath);
+                }
+
+                Document document = ReadAction.compute(() -> FileDocumentManager.getInstance().getDocument(virtualFile));
+                if (document == null) {
+                    return ToolResultWriter.error("Could not get document for file: " + finalFilePath);
+                }
+
+                // 在同一个写命令中定位并应用所有补丁块，避免定位与写入之间文档被修改
+                PatchPlan[] planHolder = new PatchPlan[1];
+                WriteCommandAction.runWriteCommandAction(project, FileTransaction.COMMAND_NAME_PREFIX + "应用补丁", null, () -> {
+                    PatchPlan plan = planEdits(document.getImmutableCharSequence(), hunks);
+                    List<Edit> edits = new ArrayList<>(plan.edits);
+                    edits.sort(Comparator.comparingInt((Edit e) -> e.startOffset).reversed());
+                    for (Edit edit : edits) {
+                        document.replaceString(edit.startOffset, edit.endOffset, edit.replacement);
+                    }
+                    if (!edits.isEmpty()) {
+                        FileDocumentManager.getInstance().saveDocument(document);
+                    }
+                    planHolder[0] = plan;
+                });
+                return buildResult(finalFilePath, hunks.size(), planHolder[0]);
+            }).get(); // 等待异步操作完成
+        } catch (Exception e) {
+            LOG.error("Error executing ApplyPatchTool", e);
+            return ToolResultWriter.error("Failed to execute patch operation: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 在文件事务中暂存补丁结果：基于已暂存内容（或当前文档内容）定位补丁块，提交前不修改文档。
+     */
+    @NotNull
+    private String stagePatch(FileTransaction transaction, ToolContext context, String filePath, List<Hunk> hunks) {
+        String absolutePath = FileTransaction.resolvePath(project, filePath);
+        String baseText = transaction.getStagedText(absolutePath);
+        VirtualFile virtualFile = findVirtualFile(filePath);
+        if (baseText == null) {
+            if (virtualFile == null) {
+                return ToolResultWriter.error("File not found: " + filePath);
+            }
+            if (virtualFile.isDirectory()) {
+                return ToolResultWriter.error("Path is a directory, not a file: " + filePath);
+            }
+            Document document = ReadAction.compute(() -> FileDocumentManager.getInstance().getDocument(virtualFile));
+            if (document == null) {
+                return ToolResultWriter.error("Could not get document for file: " + filePath);
+            }
+            baseText = document.getText();
+        }
+
+        PatchPlan plan = planEdits(baseText, hunks);
+        if (!plan.edits.isEmpty()) {
+            String newText = applyEdits(baseText, plan.edits);
+            if (transaction.isStagedForCreate(absolutePath)) {
+                transaction.stageCreate(absolutePath, newText, context.getOwner());
+            } else if (virtualFile != null) {
+                transaction.stageWrite(virtualFile, newText, context.getOwner());
+            } else {
+                return ToolResultWriter.error("File not found: " + filePath);
+            }
+        }
+        return buildResult(filePath, hunks.size(), plan);
+    }
+
+    @NotNull
+    private static String buildResult(String filePath, int totalHunks, PatchPlan plan) {
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                    .name("success").value(plan.rejections.isEmpty())
+                    .name("filePath").value(filePath)
+                    .name("hunks").value(totalHunks)
+                    .name("applied").value(plan.edits.size())
+                    .name("fuzzyMatched").value(plan.fuzzyMatches)
+                    .name("rejected").beginArray();
+            for (Rejection rejection : plan.rejections) {
+                json.beginObject()
+                        .name("hunk").value(rejection.hunkIndex + 1)
+                        .name("reason").value(rejection.reason)
+                        .name("context").value(rejection.context)
+                        .endObject();
+            }
+            json.endArray();
+            if (!plan.rejections.isEmpty()) {
+                json.name("message").value(plan.edits.isEmpty()
+                        ? "No hunks were applied. Re-read the reported context and resend the rejected hunks."
+                        : "Matching hunks were applied; resend only the rejected hunks.");
+            }
+            return json.endObject().toString();
+        }
+    }
+
+    /**
+     * 解析补丁文本为补丁块列表。包含 SEARCH 标记时按 SEARCH/REPLACE 格式解析，否则按 unified diff 解析。
+     */
+    @NotNull
+    static List<Hunk> parseHunks(@NotNull String patch) {
+        List<String> lines = splitLines(patch.replace("\r\n", "\n"));
+        if (patch.contains(SEARCH_MARKER)) {
+            return parseSearchReplace(lines);
+        }
+        return parseUnifiedDiff(lines);
+    }
+
+    @NotNull
+    private static List<Hunk> parseSearchReplace(List<String> lines) {
+        List<Hunk> hunks = new ArrayList<>();
+        int i = 0;
+        while (i < lines.size()) {
+            if (!lines.get(i).trim().equals(SEARCH_MARKER)) {
+                i++;
+                continue;
+            }
+            List<String> search = new ArrayList<>();
+            List<String> replace = new ArrayList<>();
+            i++;
+            while (i < lines.size() && !lines.get(i).trim().equals(DIVIDER_MARKER)) {
+                search.add(lines.get(i++));
+            }
+            if (i >= lines.size()) {
+                throw new IllegalArgumentException("SEARCH block " + (hunks.size() + 1) + " is missing '" + DIVIDER_MARKER + "'");
+            }
+            i++;
+            while (i < lines.size() && !lines.get(i).trim().equals(REPLACE_MARKER)) {
+                replace.add(lines.get(i++));
+            }
+            if (i >= lines.size()) {
+                throw new IllegalArgumentException("SEARCH block " + (hunks.size() + 1) + " is missing '" + REPLACE_MARKER + "'");
+            }
+            i++;
+            if (search.isEmpty()) {
+                throw new IllegalArgumentException("SEARCH block " + (hunks.size() + 1) + " is empty");
+            }
+            hunks.add(new Hunk(search, replace, -1));
+        }
+        return hunks;
+    }
+
+    @NotNull
+    private static List<Hunk> parseUnifiedDiff(List<String> lines) {
+        List<Hunk> hunks = new ArrayList<>();
+        List<String> search = null;
+        List<String> replace = null;
+        int hintLine = -1;
+        int fileHeaders = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (isFileHeader(lines, i)) {
+                // 文件头也可能紧跟在上一个块之后 (普通 diff -u 没有 diff --git 行)，不能当作删除和新增行
+                if (++fileHeaders > 1) {
+                    throw new IllegalArgumentException(
+                            "patch modifies more than one file; applyPatch edits a single file, send one call per file");
+                }
+                if (search != null) {
+                    hunks.add(new Hunk(search, replace, hintLine));
+                    search = null;
+                    replace = null;
+                }
+                i++; // 跳过 +++ 行
+                continue;
+            }
+            Matcher matcher = HUNK_HEADER.matcher(line);
+            if (matcher.matches()) {
+                if (search != null) {
+                    hunks.add(new Hunk(search, replace, hintLine));
+                }
+                search = new ArrayList<>();
+                replace = new ArrayList<>();
+                // 旧行数为 0 的纯插入块中 N 表示插入到第 N 行之后，即从 0 开始的第 N 行之前
+                int oldStart = Integer.parseInt(matcher.group(1));
+                hintLine = "0".equals(matcher.group(2)) ? oldStart : Math.max(0, oldStart - 1);
+                continue;
+            }
+            if (search == null) {
+                continue; // 跳过 diff/---/+++/index 等头部
+            }
+            if (line.startsWith("+")) {
+                replace.add(line.substring(1));
+            } else if (line.startsWith("-")) {
+                search.add(line.substring(1));
+            } else if (line.startsWith(" ")) {
+                search.add(line.substring(1));
+                replace.add(line.substring(1));
+            } else if (line.isEmpty()) {
+                // 部分模型会丢掉空上下文行前的空格
+                search.add("");
+                replace.add("");
+            } else if (!line.startsWith("\\")) {
+                // 非补丁行，结束当前块
+                hunks.add(new Hunk(search, replace, hintLine));
+                search = null;
+                replace = null;
+            }
+        }
+        if (search != null) {
+            hunks.add(new Hunk(search, replace, hintLine));
+        }
+        if (hunks.isEmpty()) {
+            throw new IllegalArgumentException("no '@@' hunk headers or SEARCH/REPLACE blocks found");
+        }
+        for (Hunk hunk : hunks) {
+            trimTrailingEmptyContext(hunk);
+        }
+        return hunks;
+    }
+
+    /**
+     * 判断第 i 行是否为文件头：紧跟 "+++ " 行的 "--- " 行。
+     */
+    private static boolean isFileHeader(List<String> lines, int i) {
+        return lines.get(i).startsWith("--- ") && i + 1 < lines.size() && lines.get(i + 1).startsWith("+++ ");
+    }
+
+    /**
+     * 去掉补丁末尾因文本结尾换行产生的空上下文行。
+     */
+    private static void trimTrailingEmptyContext(Hunk hunk) {
+        while (!hunk.search.isEmpty() && !hunk.replace.isEmpty()
+                && hunk.search.get(hunk.search.size() - 1).isEmpty()
+                && hunk.replace.get(hunk.replace.size() - 1).isEmpty()) {
+            hunk.search.remove(hunk.search.size() - 1);
+            hunk.replace.remove(hunk.replace.size() - 1);
+        }
+    }
+
+    /**
+     * 在文本中定位所有补丁块并计算对应的编辑。先精确匹配，再忽略空白差异匹配；
+     * 多处匹配时取最接近 diff 行号提示的位置，没有行号提示 (SEARCH/REPLACE 块) 时作为歧义拒绝；
+     * 与已接受编辑重叠的补丁块会被拒绝。
+     */
+    @NotNull
+    static PatchPlan planEdits(@NotNull CharSequence text, @NotNull List<Hunk> hunks) {
+        LineTable table = new LineTable(text);
+        PatchPlan plan = new PatchPlan();
+        List<int[]> acceptedLineRanges = new ArrayList<>();
+        for (int index = 0; index < hunks.size(); index++) {
+            Hunk hunk = hunks.get(index);
+            int matchLine;
+            boolean fuzzy = false;
+            if (hunk.search.isEmpty()) {
+                // 纯插入：只能依赖 diff 行号
+                if (hunk.hintLine < 0) {
+                    plan.rejections.add(new Rejection(index, "Insertion hunk has no valid line number", ""));
+                    continue;
+                }
+                matchLine = Math.min(hunk.hintLine, table.lineCount());
+            } else {
+                List<Integer> matches = table.findAll(hunk.search, false);
+                if (matches.isEmpty()) {
+                    matches = table.findAll(hunk.search, true);
+                    fuzzy = !matches.isEmpty();
+                }
+                if (matches.isEmpty()) {
+                    plan.rejections.add(new Rejection(index, "Search text not found in file",
+                            table.closestContext(hunk.search, CONTEXT_LINES)));
+                    continue;
+                }
+                if (matches.size() > 1 && hunk.hintLine < 0) {
+                    // SEARCH/REPLACE 块没有行号提示，无法判断要修改哪一处
+                    plan.rejections.add(new Rejection(index, "Search text matches " + matches.size()
+                            + " locations; include more surrounding lines so that it matches exactly one",
+                            table.candidatesContext(matches, hunk.search.size(), CONTEXT_LINES)));
+                    continue;
+                }
+                matchLine = closest(matches, hunk.hintLine);
+            }
+            int endLine = matchLine + hunk.search.size();
+            boolean overlaps = false;
+            for (int[] range : acceptedLineRanges) {
+                if (matchLine < range[1] && range[0] < endLine
+                        || hunk.search.isEmpty() && matchLine > range[0] && matchLine < range[1]) {
+                    overlaps = true;
+                    break;
+                }
+            }
+            if (overlaps) {
+                plan.rejections.add(new Rejection(index, "Hunk overlaps a previously applied hunk",
+                        table.context(matchLine, Math.max(matchLine + 1, endLine), CONTEXT_LINES)));
+                continue;
+            }
+            acceptedLineRanges.add(new int[]{matchLine, endLine});
+            if (fuzzy) {
+                plan.fuzzyMatches++;
+            }
+            plan.edits.add(table.toEdit(matchLine, hunk.search.size(), hunk.replace));
+        }
+        return plan;
+    }
+
+    /**
+     * 返回最接近 hintLine 的匹配行，无提示时返回第一个。
+     */
+    private static int closest(@NotNull List<Integer> matches, int hintLine) {
+        int best = matches.get(0);
+        for (int start : matches) {
+            if (hintLine >= 0 && Math.abs(start - hintLine) < Math.abs(best - hintLine)) {
+                best = start;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 将编辑应用到文本，返回新文本（用于预览）。
+     */
+    @NotNull
+    static String applyEdits(@NotNull CharSequence text, @NotNull List<Edit> edits) {
+        List<Edit> sorted = new ArrayList<>(edits);
+        sorted.sort(Comparator.comparingInt((Edit e) -> e.startOffset).reversed());
+        StringBuilder sb = new StringBuilder(text);
+        for (Edit edit : sorted) {
+            sb.replace(edit.startOffset, edit.endOffset, edit.replacement);
+        }
+        return sb.toString();
+    }
+
+    @NotNull
+    private static List<String> splitLines(@NotNull CharSequence text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.subSequence(start, i).toString());
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            lines.add(text.subSequence(start, text.length()).toString());
+        }
+        return lines;
+    }
+
+    /**
+     * 忽略空白差异的行比较：去掉首尾空白，并将连续空白视为一个空格。
+     */
+    @NotNull
+    private static String normalize(@NotNull String line) {
+        StringBuilder sb = new StringBuilder(line.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    sb.append(' ');
+                    pendingSpace = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private VirtualFile findVirtualFile(String filePath) {
+        VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
+        if (file != null) return file;
+
+        // 检查相对路径
+        if (project != null && project.getBasePath() != null) {
+            String basePath = project.getBasePath();
+            file = LocalFileSystem.getInstance().findFileByPath((basePath + "/" + filePath).replace(File.separatorChar, '/'));
+            if (file != null) return file;
+
+            File ioFile = new File(basePath, filePath);
+            if (ioFile.exists()) {
+                file = LocalFileSystem.getInstance().findFileByIoFile(ioFile);
+                if (file != null) return file;
+            }
+        }
+
+        // 尝试作为绝对路径
+        File ioFileDirect = new File(filePath);
+        if (ioFileDirect.exists()) {
+            file = LocalFileSystem.getInstance().findFileByIoFile(ioFileDirect);
+            if (file != null) return file;
+        }
+
+        LOG.warn("Could not find VirtualFile for path: " + filePath);
+        return null;
+    }
+
+    /**
+     * 一个补丁块：要查找的原始行、替换后的行，以及 diff 中的 0-based 起始行号提示（无提示时为 -1）。
+     */
+    static final class Hunk {
+        final List<String> search;
+        final List<String> replace;
+        final int hintLine;
+
+        Hunk(List<String> search, List<String> replace, int hintLine) {
+            this.search = search;
+            this.replace = replace;
+            this.hintLine = hintLine;
+        }
+    }
+
+    /**
+     * 一次基于字符偏移量的文本替换。
+     */
+    static final class Edit {
+        final int startOffset;
+        final int endOffset;
+        final String replacement;
+
+        Edit(int startOffset, int endOffset, String replacement) {
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.replacement = replacement;
+        }
+    }
+
+    /**
+     * 被拒绝的补丁块及原因，context 为文件中最相近位置 (有歧义时为每个匹配位置) 附近的带行号文本。
+     */
+    static final class Rejection {
+        final int hunkIndex;
+        final String reason;
+        final String context;
+
+        Rejection(int hunkIndex, String reason, String context) {
+            this.hunkIndex = hunkIndex;
+            this.reason = reason;
+            this.context = context;
+        }
+    }
+
+    /**
+     * 定位结果：可应用的编辑和被拒绝的补丁块。
+     */
+    static final class PatchPlan {
+        final List<Edit> edits = new ArrayList<>();
+        final List<Rejection> rejections = new ArrayList<>();
+        int fuzzyMatches;
+    }
+
+    /**
+     * 文本的行表，记录每行的起止偏移量，用于按行匹配和偏移量换算。
+     */
+    private static final class LineTable {
+        private final CharSequence text;
+        private final List<String> lines;
+        private final int[] lineStarts;
+        private String[] normalizedLines;
+
+        LineTable(CharSequence text) {
+            this.text = text;
+            this.lines = splitLines(text);
+            this.lineStarts = new int[lines.size() + 1];
+            int offset = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                lineStarts[i] = offset;
+                offset += lines.get(i).length() + 1;
+            }
+            lineStarts[lines.size()] = Math.min(offset, text.length());
+        }
+
+        int lineCount() {
+            return lines.size();
+        }
+
+        /**
+         * 查找 search 行序列的所有起始行，按行号升序排列。
+         */
+        List<Integer> findAll(List<String> search, boolean ignoreWhitespace) {
+            if (ignoreWhitespace && normalizedLines == null) {
+                normalizedLines = new String[lines.size()];
+                for (int i = 0; i < lines.size(); i++) {
+                    normalizedLines[i] = normalize(lines.get(i));
+                }
+            }
+            List<String> needle = search;
+            if (ignoreWhitespace) {
+                needle = new ArrayList<>(search.size());
+                for (String line : search) {
+                    needle.add(normalize(line));
+                }
+            }
+            List<Integer> matches = new ArrayList<>();
+            for (int start = 0; start + needle.size() <= lines.size(); start++) {
+                boolean matched = true;
+                for (int j = 0; j < needle.size(); j++) {
+                    String candidate = ignoreWhitespace ? normalizedLines[start + j] : lines.get(start + j);
+                    if (!candidate.equals(needle.get(j))) {
+                        matched = false;
+                        break;
+                    }
+                }
+                if (matched) {
+                    matches.add(start);
+                }
+            }
+            return matches;
+        }
+
+        /**
+         * 将 [line, line + count) 替换为 replacement 行的编辑。
+         */
+        Edit toEdit(int line, int count, List<String> replacement) {
+            String joined = String.join("\n", replacement);
+            if (count == 0) {
+                // 纯插入
+                if (line < lines.size()) {
+                    return new Edit(lineStarts[line], lineStarts[line], joined + "\n");
+                }
+                if (text.length() == 0 || text.charAt(text.length() - 1) == '\n') {
+                    return new Edit(text.length(), text.length(), joined + "\n");
+                }
+                return new Edit(text.length(), text.length(), "\n" + joined);
+            }
+            int start = lineStarts[line];
+            int lastLine = line + count - 1;
+            int end = lineStarts[lastLine] + lines.get(lastLine).length();
+            if (replacement.isEmpty()) {
+                // 删除整行，连同行尾换行符
+                if (line + count < lines.size()) {
+                    end = lineStarts[line + count];
+                } else if (start > 0) {
+                    start -= 1;
+                }
+            }
+            return new Edit(start, end, joined);
+        }
+
+        /**
+         * 为未匹配的补丁块寻找文件中最相似的位置（以首个非空查找行为锚点），返回其附近的上下文。
+         */
+        String closestContext(List<String> search, int contextLines) {
+            String anchor = null;
+            for (String line : search) {
+                String normalized = normalize(line);
+                if (!normalized.isEmpty()) {
+                    anchor = normalized;
+                    break;
+                }
+            }
+            if (anchor == null) {
+                return "";
+            }
+            int bestLine = -1;
+            int bestScore = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                String normalized = normalize(lines.get(i));
+                int score = normalized.equals(anchor) ? Integer.MAX_VALUE : commonPrefix(normalized, anchor);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestLine = i;
+                }
+            }
+            if (bestLine < 0 || bestScore < Math.min(8, anchor.length())) {
+                return "";
+            }
+            return context(bestLine, bestLine + 1, contextLines);
+        }
+
+        /**
+         * 返回多处匹配位置各自的上下文，最多列出 {@link #MAX_CANDIDATES} 处，以 "..." 分隔。
+         */
+        String candidatesContext(List<Integer> matches, int lineCount, int contextLines) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < matches.size() && i < MAX_CANDIDATES; i++) {
+                if (i > 0) {
+                    sb.append("...\n");
+                }
+                int start = matches.get(i);
+                sb.append(context(start, Math.max(start + 1, start + lineCount), contextLines));
+            }
+            if (matches.size() > MAX_CANDIDATES) {
+                sb.append("... (").append(matches.size() - MAX_CANDIDATES).append(" more matches)\n");
+            }
+            return sb.toString();
+        }
+
+        /**
+         * 返回 [fromLine, toLine) 前后各扩展 contextLines 行的带 1-based 行号文本。
+         */
+        String context(int fromLine, int toLine, int contextLines) {
+            int start = Math.max(0, fromLine - contextLines);
+            int end = Math.min(lines.size(), toLine + contextLines);
+            StringBuilder sb = new StringBuilder();
+            for (int i = start; i < end; i++) {
+                sb.append(i + 1).append(": ").append(lines.get(i)).append('\n');
+            }
+            return sb.toString();
+        }
+
+        private static int commonPrefix(String a, String b) {
+            int length = Math.min(a.length(), b.length());
+            int i = 0;
+            while (i < length && a.charAt(i) == b.charAt(i)) {
+                i++;
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.steins.codek.tool.impl;
+
+import com.steins.codek.tool.ToolOutputBudget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 命令输出的定长环形缓冲区。
+ * 只保留最后若干行和最先出现的若干条错误行，内存占用与输出总量无关。
+ * @author 0027013824
+ */
+class CommandOutputBuffer {
+    private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[0-9;?]*[ -/]*[@-~]");
+    private static final Pattern ERROR_LINE = Pattern.compile(
+            "(?i)(\\berror\\b|\\bfailed\\b|\\bfailure\\b|exception\\b|^e: |\\[ERROR\\]|^FAIL)");
+    private static final Pattern STACK_FRAME = Pattern.compile("^\\s+(at |\\.\\.\\. \\d+ more)");
+    static final int MAX_LINE_LENGTH = 400; // 超长行截断，避免单行占满缓冲区
+    static final int MAX_ERRORS = 30;
+
+    private final String[] lines;
+    private int head; // 下一次写入的位置
+    private int size;
+    private long totalLines;
+    private final List<String> errors = new ArrayList<>();
+    private int omittedErrors;
+    private final StringBuilder partialLine = new StringBuilder();
+    private boolean pendingCR; // 上一个字符是 '\r'，需要看下一个字符才能区分 CRLF 与回车覆盖
+
+    CommandOutputBuffer(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    /**
+     * 追加一段输出，按行切分；不完整的行留到下一段输出或 {@link #flush()} 时处理。
+     */
+    synchronized void append(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (pendingCR) {
+                pendingCR = false;
+                if (c != '\n') {
+                    // 进度条之类的回车覆盖：只保留最后一次覆盖的内容
+                    partialLine.setLength(0);
+                }
+            }
+            if (c == '\n') {
+                addLine(partialLine.toString());
+                partialLine.setLength(0);
+            } else if (c == '\r') {
+                // CRLF 可能被拆在两段输出中，等下一个字符到达后再决定
+                pendingCR = true;
+            } else if (partialLine.length() < MAX_LINE_LENGTH) {
+                partialLine.append(c);
+            }
+        }
+    }
+
+    synchronized void flush() {
+        pendingCR = false; // 输出末尾的回车之后不会再有覆盖，保留最后一次显示的内容
+        if (partialLine.length() > 0) {
+            addLine(partialLine.toString());
+            partialLine.setLength(0);
+        }
+    }
+
+    private void addLine(String rawLine) {
+        String line = ANSI_ESCAPE.matcher(rawLine).replaceAll("");
+        if (line.length() > MAX_LINE_LENGTH) {
+            line = line.substring(0, MAX_LINE_LENGTH) + "...";
+        }
+        if (line.trim().isEmpty()) {
+            return;
+        }
+        totalLines++;
+        if (!STACK_FRAME.matcher(line).find() && ERROR_LINE.matcher(line).find()) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(line.trim());
+            } else {
+                omittedErrors++;
+            }
+        }
+        lines[head] = line;
+        head = (head + 1) % lines.length;
+        if (size < lines.length) {
+            size++;
+        }
+    }
+
+    synchronized long getTotalLines() {
+        return totalLines;
+    }
+
+    synchronized List<String> getErrors() {
+        return new ArrayList<>(errors);
+    }
+
+    synchronized int getOmittedErrors() {
+        return omittedErrors;
+    }
+
+    /**
+     * 获取在预算内的最后若干行。
+     * @param budget token 预算。
+     * @return 按原顺序排列的行。
+     */
+    synchronized List<String> tail(ToolOutputBudget budget) {
+        List<String> result = new ArrayList<>();
+        int used = 0;
+        for (int i = 0; i < size; i++) {
+            String line = lines[(head - 1 - i + lines.length) % lines.length];
+            int tokens = ToolOutputBudget.estimateTokens(line) + 1;
+            if (used + tokens > budget.getMaxTokens()) {
+                break;
+            }
+            used += tokens;
+            result.add(0, line);
+        }
+        return result;
+    }
+}
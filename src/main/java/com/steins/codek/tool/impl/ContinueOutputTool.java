@@ -0,0 +1,40 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.project.Project;
+import com.steins.codek.service.ToolExecutor;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolResultWriter;
+
+import java.util.Map;
+
+/**
+ * 读取被分页的工具结果后续内容的工具实现。
+ * @author 0027013824
+ */
+public class ContinueOutputTool implements Tool {
+    private final Project project;
+
+    public ContinueOutputTool(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public String getName() {
+        return "continueOutput";
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments) {
+        return execute(arguments, ToolContext.EMPTY);
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments, ToolContext context) {
+        String cursor = arguments.get("cursor");
+        if (cursor == null || cursor.trim().isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: cursor");
+        }
+        return ToolExecutor.getInstance(project).getOutputPager().nextPage(cursor, context.getOutputBudget());
+    }
+}
@@ -3,21 +3,20 @@ package com.steins.codek.tool.impl;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.editor.Document;
-import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.steins.codek.tool.FileTransaction;
 import com.steins.codek.tool.Tool;
-import com.steins.codek.tool.ToolParameter;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResource;
+import com.steins.codek.tool.ToolResultWriter;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -26,6 +25,7 @@ import java.util.Map;
  */
 public class CreateFileTool implements Tool {
     private static final Logger LOG = Logger.getInstance(CreateFileTool.class);
+    private static final ToolPolicy POLICY = new ToolPolicy(1, 30_000, true, false);
 
     private final Project project;
 
@@ -39,16 +39,17 @@ public class CreateFileTool implements Tool {
     }
 
     @Override
-    public String getDescription() {
-        return "Creates a new file at the specified path with the provided content. Will create parent directories if they don't exist.";
+    public ToolPolicy getPolicy() {
+        return POLICY;
     }
 
     @Override
-    public List<ToolParameter> getParameters() {
-        return Arrays.asList(
-                new ToolParameter("filePath", "string", "The absolute or relative path to the file to create.", true),
-                new ToolParameter("content", "string", "The content to write to the file.", true)
-        );
+    public Collection<ToolResource> getResources(Map<String, String> arguments) {
+        String filePath = arguments.get("filePath");
+        if (filePath == null || filePath.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(ToolResource.write(FileTransaction.resolvePath(project, filePath)));
     }
 
     @Override
@@ -58,11 +59,16 @@ public class CreateFileTool implements Tool {
 
     @Override
     public String execute(Map<String, String> arguments) {
+        return execute(arguments, ToolContext.EMPTY);
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments, ToolContext context) {
         String filePath = arguments.get("filePath");
         String content = arguments.get("content");
 
         if (filePath == null || filePath.trim().isEmpty()) {
-            return "{\"error\": \"Missing required parameter: filePath\"}";
+            return ToolResultWriter.error("Missing required parameter: filePath");
         }
         
         if (content == null) {
@@ -72,82 +78,62 @@ public class CreateFileTool implements Tool {
         final String finalFilePath = filePath.trim();
         final String finalContent = content;
 
+        // 相对路径按项目目录解析，事务内外使用同一个绝对路径
+        final String absolutePath = FileTransaction.resolvePath(project, finalFilePath);
+        FileTransaction transaction = context.getTransaction();
+        if (transaction != null) {
+            // 事务中只暂存，提交时统一通过 VFS 创建，无需逐个刷新
+            if (new File(absolutePath).exists() || transaction.getStagedText(absolutePath) != null) {
+                return ToolResultWriter.error("File already exists: " + finalFilePath);
+            }
+            transaction.stageCreate(absolutePath, finalContent, context.getOwner());
+            return createdResult(finalFilePath);
+        }
+
         try {
             return ApplicationManager.getApplication().executeOnPooledThread(() -> {
+                // 检查文件是否已存在
+                if (new File(absolutePath).exists()) {
+                    return ToolResultWriter.error("File already exists: " + finalFilePath);
+                }
                 try {
-                    // 检查文件是否已存在
-                    File file = new File(finalFilePath);
-                    if (file.exists()) {
-                        return String.format("{\"error\": \"File already exists: %s\"}", escapeJson(finalFilePath));
-                    }
-
-                    // 确保父目录存在
-                    Path parentDir = Paths.get(finalFilePath).getParent();
-                    if (parentDir != null) {
-                        Files.createDirectories(parentDir);
-                    }
-
-                    // 创建空文件以便后续写入内容
-                    Files.createFile(Paths.get(finalFilePath));
-                    
-                    // 刷新VFS以检测新创建的文件
-                    VirtualFile virtualFile = LocalFileSystem.getInstance().refreshAndFindFileByPath(
-                            finalFilePath.replace('\\', '/'));
-                    
-                    if (virtualFile == null) {
-                        return String.format("{\"error\": \"File was created but could not be found in VFS: %s\"}", 
-                                escapeJson(finalFilePath));
-                    }
-
-                    // 使用WriteCommandAction写入内容
-                    WriteCommandAction.runWriteCommandAction(project, () -> {
-                        try {
-                            virtualFile.setBinaryContent(finalContent.getBytes());
-                        }
-                        catch (IOException e) {
-                            LOG.error("Error writing content to newly created file: " + finalFilePath, e);
-                        }
-                    });
-
-                    // 构建返回结果
-                    return String.format(
-                            "{\"success\": true, \"filePath\": \"%s\", \"message\": \"File created successfully\"}",
-                            escapeJson(finalFilePath));
+                    // 与 FileTransaction 提交时相同，通过 VFS 创建目录和文件并写入内容，无需刷新
+                    WriteCommandAction.writeCommandAction(project)
+                            .withName(FileTransaction.COMMAND_NAME_PREFIX + "创建文件")
+                            .run(() -> {
+                                File ioFile = new File(absolutePath);
+                                VirtualFile parent = VfsUtil.createDirectoryIfMissing(ioFile.getParent());
+                                if (parent == null) {
+                                    throw new IOException("Could not create parent directory: " + ioFile.getParent());
+                                }
+                                if (parent.findChild(ioFile.getName()) != null) {
+                                    throw new IOException("File already exists: " + finalFilePath);
+                                }
+                                VirtualFile file = parent.createChildData(this, ioFile.getName());
+                                VfsUtil.saveText(file, finalContent);
+                            });
+                    return createdResult(finalFilePath);
                 }
                 catch (IOException e) {
-                    LOG.error("Error creating file: " + finalFilePath, e);
-                    return String.format("{\"error\": \"Failed to create file: %s\"}", escapeJson(e.getMessage()));
+                    LOG.warn("Error creating file: " + absolutePath, e);
+                    return ToolResultWriter.error("Failed to create file: " + e.getMessage());
                 }
             }).get(); // 等待异步操作完成
         }
         catch (Exception e) {
             LOG.error("Error executing CreateFileTool", e);
-            return String.format("{\"error\": \"Failed to execute create operation: %s\"}", escapeJson(e.getMessage()));
+            return ToolResultWriter.error("Failed to execute create operation: " + e.getMessage());
         }
     }
 
-    private String escapeJson(String str) {
-        if (str == null) return "";
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < str.length(); i++) {
-            char c = str.charAt(i);
-            switch (c) {
-                case '"': sb.append("\\\""); break;
-                case '\\': sb.append("\\\\"); break;
-                case '\b': sb.append("\\b"); break;
-                case '\f': sb.append("\\f"); break;
-                case '\n': sb.append("\\n"); break;
-                case '\r': sb.append("\\r"); break;
-                case '\t': sb.append("\\t"); break;
-                case '/': sb.append("\\/"); break;
-                default:
-                    if (c <= '\u001F') {
-                        sb.append(String.format("\\u%04x", (int) c));
-                    } else {
-                        sb.append(c);
-                    }
-            }
+    private static String createdResult(String filePath) {
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            return json.beginObject()
+                    .name("success").value(true)
+                    .name("filePath").value(filePath)
+                    .name("message").value("File created successfully")
+                    .endObject()
+                    .toString();
         }
-        return sb.toString();
     }
 } 
\ No newline at end of file
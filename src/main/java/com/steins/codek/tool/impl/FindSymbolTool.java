@@ -0,0 +1,102 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResultWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 基于 stub 索引查找类、方法、字段定义位置的工具实现。
+ * @author 0027013824
+ */
+public class FindSymbolTool implements Tool {
+    private static final Logger LOG = Logger.getInstance(FindSymbolTool.class);
+    private static final ToolPolicy POLICY = new ToolPolicy(4, 5_000, false, true); // 索引查询基于已提交的 PSI，可与写操作并行
+
+    private final PsiLookupSupport lookupSupport;
+
+    public FindSymbolTool(Project project) {
+        this.lookupSupport = new PsiLookupSupport(project);
+    }
+
+    @Override
+    public String getName() {
+        return "findSymbol";
+    }
+
+    @Override
+    public ToolPolicy getPolicy() {
+        return POLICY;
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments) {
+        String name = arguments.get("name");
+        if (name == null || name.trim().isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: name");
+        }
+        String kind = arguments.getOrDefault("kind", "any");
+        kind = kind == null || kind.trim().isEmpty() ? "any" : kind.trim().toLowerCase();
+        if (!Arrays.asList("any", "class", "method", "field").contains(kind)) {
+            return ToolResultWriter.error("Invalid kind: " + kind);
+        }
+        int maxResults;
+        try {
+            maxResults = PsiLookupSupport.parseMaxResults(arguments.get("maxResults"));
+        } catch (NumberFormatException e) {
+            return ToolResultWriter.error("Invalid number format for maxResults: " + arguments.get("maxResults"));
+        }
+
+        final String symbol = name.trim();
+        final String finalKind = kind;
+        final String scopeName = arguments.get("scope");
+        String cacheKey = symbol + '|' + finalKind + '|' + scopeName + '|' + maxResults;
+        String cached = lookupSupport.getCached(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        long modificationCount = lookupSupport.currentModificationCount(); // 在查询之前读取，查询期间的修改使结果不被复用
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(PsiLookupSupport.DEFAULT_BUDGET_MS);
+        try {
+            final int limit = maxResults;
+            PsiLookupSupport.SearchResult searchResult = lookupSupport.computeInReadAction(() -> {
+                GlobalSearchScope scope = lookupSupport.resolveScope(scopeName);
+                // 多解析一个，用来区分恰好 limit 个结果和结果被截断
+                List<PsiElement> elements = lookupSupport.resolveSymbols(symbol, finalKind, scope, limit + 1, deadlineNanos);
+                List<PsiLookupSupport.Location> locations = new ArrayList<>();
+                for (PsiElement element : elements.subList(0, Math.min(limit, elements.size()))) {
+                    PsiLookupSupport.Location location = lookupSupport.describeDeclaration(element);
+                    if (location != null) {
+                        locations.add(location);
+                    }
+                }
+                return new PsiLookupSupport.SearchResult(locations, elements.size() > limit || System.nanoTime() > deadlineNanos);
+            }, PsiLookupSupport.DEFAULT_BUDGET_MS);
+
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            String json = PsiLookupSupport.toJson(symbol, searchResult.locations, searchResult.truncated, elapsedMs);
+            if (!searchResult.truncated) {
+                lookupSupport.putCached(cacheKey, json, modificationCount);
+            }
+            return json;
+        } catch (TimeoutException e) {
+            return ToolResultWriter.error("Symbol lookup timed out after " + PsiLookupSupport.DEFAULT_BUDGET_MS
+                    + " ms (the IDE may still be indexing): " + symbol);
+        } catch (Exception e) {
+            LOG.warn("Error finding symbol: " + symbol, e);
+            return ToolResultWriter.error("An unexpected error occurred while finding symbol: " + e.getMessage());
+        }
+    }
+}
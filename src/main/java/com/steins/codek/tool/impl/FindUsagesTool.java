@@ -0,0 +1,133 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.searches.MethodReferencesSearch;
+import com.intellij.psi.search.searches.ReferencesSearch;
+import com.intellij.util.Processor;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResultWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 基于 ReferencesSearch 查找符号引用位置的工具实现。
+ * @author 0027013824
+ */
+public class FindUsagesTool implements Tool {
+    private static final Logger LOG = Logger.getInstance(FindUsagesTool.class);
+    private static final ToolPolicy POLICY = new ToolPolicy(4, 5_000, false, true); // 索引查询基于已提交的 PSI，可与写操作并行
+    private static final int MAX_TARGETS = 5; // 同名符号过多时只搜索前几个声明，并在结果中说明
+
+    private final PsiLookupSupport lookupSupport;
+
+    public FindUsagesTool(Project project) {
+        this.lookupSupport = new PsiLookupSupport(project);
+    }
+
+    @Override
+    public String getName() {
+        return "findUsages";
+    }
+
+    @Override
+    public ToolPolicy getPolicy() {
+        return POLICY;
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments) {
+        String name = arguments.get("name");
+        if (name == null || name.trim().isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: name");
+        }
+        String kind = arguments.getOrDefault("kind", "any");
+        kind = kind == null || kind.trim().isEmpty() ? "any" : kind.trim().toLowerCase();
+        if (!Arrays.asList("any", "class", "method", "field").contains(kind)) {
+            return ToolResultWriter.error("Invalid kind: " + kind);
+        }
+        int maxResults;
+        try {
+            maxResults = PsiLookupSupport.parseMaxResults(arguments.get("maxResults"));
+        } catch (NumberFormatException e) {
+            return ToolResultWriter.error("Invalid number format for maxResults: " + arguments.get("maxResults"));
+        }
+
+        final String symbol = name.trim();
+        final String finalKind = kind;
+        final String scopeName = arguments.get("scope");
+        String cacheKey = "usages|" + symbol + '|' + finalKind + '|' + scopeName + '|' + maxResults;
+        String cached = lookupSupport.getCached(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        long modificationCount = lookupSupport.currentModificationCount(); // 在查询之前读取，查询期间的修改使结果不被复用
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(PsiLookupSupport.DEFAULT_BUDGET_MS);
+        try {
+            final int limit = maxResults;
+            PsiLookupSupport.SearchResult searchResult = lookupSupport.computeInReadAction(() -> {
+                GlobalSearchScope scope = lookupSupport.resolveScope(scopeName);
+                // 多解析一个，用来判断是否有声明未被搜索
+                List<PsiElement> targets = lookupSupport.resolveSymbols(symbol, finalKind, scope, MAX_TARGETS + 1, deadlineNanos);
+                boolean skippedTargets = targets.size() > MAX_TARGETS;
+                if (skippedTargets) {
+                    targets = targets.subList(0, MAX_TARGETS);
+                }
+                List<PsiLookupSupport.Location> locations = new ArrayList<>();
+                boolean[] truncated = {false};
+                Processor<PsiReference> collector = reference -> {
+                    if (locations.size() >= limit || System.nanoTime() > deadlineNanos) {
+                        truncated[0] = true;
+                        return false;
+                    }
+                    PsiLookupSupport.Location location = lookupSupport.describeReference(reference.getElement());
+                    if (location != null) {
+                        locations.add(location);
+                    }
+                    return true;
+                };
+                for (PsiElement target : targets) {
+                    if (truncated[0]) break;
+                    if (target instanceof PsiMethod) {
+                        // 同时包含覆写方法的调用点
+                        MethodReferencesSearch.search((PsiMethod) target, scope, true).forEach(collector);
+                    } else {
+                        ReferencesSearch.search(target, scope).forEach(collector);
+                    }
+                }
+                // 有声明未被搜索时结果不完整：标记截断 (同时不缓存) 并告诉模型如何缩小范围
+                String note = skippedTargets
+                        ? "More than " + MAX_TARGETS + " declarations match this name; only usages of the first "
+                        + MAX_TARGETS + " were searched. Use Class#member or a fully qualified class name to narrow it down."
+                        : null;
+                return new PsiLookupSupport.SearchResult(locations, truncated[0] || skippedTargets, note);
+            }, PsiLookupSupport.DEFAULT_BUDGET_MS);
+
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            String json = PsiLookupSupport.toJson(symbol, searchResult.locations, searchResult.truncated, elapsedMs,
+                    searchResult.note);
+            if (!searchResult.truncated) {
+                lookupSupport.putCached(cacheKey, json, modificationCount);
+            }
+            return json;
+        } catch (TimeoutException e) {
+            return ToolResultWriter.error("Usage search timed out after " + PsiLookupSupport.DEFAULT_BUDGET_MS
+                    + " ms (the IDE may still be indexing): " + symbol);
+        } catch (Exception e) {
+            LOG.warn("Error finding usages: " + symbol, e);
+            return ToolResultWriter.error("An unexpected error occurred while finding usages: " + e.getMessage());
+        }
+    }
+}
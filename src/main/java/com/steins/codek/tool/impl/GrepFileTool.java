@@ -0,0 +1,397 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.steins.codek.tool.FileTransaction;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolOutputBudget;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResource;
+import com.steins.codek.tool.ToolResultWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 在单个文件中按正则或字面量查找的工具实现，返回匹配行及其上下文行。
+ * 编辑器中没有未保存修改的文件通过 {@link MappedTextFile} 逐行扫描映射的字节，
+ * 只解码需要匹配或输出的行，不把整个文件读成字符串；其他文件扫描 Document 的不可变文本。
+ * @author 0027013824
+ */
+public class GrepFileTool implements Tool {
+    private static final Logger LOG = Logger.getInstance(GrepFileTool.class);
+    private static final ToolPolicy POLICY = new ToolPolicy(8, 15_000, false, false); // 与 readFile 相同，不与写操作交错执行
+    private static final int DEFAULT_CONTEXT_LINES = 2;
+    private static final int MAX_CONTEXT_LINES = 10;
+    private static final int DEFAULT_MAX_MATCHES = 50;
+    private static final int MAX_MATCHES = 200;
+    private static final int MAX_LINE_CHARS = 500; // 单行输出的最大字符数，超出部分省略
+    private static final int RESULT_OVERHEAD_TOKENS = 120;
+    private static final int GROUP_OVERHEAD_TOKENS = 12; // 每组的 startLine、endLine 等字段
+    private static final int CANCEL_CHECK_INTERVAL = 4096; // 每扫描多少行检查一次取消
+
+    private final Project project;
+
+    public GrepFileTool(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public String getName() {
+        return "grepFile";
+    }
+
+    @Override
+    public ToolPolicy getPolicy() {
+        return POLICY;
+    }
+
+    @Override
+    public Collection<ToolResource> getResources(Map<String, String> arguments) {
+        String filePath = arguments.get("filePath");
+        if (filePath == null || filePath.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(ToolResource.read(FileTransaction.resolvePath(project, filePath)));
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments) {
+        return execute(arguments, ToolContext.EMPTY);
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments, ToolContext context) {
+        String filePath = arguments.get("filePath");
+        String patternText = arguments.get("pattern");
+        if (filePath == null || filePath.trim().isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: filePath");
+        }
+        if (patternText == null || patternText.isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: pattern");
+        }
+        boolean literal = Boolean.parseBoolean(arguments.get("literal"));
+        boolean ignoreCase = Boolean.parseBoolean(arguments.get("ignoreCase"));
+        int contextLines;
+        int maxMatches;
+        int startLine;
+        try {
+            contextLines = Math.max(0, Math.min(MAX_CONTEXT_LINES, parseInt(arguments.get("contextLines"), DEFAULT_CONTEXT_LINES)));
+            maxMatches = Math.max(1, Math.min(MAX_MATCHES, parseInt(arguments.get("maxMatches"), DEFAULT_MAX_MATCHES)));
+            startLine = Math.max(1, parseInt(arguments.get("startLine"), 1));
+        } catch (NumberFormatException e) {
+            return ToolResultWriter.error("Invalid number format: " + e.getMessage());
+        }
+
+        Pattern pattern;
+        try {
+            int flags = ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+            pattern = Pattern.compile(literal ? Pattern.quote(patternText) : patternText, flags);
+        } catch (PatternSyntaxException e) {
+            return ToolResultWriter.error("Invalid pattern: " + e.getMessage());
+        }
+
+        String path = FileTransaction.resolvePath(project, filePath);
+        // 本轮对话中暂存过的文件在覆盖层的内容中查找
+        FileTransaction transaction = context.getTransaction();
+        Document overlay = transaction != null ? transaction.getOverlayDocument(path) : null;
+        VirtualFile virtualFile = overlay != null ? null : ReadAction.compute(() -> LocalFileSystem.getInstance().findFileByPath(path));
+        if (overlay == null && (virtualFile == null || !virtualFile.exists())) {
+            return ToolResultWriter.error("File not found: " + filePath);
+        }
+        if (overlay == null && virtualFile.isDirectory()) {
+            return ToolResultWriter.error("Path is a directory, not a file: " + filePath);
+        }
+
+        long startNanos = System.nanoTime();
+        int reservedTokens = RESULT_OVERHEAD_TOKENS + ToolOutputBudget.estimateTokens(filePath) + ToolOutputBudget.estimateTokens(patternText);
+        int budgetTokens = Math.max(1, context.getOutputBudget().getMaxTokens() - reservedTokens);
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                .name("filePath").value(filePath.trim())
+                .name("pattern").value(patternText)
+                .name("groups").beginArray();
+            Collector collector = new Collector(json, contextLines, maxMatches, startLine, budgetTokens, context);
+            if (overlay == null && ReadAction.compute(() -> useMappedScan(virtualFile))) {
+                scanMapped(virtualFile, pattern, literal && !ignoreCase ? patternText : null, collector);
+            } else {
+                CharSequence text = overlay != null ? overlay.getImmutableCharSequence() : ReadAction.compute(() -> {
+                    Document document = FileDocumentManager.getInstance().getDocument(virtualFile);
+                    return document != null ? document.getImmutableCharSequence() : null;
+                });
+                if (text == null) {
+                    return ToolResultWriter.error("Could not get document for file: " + filePath);
+                }
+                scanText(text, pattern, collector);
+            }
+            collector.finish();
+            json.endArray()
+                .name("matchCount").value(collector.matchCount)
+                .name("truncated").value(collector.nextStartLine > 0);
+            if (collector.nextStartLine > 0) {
+                json.name("nextStartLine").value(collector.nextStartLine)
+                    .name("warning").value("Stopped at line " + collector.nextStartLine + " (match limit or token budget). "
+                        + "Call grepFile with startLine=nextStartLine to continue.");
+            }
+            return json.name("elapsedMs").value(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))
+                .endObject().toString();
+        } catch (IOException e) {
+            LOG.warn("Error searching file: " + filePath, e);
+            return ToolResultWriter.error("An unexpected error occurred while searching the file: " + e.getMessage());
+        } catch (StackOverflowError e) {
+            return ToolResultWriter.error("Pattern is too complex for the lines in this file: " + patternText);
+        }
+    }
+
+    /**
+     * 编辑器中没有未保存修改、编码可按字节分行的本地文件走内存映射扫描，与文件大小无关。
+     */
+    private static boolean useMappedScan(VirtualFile file) {
+        if (!file.isInLocalFileSystem() || !MappedTextFile.isSupported(file.getCharset())) {
+            return false;
+        }
+        FileDocumentManager documentManager = FileDocumentManager.getInstance();
+        Document cached = documentManager.getCachedDocument(file);
+        return cached == null || !documentManager.isDocumentUnsaved(cached);
+    }
+
+    /**
+     * 逐行扫描映射的字节。复用同一个解码器、字符缓冲和 Matcher；
+     * 区分大小写的字面量先在字节中查找，不包含其编码字节的行不解码。
+     */
+    private static void scanMapped(VirtualFile virtualFile, Pattern pattern, String literal, Collector collector) throws IOException {
+        MappedTextFile file = MappedTextFile.open(Paths.get(virtualFile.getPath()), virtualFile.getCharset());
+        CharsetDecoder decoder = file.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        byte[] needle = literal != null ? literal.getBytes(file.getCharset()) : null;
+        Matcher matcher = pattern.matcher("");
+        CharBuffer[] chars = {CharBuffer.allocate(256)};
+        collector.decoder = (source, start, end) -> decodeLine(decoder, chars, (ByteBuffer) source, start, end).toString();
+        file.scanLines(collector.scanStartLine() - 1, (line, segment, start, end) -> {
+            boolean matched = false;
+            if (line + 1 >= collector.startLine && (needle == null || indexOf(segment, start, end, needle) >= 0)) {
+                matched = matcher.reset(decodeLine(decoder, chars, segment, start, end)).find();
+            }
+            return collector.line(line + 1, segment, start, end, matched);
+        });
+    }
+
+    /**
+     * 扫描 Document 的不可变文本，Matcher 限定在每一行的范围内。
+     */
+    private static void scanText(CharSequence text, Pattern pattern, Collector collector) throws IOException {
+        Matcher matcher = pattern.matcher(text);
+        collector.decoder = (source, start, end) -> ((CharSequence) source).subSequence(start, end).toString();
+        int line = 1;
+        int lineStart = 0;
+        int length = text.length();
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && text.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (line >= collector.scanStartLine()) {
+                boolean matched = line >= collector.startLine && matcher.region(lineStart, lineEnd).find();
+                if (!collector.line(line, text, lineStart, lineEnd, matched)) {
+                    return;
+                }
+            }
+            line++;
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private static CharBuffer decodeLine(CharsetDecoder decoder, CharBuffer[] chars, ByteBuffer segment, int start, int end) {
+        int capacity = (int) Math.ceil((end - start) * (double) decoder.maxCharsPerByte());
+        if (chars[0].capacity() < capacity) {
+            chars[0] = CharBuffer.allocate(Math.max(capacity, chars[0].capacity() * 2));
+        }
+        CharBuffer out = chars[0];
+        out.clear();
+        decoder.reset();
+        decoder.decode(segment.duplicate().limit(end).position(start), out, true);
+        decoder.flush(out);
+        return out.flip();
+    }
+
+    private static int indexOf(ByteBuffer segment, int start, int end, byte[] needle) {
+        byte first = needle[0];
+        int last = end - needle.length;
+        outer:
+        for (int i = start; i <= last; i++) {
+            if (segment.get(i) != first) {
+                continue;
+            }
+            for (int j = 1; j < needle.length; j++) {
+                if (segment.get(i + j) != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * 行内容的延迟解码，只在需要输出时调用。
+     */
+    private interface LineDecoder {
+        String decode(Object source, int start, int end) throws IOException;
+    }
+
+    /**
+     * 收集匹配行和上下文行，像 grep -C 一样把相邻的匹配合并为一组。
+     * 最近的若干行只记录位置 (环形缓冲)，作为前置上下文输出时才解码。
+     */
+    private static final class Collector {
+        private final ToolResultWriter json;
+        private final int contextLines;
+        private final int maxMatches;
+        private final int startLine;
+        private final ToolContext context;
+        private final Object[] ringSource;
+        private final int[] ringStart;
+        private final int[] ringEnd;
+        private LineDecoder decoder;
+        private int tokensLeft;
+        private int matchCount;
+        private int nextStartLine;
+        private int scanned;
+        // 当前组
+        private final StringBuilder content = new StringBuilder();
+        private int groupStart;
+        private int lastEmitted;
+        private int afterLeft;
+
+        Collector(ToolResultWriter json, int contextLines, int maxMatches, int startLine, int budgetTokens, ToolContext context) {
+            this.json = json;
+            this.contextLines = contextLines;
+            this.maxMatches = maxMatches;
+            this.startLine = startLine;
+            this.tokensLeft = budgetTokens;
+            this.context = context;
+            this.ringSource = new Object[contextLines + 1];
+            this.ringStart = new int[contextLines + 1];
+            this.ringEnd = new int[contextLines + 1];
+        }
+
+        /**
+         * 实际开始扫描的行：续查时向前多扫描若干行，作为第一个匹配的前置上下文。
+         */
+        int scanStartLine() {
+            return Math.max(1, startLine - contextLines);
+        }
+
+        /**
+         * 处理一行。
+         * @param line 1-based 行号。
+         * @return 是否继续扫描。
+         */
+        boolean line(int line, Object source, int start, int end, boolean matched) throws IOException {
+            if (++scanned % CANCEL_CHECK_INTERVAL == 0 && context.isCancelled()) {
+                throw new CancellationException("Tool call cancelled");
+            }
+            int slot = line % ringSource.length;
+            ringSource[slot] = source;
+            ringStart[slot] = start;
+            ringEnd[slot] = end;
+            if (matched) {
+                if (matchCount == maxMatches) {
+                    nextStartLine = line;
+                    return false;
+                }
+                boolean joins = groupStart > 0 && line - lastEmitted <= contextLines + 1;
+                if (!joins) {
+                    finish();
+                }
+                int from = joins ? lastEmitted + 1 : Math.max(scanStartLine(), Math.max(line - contextLines, lastEmitted + 1));
+                int mark = content.length();
+                for (int l = from; l <= line; l++) {
+                    append(l, l == line);
+                }
+                int tokens = ToolOutputBudget.estimateTokens(content.subSequence(mark, content.length())) + (joins ? 0 : GROUP_OVERHEAD_TOKENS);
+                if (tokens > tokensLeft && matchCount > 0) {
+                    content.setLength(mark); // 放不下这个匹配，从它开始续查
+                    nextStartLine = line;
+                    return false;
+                }
+                tokensLeft -= tokens;
+                if (!joins) {
+                    groupStart = from;
+                }
+                lastEmitted = line;
+                afterLeft = contextLines;
+                matchCount++;
+            } else if (groupStart > 0 && afterLeft > 0) {
+                int mark = content.length();
+                append(line, false);
+                int tokens = ToolOutputBudget.estimateTokens(content.subSequence(mark, content.length()));
+                if (tokens > tokensLeft) {
+                    content.setLength(mark);
+                    nextStartLine = line;
+                    return false;
+                }
+                tokensLeft -= tokens;
+                lastEmitted = line;
+                afterLeft--;
+            }
+            return true;
+        }
+
+        private void append(int line, boolean match) throws IOException {
+            int slot = line % ringSource.length;
+            String text = decoder.decode(ringSource[slot], ringStart[slot], ringEnd[slot]);
+            if (content.length() > 0) {
+                content.append('\n');
+            }
+            content.append(line).append(match ? ": " : "- ");
+            if (text.length() > MAX_LINE_CHARS) {
+                content.append(text, 0, MAX_LINE_CHARS).append(" ...[").append(text.length() - MAX_LINE_CHARS).append(" more chars]");
+            } else {
+                content.append(text);
+            }
+        }
+
+        /**
+         * 写出当前组。
+         */
+        void finish() {
+            if (groupStart == 0) {
+                return;
+            }
+            json.beginObject()
+                .name("startLine").value(groupStart)
+                .name("endLine").value(lastEmitted)
+                .name("content").value(content)
+                .endObject();
+            content.setLength(0);
+            groupStart = 0;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.steins.codek.tool.impl;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 通过内存映射读取大文件，不创建 IDE Document。
+ * 打开时扫描一次文件，每隔 {@link #INDEX_STRIDE} 行记录一个行首偏移 (稀疏行索引)，
+ * 按修改时间和大小缓存；读取时只映射并解码请求的字节范围，堆内存占用与文件大小无关。
+ * 只支持换行符为单字节 '\n' 的编码 (UTF-8、GBK、ISO-8859-1 等)。
+ * @author 0027013824
+ */
+final class MappedTextFile {
+    static final int INDEX_STRIDE = 1024; // 稀疏索引的间隔行数
+    private static final long SEGMENT_BYTES = 1L << 30; // 单次映射的最大字节数
+    private static final int SCAN_CHUNK = 64 * 1024;
+    private static final int MAX_CACHED_FILES = 16;
+
+    private static final Map<Path, MappedTextFile> CACHE = new LinkedHashMap<Path, MappedTextFile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, MappedTextFile> eldest) {
+            return size() > MAX_CACHED_FILES;
+        }
+    };
+
+    private final Path path;
+    private final Charset charset;
+    private final long size;
+    private final long lastModified;
+    private final long[] checkpoints; // checkpoints[k] 为第 k * INDEX_STRIDE 行 (0-based) 的行首字节偏移
+    private final int lineCount;
+
+    private MappedTextFile(Path path, Charset charset, long size, long lastModified, long[] checkpoints, int lineCount) {
+        this.path = path;
+        this.charset = charset;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.checkpoints = checkpoints;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * 编码中的换行符是否为单字节 '\n'，只有这类编码可以按字节扫描行。
+     */
+    static boolean isSupported(@NotNull Charset charset) {
+        byte[] newline = "\n".getBytes(charset);
+        return newline.length == 1 && newline[0] == '\n' && "a".getBytes(charset).length == 1;
+    }
+
+    /**
+     * 打开文件，文件未变化时复用已建立的行索引。
+     * @param path 文件路径。
+     * @param charset 文件编码，必须满足 {@link #isSupported(Charset)}。
+     * @return 映射的文件。
+     * @throws IOException 读取失败。
+     */
+    @NotNull
+    static MappedTextFile open(@NotNull Path path, @NotNull Charset charset) throws IOException {
+        long size = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        synchronized (CACHE) {
+            MappedTextFile cached = CACHE.get(path);
+            if (cached != null && cached.size == size && cached.lastModified == lastModified && cached.charset.equals(charset)) {
+                return cached;
+            }
+        }
+        MappedTextFile file = index(path, charset, size, lastModified);
+        synchronized (CACHE) {
+            CACHE.put(path, file);
+        }
+        return file;
+    }
+
+    private static MappedTextFile index(Path path, Charset charset, long size, long lastModified) throws IOException {
+        long[] checkpoints = new long[16];
+        int checkpointCount = 1; // checkpoints[0] = 0
+        int lines = 1;
+        byte[] chunk = new byte[SCAN_CHUNK];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (long segment = 0; segment < size; segment += SEGMENT_BYTES) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, segment, Math.min(SEGMENT_BYTES, size - segment));
+                long base = segment;
+                while (buffer.hasRemaining()) {
+                    int n = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, n);
+                    for (int i = 0; i < n; i++) {
+                        if (chunk[i] == '\n') {
+                            if (lines % INDEX_STRIDE == 0) {
+                                if (checkpointCount == checkpoints.length) {
+                                    checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+                                }
+                                checkpoints[checkpointCount++] = base + i + 1;
+                            }
+                            lines++;
+                        }
+                    }
+                    base += n;
+                }
+            }
+        }
+        return new MappedTextFile(path, charset, size, lastModified, Arrays.copyOf(checkpoints, checkpointCount), lines);
+    }
+
+    /**
+     * 行数，与 Document 一致：以换行符结尾的文件最后有一个空行。
+     */
+    int getLineCount() {
+        return lineCount;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * 文件的修改时间，用作续读游标中的修改戳。
+     */
+    long getStamp() {
+        return lastModified;
+    }
+
+    /**
+     * 获取行首字节偏移：从最近的索引点向后扫描，最多扫描 {@link #INDEX_STRIDE} 行。
+     * @param line 0-based 行号，等于行数时返回文件大小。
+     */
+    long lineStartOffset(int line) throws IOException {
+        if (line <= 0) {
+            return 0;
+        }
+        if (line >= lineCount) {
+            return size;
+        }
+        long offset = checkpoints[line / INDEX_STRIDE];
+        int remaining = line % INDEX_STRIDE;
+        if (remaining == 0) {
+            return offset;
+        }
+        byte[] chunk = new byte[SCAN_CHUNK];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (offset < size) {
+                int n = (int) Math.min(SEGMENT_BYTES, size - offset);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, n);
+                long base = offset;
+                while (buffer.hasRemaining()) {
+                    int length = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, length);
+                    for (int i = 0; i < length; i++) {
+                        if (chunk[i] == '\n' && --remaining == 0) {
+                            return base + i + 1;
+                        }
+                    }
+                    base += length;
+                }
+                offset = base;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 从指定行开始逐行扫描，按段映射文件，不解码也不复制行内容。
+     * 每段映射都从行首开始，行不会跨段；以换行符结尾的文件不访问最后的空行。
+     * @param fromLine 0-based 起始行号。
+     * @param visitor 行访问器，返回 false 时停止扫描。
+     * @throws IOException 读取失败，或某一行超过单次映射的最大长度。
+     */
+    void scanLines(int fromLine, @NotNull LineVisitor visitor) throws IOException {
+        long offset = lineStartOffset(fromLine);
+        int line = fromLine;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (offset < size) {
+                int length = (int) Math.min(SEGMENT_BYTES, size - offset);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                int lineStart = 0;
+                for (int i = 0; i < length; i++) {
+                    if (buffer.get(i) == '\n') {
+                        int lineEnd = i > lineStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                        if (!visitor.visit(line, buffer, lineStart, lineEnd)) {
+                            return;
+                        }
+                        line++;
+                        lineStart = i + 1;
+                    }
+                }
+                if (offset + length == size) {
+                    if (lineStart < length) {
+                        visitor.visit(line, buffer, lineStart, length); // 没有换行符的最后一行
+                    }
+                    return;
+                }
+                if (lineStart == 0) {
+                    throw new IOException("Line " + (line + 1) + " is longer than " + SEGMENT_BYTES + " bytes");
+                }
+                offset += lineStart;
+            }
+        }
+    }
+
+    @NotNull
+    Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * 映射并解码字节范围 [start, end)，"\r\n" 统一为 "\n"；范围在多字节字符中间截断时末尾以替换字符结束。
+     */
+    @NotNull
+    String decode(long start, long end) throws IOException {
+        if (end <= start) {
+            return "";
+        }
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("Range too large to decode: " + (end - start) + " bytes");
+        }
+        CharBuffer chars;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            chars = decoder.decode(bytes);
+        } catch (CharacterCodingException e) {
+            throw new IOException("Could not decode " + path + " as " + charset, e);
+        }
+        StringBuilder sb = new StringBuilder(chars.length());
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c == '\r' && i + 1 < chars.length() && chars.charAt(i + 1) == '\n') {
+                continue;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 逐行扫描的回调。
+     */
+    interface LineVisitor {
+        /**
+         * @param line 0-based 行号。
+         * @param segment 当前映射段。
+         * @param start 行首在段中的位置。
+         * @param end 行尾在段中的位置 (不含换行符和行尾的 '\r')。
+         * @return 是否继续扫描。
+         */
+        boolean visit(int line, @NotNull ByteBuffer segment, int start, int end) throws IOException;
+    }
+}
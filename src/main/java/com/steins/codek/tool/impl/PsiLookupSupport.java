@@ -0,0 +1,388 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiCodeBlock;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiModifierList;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiShortNamesCache;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.steins.codek.tool.ToolResultWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.concurrency.CancellablePromise;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * findSymbol / findUsages 共用的 PSI 查询支持：非阻塞读操作、时间预算、结果缓存和结果格式化。
+ * @author 0027013824
+ */
+final class PsiLookupSupport {
+    static final long DEFAULT_BUDGET_MS = 3000; // 单次调用的硬性时间预算
+    static final int DEFAULT_MAX_RESULTS = 50;
+    static final int MAX_RESULTS_LIMIT = 200;
+    private static final int MAX_CACHE_ENTRIES = 128;
+    private static final int MAX_SIGNATURE_LENGTH = 200;
+
+    private final Project project;
+    // 查询结果缓存，按 PSI 修改计数失效
+    private final Map<String, CachedResult> cache = new ConcurrentHashMap<>();
+
+    PsiLookupSupport(@NotNull Project project) {
+        this.project = project;
+    }
+
+    /**
+     * 在非阻塞读操作中执行查询。写操作到来时读操作会被取消并自动重启，不会阻塞 EDT。
+     * 整个调用（包括等待索引完成）受 budgetMs 限制，超时抛出 TimeoutException。
+     */
+    <T> T computeInReadAction(@NotNull Callable<T> query, long budgetMs) throws Exception {
+        CancellablePromise<T> promise = ReadAction.nonBlocking(query)
+                .inSmartMode(project)
+                .expireWith(project)
+                .submit(AppExecutorUtil.getAppExecutorService());
+        try {
+            return promise.blockingGet((int) budgetMs, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            promise.cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * 获取缓存的查询结果，PSI 发生任何修改后缓存即失效。
+     */
+    @Nullable
+    String getCached(@NotNull String key) {
+        CachedResult cached = cache.get(key);
+        if (cached != null && cached.modificationCount == currentModificationCount()) {
+            return cached.json;
+        }
+        return null;
+    }
+
+    /**
+     * 缓存查询结果。
+     * @param modificationCount 查询开始前读取的 PSI 修改计数 ({@link #currentModificationCount()})，
+     *                          查询期间 PSI 发生修改时缓存的结果不会被当作新版本的结果。
+     */
+    void putCached(@NotNull String key, @NotNull String json, long modificationCount) {
+        if (cache.size() >= MAX_CACHE_ENTRIES) {
+            cache.clear();
+        }
+        cache.put(key, new CachedResult(modificationCount, json));
+    }
+
+    long currentModificationCount() {
+        return PsiModificationTracker.getInstance(project).getModificationCount();
+    }
+
+    /**
+     * 解析最大结果数参数。
+     */
+    static int parseMaxResults(@Nullable String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_MAX_RESULTS;
+        }
+        int parsed = Integer.parseInt(value.trim());
+        return Math.max(1, Math.min(parsed, MAX_RESULTS_LIMIT));
+    }
+
+    /**
+     * 根据参数选择搜索范围："project"（默认）或 "all"（包含依赖库）。
+     */
+    @NotNull
+    GlobalSearchScope resolveScope(@Nullable String scope) {
+        if (scope != null && "all".equalsIgnoreCase(scope.trim())) {
+            return GlobalSearchScope.allScope(project);
+        }
+        return GlobalSearchScope.projectScope(project);
+    }
+
+    /**
+     * 通过 stub 索引解析符号。支持简单名、全限定类名以及 "Class#member" 形式。
+     * 必须在读操作中调用。
+     */
+    @NotNull
+    List<PsiElement> resolveSymbols(@NotNull String symbol, @NotNull String kind, @NotNull GlobalSearchScope scope,
+                                    int limit, long deadlineNanos) {
+        Set<PsiElement> result = new LinkedHashSet<>();
+        int hashIndex = symbol.indexOf('#');
+        if (hashIndex > 0) {
+            String memberName = symbol.substring(hashIndex + 1);
+            for (PsiClass psiClass : findClasses(symbol.substring(0, hashIndex), scope, limit, deadlineNanos)) {
+                if (!"field".equals(kind)) {
+                    for (PsiMethod method : psiClass.findMethodsByName(memberName, false)) {
+                        if (result.size() >= limit) break;
+                        result.add(method);
+                    }
+                }
+                if (!"method".equals(kind)) {
+                    PsiField field = psiClass.findFieldByName(memberName, false);
+                    if (field != null && result.size() < limit) {
+                        result.add(field);
+                    }
+                }
+                if (result.size() >= limit || System.nanoTime() > deadlineNanos) break;
+            }
+            return new ArrayList<>(result);
+        }
+
+        if ("any".equals(kind) || "class".equals(kind)) {
+            result.addAll(findClasses(symbol, scope, limit, deadlineNanos));
+        }
+        if (symbol.indexOf('.') >= 0) {
+            // 全限定名只用于类查找
+            return new ArrayList<>(result);
+        }
+        PsiShortNamesCache shortNamesCache = PsiShortNamesCache.getInstance(project);
+        if (("any".equals(kind) || "method".equals(kind)) && result.size() < limit) {
+            shortNamesCache.processMethodsWithName(symbol, scope, method -> {
+                result.add(method);
+                return result.size() < limit && System.nanoTime() <= deadlineNanos;
+            });
+        }
+        if (("any".equals(kind) || "field".equals(kind)) && result.size() < limit) {
+            shortNamesCache.processFieldsWithName(symbol, field -> {
+                result.add(field);
+                return result.size() < limit && System.nanoTime() <= deadlineNanos;
+            }, scope, null);
+        }
+        return new ArrayList<>(result);
+    }
+
+    @NotNull
+    private List<PsiClass> findClasses(@NotNull String name, @NotNull GlobalSearchScope scope, int limit, long deadlineNanos) {
+        List<PsiClass> classes = new ArrayList<>();
+        if (name.indexOf('.') >= 0) {
+            for (PsiClass psiClass : JavaPsiFacade.getInstance(project).findClasses(name, scope)) {
+                if (classes.size() >= limit) break;
+                classes.add(psiClass);
+            }
+            if (!classes.isEmpty()) {
+                return classes;
+            }
+            name = name.substring(name.lastIndexOf('.') + 1);
+        }
+        PsiShortNamesCache.getInstance(project).processClassesWithName(name, psiClass -> {
+            classes.add(psiClass);
+            return classes.size() < limit && System.nanoTime() <= deadlineNanos;
+        }, scope, null);
+        return classes;
+    }
+
+    /**
+     * 返回元素的 (文件, 行号, 签名) 描述，无法定位到源文件时返回 null。必须在读操作中调用。
+     */
+    @Nullable
+    Location describeDeclaration(@NotNull PsiElement element) {
+        PsiElement navigation = element.getNavigationElement();
+        PsiFile file = navigation.getContainingFile();
+        if (file == null || file.getVirtualFile() == null) {
+            return null;
+        }
+        return new Location(displayPath(file.getVirtualFile()), lineOf(file, navigation.getTextOffset()),
+                declarationSignature(navigation));
+    }
+
+    /**
+     * 返回引用位置的描述，签名为引用所在行的代码文本。必须在读操作中调用。
+     */
+    @Nullable
+    Location describeReference(@NotNull PsiElement referenceElement) {
+        PsiFile file = referenceElement.getContainingFile();
+        if (file == null || file.getVirtualFile() == null) {
+            return null;
+        }
+        int offset = referenceElement.getTextRange().getStartOffset();
+        Document document = PsiDocumentManager.getInstance(project).getDocument(file);
+        String lineText;
+        int line;
+        if (document != null) {
+            int lineIndex = document.getLineNumber(offset);
+            line = lineIndex + 1;
+            lineText = document.getImmutableCharSequence().subSequence(
+                    document.getLineStartOffset(lineIndex), document.getLineEndOffset(lineIndex)).toString();
+        } else {
+            line = 0;
+            lineText = referenceElement.getText();
+        }
+        return new Location(displayPath(file.getVirtualFile()), line, compact(lineText));
+    }
+
+    private int lineOf(@NotNull PsiFile file, int offset) {
+        Document document = PsiDocumentManager.getInstance(project).getDocument(file);
+        return document != null && offset >= 0 && offset <= document.getTextLength()
+                ? document.getLineNumber(offset) + 1 : 0;
+    }
+
+    /**
+     * 生成声明签名：跳过文档注释，截止到方法体或类体的左花括号，字段截止到初始化表达式之前。
+     */
+    @NotNull
+    private static String declarationSignature(@NotNull PsiElement element) {
+        TextRange range = element.getTextRange();
+        if (range == null) {
+            return compact(element.getText());
+        }
+        int start = range.getStartOffset();
+        int end = range.getEndOffset();
+        if (element instanceof PsiMember) {
+            PsiModifierList modifierList = ((PsiMember) element).getModifierList();
+            if (modifierList != null && modifierList.getTextRange() != null) {
+                start = modifierList.getTextRange().getStartOffset();
+            }
+        }
+        if (element instanceof PsiMethod) {
+            PsiCodeBlock body = ((PsiMethod) element).getBody();
+            if (body != null) {
+                end = body.getTextRange().getStartOffset();
+            }
+        } else if (element instanceof PsiClass) {
+            PsiElement lBrace = ((PsiClass) element).getLBrace();
+            if (lBrace != null) {
+                end = lBrace.getTextRange().getStartOffset();
+            }
+        } else if (element instanceof PsiField) {
+            PsiElement initializer = ((PsiField) element).getInitializer();
+            if (initializer != null) {
+                end = initializer.getTextRange().getStartOffset();
+            }
+        }
+        String text = element.getContainingFile() != null
+                ? element.getContainingFile().getViewProvider().getContents().subSequence(start, end).toString()
+                : element.getText();
+        String signature = compact(text);
+        if (element instanceof PsiMember && ((PsiMember) element).getContainingClass() != null
+                && !(element instanceof PsiClass)) {
+            signature = ((PsiMember) element).getContainingClass().getName() + ": " + signature;
+        }
+        return signature;
+    }
+
+    /**
+     * 将多行文本压缩为单行，并限制长度。
+     */
+    @NotNull
+    private static String compact(@NotNull String text) {
+        String compacted = text.replaceAll("\\s+", " ").trim();
+        if (compacted.endsWith("=")) {
+            compacted = compacted.substring(0, compacted.length() - 1).trim();
+        }
+        return compacted.length() > MAX_SIGNATURE_LENGTH
+                ? compacted.substring(0, MAX_SIGNATURE_LENGTH) + "..." : compacted;
+    }
+
+    /**
+     * 项目内文件使用相对路径，其他文件使用完整路径。
+     */
+    @NotNull
+    private String displayPath(@NotNull VirtualFile file) {
+        String basePath = project.getBasePath();
+        String path = file.getPath();
+        if (basePath != null && path.startsWith(basePath + "/")) {
+            return path.substring(basePath.length() + 1);
+        }
+        return path;
+    }
+
+    /**
+     * 将定位结果格式化为 JSON。
+     */
+    @NotNull
+    static String toJson(@NotNull String query, @NotNull List<Location> locations, boolean truncated, long elapsedMs) {
+        return toJson(query, locations, truncated, elapsedMs, null);
+    }
+
+    /**
+     * 将定位结果格式化为 JSON，note 不为 null 时附带一条说明 (例如部分声明未被搜索)。
+     */
+    @NotNull
+    static String toJson(@NotNull String query, @NotNull List<Location> locations, boolean truncated, long elapsedMs,
+                         @Nullable String note) {
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject().name("query").value(query).name("results").beginArray();
+            for (Location location : locations) {
+                json.beginObject()
+                    .name("file").value(location.file)
+                    .name("line").value(location.line)
+                    .name("signature").value(location.signature)
+                    .endObject();
+            }
+            json.endArray()
+                .name("count").value(locations.size())
+                .name("truncated").value(truncated)
+                .name("elapsedMs").value(elapsedMs);
+            if (note != null) {
+                json.name("note").value(note);
+            }
+            return json.endObject().toString();
+        }
+    }
+
+    /**
+     * 查询结果中的一个定位：文件、1-based 行号、签名。
+     */
+    static final class Location {
+        final String file;
+        final int line;
+        final String signature;
+
+        Location(String file, int line, String signature) {
+            this.file = file;
+            this.line = line;
+            this.signature = signature;
+        }
+    }
+
+    /**
+     * 一次查询的定位列表，是否因结果上限、时间预算或声明数上限被截断，以及可选的说明。
+     */
+    static final class SearchResult {
+        final List<Location> locations;
+        final boolean truncated;
+        final String note; // 附带给模型的说明，可以为 null
+
+        SearchResult(List<Location> locations, boolean truncated) {
+            this(locations, truncated, null);
+        }
+
+        SearchResult(List<Location> locations, boolean truncated, @Nullable String note) {
+            this.locations = locations;
+            this.truncated = truncated;
+            this.note = note;
+        }
+    }
+
+    private static final class CachedResult {
+        final long modificationCount;
+        final String json;
+
+        CachedResult(long modificationCount, String json) {
+            this.modificationCount = modificationCount;
+            this.json = json;
+        }
+    }
+}
@@ -5,15 +5,21 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.steins.codek.tool.FileTransaction;
 import com.steins.codek.tool.Tool;
-import com.steins.codek.tool.ToolParameter;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolOutputBudget;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResource;
+import com.steins.codek.tool.ToolResultWriter;
 
 import java.io.File;
-import java.util.Arrays;
-import java.util.List;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -22,7 +28,11 @@ import java.util.Map;
  */
 public class ReadFileTool implements Tool {
     private static final Logger LOG = Logger.getInstance(ReadFileTool.class);
-    private static final int MAX_READ_LINES = 500; // 限制一次最多读取的行数
+    private static final ToolPolicy POLICY = new ToolPolicy(8, 15_000, false, false); // 读文件不与写操作交错执行
+    private static final String CURSOR_KIND = "readFile";
+    private static final int RESULT_OVERHEAD_TOKENS = 120; // 结果中内容之外的字段 (行号、游标、提示) 占用的 token
+    static final long MAPPED_READ_THRESHOLD_BYTES = 4L << 20; // 超过此大小的文件通过内存映射读取，不创建 Document
+    private static final int MAX_BYTES_PER_TOKEN = 4; // 按字节截取时每个 token 最多对应的字节数 (ASCII 约 4 字节，中文 UTF-8 为 3 字节)
 
     private final Project project;
 
@@ -36,25 +46,51 @@ public class ReadFileTool implements Tool {
     }
 
     @Override
-    public String getDescription() {
-        return "Reads the content of a specified file. Can read the entire file or a specific range of lines.";
+    public ToolPolicy getPolicy() {
+        return POLICY;
     }
 
     @Override
-    public List<ToolParameter> getParameters() {
-        // 使用正确的 ToolParameter 构造函数
-        return Arrays.asList(
-                new ToolParameter("filePath", "The absolute or relative path to the file.", true),
-                new ToolParameter("startLine", "The 1-based starting line number (inclusive). Optional.", false),
-                new ToolParameter("endLine", "The 1-based ending line number (inclusive). Optional.", false)
-        );
+    public Collection<ToolResource> getResources(Map<String, String> arguments) {
+        String filePath = arguments.get("filePath");
+        String[] cursorFields = ToolOutputBudget.decodeCursor(CURSOR_KIND, arguments.get("cursor"));
+        if (cursorFields != null && cursorFields.length > 0) {
+            filePath = cursorFields[0];
+        }
+        if (filePath == null || filePath.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(ToolResource.read(FileTransaction.resolvePath(project, filePath)));
     }
 
     @Override
     public String execute(Map<String, String> arguments) {
+        return execute(arguments, ToolContext.EMPTY);
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments, ToolContext context) {
         String filePath = arguments.get("filePath");
         String startLineStr = arguments.get("startLine");
         String endLineStr = arguments.get("endLine");
+        String cursor = arguments.get("cursor");
+        long expectedStamp = -1;
+
+        // 续读游标中包含文件路径、下一行、结束行和读取时的文档修改戳
+        if (cursor != null && !cursor.trim().isEmpty()) {
+            String[] fields = ToolOutputBudget.decodeCursor(CURSOR_KIND, cursor);
+            if (fields == null || fields.length != 4) {
+                return ToolResultWriter.error("Invalid cursor: " + cursor);
+            }
+            filePath = fields[0];
+            startLineStr = fields[1];
+            endLineStr = fields[2];
+            try {
+                expectedStamp = Long.parseLong(fields[3]);
+            } catch (NumberFormatException e) {
+                return ToolResultWriter.error("Invalid cursor: " + cursor);
+            }
+        }
 
         Integer startLine = null;
         Integer endLine = null;
@@ -67,91 +103,197 @@ public class ReadFileTool implements Tool {
                 endLine = Integer.parseInt(endLineStr.trim());
             }
         } catch (NumberFormatException e) {
-            return String.format("{\"error\": \"Invalid number format for startLine or endLine: %s, %s\"}", 
-                                 escapeJson(startLineStr), escapeJson(endLineStr));
+            return ToolResultWriter.error("Invalid number format for startLine or endLine: " + startLineStr + ", " + endLineStr);
         }
 
         if (filePath == null || filePath.trim().isEmpty()) {
-            return "{\"error\": \"Missing required parameter: filePath\"}";
+            return ToolResultWriter.error("Missing required parameter: filePath");
         }
         
         final Integer finalStartLine = startLine;
         final Integer finalEndLine = endLine;
         final String finalFilePath = filePath.trim();
-        final String originalStartLineStr = startLineStr;
-        final String originalEndLineStr = endLineStr;
+        final long finalExpectedStamp = expectedStamp;
+        final ToolOutputBudget budget = context.getOutputBudget();
 
-        return ReadAction.compute(() -> {
-            VirtualFile virtualFile = findVirtualFile(finalFilePath);
-            if (virtualFile == null || !virtualFile.exists()) {
-                return String.format("{\"error\": \"File not found: %s\"}", escapeJson(finalFilePath));
-            }
-            if (virtualFile.isDirectory()) {
-                return String.format("{\"error\": \"Path is a directory, not a file: %s\"}", escapeJson(finalFilePath));
+        // 本轮对话中暂存过的文件读取覆盖层中的内容，尚未写入磁盘
+        FileTransaction transaction = context.getTransaction();
+        Document overlay = transaction != null ? transaction.getOverlayDocument(FileTransaction.resolvePath(project, finalFilePath)) : null;
+        VirtualFile virtualFile = overlay != null ? null : ReadAction.compute(() -> findVirtualFile(finalFilePath));
+        if (virtualFile != null && virtualFile.exists() && ReadAction.compute(() -> useMappedRead(virtualFile))) {
+            return readMapped(virtualFile, finalFilePath, finalStartLine, finalEndLine, finalExpectedStamp, budget);
         }
 
-            Document document = FileDocumentManager.getInstance().getDocument(virtualFile);
+        return ReadAction.compute(() -> {
+            Document document = overlay;
             if (document == null) {
-                return String.format("{\"error\": \"Could not get document for file: %s\"}", escapeJson(finalFilePath));
+                if (virtualFile == null || !virtualFile.exists()) {
+                    return ToolResultWriter.error("File not found: " + finalFilePath);
+                }
+                if (virtualFile.isDirectory()) {
+                    return ToolResultWriter.error("Path is a directory, not a file: " + finalFilePath);
+                }
+                document = FileDocumentManager.getInstance().getDocument(virtualFile);
+                if (document == null) {
+                    return ToolResultWriter.error("Could not get document for file: " + finalFilePath);
+                }
             }
 
             try {
-                String content;
                 int totalLines = document.getLineCount();
-                Integer currentEndLine = finalEndLine;
-
-                if (finalStartLine != null && currentEndLine != null) {
-                    if (finalStartLine < 1 || currentEndLine < finalStartLine || finalStartLine > totalLines) {
-                        return String.format("{\"error\": \"Invalid line numbers: startLine=%d, endLine=%d, totalLines=%d\"}",
-                                finalStartLine, currentEndLine, totalLines);
-                    }
-                    int actualEndLine = currentEndLine;
-                    if (actualEndLine - finalStartLine + 1 > MAX_READ_LINES) {
-                         actualEndLine = finalStartLine + MAX_READ_LINES - 1;
-                         if (actualEndLine > totalLines) {
-                             actualEndLine = totalLines;
-                         }
-                         LOG.warn(String.format("Reading range truncated due to limit. Original: %s-%s, Reading: %d-%d for file %s",
-                                   originalStartLineStr, originalEndLineStr, finalStartLine, actualEndLine, finalFilePath));
-                    }
-                    
-                    int zeroBasedStartLine = finalStartLine - 1;
-                    int zeroBasedEndLine = actualEndLine - 1;
-                    if (zeroBasedStartLine < 0 || zeroBasedEndLine < zeroBasedStartLine || zeroBasedStartLine >= totalLines) {
-                         return String.format("{\"error\": \"Calculated invalid zero-based line numbers: startLine=%d, endLine=%d, totalLines=%d\"}",
-                                zeroBasedStartLine + 1, zeroBasedEndLine + 1, totalLines);
+                int firstLine = finalStartLine != null ? finalStartLine : 1;
+                int lastLine = finalEndLine != null ? Math.min(finalEndLine, totalLines) : totalLines;
+                if (totalLines == 0) {
+                    try (ToolResultWriter json = ToolResultWriter.obtain()) {
+                        return json.beginObject()
+                                .name("filePath").value(finalFilePath)
+                                .name("totalLines").value(0)
+                                .name("content").value("")
+                                .name("truncated").value(false)
+                                .endObject()
+                                .toString();
                     }
+                }
+                if (firstLine < 1 || firstLine > totalLines || lastLine < firstLine) {
+                    return ToolResultWriter.error("Invalid line numbers: startLine=" + firstLine + ", endLine="
+                            + (finalEndLine != null ? String.valueOf(finalEndLine) : "") + ", totalLines=" + totalLines);
+                }
 
-                    int startOffset = document.getLineStartOffset(zeroBasedStartLine);
-                    int endOffset = document.getLineEndOffset(zeroBasedEndLine);
-
-                    content = document.getText(new TextRange(startOffset, endOffset));
-                    return String.format("{\"filePath\": \"%s\", \"startLine\": %d, \"endLine\": %d, \"content\": \"%s\"}",
-                                        escapeJson(finalFilePath), finalStartLine, actualEndLine, escapeJson(content));
+                // 在 token 预算内按整行截取，至少返回一行
+                CharSequence text = document.getImmutableCharSequence();
+                int startOffset = document.getLineStartOffset(firstLine - 1);
+                int rangeEndOffset = document.getLineEndOffset(lastLine - 1);
+                int reservedTokens = RESULT_OVERHEAD_TOKENS + ToolOutputBudget.estimateTokens(finalFilePath);
+                int endOffset = Math.min(rangeEndOffset, budget.fitLines(text.subSequence(0, rangeEndOffset), startOffset, reservedTokens));
+                int readEndLine = endOffset > startOffset ? document.getLineNumber(endOffset - 1) + 1 : firstLine;
+                if (endOffset > startOffset && text.charAt(endOffset - 1) == '\n') {
+                    endOffset--;
+                }
+                boolean truncated = readEndLine < lastLine;
 
-                } else {
-                    if (totalLines == 0) {
-                        content = "";
-                    } else {
-                        int linesToRead = Math.min(totalLines, MAX_READ_LINES);
-                        int endOffset = document.getLineEndOffset(Math.max(0, linesToRead - 1));
-                        content = document.getText(new TextRange(0, endOffset));
+                // 内容直接从文档转义写入，不复制出中间字符串
+                try (ToolResultWriter json = ToolResultWriter.obtain()) {
+                    json.beginObject()
+                        .name("filePath").value(finalFilePath)
+                        .name("startLine").value(firstLine)
+                        .name("endLine").value(readEndLine)
+                        .name("totalLines").value(totalLines)
+                        .name("content").value(text, startOffset, endOffset)
+                        .name("truncated").value(truncated);
+                    if (truncated) {
+                        String nextCursor = ToolOutputBudget.encodeCursor(CURSOR_KIND, finalFilePath, String.valueOf(readEndLine + 1),
+                                String.valueOf(lastLine), String.valueOf(document.getModificationStamp()));
+                        json.name("nextCursor").value(nextCursor)
+                            .name("warning").value("Stopped after line " + readEndLine + " to fit the token budget. "
+                                + "Call readFile with cursor=nextCursor to continue.");
+                    }
+                    if (finalExpectedStamp >= 0 && finalExpectedStamp != document.getModificationStamp()) {
+                        json.name("fileChanged").value(true);
                     }
-                    String warning = totalLines > MAX_READ_LINES ? String.format("File truncated to first %d lines.", MAX_READ_LINES) : "";
-                    return String.format("{\"filePath\": \"%s\", \"content\": \"%s\", \"warning\": \"%s\"}",
-                                        escapeJson(finalFilePath), escapeJson(content), escapeJson(warning));
+                    return json.endObject().toString();
                 }
-
             } catch (IndexOutOfBoundsException e) {
                 LOG.error("Error calculating offsets for file reading for file: " + finalFilePath, e);
-                return String.format("{\"error\": \"Error reading file lines: Invalid line numbers calculated. Total lines: %d\"}", document.getLineCount());
+                return ToolResultWriter.error("Error reading file lines: Invalid line numbers calculated. Total lines: " + document.getLineCount());
             } catch (Exception e) {
                 LOG.error("Error reading file: " + finalFilePath, e);
-                return String.format("{\"error\": \"An unexpected error occurred while reading the file: %s\"}", escapeJson(e.getMessage()));
+                return ToolResultWriter.error("An unexpected error occurred while reading the file: " + e.getMessage());
             }
         });
     }
 
+    /**
+     * 大文件且编辑器中没有未保存的修改时，走内存映射读取。
+     */
+    private static boolean useMappedRead(VirtualFile file) {
+        if (file.isDirectory() || !file.isInLocalFileSystem() || file.getLength() < MAPPED_READ_THRESHOLD_BYTES) {
+            return false;
+        }
+        if (!MappedTextFile.isSupported(file.getCharset())) {
+            return false;
+        }
+        FileDocumentManager documentManager = FileDocumentManager.getInstance();
+        Document cached = documentManager.getCachedDocument(file);
+        return cached == null || !documentManager.isDocumentUnsaved(cached);
+    }
+
+    /**
+     * 内存映射读取：只解码预算内可能用到的字节范围，结果格式与 Document 读取一致。
+     * 单行超过预算时只返回该行的开头，并标记 lineTruncated。
+     */
+    private static String readMapped(VirtualFile virtualFile, String filePath, Integer startLine, Integer endLine,
+                                     long expectedStamp, ToolOutputBudget budget) {
+        try {
+            MappedTextFile file = MappedTextFile.open(Paths.get(virtualFile.getPath()), virtualFile.getCharset());
+            int totalLines = file.getLineCount();
+            int firstLine = startLine != null ? startLine : 1;
+            int lastLine = endLine != null ? Math.min(endLine, totalLines) : totalLines;
+            if (firstLine < 1 || firstLine > totalLines || lastLine < firstLine) {
+                return ToolResultWriter.error("Invalid line numbers: startLine=" + firstLine + ", endLine="
+                        + (endLine != null ? String.valueOf(endLine) : "") + ", totalLines=" + totalLines);
+            }
+
+            int reservedTokens = RESULT_OVERHEAD_TOKENS + ToolOutputBudget.estimateTokens(filePath);
+            long maxBytes = (long) Math.max(1, budget.getMaxTokens() - reservedTokens) * MAX_BYTES_PER_TOKEN;
+            long startOffset = file.lineStartOffset(firstLine - 1);
+            long rangeEndOffset = file.lineStartOffset(lastLine); // 包含最后一行的换行符
+            long windowEndOffset = Math.min(rangeEndOffset, startOffset + maxBytes);
+            String text = file.decode(startOffset, windowEndOffset);
+            boolean windowCut = windowEndOffset < rangeEndOffset;
+
+            int end = budget.fitLines(text, 0, reservedTokens);
+            boolean lineTruncated = false;
+            if (end == text.length() && windowCut && !text.endsWith("\n")) {
+                // 窗口截在某一行中间：退回到最后一个完整行；只有一行时返回该行的开头
+                int lastNewline = text.lastIndexOf('\n');
+                if (lastNewline >= 0) {
+                    end = lastNewline + 1;
+                } else {
+                    lineTruncated = true;
+                }
+            }
+            int readEndLine = lastLine; // 整个范围都已读完
+            if (end < text.length() || windowCut) {
+                int linesRead = end > 0 && text.charAt(end - 1) != '\n' ? 1 : 0;
+                for (int i = 0; i < end; i++) {
+                    if (text.charAt(i) == '\n') {
+                        linesRead++;
+                    }
+                }
+                readEndLine = firstLine + Math.max(1, linesRead) - 1;
+            }
+            int contentEnd = end > 0 && text.charAt(end - 1) == '\n' ? end - 1 : end;
+            boolean truncated = readEndLine < lastLine;
+
+            try (ToolResultWriter json = ToolResultWriter.obtain()) {
+                json.beginObject()
+                    .name("filePath").value(filePath)
+                    .name("startLine").value(firstLine)
+                    .name("endLine").value(readEndLine)
+                    .name("totalLines").value(totalLines)
+                    .name("content").value(text, 0, contentEnd)
+                    .name("truncated").value(truncated);
+                if (lineTruncated) {
+                    json.name("lineTruncated").value(true);
+                }
+                if (truncated) {
+                    String nextCursor = ToolOutputBudget.encodeCursor(CURSOR_KIND, filePath, String.valueOf(readEndLine + 1),
+                            String.valueOf(lastLine), String.valueOf(file.getStamp()));
+                    json.name("nextCursor").value(nextCursor)
+                        .name("warning").value("Stopped after line " + readEndLine + " to fit the token budget. "
+                            + "Call readFile with cursor=nextCursor to continue.");
+                }
+                if (expectedStamp >= 0 && expectedStamp != file.getStamp()) {
+                    json.name("fileChanged").value(true);
+                }
+                return json.endObject().toString();
+            }
+        } catch (IOException e) {
+            LOG.warn("Error reading large file: " + filePath, e);
+            return ToolResultWriter.error("An unexpected error occurred while reading the file: " + e.getMessage());
+        }
+    }
+
     private VirtualFile findVirtualFile(String filePath) {
         VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
         if (file != null) return file;
@@ -183,29 +325,4 @@ public class ReadFileTool implements Tool {
         LOG.warn("Could not find VirtualFile for path: " + filePath);
         return null;
     }
-
-    private String escapeJson(String str) {
-        if (str == null) return "";
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < str.length(); i++) {
-            char c = str.charAt(i);
-            switch (c) {
-                case '"': sb.append("\\\""); break;
-                case '\\': sb.append("\\\\"); break;
-                case '\b': sb.append("\\b"); break;
-                case '\f': sb.append("\\f"); break;
-                case '\n': sb.append("\\n"); break;
-                case '\r': sb.append("\\r"); break;
-                case '\t': sb.append("\\t"); break;
-                case '/': sb.append("\\/"); break;
-                default:
-                    if (c <= '\u001F') {
-                        sb.append(String.format("\\u%04x", (int) c));
-            } else {
-                        sb.append(c);
-                    }
-            }
-        }
-        return sb.toString();
-    }
 } 
\ No newline at end of file
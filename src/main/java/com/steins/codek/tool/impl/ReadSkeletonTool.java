@@ -0,0 +1,142 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.PsiManager;
+import com.steins.codek.service.FileSkeletonService;
+import com.steins.codek.tool.FileTransaction;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolOutputBudget;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResource;
+import com.steins.codek.tool.ToolResultWriter;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 读取源文件骨架的工具实现：只返回导入、类声明、字段和方法签名及其行号，方法体省略。
+ * 默认在预算内返回完整的声明，放不下时改用紧凑的签名。
+ * @author 0027013824
+ */
+public class ReadSkeletonTool implements Tool {
+    private static final Logger LOG = Logger.getInstance(ReadSkeletonTool.class);
+    private static final ToolPolicy POLICY = new ToolPolicy(8, 15_000, false, false); // 与 readFile 相同，不与写操作交错执行
+    private static final int RESULT_OVERHEAD_TOKENS = 120;
+    private static final String DETAIL_AUTO = "auto";
+
+    private final Project project;
+
+    public ReadSkeletonTool(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public String getName() {
+        return "readSkeleton";
+    }
+
+    @Override
+    public ToolPolicy getPolicy() {
+        return POLICY;
+    }
+
+    @Override
+    public Collection<ToolResource> getResources(Map<String, String> arguments) {
+        String filePath = arguments.get("filePath");
+        if (filePath == null || filePath.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(ToolResource.read(FileTransaction.resolvePath(project, filePath)));
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments) {
+        return execute(arguments, ToolContext.EMPTY);
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments, ToolContext context) {
+        String filePath = arguments.get("filePath");
+        if (filePath == null || filePath.trim().isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: filePath");
+        }
+        String detail = arguments.get("detail");
+        detail = detail == null || detail.trim().isEmpty() ? DETAIL_AUTO : detail.trim().toLowerCase(Locale.ROOT);
+        if (!Arrays.asList(DETAIL_AUTO, "full", "compact").contains(detail)) {
+            return ToolResultWriter.error("Invalid detail: " + detail);
+        }
+
+        String path = FileTransaction.resolvePath(project, filePath);
+        // 本轮对话中暂存过的文件按覆盖层中的内容生成骨架
+        FileTransaction transaction = context.getTransaction();
+        Document overlay = transaction != null ? transaction.getOverlayDocument(path) : null;
+        String finalDetail = detail;
+        ToolOutputBudget budget = context.getOutputBudget();
+        try {
+            return ReadAction.compute(() -> {
+                PsiFile psiFile;
+                if (overlay != null) {
+                    String name = StringUtil.getShortName(path, '/');
+                    psiFile = PsiFileFactory.getInstance(project).createFileFromText(name,
+                            FileTypeManager.getInstance().getFileTypeByFileName(name), overlay.getImmutableCharSequence());
+                } else {
+                    VirtualFile virtualFile = LocalFileSystem.getInstance().findFileByPath(path);
+                    if (virtualFile == null || !virtualFile.exists()) {
+                        return ToolResultWriter.error("File not found: " + filePath);
+                    }
+                    if (virtualFile.isDirectory()) {
+                        return ToolResultWriter.error("Path is a directory, not a file: " + filePath);
+                    }
+                    psiFile = PsiManager.getInstance(project).findFile(virtualFile);
+                }
+                if (!FileSkeletonService.isSupported(psiFile)) {
+                    return ToolResultWriter.error("Skeletons are only available for Java files, use readFile instead: " + filePath);
+                }
+                return describe(psiFile, filePath.trim(), finalDetail, budget);
+            });
+        } catch (Exception e) {
+            LOG.warn("Error building skeleton: " + filePath, e);
+            return ToolResultWriter.error("An unexpected error occurred while building the skeleton: " + e.getMessage());
+        }
+    }
+
+    private String describe(PsiFile psiFile, String filePath, String detail, ToolOutputBudget budget) {
+        FileSkeletonService skeletons = FileSkeletonService.getInstance(project);
+        int reservedTokens = RESULT_OVERHEAD_TOKENS + ToolOutputBudget.estimateTokens(filePath);
+        FileSkeletonService.Detail level = "compact".equals(detail) ? FileSkeletonService.Detail.COMPACT : FileSkeletonService.Detail.FULL;
+        String skeleton = skeletons.getSkeleton(psiFile, level);
+        if (DETAIL_AUTO.equals(detail) && ToolOutputBudget.estimateTokens(skeleton) + reservedTokens > budget.getMaxTokens()) {
+            level = FileSkeletonService.Detail.COMPACT;
+            skeleton = skeletons.getSkeleton(psiFile, level);
+        }
+        // 紧凑骨架仍然放不下时按整行截取
+        int end = budget.fitLines(skeleton, 0, reservedTokens);
+        boolean truncated = end < skeleton.length();
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                .name("filePath").value(filePath)
+                .name("totalLines").value(StringUtil.countNewLines(psiFile.getViewProvider().getContents()) + 1)
+                .name("detail").value(level.name().toLowerCase(Locale.ROOT))
+                .name("skeleton").value(skeleton, 0, end)
+                .name("truncated").value(truncated);
+            if (truncated) {
+                json.name("warning").value("Skeleton cut to fit the token budget. "
+                        + "Use readFile or findSymbol for the declarations after the last line shown.");
+            }
+            return json.endObject().toString();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.KillableProcessHandler;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.util.execution.ParametersListUtil;
+import com.steins.codek.config.CodekConfig;
+import com.steins.codek.tool.FileTransaction;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolOutputBudget;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResource;
+import com.steins.codek.tool.ToolResultWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 运行命令 (构建、测试等) 的工具实现。
+ * 输出实时显示在聊天界面中，同时写入定长环形缓冲区；返回给模型的只有过滤后的末尾输出和错误摘要。
+ * @author 0027013824
+ */
+public class RunCommandTool implements Tool {
+    private static final Logger LOG = Logger.getInstance(RunCommandTool.class);
+    private static final int DEFAULT_TIMEOUT_SECONDS = 120;
+    private static final int MAX_TIMEOUT_SECONDS = 600;
+    // 调度器的截止时间只作为兜底，命令自身的超时由 timeoutSeconds 控制；不与本轮的文件写入交错，执行前把暂存的修改写入磁盘
+    private static final ToolPolicy POLICY = new ToolPolicy(2, (MAX_TIMEOUT_SECONDS + 15) * 1000L, false, false, true);
+    private static final int BUFFER_LINES = 2000; // 环形缓冲区保留的行数
+    private static final long PUBLISH_INTERVAL_MS = 200; // 向界面推送输出的最小间隔
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final long SOFT_KILL_GRACE_MS = 2000; // 先发送中断信号，超过该时间仍未退出则强制结束
+
+    private final Project project;
+
+    public RunCommandTool(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public String getName() {
+        return "runCommand";
+    }
+
+    @Override
+    public boolean requiresApproval() {
+        return true;
+    }
+
+    @Override
+    public ToolPolicy getPolicy() {
+        return POLICY;
+    }
+
+    @Override
+    public Collection<ToolResource> getResources(Map<String, String> arguments) {
+        // 命令可能读取工作目录下的任何文件，必须排在同一轮中对这些文件的修改之后
+        String workDir = arguments.get("workingDirectory");
+        if (workDir == null || workDir.trim().isEmpty()) {
+            return project.getBasePath() != null
+                    ? Collections.singletonList(ToolResource.read(FileUtil.toCanonicalPath(project.getBasePath())))
+                    : Collections.emptyList();
+        }
+        return Collections.singletonList(ToolResource.read(FileTransaction.resolvePath(project, workDir)));
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments) {
+        return execute(arguments, ToolContext.EMPTY);
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments, ToolContext context) {
+        String command = arguments.get("command");
+        if (command == null || command.trim().isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: command");
+        }
+        int timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+        String timeoutStr = arguments.get("timeoutSeconds");
+        if (timeoutStr != null && !timeoutStr.trim().isEmpty()) {
+            try {
+                timeoutSeconds = Math.max(1, Math.min(MAX_TIMEOUT_SECONDS, Integer.parseInt(timeoutStr.trim())));
+            } catch (NumberFormatException e) {
+                return ToolResultWriter.error("Invalid number format for timeoutSeconds: " + timeoutStr);
+            }
+        }
+        if (project.getBasePath() == null) {
+            return ToolResultWriter.error("Project has no base directory");
+        }
+
+        String workDirArg = arguments.get("workingDirectory");
+        String workDir = workDirArg == null || workDirArg.trim().isEmpty()
+                ? FileUtil.toCanonicalPath(project.getBasePath())
+                : FileTransaction.resolvePath(project, workDirArg);
+        if (!isAllowedWorkingDirectory(workDir)) {
+            return ToolResultWriter.error("Working directory is not allowed: " + workDir
+                    + ". Only the project directory and directories configured in CodeK settings may be used.");
+        }
+        if (!new File(workDir).isDirectory()) {
+            return ToolResultWriter.error("Working directory not found: " + workDir);
+        }
+
+        List<String> commandParts = ParametersListUtil.parse(command.trim());
+        if (commandParts.isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: command");
+        }
+
+        // 命令读取的是磁盘上的文件，先保存编辑器中未保存的修改
+        ApplicationManager.getApplication().invokeAndWait(() -> FileDocumentManager.getInstance().saveAllDocuments());
+
+        GeneralCommandLine commandLine = new GeneralCommandLine(commandParts)
+                .withWorkDirectory(workDir)
+                .withCharset(StandardCharsets.UTF_8)
+                .withParentEnvironmentType(GeneralCommandLine.ParentEnvironmentType.CONSOLE);
+        CommandOutputBuffer buffer = new CommandOutputBuffer(BUFFER_LINES);
+        LivePublisher publisher = new LivePublisher(context);
+        KillableProcessHandler handler;
+        try {
+            handler = new KillableProcessHandler(commandLine);
+        } catch (ExecutionException e) {
+            LOG.warn("Failed to start command: " + command, e);
+            return ToolResultWriter.error("Failed to start command: " + e.getMessage());
+        }
+        handler.setShouldKillProcessSoftly(true);
+        handler.addProcessListener(new ProcessAdapter() {
+            @Override
+            public void onTextAvailable(@NotNull ProcessEvent event, @NotNull Key outputType) {
+                if (outputType == ProcessOutputTypes.SYSTEM) {
+                    return;
+                }
+                buffer.append(event.getText());
+                publisher.append(event.getText());
+            }
+        });
+
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + timeoutSeconds * 1_000_000_000L;
+        publisher.publish("\n```text\n$ " + command.trim() + "\n");
+        handler.startNotify();
+
+        boolean timedOut = false;
+        boolean cancelled = false;
+        while (!handler.waitFor(POLL_INTERVAL_MS)) {
+            if (context.isCancelled() || Thread.currentThread().isInterrupted()) {
+                cancelled = true;
+                break;
+            }
+            if (System.nanoTime() > deadlineNanos) {
+                timedOut = true;
+                break;
+            }
+            publisher.flushIfDue();
+        }
+        if (timedOut || cancelled) {
+            stop(handler);
+        }
+        buffer.flush();
+        publisher.flush();
+        publisher.publish("```\n");
+
+        // 命令可能修改或生成了文件 (例如格式化、代码生成、构建产物)，同步刷新 VFS 后再返回，
+        // 之后的工具调用和编辑器看到的是命令执行后的内容
+        VfsUtil.markDirtyAndRefresh(false, true, true, new File(workDir));
+
+        Integer exitCode = handler.isProcessTerminated() ? handler.getExitCode() : null;
+        long durationMs = (System.nanoTime() - startNanos) / 1_000_000L;
+        return buildResult(command.trim(), workDir, exitCode, timedOut, cancelled, durationMs, buffer, context.getOutputBudget());
+    }
+
+    /**
+     * 结束进程：先软中断，宽限期后强制结束整个进程树。
+     */
+    private static void stop(KillableProcessHandler handler) {
+        handler.destroyProcess();
+        if (!handler.waitFor(SOFT_KILL_GRACE_MS) && handler.canKillProcess()) {
+            handler.killProcess();
+            handler.waitFor(SOFT_KILL_GRACE_MS);
+        }
+    }
+
+    private boolean isAllowedWorkingDirectory(String workDir) {
+        List<String> allowed = new ArrayList<>();
+        allowed.add(project.getBasePath());
+        CodekConfig config = ApplicationManager.getApplication().getService(CodekConfig.class);
+        if (config != null) {
+            allowed.addAll(config.getCommandWorkingDirectoryAllowlist());
+        }
+        for (String dir : allowed) {
+            if (FileUtil.isAncestor(FileUtil.toCanonicalPath(dir), workDir, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String buildResult(String command, String workDir, @Nullable Integer exitCode, boolean timedOut,
+                                      boolean cancelled, long durationMs, CommandOutputBuffer buffer,
+                                      ToolOutputBudget budget) {
+        List<String> errors = buffer.getErrors();
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                .name("command").value(command)
+                .name("workingDirectory").value(workDir)
+                .name("exitCode");
+            if (exitCode != null) {
+                json.value(exitCode.longValue());
+            } else {
+                json.nullValue();
+            }
+            json.name("success").value(exitCode != null && exitCode == 0 && !timedOut && !cancelled)
+                .name("timedOut").value(timedOut)
+                .name("cancelled").value(cancelled)
+                .name("durationMs").value(durationMs)
+                .name("totalLines").value(buffer.getTotalLines())
+                .name("errors").beginArray();
+            for (String error : errors) {
+                json.value(error);
+            }
+            json.endArray();
+            if (buffer.getOmittedErrors() > 0) {
+                json.name("omittedErrors").value(buffer.getOmittedErrors());
+            }
+            // 末尾输出使用错误摘要之外的预算
+            int tailTokens = budget.getMaxTokens() - ToolOutputBudget.estimateTokens(json.asCharSequence()) - 100;
+            List<String> tail = buffer.tail(new ToolOutputBudget(Math.max(100, tailTokens)));
+            return json.name("omittedLines").value(buffer.getTotalLines() - tail.size())
+                .name("tail").value(String.join("\n", tail))
+                .endObject().toString();
+        }
+    }
+
+    /**
+     * 将输出批量推送到界面，避免输出频繁时大量界面刷新。
+     */
+    private static final class LivePublisher {
+        private final ToolContext context;
+        private final StringBuilder pending = new StringBuilder();
+        private long lastPublish = System.currentTimeMillis();
+
+        LivePublisher(ToolContext context) {
+            this.context = context;
+        }
+
+        synchronized void append(String text) {
+            pending.append(text);
+            flushIfDue();
+        }
+
+        synchronized void flushIfDue() {
+            if (System.currentTimeMillis() - lastPublish >= PUBLISH_INTERVAL_MS) {
+                flush();
+            }
+        }
+
+        synchronized void flush() {
+            if (pending.length() > 0) {
+                publish(pending.toString());
+                pending.setLength(0);
+            }
+            lastPublish = System.currentTimeMillis();
+        }
+
+        void publish(String text) {
+            context.publishOutput(text);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.steins.codek.service.SemanticIndexService;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResultWriter;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在项目代码的本地索引中按自然语言或代码片段查找相关的类和方法。
+ * 默认合并向量和 BM25 两种查询的结果，也可以只用其中一种。
+ * @author 0027013824
+ */
+public class SemanticSearchTool implements Tool {
+    private static final Logger LOG = Logger.getInstance(SemanticSearchTool.class);
+    private static final ToolPolicy POLICY = new ToolPolicy(4, 5_000, false, true); // 只查询内存中的索引
+    private static final int DEFAULT_MAX_RESULTS = 10;
+    private static final int MAX_RESULTS_LIMIT = 50;
+    private static final int SNIPPET_LINES = 8;
+    private static final String MODE_HYBRID = "hybrid";
+    private static final String MODE_SEMANTIC = "semantic";
+    private static final String MODE_LEXICAL = "lexical";
+
+    private final Project project;
+
+    public SemanticSearchTool(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public String getName() {
+        return "semanticSearch";
+    }
+
+    @Override
+    public ToolPolicy getPolicy() {
+        return POLICY;
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments) {
+        String query = arguments.get("query");
+        if (query == null || query.trim().isEmpty()) {
+            return ToolResultWriter.error("Missing required parameter: query");
+        }
+        int maxResults = DEFAULT_MAX_RESULTS;
+        String maxResultsValue = arguments.get("maxResults");
+        if (maxResultsValue != null && !maxResultsValue.trim().isEmpty()) {
+            try {
+                maxResults = Math.max(1, Math.min(Integer.parseInt(maxResultsValue.trim()), MAX_RESULTS_LIMIT));
+            } catch (NumberFormatException e) {
+                return ToolResultWriter.error("Invalid number format for maxResults: " + maxResultsValue);
+            }
+        }
+
+        String mode = arguments.get("mode");
+        mode = mode == null || mode.trim().isEmpty() ? MODE_HYBRID : mode.trim().toLowerCase(Locale.ROOT);
+        if (!MODE_HYBRID.equals(mode) && !MODE_SEMANTIC.equals(mode) && !MODE_LEXICAL.equals(mode)) {
+            return ToolResultWriter.error("Invalid mode: " + mode + " (expected hybrid, lexical or semantic)");
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            SemanticIndexService index = SemanticIndexService.getInstance(project);
+            List<SemanticIndexService.Hit> hits;
+            if (MODE_SEMANTIC.equals(mode)) {
+                hits = index.search(query, maxResults);
+            } else if (MODE_LEXICAL.equals(mode)) {
+                hits = index.searchLexical(query, maxResults);
+            } else {
+                hits = index.searchHybrid(query, maxResults);
+            }
+            try (ToolResultWriter json = ToolResultWriter.obtain()) {
+                json.beginObject().name("query").value(query).name("mode").value(mode).name("results").beginArray();
+                for (SemanticIndexService.Hit hit : hits) {
+                    String snippet = index.readSnippet(hit, SNIPPET_LINES);
+                    json.beginObject()
+                        .name("file").value(displayPath(hit.getPath()))
+                        .name("startLine").value(hit.getStartLine())
+                        .name("endLine").value(hit.getEndLine())
+                        .name("kind").value(hit.getKind())
+                        .name("name").value(hit.getName())
+                        .name("score").value(Math.round(hit.getScore() * 1000) / 1000.0)
+                        .name("snippet").value(snippet != null ? snippet : "")
+                        .endObject();
+                }
+                return json.endArray()
+                    .name("count").value(hits.size())
+                    .name("indexedFiles").value(index.getIndexedFileCount())
+                    .name("indexing").value(index.isIndexing())
+                    .name("elapsedMs").value(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))
+                    .endObject().toString();
+            }
+        } catch (Exception e) {
+            LOG.warn("Error searching semantic index: " + query, e);
+            return ToolResultWriter.error("An unexpected error occurred while searching: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 项目内文件使用相对路径，其他文件使用完整路径。
+     */
+    private String displayPath(String path) {
+        String basePath = project.getBasePath();
+        if (basePath != null && path.startsWith(basePath + "/")) {
+            return path.substring(basePath.length() + 1);
+        }
+        return path;
+    }
+}
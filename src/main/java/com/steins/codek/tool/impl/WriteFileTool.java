@@ -1,6 +1,7 @@
 package com.steins.codek.tool.impl;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.Document;
@@ -9,12 +10,16 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.steins.codek.tool.FileTransaction;
 import com.steins.codek.tool.Tool;
-import com.steins.codek.tool.ToolParameter;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResource;
+import com.steins.codek.tool.ToolResultWriter;
 
 import java.io.File;
-import java.util.Arrays;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -23,6 +28,7 @@ import java.util.Map;
  */
 public class WriteFileTool implements Tool {
     private static final Logger LOG = Logger.getInstance(WriteFileTool.class);
+    private static final ToolPolicy POLICY = new ToolPolicy(1, 30_000, true, false);
 
     private final Project project;
 
@@ -36,18 +42,17 @@ public class WriteFileTool implements Tool {
     }
 
     @Override
-    public String getDescription() {
-        return "Writes content to a specified file. Can replace the entire file or a specific range of lines.";
+    public ToolPolicy getPolicy() {
+        return POLICY;
     }
 
     @Override
-    public List<ToolParameter> getParameters() {
-        return Arrays.asList(
-                new ToolParameter("filePath", "string", "The absolute or relative path to the file.", true),
-                new ToolParameter("content", "string", "The content to write to the file.", true),
-                new ToolParameter("startLine", "integer", "The 1-based starting line number (inclusive). Optional.", false),
-                new ToolParameter("endLine", "integer", "The 1-based ending line number (inclusive). Optional.", false)
-        );
+    public Collection<ToolResource> getResources(Map<String, String> arguments) {
+        String filePath = arguments.get("filePath");
+        if (filePath == null || filePath.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(ToolResource.write(FileTransaction.resolvePath(project, filePath)));
     }
 
     @Override
@@ -57,6 +62,11 @@ public class WriteFileTool implements Tool {
 
     @Override
     public String execute(Map<String, String> arguments) {
+        return execute(arguments, ToolContext.EMPTY);
+    }
+
+    @Override
+    public String execute(Map<String, String> arguments, ToolContext context) {
         String filePath = arguments.get("filePath");
         String content = arguments.get("content");
         String startLineStr = arguments.get("startLine");
@@ -73,12 +83,11 @@ public class WriteFileTool implements Tool {
                 endLine = Integer.parseInt(endLineStr.trim());
             }
         } catch (NumberFormatException e) {
-            return String.format("{\"error\": \"Invalid number format for startLine or endLine: %s, %s\"}", 
-                                escapeJson(startLineStr), escapeJson(endLineStr));
+            return ToolResultWriter.error("Invalid number format for startLine or endLine: " + startLineStr + ", " + endLineStr);
         }
 
         if (filePath == null || filePath.trim().isEmpty()) {
-            return "{\"error\": \"Missing required parameter: filePath\"}";
+            return ToolResultWriter.error("Missing required parameter: filePath");
         }
         
         if (content == null) {
@@ -92,18 +101,23 @@ public class WriteFileTool implements Tool {
 
         try {
             return ApplicationManager.getApplication().executeOnPooledThread(() -> {
+                FileTransaction transaction = context.getTransaction();
+                if (transaction != null) {
+                    return stageWrite(transaction, context, finalFilePath, finalContent, finalStartLine, finalEndLine);
+                }
+
                 VirtualFile virtualFile = findVirtualFile(finalFilePath);
                 if (virtualFile == null) {
-                    return String.format("{\"error\": \"File not found: %s\"}", escapeJson(finalFilePath));
+                    return ToolResultWriter.error("File not found: " + finalFilePath);
                 }
                 if (virtualFile.isDirectory()) {
-                    return String.format("{\"error\": \"Path is a directory, not a file: %s\"}", escapeJson(finalFilePath));
+                    return ToolResultWriter.error("Path is a directory, not a file: " + finalFilePath);
                 }
 
                 try {
                     Document document = FileDocumentManager.getInstance().getDocument(virtualFile);
                     if (document == null) {
-                        return String.format("{\"error\": \"Could not get document for file: %s\"}", escapeJson(finalFilePath));
+                        return ToolResultWriter.error("Could not get document for file: " + finalFilePath);
                     }
 
                     // 计算要替换的范围
@@ -113,8 +127,8 @@ public class WriteFileTool implements Tool {
 
                     if (finalStartLine != null && finalEndLine != null) {
                         if (finalStartLine < 1 || finalEndLine < finalStartLine || finalStartLine > totalLines) {
-                            return String.format("{\"error\": \"Invalid line numbers: startLine=%d, endLine=%d, totalLines=%d\"}",
-                                    finalStartLine, finalEndLine, totalLines);
+                            return ToolResultWriter.error("Invalid line numbers: startLine=" + finalStartLine
+                                    + ", endLine=" + finalEndLine + ", totalLines=" + totalLines);
                         }
 
                         // 转换为0-based索引
@@ -130,38 +144,116 @@ public class WriteFileTool implements Tool {
                     final int finalStartOffset = startOffset;
                     final int finalEndOffset = endOffset;
                     
-                    WriteCommandAction.runWriteCommandAction(project, () -> {
+                    WriteCommandAction.runWriteCommandAction(project, FileTransaction.COMMAND_NAME_PREFIX + "写入文件", null, () -> {
                         document.replaceString(finalStartOffset, finalEndOffset, finalContent);
                         FileDocumentManager.getInstance().saveDocument(document);
                     });
 
                     // 构建返回结果
-                    String result;
-                    if (finalStartLine != null && finalEndLine != null) {
-                        result = String.format(
-                                "{\"success\": true, \"filePath\": \"%s\", \"startLine\": %d, \"endLine\": %d, \"message\": \"Content written to specific lines\"}",
-                                escapeJson(finalFilePath), finalStartLine, finalEndLine);
-                    } else {
-                        result = String.format(
-                                "{\"success\": true, \"filePath\": \"%s\", \"message\": \"Content written to entire file\"}",
-                                escapeJson(finalFilePath));
-                    }
-                    return result;
+                    return successResult(finalFilePath, finalStartLine, finalEndLine);
 
                 } catch (IndexOutOfBoundsException e) {
                     LOG.error("Error calculating offsets for file writing: " + finalFilePath, e);
-                    return String.format("{\"error\": \"Error calculating line offsets: %s\"}", escapeJson(e.getMessage()));
+                    return ToolResultWriter.error("Error calculating line offsets: " + e.getMessage());
                 } catch (Exception e) {
                     LOG.error("Error writing to file: " + finalFilePath, e);
-                    return String.format("{\"error\": \"An unexpected error occurred while writing to the file: %s\"}", escapeJson(e.getMessage()));
+                    return ToolResultWriter.error("An unexpected error occurred while writing to the file: " + e.getMessage());
                 }
             }).get(); // 等待异步操作完成
         } catch (Exception e) {
             LOG.error("Error executing WriteFileTool", e);
-            return String.format("{\"error\": \"Failed to execute write operation: %s\"}", escapeJson(e.getMessage()));
+            return ToolResultWriter.error("Failed to execute write operation: " + e.getMessage());
         }
     }
 
+    /**
+     * 在文件事务中暂存写入：基于事务中已暂存的内容（或当前文档内容）计算新内容，提交前不修改文档。
+     */
+    private String stageWrite(FileTransaction transaction, ToolContext context, String filePath, String content,
+                              Integer startLine, Integer endLine) {
+        String absolutePath = FileTransaction.resolvePath(project, filePath);
+        String baseText = transaction.getStagedText(absolutePath);
+        VirtualFile virtualFile = null;
+        if (baseText == null) {
+            virtualFile = findVirtualFile(filePath);
+            if (virtualFile == null) {
+                return ToolResultWriter.error("File not found: " + filePath);
+            }
+            if (virtualFile.isDirectory()) {
+                return ToolResultWriter.error("Path is a directory, not a file: " + filePath);
+            }
+            VirtualFile file = virtualFile;
+            Document document = ReadAction.compute(() -> FileDocumentManager.getInstance().getDocument(file));
+            if (document == null) {
+                return ToolResultWriter.error("Could not get document for file: " + filePath);
+            }
+            baseText = document.getText();
+        }
+
+        int startOffset = 0;
+        int endOffset = baseText.length();
+        if (startLine != null && endLine != null) {
+            int[] lineStarts = lineStartOffsets(baseText);
+            int totalLines = lineStarts.length;
+            if (startLine < 1 || endLine < startLine || startLine > totalLines) {
+                return ToolResultWriter.error("Invalid line numbers: startLine=" + startLine + ", endLine=" + endLine
+                        + ", totalLines=" + totalLines);
+            }
+            int zeroBasedEndLine = Math.min(endLine - 1, totalLines - 1);
+            startOffset = lineStarts[startLine - 1];
+            endOffset = zeroBasedEndLine + 1 < totalLines ? lineStarts[zeroBasedEndLine + 1] - 1 : baseText.length();
+        }
+        String newText = baseText.substring(0, startOffset) + content + baseText.substring(endOffset);
+
+        if (transaction.isStagedForCreate(absolutePath)) {
+            transaction.stageCreate(absolutePath, newText, context.getOwner());
+        } else if (virtualFile != null) {
+            transaction.stageWrite(virtualFile, newText, context.getOwner());
+        } else {
+            VirtualFile file = findVirtualFile(filePath);
+            if (file == null) {
+                return ToolResultWriter.error("File not found: " + filePath);
+            }
+            transaction.stageWrite(file, newText, context.getOwner());
+        }
+        return successResult(filePath, startLine, endLine);
+    }
+
+    /**
+     * 构建写入成功的结果，指定了行范围时附带起止行号。
+     */
+    private static String successResult(String filePath, Integer startLine, Integer endLine) {
+        try (ToolResultWriter json = ToolResultWriter.obtain()) {
+            json.beginObject()
+                    .name("success").value(true)
+                    .name("filePath").value(filePath);
+            if (startLine != null && endLine != null) {
+                json.name("startLine").value(startLine)
+                        .name("endLine").value(endLine)
+                        .name("message").value("Content written to specific lines");
+            } else {
+                json.name("message").value("Content written to entire file");
+            }
+            return json.endObject().toString();
+        }
+    }
+
+    /**
+     * 计算文本中每一行的起始偏移量。
+     */
+    private static int[] lineStartOffsets(String text) {
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        int[] starts = new int[count];
+        int line = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') starts[line++] = i + 1;
+        }
+        return starts;
+    }
+
     private VirtualFile findVirtualFile(String filePath) {
         VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
         if (file != null) return file;
@@ -195,29 +287,4 @@ public class WriteFileTool implements Tool {
         LOG.warn("Could not find VirtualFile for path: " + filePath);
         return null;
     }
-
-    private String escapeJson(String str) {
-        if (str == null) return "";
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < str.length(); i++) {
-            char c = str.charAt(i);
-            switch (c) {
-                case '"': sb.append("\\\""); break;
-                case '\\': sb.append("\\\\"); break;
-                case '\b': sb.append("\\b"); break;
-                case '\f': sb.append("\\f"); break;
-                case '\n': sb.append("\\n"); break;
-                case '\r': sb.append("\\r"); break;
-                case '\t': sb.append("\\t"); break;
-                case '/': sb.append("\\/"); break;
-                default:
-                    if (c <= '\u001F') {
-                        sb.append(String.format("\\u%04x", (int) c));
-                    } else {
-                        sb.append(c);
-                    }
-            }
-        }
-        return sb.toString();
-    }
 } 
\ No newline at end of file
@@ -23,6 +23,7 @@ import com.steins.codek.service.CodeSuggestionService;
 import com.steins.codek.service.EditorService;
 import com.steins.codek.service.LlmService;
 import com.steins.codek.service.SessionManager;
+import com.steins.codek.service.ToolApprovalQueue;
 import com.steins.codek.service.ToolExecutor;
 import org.jetbrains.annotations.Nullable;
 
@@ -30,12 +31,10 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * CodeK 工具窗口的 UI 面板。
@@ -45,7 +44,6 @@ import java.util.stream.Collectors;
 public class CodekToolWindowPanel {
     private static final Logger LOG = Logger.getInstance(CodekToolWindowPanel.class);
     private static final double DEFAULT_TEMPERATURE = 0.7;
-    private static final int HISTORY_LIMIT = 5; // 发送给LLM的历史消息数量
     
     private final JPanel mainPanel; // 整体面板
     private final Project project;
@@ -90,7 +88,8 @@ public class CodekToolWindowPanel {
         // 获取服务实例
         this.config = ApplicationManager.getApplication().getService(CodekConfig.class);
         this.sessionManager = SessionManager.getInstance();
-        this.toolExecutor = new ToolExecutor(project);
+        this.toolExecutor = ToolExecutor.getInstance(project);
+        ToolApprovalQueue.getInstance(project).setReviewer(new ToolReviewDialog.DialogReviewer(project));
         this.contextProvider = new CodeContextProvider(project, this.toolExecutor);
         this.suggestionService = new CodeSuggestionService(project);
         this.editorService = new EditorService(project); // 初始化 EditorService
@@ -453,9 +452,6 @@ public class CodekToolWindowPanel {
         activeSession.addMessage(userMessage);
         sessionManager.updateActiveSession(); // 保存用户消息
 
-        // 准备发送给 LLM 的消息列表
-        List<ChatMessage> messagesToSend = new ArrayList<>();
-        
         // *** 关键：添加系统提示词 ***
         String customInstructions = null;
         try {
@@ -475,17 +471,16 @@ public class CodekToolWindowPanel {
                 toolExecutor.getAvailableTools(), 
                 customInstructions // 使用获取到的或为 null 的指令
         );
-        messagesToSend.add(new ChatMessage("system", systemPrompt));
-        
-        // 添加历史消息 (从会话中获取，排除旧的 system prompt)
-        messagesToSend.addAll(prepareMessagesForLlm(activeSession)); // 使用修改后的 prepare 方法
-
-        // *** 注意：当前的用户输入已经在 activeSession 中，
-        // prepareMessagesForLlm 会包含它，所以不需要再手动添加 userMessage ***
-        // messagesToSend.add(userMessage); // 不再需要这一行
-        
-            setProcessing(true);
-        sendStreamRequestInternal(activeSession, messagesToSend);
+        // 在模型的上下文窗口内挑选编辑器上下文、相关代码和历史消息 (包括刚添加的用户消息)
+        // 在后台组织，完成后在 EDT 上发送；组织期间用户停止时不再发送
+        setProcessing(true);
+        ChatSession session = activeSession;
+        contextProvider.packMessagesAsync(systemPrompt, input, session.getMessages(), config.getCurrentModel(),
+                toolWindow.getDisposable(), messagesToSend -> {
+                    if (isProcessing) {
+                        sendStreamRequestInternal(session, messagesToSend);
+                    }
+                });
     }
     
     /**
@@ -508,6 +503,12 @@ public class CodekToolWindowPanel {
                         SwingUtilities.invokeLater(() -> chatPanel.addStreamingContent(textChunk));
                     }
 
+                    @Override
+                    public void onToolOutput(String toolCallId, String text) {
+                        // 命令输出只显示在当前气泡中，不计入保存的助手消息
+                        SwingUtilities.invokeLater(() -> chatPanel.addStreamingContent(text));
+                    }
+
                     @Override
                     public void onComplete() {
                         final String completeResponse = fullResponse.toString();
@@ -551,24 +552,6 @@ public class CodekToolWindowPanel {
                 });
     }
     
-    /**
-     * 准备发送给LLM的消息列表，包含指定数量的历史记录，并排除系统消息。
-     * @param session 当前会话
-     * @return 包含历史记录的消息列表 (不含 system 角色)
-     */
-    private List<ChatMessage> prepareMessagesForLlm(ChatSession session) {
-        List<ChatMessage> history = session.getMessages().stream()
-                .filter(m -> !"system".equals(m.getRole())) // 过滤掉 system 消息
-                .collect(Collectors.toList());
-        
-        if (history.size() <= HISTORY_LIMIT) {
-            return history;
-        }
-        
-        int startIndex = history.size() - HISTORY_LIMIT;
-        return new ArrayList<>(history.subList(startIndex, history.size()));
-    }
-    
     /**
      * 应用代码到编辑器。
      */
@@ -716,8 +699,9 @@ public class CodekToolWindowPanel {
      * 停止处理。
      */
     private void stopProcessing() {
-        // TODO: 实现取消 LlmService 中的 OkHttp Call
-        LOG.warn("stopProcessing - 需要实现取消 OkHttp Call 的逻辑");
+        if (llmService != null) {
+            llmService.cancelCurrentTurn();
+        }
         chatPanel.cancelStreaming();
         setProcessing(false);
     }
@@ -16,13 +16,13 @@ import com.steins.codek.service.CodeContextProvider;
 import com.steins.codek.service.EditorService;
 import com.steins.codek.service.LlmService;
 import com.steins.codek.service.SessionManager;
+import com.steins.codek.service.ToolApprovalQueue;
 import com.steins.codek.service.ToolExecutor;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
@@ -82,7 +82,8 @@ public class ModernCodekToolWindowPanel {
         this.sessionManager = SessionManager.getInstance();
 
         // 初始化服务组件
-        this.toolExecutor = new ToolExecutor(project);
+        this.toolExecutor = ToolExecutor.getInstance(project);
+        ToolApprovalQueue.getInstance(project).setReviewer(new ToolReviewDialog.DialogReviewer(project));
         this.contextProvider = new CodeContextProvider(project, this.toolExecutor);
         this.editorService = new EditorService(project);
         this.sessionSelector = new SessionSelectorPanel();
@@ -383,8 +384,9 @@ public class ModernCodekToolWindowPanel {
      * 停止处理。
      */
     private void stopProcessing() {
-        // TODO: 实现取消 LlmService 中的 OkHttp Call
-        LOG.warn("stopProcessing - 需要实现取消 OkHttp Call 的逻辑");
+        if (llmService != null) {
+            llmService.cancelCurrentTurn();
+        }
         chatPanel.cancelStreaming();
         setProcessing(false);
     }
@@ -416,30 +418,6 @@ public class ModernCodekToolWindowPanel {
         chatPanel.setAutoScroll(true);
     }
 
-    /**
-     * 准备发送给 LLM 的消息列表。
-     * @param session 当前会话
-     * @return 要发送的消息列表
-     */
-    private List<ChatMessage> prepareMessagesForLlm(ChatSession session) {
-        List<ChatMessage> allMessages = session.getMessages();
-        List<ChatMessage> messagesToSend = new ArrayList<>();
-
-        // 只取最近的几条消息，并跳过系统消息
-        int count = 0;
-        int limit = 5; // 限制发送的历史消息数量
-
-        for (int i = allMessages.size() - 1; i >= 0 && count < limit; i--) {
-            ChatMessage message = allMessages.get(i);
-            if (!"system".equals(message.getRole())) {
-                messagesToSend.add(0, message);
-                count++;
-            }
-        }
-
-        return messagesToSend;
-    }
-
     /**
      * 发送消息。
      */
@@ -483,9 +461,6 @@ public class ModernCodekToolWindowPanel {
         activeSession.addMessage(userMessage);
         sessionManager.updateActiveSession(); // 保存用户消息
 
-        // 准备发送给 LLM 的消息列表
-        List<ChatMessage> messagesToSend = new ArrayList<>();
-
         // 添加系统提示词
         String customInstructions = null;
         // 注意：CodekConfig类没有getCustomInstructions方法
@@ -495,13 +470,16 @@ public class ModernCodekToolWindowPanel {
                 toolExecutor.getAvailableTools(),
                 customInstructions
         );
-        messagesToSend.add(new ChatMessage("system", systemPrompt));
-
-        // 添加历史消息
-        messagesToSend.addAll(prepareMessagesForLlm(activeSession));
-
+        // 在模型的上下文窗口内挑选编辑器上下文、相关代码和历史消息 (包括刚添加的用户消息)
+        // 在后台组织，完成后在 EDT 上发送；组织期间用户停止时不再发送
         setProcessing(true);
-        sendStreamRequestInternal(activeSession, messagesToSend);
+        ChatSession session = activeSession;
+        contextProvider.packMessagesAsync(systemPrompt, input, session.getMessages(), config.getCurrentModel(),
+                toolWindow.getDisposable(), messagesToSend -> {
+                    if (isProcessing) {
+                        sendStreamRequestInternal(session, messagesToSend);
+                    }
+                });
     }
 
     /**
@@ -523,6 +501,12 @@ public class ModernCodekToolWindowPanel {
                         SwingUtilities.invokeLater(() -> chatPanel.addStreamingContent(textChunk));
                     }
 
+                    @Override
+                    public void onToolOutput(String toolCallId, String text) {
+                        // 命令输出只显示在当前气泡中，不计入保存的助手消息
+                        SwingUtilities.invokeLater(() -> chatPanel.addStreamingContent(text));
+                    }
+
                     @Override
                     public void onComplete() {
                         final String completeResponse = fullResponse.toString();
@@ -0,0 +1,212 @@
+package com.steins.codek.ui;
+
+import com.intellij.diff.DiffContentFactory;
+import com.intellij.diff.DiffManager;
+import com.intellij.diff.DiffRequestPanel;
+import com.intellij.diff.requests.SimpleDiffRequest;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.ui.CheckBoxList;
+import com.intellij.ui.JBSplitter;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.components.JBTextArea;
+import com.intellij.ui.components.JBTextField;
+import com.intellij.util.ui.JBUI;
+import com.steins.codek.service.ToolApprovalQueue;
+import com.steins.codek.service.ToolApprovalQueue.ReviewDecision;
+import com.steins.codek.service.ToolApprovalQueue.ReviewItem;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一轮工具调用的审查对话框：左侧列出本轮所有需要批准的文件修改和工具调用，右侧展示选中项的差异或调用参数。
+ * 对话框是非模态的，审查期间 IDE 和只读工具调用照常运行。
+ * @author 0027013824
+ */
+public class ToolReviewDialog extends DialogWrapper {
+    private static final String DIFF_CARD = "diff";
+    private static final String CALL_CARD = "call";
+
+    private final Project project;
+    private final List<ReviewItem> items;
+    private final CompletableFuture<ReviewDecision> result;
+    private final CheckBoxList<ReviewItem> itemList = new CheckBoxList<>();
+    private final JPanel detailPanel = new JPanel(new CardLayout());
+    private final JBTextArea callDetail = new JBTextArea();
+    private final JBCheckBox allowForTurn = new JBCheckBox("本轮不再询问 (直到发送下一条消息)");
+    private final JBCheckBox alwaysAllow = new JBCheckBox("始终允许修改此路径下的文件:");
+    private final JBTextField alwaysAllowPath = new JBTextField();
+    private DiffRequestPanel diffPanel;
+
+    private ToolReviewDialog(@NotNull Project project, @NotNull List<ReviewItem> items, @NotNull CompletableFuture<ReviewDecision> result) {
+        super(project, true, IdeModalityType.MODELESS);
+        this.project = project;
+        this.items = items;
+        this.result = result;
+        setTitle("CodeK: 审查 " + items.size() + " 项修改");
+        setOKButtonText("批准选中项");
+        setCancelButtonText("全部拒绝");
+        init();
+    }
+
+    @Nullable
+    @Override
+    protected JComponent createCenterPanel() {
+        for (ReviewItem item : items) {
+            itemList.addItem(item, describe(item), true);
+        }
+        itemList.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                showDetail(itemList.getItemAt(itemList.getSelectedIndex()));
+            }
+        });
+
+        diffPanel = DiffManager.getInstance().createRequestPanel(project, getDisposable(), null);
+        callDetail.setEditable(false);
+        callDetail.setLineWrap(true);
+        detailPanel.add(diffPanel.getComponent(), DIFF_CARD);
+        detailPanel.add(new JBScrollPane(callDetail), CALL_CARD);
+
+        JBSplitter splitter = new JBSplitter(false, 0.3f);
+        splitter.setFirstComponent(new JBScrollPane(itemList));
+        splitter.setSecondComponent(detailPanel);
+
+        JPanel policyPanel = new JPanel(new BorderLayout(JBUI.scale(5), JBUI.scale(5)));
+        policyPanel.setBorder(JBUI.Borders.emptyTop(8));
+        policyPanel.add(allowForTurn, BorderLayout.NORTH);
+        String commonDirectory = commonDirectory(items);
+        if (commonDirectory != null) {
+            alwaysAllowPath.setText(commonDirectory);
+            policyPanel.add(alwaysAllow, BorderLayout.WEST);
+            policyPanel.add(alwaysAllowPath, BorderLayout.CENTER);
+        }
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setPreferredSize(JBUI.size(1000, 600));
+        panel.add(splitter, BorderLayout.CENTER);
+        panel.add(policyPanel, BorderLayout.SOUTH);
+        if (!items.isEmpty()) {
+            itemList.setSelectedIndex(0);
+            showDetail(items.get(0));
+        }
+        return panel;
+    }
+
+    private void showDetail(@Nullable ReviewItem item) {
+        if (item == null) {
+            return;
+        }
+        CardLayout layout = (CardLayout) detailPanel.getLayout();
+        if (item.isFileChange()) {
+            FileType fileType = FileTypeManager.getInstance().getFileTypeByFileName(new java.io.File(item.getPath()).getName());
+            DiffContentFactory factory = DiffContentFactory.getInstance();
+            String oldText = item.getOldText() != null ? item.getOldText() : "";
+            diffPanel.setRequest(new SimpleDiffRequest(item.getPath(),
+                    factory.create(project, oldText, fileType), factory.create(project, item.getNewText(), fileType),
+                    item.isCreated() ? "(新文件)" : "当前", "修改后"));
+            layout.show(detailPanel, DIFF_CARD);
+        } else {
+            callDetail.setText(item.getToolName() + "\n\n" + item.getTitle());
+            callDetail.setCaretPosition(0);
+            layout.show(detailPanel, CALL_CARD);
+        }
+    }
+
+    @Override
+    protected void doOKAction() {
+        List<ReviewItem> approved = new ArrayList<>();
+        for (ReviewItem item : items) {
+            if (itemList.isItemSelected(item)) {
+                approved.add(item);
+            }
+        }
+        List<String> alwaysAllowPaths = alwaysAllow.isSelected() && !alwaysAllowPath.getText().trim().isEmpty()
+                ? Collections.singletonList(alwaysAllowPath.getText().trim()) : Collections.emptyList();
+        result.complete(new ReviewDecision(approved, allowForTurn.isSelected(), alwaysAllowPaths));
+        super.doOKAction();
+    }
+
+    @Override
+    public void doCancelAction() {
+        result.complete(ReviewDecision.rejectAll());
+        super.doCancelAction();
+    }
+
+    private static String describe(ReviewItem item) {
+        if (!item.isFileChange()) {
+            String firstLine = item.getTitle().split("\n", 2)[0];
+            return item.getToolName() + ": " + firstLine;
+        }
+        return (item.isCreated() ? "新建 " : "修改 ") + item.getPath();
+    }
+
+    /**
+     * 所有被修改文件的最近公共目录，作为“始终允许”的默认路径；没有文件修改时返回 null。
+     */
+    @Nullable
+    private static String commonDirectory(List<ReviewItem> items) {
+        String common = null;
+        for (ReviewItem item : items) {
+            if (!item.isFileChange()) {
+                continue;
+            }
+            String directory = FileUtil.toSystemIndependentName(new java.io.File(item.getPath()).getParent());
+            while (common != null && !FileUtil.isAncestor(common, directory, false)) {
+                String parent = new java.io.File(common).getParent();
+                common = parent != null ? FileUtil.toSystemIndependentName(parent) : "/";
+            }
+            if (common == null) {
+                common = directory;
+            }
+        }
+        return common;
+    }
+
+    /**
+     * 在工具窗口中展示审查对话框的审查者。
+     */
+    public static class DialogReviewer implements ToolApprovalQueue.Reviewer {
+        private final Project project;
+
+        public DialogReviewer(@NotNull Project project) {
+            this.project = project;
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<ReviewDecision> review(@NotNull List<ReviewItem> items) {
+            CompletableFuture<ReviewDecision> result = new CompletableFuture<>();
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (result.isDone() || project.isDisposed()) {
+                    result.complete(ReviewDecision.rejectAll());
+                    return;
+                }
+                ToolReviewDialog dialog = new ToolReviewDialog(project, items, result);
+                // 用户停止当前轮次时关闭对话框
+                result.whenComplete((decision, error) -> {
+                    if (error != null) {
+                        ApplicationManager.getApplication().invokeLater(() -> {
+                            if (dialog.isShowing()) {
+                                dialog.close(CANCEL_EXIT_CODE);
+                            }
+                        });
+                    }
+                });
+                dialog.show();
+            });
+            return result;
+        }
+    }
+}
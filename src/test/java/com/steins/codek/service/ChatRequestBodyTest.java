@@ -0,0 +1,56 @@
+package com.steins.codek.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.steins.codek.model.ChatMessage;
+import okio.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ChatRequestBody 流式请求体的单元测试类。
+ * @author 0027013824
+ */
+public class ChatRequestBodyTest extends BasePlatformTestCase {
+
+    /**
+     * 测试写出的字节与 JSON 文本的 UTF-8 编码一致，Content-Length 与实际字节数一致，内容可以是字符序列视图。
+     */
+    public void testStreamsSameJsonAsText() throws Exception {
+        StringBuilder document = new StringBuilder("prefix|");
+        for (int i = 0; i < 2000; i++) {
+            document.append("line ").append(i).append(": \"quoted\"\t中文 😀   \\\n");
+        }
+        CharSequence view = document.subSequence(7, document.length());
+        ChatMessage assistant = new ChatMessage("assistant", null);
+        assistant.setToolCalls(Collections.singletonList(new ChatMessage.ToolCall("call_1", "readFile", "{\"filePath\": \"a.txt\"}")));
+        ChatMessage tool = new ChatMessage("tool", view);
+        tool.setToolCallId("call_1");
+        List<ChatMessage> messages = Arrays.asList(new ChatMessage("system", "规则"), new ChatMessage("user", "读 a.txt"), assistant, tool);
+        ChatRequestBody body = new ChatRequestBody("demo-model", 0.7, true, messages,
+                "[{\"type\": \"function\", \"function\": {\"name\": \"readFile\"}}]", new Gson());
+
+        Buffer sink = new Buffer();
+        body.writeTo(sink);
+        byte[] written = sink.readByteArray();
+        byte[] expected = body.toString().getBytes(StandardCharsets.UTF_8);
+        assertTrue("写出的字节应与 JSON 文本的 UTF-8 编码相同", Arrays.equals(expected, written));
+        assertEquals(written.length, body.contentLength());
+
+        JsonObject json = new Gson().fromJson(new String(written, StandardCharsets.UTF_8), JsonObject.class);
+        assertEquals("demo-model", json.get("model").getAsString());
+        assertTrue(json.get("stream").getAsBoolean());
+        assertEquals("auto", json.get("tool_choice").getAsString());
+        JsonArray sent = json.getAsJsonArray("messages");
+        assertEquals(4, sent.size());
+        assertTrue(sent.get(2).getAsJsonObject().get("content").isJsonNull());
+        assertEquals("call_1", sent.get(2).getAsJsonObject().getAsJsonArray("tool_calls").get(0).getAsJsonObject().get("id").getAsString());
+        assertEquals("call_1", sent.get(3).getAsJsonObject().get("tool_call_id").getAsString());
+        assertEquals("内容应原样还原", view.toString(), sent.get(3).getAsJsonObject().get("content").getAsString());
+    }
+}
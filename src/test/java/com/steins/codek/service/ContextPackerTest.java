@@ -0,0 +1,77 @@
+package com.steins.codek.service;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.steins.codek.model.ChatMessage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ContextPacker 上下文挑选的单元测试类。
+ * @author 0027013824
+ */
+public class ContextPackerTest extends BasePlatformTestCase {
+
+    /**
+     * 测试按价值而不是按价值密度挑选：小而密的片段不应挤掉价值更高的大片段。
+     */
+    public void testPicksMostValuableCombination() {
+        ContextPacker.Item small = snippet(ContextPacker.Kind.OPEN_FILE, "small", 20, 3);
+        ContextPacker.Item large = snippet(ContextPacker.Kind.SELECTION, "large", 100, 10);
+        ContextPacker.Result result = ContextPacker.pack(Arrays.asList(small, large), Collections.emptyList(), large.getTokens());
+
+        assertEquals(Collections.singletonList(large), result.getSnippets());
+        assertEquals(large.getTokens(), result.getUsedTokens());
+        assertEquals(1, result.getDropped().size());
+        assertSame(small, result.getDropped().get(0).getItem());
+
+        ContextPacker.Result roomy = ContextPacker.pack(Arrays.asList(small, large), Collections.emptyList(),
+                small.getTokens() + large.getTokens());
+        assertEquals("预算足够时全部放入，并保持原始顺序", Arrays.asList(small, large), roomy.getSnippets());
+        assertTrue(roomy.getDropped().isEmpty());
+    }
+
+    /**
+     * 测试历史对话只能从最近的一轮开始连续保留，单独超出预算的片段给出原因。
+     */
+    public void testKeepsContiguousRecentHistory() {
+        ContextPacker.Item newest = turn("newest", 20);
+        ContextPacker.Item huge = turn("huge", 400);
+        ContextPacker.Item oldest = turn("oldest", 2);
+        ContextPacker.Item tooLarge = snippet(ContextPacker.Kind.RELATED_CODE, "tooLarge", 200, 5);
+        int budget = newest.getTokens() + oldest.getTokens();
+        assertTrue(huge.getTokens() > budget && tooLarge.getTokens() > budget);
+        ContextPacker.Result result = ContextPacker.pack(Collections.singletonList(tooLarge),
+                Arrays.asList(newest, huge, oldest), budget);
+
+        assertEquals(Collections.singletonList(newest), result.getTurns());
+        assertTrue(result.getSnippets().isEmpty());
+        assertEquals(3, result.getDropped().size());
+        assertTrue(result.getDropped().get(0).getReason().contains("单独超出预算"));
+        assertSame(huge, result.getDropped().get(1).getItem());
+        assertSame("较早的对话不能越过被丢弃的对话单独保留", oldest, result.getDropped().get(2).getItem());
+        assertTrue(result.describe().contains("oldest"));
+
+        List<ChatMessage> messages = newest.getMessages();
+        assertEquals(2, messages.size());
+        assertEquals("user", messages.get(0).getRole());
+    }
+
+    private static ContextPacker.Item snippet(ContextPacker.Kind kind, String label, int words, double value) {
+        return ContextPacker.Item.snippet(kind, label, text(words), value);
+    }
+
+    private static ContextPacker.Item turn(String label, int words) {
+        return ContextPacker.Item.turn(label, Arrays.asList(new ChatMessage("user", text(words)),
+                new ChatMessage("assistant", text(words))), 1);
+    }
+
+    private static String text(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append("word").append(i).append(' ');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.SelectionModel;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.List;
+
+/**
+ * DependencyContextService 引用声明展开的单元测试类。
+ * @author 0027013824
+ */
+public class DependencyContextServiceTest extends BasePlatformTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myFixture.addFileToProject("demo/Base.java", "package demo;\n\npublic abstract class Base {\n}\n");
+        myFixture.addFileToProject("demo/Config.java", "package demo;\n\npublic class Config {\n    public int size;\n}\n");
+        myFixture.addFileToProject("demo/Result.java",
+                "package demo;\n" +
+                "\n" +
+                "public class Result extends Base {\n" +         // 3
+                "    public String text() {\n" +                 // 4
+                "        return \"\";\n" +
+                "    }\n" +
+                "}\n");
+        myFixture.addFileToProject("demo/Helper.java",
+                "package demo;\n" +
+                "\n" +
+                "public class Helper {\n" +                      // 3
+                "    public static final int LIMIT = 10;\n" +    // 4
+                "\n" +
+                "    public Result compute(Config config, int count) {\n" + // 6
+                "        return null;\n" +
+                "    }\n" +
+                "}\n");
+    }
+
+    /**
+     * 测试选中代码引用的项目内声明按类分组输出签名，签名中的类型作为第二层，库中的声明和所在的类不输出。
+     */
+    public void testExpandsReferencesOfSelection() {
+        PsiFile file = myFixture.configureByText("Main.java",
+                "package demo;\n" +
+                "\n" +
+                "import java.util.List;\n" +
+                "\n" +
+                "public class Main {\n" +
+                "    void run(Helper helper, List<String> names) {\n" +
+                "        <selection>int n = names.size();\n" +
+                "        Result result = helper.compute(null, Helper.LIMIT);\n" +
+                "        System.out.println(result.text() + n);</selection>\n" +
+                "    }\n" +
+                "}\n");
+        SelectionModel selection = myFixture.getEditor().getSelectionModel();
+
+        List<String> levels = DependencyContextService.getInstance(getProject())
+                .expand(file, selection.getSelectionStart(), selection.getSelectionEnd());
+        assertEquals("直接引用的声明和签名中的类型两层", 2, levels.size());
+        String direct = levels.get(0);
+        assertTrue(direct, direct.contains("Result.java\n3-7: public class Result extends Base {\n4-6:   text(): String\n"));
+        assertTrue("成员按引用的顺序放在所属的类下", direct.contains(
+                "Helper.java\n3-9: public class Helper {\n6-8:   compute(Config, int): Result\n4:   static int LIMIT\n"));
+        assertFalse("选区所在的类和方法不输出", direct.contains("Main"));
+        assertFalse("JDK 中的声明不输出", direct.contains("println") || direct.contains("size"));
+
+        String types = levels.get(1);
+        assertTrue(types, types.contains("3-4: public abstract class Base {"));
+        assertTrue(types, types.contains("3-5: public class Config {"));
+        assertFalse("已经输出的声明不重复", types.contains("Result {"));
+    }
+
+    /**
+     * 测试没有选区时使用光标所在的方法，结果在 PSI 修改前复用。
+     */
+    public void testCaretUsesEnclosingMethodAndCachesUntilPsiChanges() {
+        PsiFile file = myFixture.configureByText("Main.java",
+                "package demo;\n" +
+                "\n" +
+                "public class Main {\n" +
+                "    Result run(Helper helper) {\n" +
+                "        return helper.comp<caret>ute(new Config(), 1);\n" +
+                "    }\n" +
+                "}\n");
+        DependencyContextService service = DependencyContextService.getInstance(getProject());
+        int caret = myFixture.getCaretOffset();
+
+        List<String> levels = service.expand(file, caret, caret);
+        assertFalse(levels.isEmpty());
+        assertTrue("方法签名中的类型也是方法引用的声明", levels.get(0).contains("public class Result extends Base {"));
+        assertTrue(levels.get(0), levels.get(0).contains("compute(Config, int): Result"));
+        assertTrue(levels.get(0), levels.get(0).contains("public class Config {"));
+        assertSame("PSI 没有修改时复用结果", levels, service.expand(file, caret, caret));
+
+        Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+        assertNotNull(document);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            document.insertString(document.getText().lastIndexOf('}'), "    void added() {\n    }\n");
+            PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+        });
+        List<String> updated = service.expand(file, caret, caret);
+        assertNotSame("PSI 修改后重新计算", levels, updated);
+        assertEquals(levels, updated);
+    }
+}
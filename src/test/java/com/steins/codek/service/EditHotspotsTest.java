@@ -0,0 +1,122 @@
+package com.steins.codek.service;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.List;
+
+/**
+ * EditHotspots 编辑热点记录的单元测试类。
+ * @author 0027013824
+ */
+public class EditHotspotsTest extends BasePlatformTestCase {
+    private static final long HALF_LIFE = 1000;
+
+    /**
+     * 测试连续输入合并为一个区域，后面的区域随插入和删除平移。
+     */
+    public void testCoalescesAndShiftsRegions() {
+        EditHotspots<String> hotspots = new EditHotspots<>(8, HALF_LIFE);
+        hotspots.record("A.java", 5000, 0, 10, 0);
+        for (int i = 0; i < 5; i++) {
+            hotspots.record("A.java", 1000 + i, 0, 1, 0);
+        }
+        // 在两个区域之前删除 50 个字符
+        hotspots.record("B.java", 0, 0, 3, 0);
+        hotspots.record("A.java", 0, 50, 0, 0);
+
+        List<EditHotspots.Region<String>> top = hotspots.top(10, 0);
+        assertEquals("删除本身也是一个区域", 4, top.size());
+        EditHotspots.Region<String> typing = top.get(0);
+        assertEquals("连续输入合并为一个区域", 5.0, typing.getHeat(), 1e-9);
+        assertEquals(950, typing.getStart());
+        assertEquals(955, typing.getEnd());
+        EditHotspots.Region<String> far = findAt(top, "A.java", 4955);
+        assertNotNull("远处的编辑单独成区，并随前面的插入和删除平移", far);
+        assertEquals(4965, far.getEnd());
+
+        // 两个区域之间的编辑把它们连起来
+        hotspots.record("A.java", 2000, 0, 1, 0);
+        assertEquals(5, hotspots.top(10, 0).size());
+        hotspots.record("A.java", 960, 1030, 1030, 0);
+        top = hotspots.top(10, 0);
+        assertEquals(4, top.size());
+        assertEquals(7.0, top.get(0).getHeat(), 1e-9);
+        assertEquals(950, top.get(0).getStart());
+        assertEquals(2001, top.get(0).getEnd());
+    }
+
+    /**
+     * 测试热度按半衰期衰减，容量满时覆盖热度最低的区域。
+     */
+    public void testDecaysAndEvictsColdest() {
+        EditHotspots<String> hotspots = new EditHotspots<>(2, HALF_LIFE);
+        for (int i = 0; i < 4; i++) {
+            hotspots.record("Old.java", i, 0, 1, 0);
+        }
+        hotspots.record("New.java", 0, 0, 1, 2 * HALF_LIFE);
+
+        List<EditHotspots.Region<String>> top = hotspots.top(10, 2 * HALF_LIFE);
+        assertEquals("两个半衰期后 4 次编辑的热度与 1 次新编辑相同", top.get(0).getHeat(), top.get(1).getHeat(), 1e-9);
+
+        hotspots.record("New.java", 1, 0, 1, 2 * HALF_LIFE);
+        hotspots.record("Third.java", 0, 0, 1, 2 * HALF_LIFE);
+        top = hotspots.top(10, 2 * HALF_LIFE);
+        assertEquals(2, top.size());
+        assertNull("容量满时覆盖热度最低的区域", findAt(top, "Old.java", 0));
+        assertNotNull("热度更高的区域应保留", findAt(top, "New.java", 0));
+
+        hotspots.forget("New.java");
+        assertEquals(1, hotspots.top(10, 2 * HALF_LIFE).size());
+    }
+
+    /**
+     * 测试只平移的修改使已有区域跟随文本移动，但不增加热度也不新建区域。
+     */
+    public void testShiftOnlyMovesRegions() {
+        EditHotspots<String> hotspots = new EditHotspots<>(4, HALF_LIFE);
+        hotspots.record("A.java", 1000, 0, 10, 0);
+
+        hotspots.shift("A.java", 0, 0, 50);
+        hotspots.shift("A.java", 1055, 0, 3);
+        hotspots.shift("B.java", 0, 0, 10);
+
+        List<EditHotspots.Region<String>> top = hotspots.top(10, 0);
+        assertEquals("不应新建区域", 1, top.size());
+        assertEquals("区域应随前面的插入平移", 1050, top.get(0).getStart());
+        assertEquals("区域内的插入应扩展区域", 1063, top.get(0).getEnd());
+        assertEquals("不应增加热度", 1.0, top.get(0).getHeat(), 1e-9);
+    }
+
+    /**
+     * 测试合并后留下的空位优先用于新区域，不会覆盖仍在编辑的区域。
+     */
+    public void testReusesSlotsFreedByMerge() {
+        EditHotspots<String> hotspots = new EditHotspots<>(2, HALF_LIFE);
+        hotspots.record("A.java", 0, 0, 1, 0);
+        hotspots.record("A.java", 300, 0, 1, 0);
+        // 两个区域之间的编辑把它们合并，空出一个位置
+        hotspots.record("A.java", 150, 0, 1, 0);
+        assertEquals(1, hotspots.top(10, 0).size());
+
+        hotspots.record("B.java", 0, 0, 1, 0);
+        List<EditHotspots.Region<String>> top = hotspots.top(10, 0);
+        assertEquals("新区域应放入空位", 2, top.size());
+        assertEquals("A.java", top.get(0).getFile());
+        assertEquals(3.0, top.get(0).getHeat(), 1e-9);
+
+        hotspots.record("C.java", 0, 0, 1, 0);
+        top = hotspots.top(10, 0);
+        assertNotNull("仍在编辑的区域不应被覆盖", findAt(top, "A.java", 0));
+        assertNull("容量满时覆盖热度最低的区域", findAt(top, "B.java", 0));
+        assertNotNull(findAt(top, "C.java", 0));
+    }
+
+    private static EditHotspots.Region<String> findAt(List<EditHotspots.Region<String>> regions, String file, int start) {
+        for (EditHotspots.Region<String> region : regions) {
+            if (region.getFile().equals(file) && region.getStart() == start) {
+                return region;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,50 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EditorService 上下文快照的单元测试类。
+ * @author 0027013824
+ */
+public class EditorServiceTest extends BasePlatformTestCase {
+
+    /**
+     * 测试快照的内容，以及光标、选区和文档没有变化时复用同一个快照。
+     */
+    public void testSnapshotIsReusedUntilEditorChanges() throws Exception {
+        StringBuilder text = new StringBuilder("class Demo {\n");
+        for (int i = 1; i <= 30; i++) {
+            text.append("    int field").append(i).append(";\n");
+        }
+        text.append("}\n");
+        myFixture.configureByText("Demo.java", text.toString());
+        myFixture.getEditor().getCaretModel().moveToOffset(myFixture.getDocument(myFixture.getFile()).getLineStartOffset(15));
+        EditorService service = new EditorService(getProject());
+
+        EditorContext context = service.captureContext();
+        assertEquals("Demo.java", context.getFileName());
+        assertEquals("java", context.getLanguage());
+        assertEquals(16, context.getCaretLine());
+        assertNull(context.getSelectedCode());
+        assertTrue("光标窗口应包含前后各 10 行", context.getCursorContext().toString().startsWith("    int field5;")
+                && context.getCursorContext().toString().endsWith("    int field25;"));
+        assertSame("编辑器状态没有变化时应复用快照", context, service.captureContext());
+        EditorContext fromPooledThread = ApplicationManager.getApplication()
+                .executeOnPooledThread(service::captureContext).get(10, TimeUnit.SECONDS);
+        assertSame("在后台线程中也应得到同一个快照", context, fromPooledThread);
+
+        myFixture.getEditor().getSelectionModel().setSelection(0, 5);
+        EditorContext selected = service.captureContext();
+        assertNotSame(context, selected);
+        assertEquals("class", selected.getSelectedCode().toString());
+
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> myFixture.getEditor().getDocument().insertString(0, "// x\n"));
+        EditorContext edited = service.captureContext();
+        assertNotSame("文档修改后应重新生成快照", selected, edited);
+        assertTrue(edited.getModificationStamp() > selected.getModificationStamp());
+    }
+}
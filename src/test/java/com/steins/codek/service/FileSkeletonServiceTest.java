@@ -0,0 +1,102 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+/**
+ * FileSkeletonService 文件骨架的单元测试类。
+ * @author 0027013824
+ */
+public class FileSkeletonServiceTest extends BasePlatformTestCase {
+
+    /**
+     * 测试骨架保留声明和行号，省略方法体和过长的初始值。
+     */
+    public void testKeepsDeclarationsWithLineAnchors() {
+        PsiFile file = myFixture.configureByText("Sample.java",
+                "package demo;\n" +                                         // 1
+                "\n" +
+                "import java.util.List;\n" +                                 // 3
+                "import java.util.Map;\n" +
+                "\n" +
+                "/**\n" +
+                " * 示例。\n" +
+                " */\n" +
+                "@Deprecated\n" +                                            // 9
+                "public class Sample<T> extends Object {\n" +
+                "    private static final String LONG = \"0123456789012345678901234567890123456789012345\";\n" +
+                "    private int count = 1;\n" +                             // 12
+                "\n" +
+                "    /** 计算。 */\n" +
+                "    public int compute(List<T> items,\n" +                  // 15
+                "                       Map<String, T> index) throws Exception {\n" +
+                "        int total = 0;\n" +
+                "        return total + items.size();\n" +
+                "    }\n" +                                                  // 19
+                "\n" +
+                "    enum Mode { FAST, SLOW }\n" +                           // 21
+                "\n" +
+                "    abstract static class Inner {\n" +                      // 23
+                "        abstract void run();\n" +
+                "    }\n" +
+                "}\n");
+
+        String full = FileSkeletonService.getInstance(getProject()).getSkeleton(file, FileSkeletonService.Detail.FULL);
+        assertNotNull(full);
+        assertTrue(full, full.contains("1: package demo;"));
+        assertTrue(full, full.contains("3: import java.util.List;"));
+        assertTrue("类的行号从注解开始，不包括文档注释", full.contains("9-26: @Deprecated public class Sample<T> extends Object {"));
+        assertTrue(full, full.contains("  private static final String LONG = …;"));
+        assertTrue(full, full.contains("12:   private int count = 1;"));
+        assertTrue("多行签名合并为一行，方法体省略", full.contains(
+                "15-19:   public int compute(List<T> items, Map<String, T> index) throws Exception {…}"));
+        assertFalse(full, full.contains("total"));
+        assertTrue(full, full.contains("21:     FAST, SLOW"));
+        assertTrue(full, full.contains("24:     abstract void run();"));
+
+        String compact = FileSkeletonService.getInstance(getProject()).getSkeleton(file, FileSkeletonService.Detail.COMPACT);
+        assertNotNull(compact);
+        assertTrue(compact, compact.contains("3-4: 2 imports from java.util"));
+        assertTrue(compact, compact.contains("9-26: public class Sample<T> extends Object {"));
+        assertTrue(compact, compact.contains("15-19:   compute(List<T>, Map<String, T>): int"));
+        assertTrue(compact, compact.contains("private static String LONG"));
+    }
+
+    /**
+     * 测试大文件的紧凑骨架远小于原文，骨架按修改戳缓存。
+     */
+    public void testCompactSkeletonOfLargeFileIsSmallAndCached() {
+        StringBuilder source = new StringBuilder("package demo;\n\npublic class Large {\n");
+        for (int i = 0; i < 100; i++) {
+            source.append("    public String method").append(i).append("(int value, String name) {\n");
+            for (int j = 0; j < 25; j++) {
+                source.append("        name = name + value * ").append(j).append("; // 计算第 ").append(j).append(" 步\n");
+            }
+            source.append("        return name;\n    }\n\n");
+        }
+        source.append("}\n");
+        PsiFile file = myFixture.configureByText("Large.java", source.toString());
+        FileSkeletonService service = FileSkeletonService.getInstance(getProject());
+
+        String compact = service.getSkeleton(file, FileSkeletonService.Detail.COMPACT);
+        assertNotNull(compact);
+        int sourceTokens = ContextPacker.countTokens(source);
+        int skeletonTokens = ContextPacker.countTokens(compact);
+        assertTrue("约 3000 行的文件，骨架应不到原文的 5%: " + skeletonTokens + "/" + sourceTokens,
+                skeletonTokens * 20 < sourceTokens);
+        assertSame("未修改时返回缓存的骨架", compact, service.getSkeleton(file, FileSkeletonService.Detail.COMPACT));
+
+        Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+        assertNotNull(document);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            document.insertString(document.getText().lastIndexOf('}'), "    public void added() {\n    }\n");
+            PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+        });
+        String updated = service.getSkeleton(file, FileSkeletonService.Detail.COMPACT);
+        assertNotNull(updated);
+        assertTrue("修改后重新生成", updated.contains("added(): void"));
+    }
+}
@@ -0,0 +1,51 @@
+package com.steins.codek.service;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IndexingThrottle 后台索引 CPU 限制的单元测试类。
+ * @author 0027013824
+ */
+public class IndexingThrottleTest extends BasePlatformTestCase {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 测试 CPU 份额先折算成线程数，剩余部分由每个线程的占空比补足。
+     */
+    public void testSplitsShareIntoThreadsAndDuty() {
+        assertEquals("8 核的 25% 正好是 2 个线程", 2, IndexingThrottle.parallelism(0.25, 8));
+        assertEquals(1.0, IndexingThrottle.duty(0.25, 8), 1e-9);
+        assertEquals(3, IndexingThrottle.parallelism(0.3, 8));
+        assertEquals("3 个线程合计 2.4 核", 0.8, IndexingThrottle.duty(0.3, 8), 1e-9);
+        assertEquals("至少一个线程", 1, IndexingThrottle.parallelism(0.1, 4));
+        assertEquals(0.4, IndexingThrottle.duty(0.1, 4), 1e-9);
+        assertEquals(8, IndexingThrottle.parallelism(1.0, 8));
+    }
+
+    /**
+     * 测试休息时间累计到最短休息时间后一次性返回，长期的工作占比等于占空比。
+     */
+    public void testAccumulatesPausesToKeepDuty() {
+        IndexingThrottle throttle = new IndexingThrottle(0.5, 20 * MS);
+        assertEquals("累计 5 ms，不足最短休息时间", 0, throttle.afterWork(5 * MS));
+        assertEquals(0, throttle.afterWork(5 * MS));
+        assertEquals(0, throttle.afterWork(5 * MS));
+        assertEquals("累计到 20 ms 时一次性休息", 20 * MS, throttle.afterWork(5 * MS));
+        assertEquals("休息后重新累计", 0, throttle.afterWork(5 * MS));
+
+        throttle = new IndexingThrottle(0.2, 20 * MS);
+        long busy = 0;
+        long paused = 0;
+        for (int i = 0; i < 1000; i++) {
+            long work = (i % 7 + 1) * MS;
+            busy += work;
+            paused += throttle.afterWork(work);
+        }
+        double duty = (double) busy / (busy + paused);
+        assertEquals("工作时间占 20%", 0.2, duty, 0.01);
+
+        assertEquals("占空比为 1 时不休息", 0, new IndexingThrottle(1.0, 0).afterWork(100 * MS));
+    }
+}
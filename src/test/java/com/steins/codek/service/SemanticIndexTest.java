@@ -0,0 +1,252 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.steins.codek.config.CodekConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 本地代码索引 (CodeChunker、CodeTerms、HashingEmbedder、QuantizedHnswIndex、Bm25Index、SemanticIndexService) 的单元测试类。
+ * @author 0027013824
+ */
+public class SemanticIndexTest extends BasePlatformTestCase {
+    private CodekConfig config;
+    private boolean savedEnabled;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        config = ApplicationManager.getApplication().getService(CodekConfig.class);
+        savedEnabled = config.isSemanticIndexEnabled();
+        config.setSemanticIndexEnabled(false); // 不在后台扫描整个测试项目，测试中显式调用 reindex
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            config.setSemanticIndexEnabled(savedEnabled);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    /**
+     * 测试近似查询的召回率，以及被删除的节点不出现在结果中。
+     */
+    public void testApproximateSearchMatchesExactSearch() {
+        QuantizedHnswIndex index = new QuantizedHnswIndex(32, 8, 64);
+        Random random = new Random(1);
+        for (int i = 0; i < 3000; i++) {
+            index.add(randomUnitVector(random, 32));
+        }
+        for (int node = 0; node < 3000; node += 5) {
+            index.remove(node);
+        }
+
+        int found = 0;
+        for (int q = 0; q < 50; q++) {
+            float[] query = randomUnitVector(random, 32);
+            Set<Integer> exact = index.exactSearch(query, 10).stream().map(n -> n.node).collect(Collectors.toSet());
+            for (QuantizedHnswIndex.Neighbor neighbor : index.search(query, 10, 100)) {
+                assertFalse("被删除的节点不应出现在结果中", index.isDeleted(neighbor.node));
+                if (exact.contains(neighbor.node)) {
+                    found++;
+                }
+            }
+        }
+        assertTrue("召回率过低: " + found / 500.0, found >= 450);
+    }
+
+    /**
+     * 测试写出后读回的索引与原索引的查询结果相同，压缩后只保留未删除的节点。
+     */
+    public void testSnapshotAndCompaction() throws Exception {
+        QuantizedHnswIndex index = new QuantizedHnswIndex(16, 4, 32);
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            index.add(randomUnitVector(random, 16));
+        }
+        index.remove(3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        QuantizedHnswIndex loaded = QuantizedHnswIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        float[] query = randomUnitVector(random, 16);
+        assertEquals(nodes(index.search(query, 5, 50)), nodes(loaded.search(query, 5, 50)));
+        assertEquals(1, loaded.getDeletedCount());
+
+        QuantizedHnswIndex compacted = new QuantizedHnswIndex(16, 4, 32);
+        int[] mapping = loaded.compactInto(compacted);
+        assertEquals(499, compacted.size());
+        assertEquals(-1, mapping[3]);
+        assertEquals("节点应映射到压缩后的编号", 3, mapping[4]);
+        assertEquals(mapping[10], compacted.search(loaded.getVector(10), 1, 50).get(0).node);
+    }
+
+    /**
+     * 测试 Java 文件按类和方法切分，行号指向元素所在的行。
+     */
+    public void testChunksJavaFileByMember() {
+        PsiFile file = myFixture.configureByText("ConfigLoader.java",
+                "package demo;\n" +
+                "\n" +
+                "/** 读取配置文件 */\n" +
+                "public class ConfigLoader {\n" +
+                "    private final String path;\n" +
+                "\n" +
+                "    public Config loadConfigFile() {\n" +
+                "        return Config.parse(path);\n" +
+                "    }\n" +
+                "\n" +
+                "    static class Config {\n" +
+                "        static Config parse(String path) { return new Config(); }\n" +
+                "    }\n" +
+                "}\n");
+
+        List<CodeChunk> chunks = CodeChunker.chunk(file);
+
+        assertEquals(Arrays.asList("ConfigLoader", "ConfigLoader#loadConfigFile", "Config", "Config#parse"),
+                chunks.stream().map(CodeChunk::getName).collect(Collectors.toList()));
+        CodeChunk classChunk = chunks.get(0);
+        assertEquals("类片段应包含文档注释", 3, classChunk.getStartLine());
+        assertTrue("类片段应包含字段", classChunk.getText().contains("private final String path"));
+        assertFalse("类片段不应包含方法体", classChunk.getText().contains("Config.parse(path)"));
+        assertEquals(7, chunks.get(1).getStartLine());
+        assertEquals(9, chunks.get(1).getEndLine());
+    }
+
+    /**
+     * 测试标识符拆分和按标识符中的词查询。
+     */
+    public void testEmbedderMatchesIdentifierWords() {
+        assertEquals(Arrays.asList("parse", "http", "config", "v2"), CodeTerms.splitIdentifier("parseHTTPConfig_v2"));
+
+        HashingEmbedder embedder = new HashingEmbedder();
+        float[] query = embedder.embed("parse config file");
+        float related = dot(query, embedder.embed("ConfigParser#parseFile", "Config parseFile(Path file) { return reader.read(file); }"));
+        float unrelated = dot(query, embedder.embed("ChatBubble#paint", "void paint(Graphics g) { g.drawRoundRect(0, 0, w, h, 8, 8); }"));
+        assertTrue("相关片段的相似度应更高: " + related + " / " + unrelated, related > unrelated + 0.2f);
+    }
+
+    /**
+     * 测试 BM25 的排序、删除后的查询、写出读回以及压缩。
+     */
+    public void testBm25RanksRareTermsAndCompacts() throws Exception {
+        assertEquals(Arrays.asList("load", "config", "file", "读取", "取配", "配置"),
+                CodeTerms.terms("load_config_file(this) 读取配置"));
+
+        Bm25Index index = new Bm25Index();
+        for (int i = 0; i < 20; i++) {
+            index.add(CodeTerms.terms("Object handle(Request request) { return dispatcher.handle(request); }"));
+        }
+        int approval = index.add(CodeTerms.terms("ToolApprovalQueue#approve void approve(ToolCall call) { queue.handle(call); }"));
+        int mention = index.add(CodeTerms.terms("// the queue is drained elsewhere\nvoid drain() { queue.clear(); }"));
+
+        List<Bm25Index.Match> matches = index.search(CodeTerms.terms("approve tool call queue"), 5);
+        assertEquals("包含罕见词项的文档应排在最前", approval, matches.get(0).doc);
+        assertEquals(mention, matches.get(1).doc);
+        assertEquals(1.0f, matches.get(0).coverage, 1e-6f);
+        assertTrue(matches.get(1).coverage < 0.5f);
+
+        index.remove(3);
+        index.remove(approval);
+        assertTrue("被删除的文档不应出现在结果中",
+                index.search(CodeTerms.terms("approve handle request"), 30).stream().noneMatch(m -> m.doc == approval || m.doc == 3));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        Bm25Index loaded = Bm25Index.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(20, loaded.getLiveCount());
+        assertEquals(mention, loaded.search(CodeTerms.terms("queue"), 1).get(0).doc);
+
+        int[] mapping = new int[loaded.size()];
+        for (int doc = 0, next = 0; doc < mapping.length; doc++) {
+            mapping[doc] = loaded.isDeleted(doc) ? -1 : next++;
+        }
+        Bm25Index compacted = loaded.compact(mapping);
+        assertEquals(20, compacted.size());
+        assertEquals(mapping[mention], compacted.search(CodeTerms.terms("queue"), 1).get(0).doc);
+        assertTrue("压缩后不应保留只出现在已删除文档中的词项", compacted.search(CodeTerms.terms("approve"), 1).isEmpty());
+    }
+
+    /**
+     * 测试服务索引项目文件后能查到对应的方法，文件删除后结果随之消失。
+     */
+    public void testServiceIndexesAndRemovesFiles() throws Exception {
+        PsiFile loader = myFixture.addFileToProject("demo/ConfigLoader.java",
+                "package demo;\npublic class ConfigLoader {\n    Config loadConfigFile(String path) { return null; }\n}\n");
+        PsiFile bubble = myFixture.addFileToProject("demo/ChatBubble.java",
+                "package demo;\npublic class ChatBubble {\n    void paintRoundedBorder(Object graphics) { }\n}\n");
+        String loaderUrl = loader.getVirtualFile().getUrl();
+        SemanticIndexService service = new SemanticIndexService(getProject());
+        try {
+            reindex(service, Arrays.asList(loaderUrl, bubble.getVirtualFile().getUrl()));
+
+            assertEquals(2, service.getIndexedFileCount());
+            List<SemanticIndexService.Hit> hits = service.search("load config file", 1);
+            assertEquals("ConfigLoader#loadConfigFile", hits.get(0).getName());
+            assertEquals(3, hits.get(0).getStartLine());
+            assertTrue(service.readSnippet(hits.get(0), 1).contains("loadConfigFile"));
+            assertEquals("ConfigLoader#loadConfigFile", service.searchLexical("load_config", 1).get(0).getName());
+            List<SemanticIndexService.Hit> related = service.searchHybrid("How does loadConfigFile work?", 3);
+            assertEquals("ConfigLoader#loadConfigFile", related.get(0).getName());
+            assertTrue("不相关的片段不应出现在融合结果中",
+                    related.stream().noneMatch(hit -> hit.getName().startsWith("ChatBubble")));
+
+            WriteAction.run(() -> loader.getVirtualFile().delete(this));
+            reindex(service, Collections.singletonList(loaderUrl));
+
+            assertEquals(1, service.getIndexedFileCount());
+            Set<String> names = new HashSet<>();
+            for (SemanticIndexService.Hit hit : service.search("load config file", 10)) {
+                names.add(hit.getName());
+            }
+            assertFalse("已删除文件的片段不应再被查到", names.contains("ConfigLoader#loadConfigFile"));
+        } finally {
+            service.dispose();
+        }
+    }
+
+    private static void reindex(SemanticIndexService service, List<String> urls) throws Exception {
+        ApplicationManager.getApplication().executeOnPooledThread(() -> service.reindex(urls)).get(30, TimeUnit.SECONDS);
+    }
+
+    private static List<Integer> nodes(List<QuantizedHnswIndex.Neighbor> neighbors) {
+        return neighbors.stream().map(n -> n.node).collect(Collectors.toList());
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static float[] randomUnitVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        double norm = 0;
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < dimension; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+}
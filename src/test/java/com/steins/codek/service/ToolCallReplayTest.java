@@ -0,0 +1,100 @@
+package com.steins.codek.service;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.steins.codek.tool.ToolOutputBudget;
+import com.steins.codek.tool.ToolOutputListener;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ToolCallRecorder 与 ToolCallReplay 的单元测试类。
+ * @author 0027013824
+ */
+public class ToolCallReplayTest extends BasePlatformTestCase {
+    private Path logFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        logFile = Files.createTempFile("toolCallReplayTest", ".jsonl");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            ToolExecutor.getInstance(getProject()).stopReplay();
+            Files.deleteIfExists(logFile);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    /**
+     * 测试记录可以读回，追加时序号接着已有的记录，写了一半的行被跳过。
+     */
+    public void testRecordsAndReadsBack() throws Exception {
+        try (ToolCallRecorder recorder = new ToolCallRecorder(logFile)) {
+            recorder.record("readFile", "{\"filePath\": \"a.txt\"}", true, "{\"content\": \"a\"}", 2_000_000);
+        }
+        try (ToolCallRecorder recorder = new ToolCallRecorder(logFile)) {
+            recorder.record("runCommand", "{\"command\": \"make\"}", false, "{\"error\": \"timeout\"}", 5_000);
+        }
+        Files.write(logFile, "{\"seq\": 3, \"tool\": \"readF".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<ToolCallRecorder.Record> records = ToolCallRecorder.read(logFile);
+
+        assertEquals("写了一半的行应被跳过", 2, records.size());
+        assertEquals(1, records.get(0).getSeq());
+        assertEquals("追加时序号应接着已有的记录", 2, records.get(1).getSeq());
+        assertEquals("{\"content\": \"a\"}", records.get(0).getResult());
+        assertEquals(ToolCallRecorder.hash("{\"content\": \"a\"}"), records.get(0).getResultHash());
+        assertEquals(2_000, records.get(0).getDurationMicros());
+        assertFalse(records.get(1).isSuccess());
+    }
+
+    /**
+     * 测试回放按工具和参数匹配 (忽略键的顺序)，同样的调用按记录顺序依次返回。
+     */
+    public void testReplayMatchesCallsInRecordedOrder() throws Exception {
+        try (ToolCallRecorder recorder = new ToolCallRecorder(logFile)) {
+            recorder.record("readFile", "{\"filePath\": \"a.txt\", \"startLine\": \"1\"}", true, "first", 0);
+            recorder.record("grepFile", "{\"pattern\": \"x\"}", true, "grep", 0);
+            recorder.record("readFile", "{\"filePath\": \"a.txt\", \"startLine\": \"1\"}", true, "second", 0);
+        }
+        ToolCallReplay replay = ToolCallReplay.load(logFile, false);
+
+        assertEquals("grep", replay.next("grepFile", "{ \"pattern\":\"x\" }").getResult());
+        assertEquals("first", replay.next("readFile", "{\"startLine\": \"1\", \"filePath\": \"a.txt\"}").getResult());
+        assertEquals("second", replay.next("readFile", "{\"filePath\": \"a.txt\", \"startLine\": \"1\"}").getResult());
+        assertNull("记录用完后不应再匹配", replay.next("readFile", "{\"filePath\": \"a.txt\", \"startLine\": \"1\"}"));
+        assertNull("参数不同不应匹配", replay.next("grepFile", "{\"pattern\": \"y\"}"));
+        assertEquals(0, replay.getRemainingCount());
+        assertEquals(2, replay.getMissCount());
+    }
+
+    /**
+     * 测试回放模式下 ToolExecutor 返回记录的结果而不执行工具。
+     */
+    public void testExecutorServesRecordedResults() throws Exception {
+        String missing = logFile.resolveSibling("does-not-exist.txt").toString();
+        String arguments = "{\"filePath\": \"" + missing.replace("\\", "\\\\") + "\"}";
+        try (ToolCallRecorder recorder = new ToolCallRecorder(logFile)) {
+            recorder.record("readFile", arguments, true, "{\"content\": \"recorded\"}", 1_000);
+        }
+        ToolExecutor executor = ToolExecutor.getInstance(getProject());
+        executor.startReplay(ToolCallReplay.load(logFile, true));
+
+        ToolExecutor.ToolExecutionResult result = executor.submitToolCall("readFile", arguments, "call-1",
+                ToolOutputBudget.DEFAULT, ToolOutputListener.NONE).get(5, TimeUnit.SECONDS);
+
+        assertEquals("应返回记录的结果", "{\"content\": \"recorded\"}", result.getResult());
+        assertEquals("call-1", result.getToolCallId());
+        assertTrue("未记录的调用应返回错误结果",
+                executor.executeToolCall("readFile", "{\"filePath\": \"other.txt\"}").getResult().contains("\"error\": \"replay\""));
+    }
+}
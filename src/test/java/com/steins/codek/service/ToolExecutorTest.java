@@ -0,0 +1,166 @@
+package com.steins.codek.service;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolOutputBudget;
+import com.steins.codek.tool.ToolOutputListener;
+import com.steins.codek.tool.ToolPolicy;
+import com.steins.codek.tool.ToolResource;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ToolExecutor 调度 (超时、写操作互斥) 和同一消息中调用依赖的单元测试类。
+ * @author 0027013824
+ */
+public class ToolExecutorTest extends BasePlatformTestCase {
+
+    private final CountDownLatch finish = new CountDownLatch(1);
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            finish.countDown();
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    /**
+     * 测试执行超过截止时间的调用返回超时结果，阶段为 running，执行中的工具被中断。
+     */
+    public void testTimeoutWhileRunning() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        register("slowTool", new ToolPolicy(1, 200, false, true), () -> {
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+        });
+
+        ToolExecutor.ToolExecutionResult result = submit("slowTool").get(5, TimeUnit.SECONDS);
+        assertFalse(result.isSuccess());
+        JsonObject json = JsonParser.parseString(result.getResult()).getAsJsonObject();
+        assertEquals("timeout", json.get("error").getAsString());
+        assertEquals("running", json.get("phase").getAsString());
+        assertTrue("超时的工具应被中断", interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 测试写操作执行期间另一个写文件的工具等待，超时结果报告在等待写操作；写操作结束后新的写操作可以执行。
+     */
+    public void testWriteWaitsForRunningWrite() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        register("holdingWrite", new ToolPolicy(1, 10_000, true, false), () -> {
+            started.countDown();
+            finish.await();
+        });
+        register("otherWrite", new ToolPolicy(1, 200, true, false), () -> { });
+
+        CompletableFuture<ToolExecutor.ToolExecutionResult> holding = submit("holdingWrite");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        ToolExecutor.ToolExecutionResult waiting = submit("otherWrite").get(5, TimeUnit.SECONDS);
+        assertFalse(waiting.isSuccess());
+        JsonObject json = JsonParser.parseString(waiting.getResult()).getAsJsonObject();
+        assertEquals("waiting for file writes to finish", json.get("phase").getAsString());
+
+        finish.countDown();
+        assertTrue(holding.get(5, TimeUnit.SECONDS).isSuccess());
+        assertTrue("写操作结束后应归还许可", submit("otherWrite").get(5, TimeUnit.SECONDS).isSuccess());
+    }
+
+    /**
+     * 测试写文件的工具即使舱壁允许并发也不会同时执行，可与写操作并行的工具不受影响。
+     */
+    public void testWritesNeverOverlap() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        Body write = () -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            Thread.sleep(30);
+            active.decrementAndGet();
+        };
+        register("writeA", new ToolPolicy(4, 10_000, true, false), write);
+        register("writeB", new ToolPolicy(4, 10_000, true, false), write);
+        CountDownLatch shared = new CountDownLatch(1);
+        register("sharedTool", ToolPolicy.DEFAULT, shared::countDown);
+
+        List<CompletableFuture<ToolExecutor.ToolExecutionResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(submit(i % 2 == 0 ? "writeA" : "writeB"));
+        }
+        futures.add(submit("sharedTool"));
+        assertTrue("可与写操作并行的工具不应等待写操作", shared.await(5, TimeUnit.SECONDS));
+        for (CompletableFuture<ToolExecutor.ToolExecutionResult> future : futures) {
+            assertTrue(future.get(5, TimeUnit.SECONDS).isSuccess());
+        }
+        assertEquals("写操作之间应互斥", 1, maxActive.get());
+    }
+
+    /**
+     * 测试同一消息中调用的依赖：同一路径或目录包含关系上至少一方写入的调用依赖前面的调用，并发读取不冲突。
+     */
+    public void testDependencyGraphOrdersConflictingCalls() {
+        List<List<Integer>> graph = ToolExecutor.dependencyGraph(Arrays.asList(
+                Collections.singletonList(ToolResource.read("/project/src/A.java")),
+                Collections.singletonList(ToolResource.read("/project/src/A.java")),
+                Collections.singletonList(ToolResource.write("/project/src/A.java")),
+                Collections.singletonList(ToolResource.read("/project/src")),
+                Collections.singletonList(ToolResource.write("/project/test/B.java")),
+                Collections.<ToolResource>emptyList(),
+                Collections.singletonList(ToolResource.read("/project/src/Ab.java"))));
+
+        assertEquals(Collections.emptyList(), graph.get(0));
+        assertEquals("并发读取同一文件不冲突", Collections.emptyList(), graph.get(1));
+        assertEquals("写入应等待之前的读取", Arrays.asList(0, 1), graph.get(2));
+        assertEquals("读取目录应等待写入目录下的文件", Collections.singletonList(2), graph.get(3));
+        assertEquals("不同路径不冲突", Collections.emptyList(), graph.get(4));
+        assertEquals("没有声明资源的调用不依赖其他调用", Collections.emptyList(), graph.get(5));
+        assertEquals("只是前缀相同的路径不冲突", Collections.emptyList(), graph.get(6));
+    }
+
+    private CompletableFuture<ToolExecutor.ToolExecutionResult> submit(String toolName) {
+        return ToolExecutor.getInstance(getProject()).submitToolCall(toolName, "{}", null,
+                ToolOutputBudget.DEFAULT, ToolOutputListener.NONE);
+    }
+
+    private void register(String name, ToolPolicy policy, Body body) {
+        ToolRegistry.getInstance(getProject()).registerTool(new Tool() {
+            @NotNull
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @NotNull
+            @Override
+            public ToolPolicy getPolicy() {
+                return policy;
+            }
+
+            @NotNull
+            @Override
+            public String execute(@NotNull Map<String, String> arguments) throws Exception {
+                body.run();
+                return "{}";
+            }
+        }, getTestRootDisposable());
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,88 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.steins.codek.tool.Tool;
+import com.steins.codek.tool.ToolBean;
+import com.steins.codek.tool.ToolDefinition;
+import com.steins.codek.tool.ToolParameter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ToolRegistry 工具定义读取的单元测试类。
+ * @author 0027013824
+ */
+public class ToolRegistryTest extends BasePlatformTestCase {
+
+    /**
+     * 测试内置工具都声明了定义文件，定义从定义文件读取，参数按声明顺序排列。
+     */
+    public void testBuiltInToolsLoadDefinitionsFromSchema() throws Exception {
+        for (ToolBean bean : ToolRegistry.EP_NAME.getExtensionList()) {
+            assertNotNull("内置工具应声明定义文件: " + bean.name, bean.schema);
+            ToolDefinition definition = bean.loadDefinition();
+            assertNotNull(definition);
+            assertEquals(bean.name, definition.getName());
+            assertFalse("描述不能为空: " + bean.name, definition.getDescription().isEmpty());
+        }
+
+        List<ToolDefinition> definitions = ToolRegistry.getInstance(getProject()).getDefinitions();
+        ToolDefinition grep = definitions.stream().filter(d -> d.getName().equals("grepFile")).findFirst().orElse(null);
+        assertNotNull(grep);
+        ToolParameter first = grep.getParameters().get(0);
+        assertEquals("filePath", first.getName());
+        assertTrue("filePath 应为必需", first.isRequired());
+        assertEquals("integer", grep.getParameters().get(4).getType());
+        assertFalse(grep.getParameters().get(4).isRequired());
+    }
+
+    /**
+     * 测试运行时注册的工具使用实例自身的定义，排在扩展点声明的工具之后，注销后版本递增。
+     */
+    public void testRuntimeToolsUseInstanceDefinition() {
+        ToolRegistry registry = ToolRegistry.getInstance(getProject());
+        long version = registry.getVersion();
+        Disposable disposable = Disposer.newDisposable();
+        try {
+            registry.registerTool(new Tool() {
+                @NotNull
+                @Override
+                public String getName() {
+                    return "runtimeTool";
+                }
+
+                @NotNull
+                @Override
+                public String getDescription() {
+                    return "Runtime tool.";
+                }
+
+                @NotNull
+                @Override
+                public List<ToolParameter> getParameters() {
+                    return Collections.singletonList(new ToolParameter("value", "integer", "A value.", true));
+                }
+
+                @NotNull
+                @Override
+                public String execute(@NotNull Map<String, String> arguments) {
+                    return "{}";
+                }
+            }, disposable);
+            List<ToolDefinition> definitions = registry.getDefinitions();
+            ToolDefinition last = definitions.get(definitions.size() - 1);
+            assertEquals("runtimeTool", last.getName());
+            assertEquals("integer", last.getParameters().get(0).getType());
+            assertTrue(registry.getToolsJsonText().contains("\"runtimeTool\""));
+        } finally {
+            Disposer.dispose(disposable);
+        }
+        assertTrue("注册和注销都应使版本递增", registry.getVersion() >= version + 2);
+        assertFalse(registry.getToolsJsonText().contains("\"runtimeTool\""));
+    }
+}
@@ -0,0 +1,186 @@
+package com.steins.codek.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.steins.codek.config.CodekConfig;
+import com.steins.codek.service.ToolApprovalQueue.ReviewDecision;
+import com.steins.codek.service.ToolApprovalQueue.ReviewItem;
+import com.steins.codek.tool.FileTransaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ToolReviewRound 与 ToolApprovalQueue 的单元测试类。
+ * @author 0027013824
+ */
+public class ToolReviewRoundTest extends BasePlatformTestCase {
+    private static final String DIR = "/tmp/codek-review";
+
+    private ToolApprovalQueue queue;
+    private FileTransaction transaction;
+    private CodekConfig config;
+    private List<String> savedPaths;
+    private final List<List<ReviewItem>> reviews = new ArrayList<>();
+    private final List<CompletableFuture<ReviewDecision>> pendingDecisions = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        queue = new ToolApprovalQueue(getProject());
+        transaction = new FileTransaction(getProject());
+        config = ApplicationManager.getApplication().getService(CodekConfig.class);
+        savedPaths = config.getAutoApprovedPaths();
+        config.setAutoApprovedPaths(Collections.emptyList());
+        queue.setReviewer(items -> {
+            CompletableFuture<ReviewDecision> decision = new CompletableFuture<>();
+            reviews.add(items);
+            pendingDecisions.add(decision);
+            return decision;
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            config.setAutoApprovedPaths(savedPaths);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    /**
+     * 测试等待批准的调用和已暂存的修改合并到同一个审查中，被拒绝的文件不提交并报告给暂存它的调用。
+     */
+    public void testGroupsCallsAndChangesIntoOneReview() throws Exception {
+        ToolReviewRound round = new ToolReviewRound(queue, transaction);
+        CompletableFuture<Boolean> command = round.gate(ReviewItem.toolCall("runCommand", "command: make", "call-1"));
+        round.requireReview("call-2");
+        round.requireReview("call-3");
+        transaction.stageCreate(DIR + "/a.txt", "a", "call-2");
+        transaction.stageCreate(DIR + "/b.txt", "b", "call-3");
+
+        round.open(Collections.singletonList(CompletableFuture.completedFuture(null)));
+        CompletableFuture<Map<String, String>> finished = round.finish();
+
+        assertEquals("应只打开一次审查", 1, reviews.size());
+        List<ReviewItem> items = reviews.get(0);
+        assertEquals("审查应包含调用和两个文件", 3, items.size());
+        assertFalse("审查期间调用不应执行", command.isDone());
+
+        pendingDecisions.get(0).complete(new ReviewDecision(items.subList(0, 2), false, Collections.emptyList()));
+        Map<String, String> rejections = finished.get(5, TimeUnit.SECONDS);
+
+        assertTrue("批准的调用应放行", command.get());
+        assertEquals("提交前不应再次审查已批准的文件", 1, reviews.size());
+        assertEquals("被拒绝的文件应报告给暂存它的调用", DIR + "/b.txt", rejections.get("call-3"));
+        assertNotNull("批准的文件应保留", transaction.getStagedText(DIR + "/a.txt"));
+        assertNull("被拒绝的文件应被丢弃", transaction.getStagedText(DIR + "/b.txt"));
+    }
+
+    /**
+     * 测试批准后又被修改的文件在提交前再次审查。
+     */
+    public void testReviewsChangedFileAgain() throws Exception {
+        ToolReviewRound round = new ToolReviewRound(queue, transaction);
+        round.gate(ReviewItem.toolCall("runCommand", "command: make", "call-1"));
+        round.requireReview("call-2");
+        transaction.stageCreate(DIR + "/a.txt", "a", "call-2");
+        round.open(Collections.emptyList());
+        pendingDecisions.get(0).complete(new ReviewDecision(reviews.get(0), false, Collections.emptyList()));
+
+        round.requireReview("call-3");
+        transaction.stageCreate(DIR + "/a.txt", "a2", "call-3");
+        CompletableFuture<Map<String, String>> finished = round.finish();
+
+        assertEquals("修改过的文件应再次审查", 2, reviews.size());
+        assertEquals("a2", reviews.get(1).get(0).getNewText());
+        pendingDecisions.get(1).complete(ReviewDecision.rejectAll());
+        assertEquals(DIR + "/a.txt", finished.get(5, TimeUnit.SECONDS).get("call-3"));
+    }
+
+    /**
+     * 测试之前的消息已批准的修改在之后被拒绝时回退到检查点，而不是整个文件被丢弃。
+     */
+    public void testRejectRevertsToCheckpoint() throws Exception {
+        ToolReviewRound round = new ToolReviewRound(queue, transaction);
+        round.requireReview("call-1");
+        transaction.stageCreate(DIR + "/a.txt", "a1", "call-1");
+        CompletableFuture<Map<String, String>> finished = round.finish();
+        pendingDecisions.get(0).complete(new ReviewDecision(reviews.get(0), false, Collections.emptyList()));
+        finished.get(5, TimeUnit.SECONDS);
+        transaction.checkpoint();
+
+        ToolReviewRound next = new ToolReviewRound(queue, transaction);
+        next.requireReview("call-2");
+        transaction.stageCreate(DIR + "/a.txt", "a2", "call-2");
+        finished = next.finish();
+        assertEquals("审查应以检查点的内容为修改前的内容", "a1", reviews.get(1).get(0).getOldText());
+        pendingDecisions.get(1).complete(ReviewDecision.rejectAll());
+
+        assertEquals(Collections.singleton("call-2"), finished.get(5, TimeUnit.SECONDS).keySet());
+        assertEquals("应回退到检查点的内容", "a1", transaction.getStagedText(DIR + "/a.txt"));
+    }
+
+    /**
+     * 测试“本轮不再询问”跳过后续审查，新一轮重新询问。
+     */
+    public void testAllowForTurn() throws Exception {
+        ToolReviewRound round = new ToolReviewRound(queue, transaction);
+        round.requireReview("call-1");
+        transaction.stageCreate(DIR + "/a.txt", "a", "call-1");
+        CompletableFuture<Map<String, String>> finished = round.finish();
+        pendingDecisions.get(0).complete(new ReviewDecision(reviews.get(0), true, Collections.emptyList()));
+        assertTrue(finished.get(5, TimeUnit.SECONDS).isEmpty());
+        assertTrue(queue.isAllowedForTurn());
+
+        ToolReviewRound next = new ToolReviewRound(queue, transaction);
+        next.requireReview("call-2");
+        transaction.stageCreate(DIR + "/c.txt", "c", "call-2");
+        assertTrue(next.finish().get(5, TimeUnit.SECONDS).isEmpty());
+        assertEquals("本轮不应再次审查", 1, reviews.size());
+
+        queue.beginTurn();
+        assertFalse("新一轮应重新询问", queue.isAllowedForTurn());
+    }
+
+    /**
+     * 测试始终允许的路径被保存到配置中，其下的文件不再审查。
+     */
+    public void testAlwaysAllowPaths() throws Exception {
+        ToolReviewRound round = new ToolReviewRound(queue, transaction);
+        round.requireReview("call-1");
+        transaction.stageCreate(DIR + "/a.txt", "a", "call-1");
+        CompletableFuture<Map<String, String>> finished = round.finish();
+        pendingDecisions.get(0).complete(new ReviewDecision(reviews.get(0), false, Collections.singletonList(DIR)));
+        finished.get(5, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonList(DIR), config.getAutoApprovedPaths());
+        assertTrue(queue.isAlwaysAllowed(DIR + "/sub/b.txt"));
+        assertFalse(queue.isAlwaysAllowed("/tmp/other/b.txt"));
+
+        ToolReviewRound next = new ToolReviewRound(queue, transaction);
+        next.requireReview("call-2");
+        transaction.stageCreate(DIR + "/sub/b.txt", "b", "call-2");
+        assertTrue(next.finish().get(5, TimeUnit.SECONDS).isEmpty());
+        assertEquals("始终允许的路径不应审查", 1, reviews.size());
+    }
+
+    /**
+     * 测试停止当前轮次时等待批准的调用被拒绝。
+     */
+    public void testCancelRejectsPendingCalls() throws Exception {
+        ToolReviewRound round = new ToolReviewRound(queue, transaction);
+        CompletableFuture<Boolean> command = round.gate(ReviewItem.toolCall("runCommand", "command: make", "call-1"));
+        round.open(Collections.emptyList());
+
+        round.cancel();
+
+        assertFalse("被取消的调用不应执行", command.get(5, TimeUnit.SECONDS));
+        assertTrue("审查面板应被关闭", pendingDecisions.get(0).isCancelled());
+    }
+}
@@ -0,0 +1,87 @@
+package com.steins.codek.service;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+/**
+ * ToolScheduler 舱壁和写操作互斥的单元测试类。
+ * @author 0027013824
+ */
+public class ToolSchedulerTest extends BasePlatformTestCase {
+
+    /**
+     * 测试同一工具的许可数不超过并发上限，归还后按提交顺序发放给等待的请求；其他工具不受影响。
+     */
+    public void testBulkheadLimitsEachToolSeparately() {
+        ToolScheduler scheduler = new ToolScheduler();
+        ToolScheduler.Request first = scheduler.acquire("grep", 2, ToolScheduler.Access.SHARED_WITH_WRITES);
+        ToolScheduler.Request second = scheduler.acquire("grep", 2, ToolScheduler.Access.SHARED_WITH_WRITES);
+        ToolScheduler.Request third = scheduler.acquire("grep", 2, ToolScheduler.Access.SHARED_WITH_WRITES);
+        ToolScheduler.Request fourth = scheduler.acquire("grep", 2, ToolScheduler.Access.SHARED_WITH_WRITES);
+        ToolScheduler.Request other = scheduler.acquire("find", 1, ToolScheduler.Access.SHARED_WITH_WRITES);
+
+        assertTrue(first.getPermit().isDone());
+        assertTrue(second.getPermit().isDone());
+        assertFalse("超过并发上限的请求应等待", third.getPermit().isDone());
+        assertFalse(third.isWaitingForWrites());
+        assertTrue("等待中的请求不应挡住其他工具", other.getPermit().isDone());
+        assertEquals(3, scheduler.getRunningCount());
+
+        first.release();
+        first.release(); // 重复归还无效
+        assertTrue("归还后应发放给最早的等待请求", third.getPermit().isDone());
+        assertFalse(fourth.getPermit().isDone());
+        assertEquals(3, scheduler.getRunningCount());
+    }
+
+    /**
+     * 测试写操作独占：等待读操作结束后才执行，执行期间读操作等待；写操作等待时之后的读操作也等待，
+     * 可与写操作并行的调用不受影响。
+     */
+    public void testWritesAreExclusive() {
+        ToolScheduler scheduler = new ToolScheduler();
+        ToolScheduler.Request read = scheduler.acquire("readFile", 4, ToolScheduler.Access.READ);
+        ToolScheduler.Request write = scheduler.acquire("writeFile", 1, ToolScheduler.Access.WRITE);
+        ToolScheduler.Request laterRead = scheduler.acquire("readFile", 4, ToolScheduler.Access.READ);
+        ToolScheduler.Request shared = scheduler.acquire("findSymbol", 4, ToolScheduler.Access.SHARED_WITH_WRITES);
+
+        assertTrue(read.getPermit().isDone());
+        assertFalse("读操作执行时写操作应等待", write.getPermit().isDone());
+        assertTrue(write.isWaitingForWrites());
+        assertFalse("写操作等待时之后的读操作也应等待", laterRead.getPermit().isDone());
+        assertTrue(shared.getPermit().isDone());
+
+        read.release();
+        assertTrue(write.getPermit().isDone());
+        assertFalse("写操作执行时读操作应等待", laterRead.getPermit().isDone());
+
+        ToolScheduler.Request otherWrite = scheduler.acquire("applyPatch", 1, ToolScheduler.Access.WRITE);
+        assertFalse("写操作之间互斥", otherWrite.getPermit().isDone());
+
+        write.release();
+        assertTrue(laterRead.getPermit().isDone());
+        assertFalse(otherWrite.getPermit().isDone());
+        laterRead.release();
+        assertTrue(otherWrite.getPermit().isDone());
+    }
+
+    /**
+     * 测试取消等待中的请求后不再发放许可，被它挡住的请求继续执行；取消已发放的请求时归还许可。
+     */
+    public void testCancelRemovesWaitingRequestOrReleasesPermit() {
+        ToolScheduler scheduler = new ToolScheduler();
+        ToolScheduler.Request read = scheduler.acquire("readFile", 4, ToolScheduler.Access.READ);
+        ToolScheduler.Request write = scheduler.acquire("writeFile", 1, ToolScheduler.Access.WRITE);
+        ToolScheduler.Request laterRead = scheduler.acquire("readFile", 4, ToolScheduler.Access.READ);
+        assertFalse(laterRead.getPermit().isDone());
+
+        write.cancel();
+        assertTrue(write.getPermit().isCancelled());
+        assertTrue("取消的写操作不应再挡住之后的读操作", laterRead.getPermit().isDone());
+
+        read.cancel();
+        laterRead.cancel();
+        assertEquals("取消已发放的请求应归还许可", 0, scheduler.getRunningCount());
+        ToolScheduler.Request next = scheduler.acquire("writeFile", 1, ToolScheduler.Access.WRITE);
+        assertTrue(next.getPermit().isDone());
+    }
+}
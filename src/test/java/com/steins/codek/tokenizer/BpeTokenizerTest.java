@@ -0,0 +1,111 @@
+package com.steins.codek.tokenizer;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * BpeTokenizer 和 PreTokenizer 的单元测试类。
+ * @author 0027013824
+ */
+public class BpeTokenizerTest extends BasePlatformTestCase {
+    private static final Pattern CL100K_PATTERN = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+",
+            Pattern.UNICODE_CHARACTER_CLASS);
+
+    /**
+     * 测试预切分与 tiktoken 的正则表达式结果一致。
+     */
+    public void testSplitsLikeTiktokenPattern() {
+        String[] samples = {
+                "hello world",
+                "I'm can't  WE'LL   end\n\n  next",
+                "int x = 12345;\r\n\treturn foo(x);  \n",
+                "中文和English混排，标点！123abc",
+                "    tail   ",
+                "a//b -> c::d\n\n\n"
+        };
+        for (String sample : samples) {
+            assertEquals("切分结果应与正则表达式一致: " + sample, regexSplit(sample), split(PreTokenizer.CL100K, sample));
+        }
+    }
+
+    /**
+     * 测试按词表序号合并，计数与编码结果一致。
+     */
+    public void testMergesByRank() throws IOException {
+        BpeTokenizer tokenizer = tinyTokenizer();
+
+        assertEquals(264, tokenizer.getVocabularySize());
+        assertTrue("整个片段在词表中时为一个词", Arrays.equals(new int[]{259, 263}, tokenizer.encode("hello world")));
+        assertTrue("按序号从小到大合并", Arrays.equals(new int[]{259, 260}, tokenizer.encode("hellold")));
+        assertEquals(2, tokenizer.count("hellold"));
+        assertEquals("没有合并的中文按 UTF-8 字节计数", 6, tokenizer.count("你好"));
+        assertEquals(0, tokenizer.count(""));
+
+        String text = "hello hellold world 你好\n".repeat(50);
+        int tokens = tokenizer.encode(text).length;
+        assertEquals(tokens, tokenizer.count(text));
+        assertEquals("再次计数时命中缓存，结果不变", tokens, tokenizer.count(text));
+    }
+
+    /**
+     * 测试词表可用时与 tiktoken 的 cl100k_base 编码一致，不可用时退回估算。
+     */
+    public void testMatchesCl100kWhenAvailable() {
+        BpeTokenizer tokenizer = Tokenizers.load(Tokenizers.CL100K_BASE);
+        if (tokenizer == null) {
+            assertSame(TokenCounter.ESTIMATE, Tokenizers.forModel("deepseek-chat"));
+            return;
+        }
+        assertTrue(Arrays.equals(new int[]{15339, 1917}, tokenizer.encode("hello world")));
+        assertEquals(Tokenizers.O200K_BASE, Tokenizers.encodingForModel("gpt-4o-mini"));
+        assertEquals(Tokenizers.CL100K_BASE, Tokenizers.encodingForModel("deepseek-chat"));
+    }
+
+    /**
+     * 词表：256 个单字节，随后依次为 he、ll、hell、hello、ld、" w"、or、" world"。
+     * 没有 " wor"，所以 " world" 只能作为整个片段命中。
+     */
+    private static BpeTokenizer tinyTokenizer() throws IOException {
+        StringBuilder vocabulary = new StringBuilder();
+        int rank = 0;
+        for (int b = 0; b < 256; b++) {
+            vocabulary.append(Base64.getEncoder().encodeToString(new byte[]{(byte) b})).append(' ').append(rank++).append('\n');
+        }
+        for (String merged : new String[]{"he", "ll", "hell", "hello", "ld", " w", "or", " world"}) {
+            vocabulary.append(Base64.getEncoder().encodeToString(merged.getBytes(StandardCharsets.UTF_8)))
+                    .append(' ').append(rank++).append('\n');
+        }
+        return BpeTokenizer.read("tiny", PreTokenizer.CL100K,
+                new ByteArrayInputStream(vocabulary.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static List<String> split(PreTokenizer preTokenizer, String text) {
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = preTokenizer.next(text, start);
+            pieces.add(text.substring(start, end));
+            start = end;
+        }
+        return pieces;
+    }
+
+    private static List<String> regexSplit(String text) {
+        List<String> pieces = new ArrayList<>();
+        Matcher matcher = CL100K_PATTERN.matcher(text);
+        while (matcher.find()) {
+            pieces.add(matcher.group());
+        }
+        return pieces;
+    }
+}
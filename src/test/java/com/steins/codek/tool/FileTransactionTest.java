@@ -0,0 +1,118 @@
+package com.steins.codek.tool;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * FileTransaction 提交时与编辑器中修改合并的单元测试类。
+ * @author 0027013824
+ */
+public class FileTransactionTest extends BasePlatformTestCase {
+    private static final String BASE = "line 1\nline 2\nline 3\nline 4\nline 5\n";
+
+    private VirtualFile file;
+    private Document document;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = myFixture.addFileToProject("Demo.txt", BASE).getVirtualFile();
+        document = FileDocumentManager.getInstance().getDocument(file);
+        assertNotNull(document);
+    }
+
+    /**
+     * 测试暂存之后用户修改了文件的其他行：提交时合并双方的修改，不覆盖用户的修改。
+     */
+    public void testMergesEditorChangesMadeAfterStaging() {
+        FileTransaction transaction = new FileTransaction(getProject());
+        transaction.stageWrite(file, BASE.replace("line 1", "line one"), "call-1");
+        edit("line 5", "line five");
+
+        FileTransaction.CommitResult result = transaction.commit();
+        assertTrue("不重叠的修改应合并成功", result.isSuccessful());
+        assertEquals("line one\nline 2\nline 3\nline 4\nline five\n", document.getText());
+    }
+
+    /**
+     * 测试暂存之后用户修改了同一行：不应用暂存的内容，在提交结果中报告冲突。
+     */
+    public void testReportsConflictInsteadOfOverwriting() {
+        FileTransaction transaction = new FileTransaction(getProject());
+        transaction.stageWrite(file, BASE.replace("line 3", "staged"), "call-1");
+        edit("line 3", "typed");
+
+        FileTransaction.CommitResult result = transaction.commit();
+        assertFalse(result.isSuccessful());
+        assertTrue("冲突的文件应报告", result.getConflicts().contains(file.getPath()));
+        assertEquals("用户的修改应保留", BASE.replace("line 3", "typed"), document.getText());
+    }
+
+    /**
+     * 测试文档没有被修改时直接应用；两边做了相同的修改时不算冲突。
+     */
+    public void testAppliesWhenUnchangedOrIdentical() {
+        FileTransaction transaction = new FileTransaction(getProject());
+        transaction.stageWrite(file, BASE + "line 6", "call-1");
+        assertTrue(transaction.commit().isSuccessful());
+        assertEquals(BASE + "line 6", document.getText());
+
+        String current = document.getText();
+        transaction = new FileTransaction(getProject());
+        transaction.stageWrite(file, current.replace("line 2", "same"), "call-2");
+        edit("line 2", "same");
+        assertTrue("相同的修改不算冲突", transaction.commit().isSuccessful());
+        assertEquals(current.replace("line 2", "same"), document.getText());
+    }
+
+    /**
+     * 测试 CRLF 换行的暂存内容转换为 '\n' 后合并并写入文档，覆盖层看到的是同一份文本。
+     */
+    public void testNormalizesCrlfContent() {
+        FileTransaction transaction = new FileTransaction(getProject());
+        transaction.stageWrite(file, BASE.replace("line 1", "line one").replace("\n", "\r\n"), "call-1");
+        assertEquals(BASE.replace("line 1", "line one"), transaction.getStagedText(file.getPath()));
+        assertEquals(BASE.replace("line 1", "line one"), transaction.getOverlayDocument(file.getPath()).getText());
+        edit("line 5", "line five");
+
+        FileTransaction.CommitResult result = transaction.commit();
+        assertTrue("CRLF 内容应能合并并写入", result.isSuccessful());
+        assertEquals("line one\nline 2\nline 3\nline 4\nline five\n", document.getText());
+    }
+
+    /**
+     * 测试提交暂存的修改在 CodeK 自身的写命令中执行，用户的修改不在其中。
+     */
+    public void testCommitRunsInToolCommand() {
+        boolean[] inToolCommand = new boolean[1];
+        DocumentListener listener = new DocumentListener() {
+            @Override
+            public void documentChanged(@NotNull DocumentEvent event) {
+                inToolCommand[0] = FileTransaction.isToolCommand();
+            }
+        };
+        document.addDocumentListener(listener, getTestRootDisposable());
+
+        edit("line 1", "typed");
+        assertFalse("用户的修改不应视为工具的修改", inToolCommand[0]);
+
+        FileTransaction transaction = new FileTransaction(getProject());
+        transaction.stageWrite(file, document.getText().replace("line 2", "staged"), "call-1");
+        assertTrue(transaction.commit().isSuccessful());
+        assertTrue("提交暂存的修改应在工具的写命令中", inToolCommand[0]);
+        assertFalse("写命令之外不应视为工具的修改", FileTransaction.isToolCommand());
+    }
+
+    private void edit(String from, String to) {
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            int offset = document.getText().indexOf(from);
+            document.replaceString(offset, offset + from.length(), to);
+        });
+    }
+}
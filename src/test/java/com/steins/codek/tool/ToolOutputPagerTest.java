@@ -0,0 +1,45 @@
+package com.steins.codek.tool;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+/**
+ * ToolOutputPager 按预算切分输出的单元测试类。
+ * @author 0027013824
+ */
+public class ToolOutputPagerTest extends BasePlatformTestCase {
+
+    /**
+     * 测试单行超出预算时退到预算内最后一个条目边界，切分结果按分词器计数不超过预算。
+     */
+    public void testSingleLineFallsBackToEntryBoundary() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            text.append(i > 0 ? "," : "").append("{\"name\":\"entry").append(i).append("\",\"value\":").append(i).append('}');
+        }
+        text.append(']');
+        ToolOutputBudget budget = new ToolOutputBudget(100);
+
+        int end = ToolOutputPager.fitEntries(text.toString(), 0, budget);
+        assertTrue("应在文本中间切分", end > 1 && end < text.length());
+        assertTrue("切分结果应在预算内", budget.fits(text.subSequence(0, end)));
+        assertEquals("应切在条目之后", ',', text.charAt(end - 1));
+        assertEquals('}', text.charAt(end - 2));
+        String next = text.substring(0, text.indexOf("}", end) + 2);
+        assertFalse("再多一个条目应超出预算", budget.fits(next));
+    }
+
+    /**
+     * 测试没有条目边界的长行 (例如大量非 ASCII 字符) 切在预算内的最远位置，不拆开代理对，且至少前进一个字符。
+     */
+    public void testHardCutStaysWithinBudget() {
+        String text = "中文😀".repeat(500);
+        ToolOutputBudget budget = new ToolOutputBudget(50);
+
+        int end = ToolOutputPager.fitEntries(text, 0, budget);
+        assertTrue(end > 0 && end < text.length());
+        assertTrue("切分结果应在预算内", budget.fits(text.subSequence(0, end)));
+        assertFalse("不应拆开代理对", Character.isHighSurrogate(text.charAt(end - 1)));
+
+        assertTrue("预算很小时也应前进", ToolOutputPager.fitEntries(text, 0, new ToolOutputBudget(1)) > 0);
+    }
+}
@@ -0,0 +1,162 @@
+package com.steins.codek.tool.external;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.intellij.util.execution.ParametersListUtil;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolOutputBudget;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 外部工具服务器的测试类，使用 {@link FakeToolServer} 作为本地替身进程。
+ * @author 0027013824
+ */
+public class ExternalToolServerTest extends BasePlatformTestCase {
+    private ExternalToolServer server;
+    private Map<String, ExternalTool> tools;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ToolServerConfig config = new ToolServerConfig("fake", fakeServerCommand());
+        config.setPoolSize(2);
+        server = new ExternalToolServer(config, null);
+        JsonArray definitions = server.start();
+        tools = new HashMap<>();
+        for (JsonElement definition : definitions) {
+            ExternalTool tool = new ExternalTool(server, definition.getAsJsonObject());
+            tools.put(tool.getName(), tool);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            Disposer.dispose(server);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    /**
+     * 测试启动时读取工具列表，并按 inputSchema 生成参数定义。
+     */
+    public void testListsExportedTools() {
+        assertEquals("应导出四个工具", 4, tools.size());
+        ExternalTool slow = tools.get("slow");
+        assertNotNull("应包含 slow 工具", slow);
+        assertEquals("参数类型应来自 inputSchema", "integer", slow.getParameters().get(0).getType());
+        assertTrue("参数应为必需", slow.getParameters().get(0).isRequired());
+        assertEquals("连接池中的进程应全部存活", 2, server.getLiveConnectionCount());
+    }
+
+    /**
+     * 测试调用工具：JSON 文本结果原样返回，参数按声明类型传递。
+     */
+    public void testCallsToolOnWarmProcess() throws Exception {
+        String result = tools.get("echo").execute(Map.of("text", "hello"));
+
+        assertEquals("应原样返回服务器的 JSON 结果", "{\"echo\": \"hello\"}", result);
+    }
+
+    /**
+     * 测试 id 为字符串或小数的消息被忽略，读取线程不会退出，同一进程上的后续调用仍能完成。
+     */
+    public void testIgnoresMessagesWithNonIntegerIds() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            assertEquals("应返回本次调用的结果", "{\"echo\": \"noisy " + i + "\"}",
+                    tools.get("noisy").execute(Map.of("text", "noisy " + i)));
+        }
+
+        assertEquals("进程不应被判定为退出", 2, server.getLiveConnectionCount());
+        assertEquals("{\"echo\": \"after\"}", tools.get("echo").execute(Map.of("text", "after")));
+    }
+
+    /**
+     * 测试同一进程上的并发请求按 id 分发，进度通知推送到各自调用的监听器。
+     */
+    public void testMultiplexesConcurrentCallsAndStreamsProgress() throws Exception {
+        int calls = 6;
+        List<StringBuffer> outputs = new ArrayList<>();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            StringBuffer output = new StringBuffer();
+            outputs.add(output);
+            ToolContext context = new ToolContext("call-" + i, null, ToolOutputBudget.DEFAULT, (id, text) -> output.append(text));
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return tools.get("slow").execute(Map.of("steps", "3"), context);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        for (int i = 0; i < calls; i++) {
+            String result = results.get(i).get(10, TimeUnit.SECONDS);
+            String requestId = result.replaceAll(".*done (\\d+).*", "$1");
+            assertTrue("应返回 content 字段: " + result, result.contains("\"content\": \"done "));
+            String output = outputs.get(i).toString();
+            assertTrue("应收到三条进度: " + output, output.contains("step 3 of request " + requestId));
+            assertEquals("进度只应来自本次请求: " + output, 3, output.split("of request " + requestId + "\n", -1).length - 1);
+        }
+    }
+
+    /**
+     * 测试进程退出后，调用返回错误结果，健康检查补充新的进程。
+     */
+    public void testReplacesCrashedProcess() throws Exception {
+        String result = tools.get("crash").execute(Map.of("code", "3"));
+        assertTrue("进程退出时应返回错误: " + result, result.contains("\"error\""));
+
+        server.checkHealth();
+
+        assertEquals("健康检查后连接池应恢复", 2, server.getLiveConnectionCount());
+        assertEquals("替换的进程应可正常调用", "{\"echo\": \"again\"}", tools.get("echo").execute(Map.of("text", "again")));
+    }
+
+    /**
+     * 测试取消调用后立即停止等待。
+     */
+    public void testCancelStopsWaiting() throws Exception {
+        ToolContext context = new ToolContext("call", null);
+        CompletableFuture<String> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return tools.get("slow").execute(Map.of("steps", "100"), context);
+            } catch (CancellationException e) {
+                return "cancelled";
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+        context.cancel();
+
+        assertEquals("取消后应立即返回", "cancelled", result.get(2, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 替身进程的命令行：只包含测试类和 Gson 的类路径。
+     */
+    private static String fakeServerCommand() throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classpath = codeSource(FakeToolServer.class) + File.pathSeparator + codeSource(Gson.class);
+        return ParametersListUtil.join(List.of(java, "-cp", classpath, FakeToolServer.class.getName()));
+    }
+
+    private static String codeSource(Class<?> cls) throws Exception {
+        return Paths.get(cls.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    }
+}
@@ -0,0 +1,167 @@
+package com.steins.codek.tool.external;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 测试用的外部工具服务器：在独立进程中运行，通过 stdio 按行收发 JSON-RPC 消息。
+ * 导出 echo (立即返回)、slow (分步发送进度通知后返回，可被取消)、crash (进程直接退出)
+ * 和 noisy (先发送 id 为字符串或小数的消息，再正常返回) 四个工具，
+ * 每个请求在单独的线程中处理，以便验证同一进程上的请求按 id 复用。
+ * @author 0027013824
+ */
+public class FakeToolServer {
+    private static final PrintStream OUT = new PrintStream(System.out, true, StandardCharsets.UTF_8);
+    private static final Set<Long> CANCELLED = ConcurrentHashMap.newKeySet();
+
+    public static void main(String[] args) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            JsonObject message = JsonParser.parseString(line).getAsJsonObject();
+            String method = message.has("method") ? message.get("method").getAsString() : "";
+            if ("notifications/cancelled".equals(method)) {
+                CANCELLED.add(message.getAsJsonObject("params").get("requestId").getAsLong());
+            } else if (message.has("id")) {
+                new Thread(() -> handle(message, method)).start();
+            }
+        }
+    }
+
+    private static void handle(JsonObject message, String method) {
+        JsonElement id = message.get("id");
+        JsonObject params = message.has("params") ? message.getAsJsonObject("params") : new JsonObject();
+        switch (method) {
+            case "initialize" -> {
+                JsonObject result = new JsonObject();
+                result.addProperty("protocolVersion", ExternalToolServer.PROTOCOL_VERSION);
+                result.add("capabilities", new JsonObject());
+                respond(id, result);
+            }
+            case "ping" -> respond(id, new JsonObject());
+            case "tools/list" -> {
+                JsonArray tools = new JsonArray();
+                tools.add(tool("echo", "text", "string"));
+                tools.add(tool("slow", "steps", "integer"));
+                tools.add(tool("crash", "code", "integer"));
+                tools.add(tool("noisy", "text", "string"));
+                JsonObject result = new JsonObject();
+                result.add("tools", tools);
+                respond(id, result);
+            }
+            case "tools/call" -> callTool(id, params);
+            default -> {
+                JsonObject error = new JsonObject();
+                error.addProperty("code", -32601);
+                error.addProperty("message", "Method not found: " + method);
+                send(id, "error", error);
+            }
+        }
+    }
+
+    private static void callTool(JsonElement id, JsonObject params) {
+        String name = params.get("name").getAsString();
+        JsonObject arguments = params.getAsJsonObject("arguments");
+        switch (name) {
+            case "echo" -> respond(id, textResult("{\"echo\": \"" + arguments.get("text").getAsString() + "\"}"));
+            case "slow" -> {
+                int steps = arguments.get("steps").getAsInt();
+                JsonElement token = params.getAsJsonObject("_meta").get("progressToken");
+                for (int i = 1; i <= steps; i++) {
+                    if (CANCELLED.contains(id.getAsLong())) {
+                        return;
+                    }
+                    JsonObject progress = new JsonObject();
+                    progress.add("progressToken", token);
+                    progress.addProperty("progress", i);
+                    progress.addProperty("message", "step " + i + " of request " + id + "\n");
+                    JsonObject notification = new JsonObject();
+                    notification.addProperty("jsonrpc", "2.0");
+                    notification.addProperty("method", "notifications/progress");
+                    notification.add("params", progress);
+                    OUT.println(notification);
+                    sleep(50);
+                }
+                respond(id, textResult("done " + id));
+            }
+            case "crash" -> System.exit(arguments.get("code").getAsInt());
+            case "noisy" -> {
+                JsonObject progress = new JsonObject();
+                progress.addProperty("progressToken", "not-a-number");
+                progress.addProperty("message", "ignored");
+                JsonObject notification = new JsonObject();
+                notification.addProperty("jsonrpc", "2.0");
+                notification.addProperty("method", "notifications/progress");
+                notification.add("params", progress);
+                OUT.println(notification);
+                send(new JsonPrimitive("request-" + id), "result", textResult("string id"));
+                send(new JsonPrimitive(1.5), "result", textResult("fractional id"));
+                respond(id, textResult("{\"echo\": \"" + arguments.get("text").getAsString() + "\"}"));
+            }
+            default -> {
+                JsonObject result = textResult("Unknown tool: " + name);
+                result.addProperty("isError", true);
+                respond(id, result);
+            }
+        }
+    }
+
+    private static JsonObject tool(String name, String parameter, String type) {
+        JsonObject property = new JsonObject();
+        property.addProperty("type", type);
+        JsonObject properties = new JsonObject();
+        properties.add(parameter, property);
+        JsonArray required = new JsonArray();
+        required.add(parameter);
+        JsonObject schema = new JsonObject();
+        schema.addProperty("type", "object");
+        schema.add("properties", properties);
+        schema.add("required", required);
+        JsonObject tool = new JsonObject();
+        tool.addProperty("name", name);
+        tool.addProperty("description", "Fake " + name + " tool");
+        tool.add("inputSchema", schema);
+        return tool;
+    }
+
+    private static JsonObject textResult(String text) {
+        JsonObject item = new JsonObject();
+        item.addProperty("type", "text");
+        item.addProperty("text", text);
+        JsonArray content = new JsonArray();
+        content.add(item);
+        JsonObject result = new JsonObject();
+        result.add("content", content);
+        return result;
+    }
+
+    private static void respond(JsonElement id, JsonObject result) {
+        send(id, "result", result);
+    }
+
+    private static void send(JsonElement id, String key, JsonObject value) {
+        JsonObject response = new JsonObject();
+        response.addProperty("jsonrpc", "2.0");
+        response.add("id", id);
+        response.add(key, value);
+        OUT.println(response); // PrintStream.println 是同步的，多线程响应不会交错
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
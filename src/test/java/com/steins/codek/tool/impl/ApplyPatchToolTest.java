@@ -0,0 +1,233 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ApplyPatchTool工具的单元测试类。
+ * @author 0027013824
+ */
+public class ApplyPatchToolTest extends BasePlatformTestCase {
+    private static final String ORIGINAL = "public class Foo {\n"
+            + "    public int a() {\n"
+            + "        return 1;\n"
+            + "    }\n"
+            + "\n"
+            + "    public int b() {\n"
+            + "        return 2;\n"
+            + "    }\n"
+            + "}\n";
+
+    private ApplyPatchTool applyPatchTool;
+    private Path tempFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        applyPatchTool = new ApplyPatchTool(getProject());
+        tempFile = Files.createTempFile("applyPatchToolTest", ".java");
+        Files.write(tempFile, ORIGINAL.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected boolean runInDispatchThread() {
+        // 工具在后台线程中等待写命令在 EDT 上执行，测试线程不能占用 EDT
+        return false;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(tempFile);
+        super.tearDown();
+    }
+
+    /**
+     * 测试 SEARCH/REPLACE 格式的补丁。
+     */
+    public void testSearchReplaceBlock() throws Exception {
+        String patch = "<<<<<<< SEARCH\n"
+                + "        return 2;\n"
+                + "=======\n"
+                + "        return 42;\n"
+                + ">>>>>>> REPLACE\n";
+
+        String result = applyPatchTool.execute(args(patch));
+
+        assertTrue("应返回成功结果", result.contains("\"success\": true"));
+        assertEquals("文件内容应该匹配", ORIGINAL.replace("return 2;", "return 42;"), readFile());
+    }
+
+    /**
+     * 测试 unified diff 格式的补丁，多个补丁块一次应用。
+     */
+    public void testUnifiedDiff() throws Exception {
+        String patch = "--- a/Foo.java\n"
+                + "+++ b/Foo.java\n"
+                + "@@ -2,3 +2,3 @@\n"
+                + "     public int a() {\n"
+                + "-        return 1;\n"
+                + "+        return 10;\n"
+                + "     }\n"
+                + "@@ -6,3 +6,3 @@\n"
+                + "     public int b() {\n"
+                + "-        return 2;\n"
+                + "+        return 20;\n"
+                + "     }\n";
+
+        String result = applyPatchTool.execute(args(patch));
+
+        assertTrue("应返回成功结果", result.contains("\"success\": true"));
+        assertTrue("两个补丁块都应被应用", result.contains("\"applied\": 2"));
+        assertEquals("文件内容应该匹配",
+                ORIGINAL.replace("return 1;", "return 10;").replace("return 2;", "return 20;"), readFile());
+    }
+
+    /**
+     * 测试忽略空白差异的匹配。
+     */
+    public void testWhitespaceTolerantMatch() {
+        List<ApplyPatchTool.Hunk> hunks = ApplyPatchTool.parseHunks("<<<<<<< SEARCH\n"
+                + "public int a()  {\n"
+                + "  return 1;\n"
+                + "=======\n"
+                + "    public int a() {\n"
+                + "        return 100;\n"
+                + ">>>>>>> REPLACE\n");
+
+        ApplyPatchTool.PatchPlan plan = ApplyPatchTool.planEdits(ORIGINAL, hunks);
+
+        assertEquals(1, plan.edits.size());
+        assertEquals(1, plan.fuzzyMatches);
+        assertEquals(ORIGINAL.replace("return 1;", "return 100;"), ApplyPatchTool.applyEdits(ORIGINAL, plan.edits));
+    }
+
+    /**
+     * 测试旧行数为 0 的纯插入块插入到指定行之后，行号为 0 时插入到文件开头。
+     */
+    public void testInsertionHunk() {
+        List<ApplyPatchTool.Hunk> hunks = ApplyPatchTool.parseHunks("@@ -0,0 +1,1 @@\n"
+                + "+// header\n"
+                + "@@ -4,0 +5,2 @@\n"
+                + "+\n"
+                + "+    public int c() { return 3; }\n");
+
+        ApplyPatchTool.PatchPlan plan = ApplyPatchTool.planEdits(ORIGINAL, hunks);
+
+        assertEquals(2, plan.edits.size());
+        assertEquals("应插入到第 4 行之后", "// header\n" + ORIGINAL.replace("        return 1;\n    }\n",
+                "        return 1;\n    }\n\n    public int c() { return 3; }\n"),
+                ApplyPatchTool.applyEdits(ORIGINAL, plan.edits));
+
+        hunks = ApplyPatchTool.parseHunks("@@ -20,0 +20,1 @@\n+// footer\n");
+        plan = ApplyPatchTool.planEdits(ORIGINAL, hunks);
+        assertEquals("超出文件末尾的行号应插入到末尾", ORIGINAL + "// footer\n", ApplyPatchTool.applyEdits(ORIGINAL, plan.edits));
+    }
+
+    /**
+     * 测试无法匹配的补丁块被拒绝并附带上下文，其余补丁块仍被应用。
+     */
+    public void testRejectedHunkReportsContext() throws Exception {
+        String patch = "<<<<<<< SEARCH\n"
+                + "    public int a() {\n"
+                + "        return 3;\n"
+                + "=======\n"
+                + "    public int a() {\n"
+                + "        return 4;\n"
+                + ">>>>>>> REPLACE\n"
+                + "<<<<<<< SEARCH\n"
+                + "        return 2;\n"
+                + "=======\n"
+                + "        return 5;\n"
+                + ">>>>>>> REPLACE\n";
+
+        String result = applyPatchTool.execute(args(patch));
+
+        assertTrue("应返回失败结果", result.contains("\"success\": false"));
+        assertTrue("应报告被拒绝的补丁块", result.contains("\"hunk\": 1"));
+        assertTrue("应附带文件中的上下文", result.contains("2: " + "    public int a() {"));
+        assertEquals("匹配的补丁块应被应用", ORIGINAL.replace("return 2;", "return 5;"), readFile());
+    }
+
+    /**
+     * 测试没有行号提示的 SEARCH/REPLACE 块匹配多处时作为歧义拒绝，并列出每个匹配位置的上下文；
+     * 带行号的 unified diff 仍取最接近的位置。
+     */
+    public void testAmbiguousSearchBlockIsRejected() {
+        List<ApplyPatchTool.Hunk> hunks = ApplyPatchTool.parseHunks("<<<<<<< SEARCH\n"
+                + "    }\n"
+                + "=======\n"
+                + "    } // end\n"
+                + ">>>>>>> REPLACE\n");
+
+        ApplyPatchTool.PatchPlan plan = ApplyPatchTool.planEdits(ORIGINAL, hunks);
+
+        assertTrue("不应修改任何一处", plan.edits.isEmpty());
+        assertEquals(1, plan.rejections.size());
+        ApplyPatchTool.Rejection rejection = plan.rejections.get(0);
+        assertTrue(rejection.reason, rejection.reason.contains("matches 2 locations"));
+        assertTrue("应附带第一处的上下文", rejection.context.contains("3:         return 1;\n4:     }\n"));
+        assertTrue("应附带第二处的上下文", rejection.context.contains("7:         return 2;\n8:     }\n"));
+
+        hunks = ApplyPatchTool.parseHunks("@@ -8,1 +8,1 @@\n"
+                + "-    }\n"
+                + "+    } // end\n");
+        plan = ApplyPatchTool.planEdits(ORIGINAL, hunks);
+        assertEquals("有行号提示时应修改最接近的一处",
+                ORIGINAL.replace("        return 2;\n    }\n", "        return 2;\n    } // end\n"),
+                ApplyPatchTool.applyEdits(ORIGINAL, plan.edits));
+    }
+
+    /**
+     * 测试包含第二个文件的 diff -u 补丁：第二个文件头不被当作删除和新增行，整个补丁作为多文件补丁拒绝。
+     */
+    public void testRejectsMultiFilePatch() throws Exception {
+        String patch = "--- a/Foo.java\n"
+                + "+++ b/Foo.java\n"
+                + "@@ -2,3 +2,3 @@\n"
+                + "     public int a() {\n"
+                + "-        return 1;\n"
+                + "+        return 10;\n"
+                + "     }\n"
+                + "--- a/Bar.java\n"
+                + "+++ b/Bar.java\n"
+                + "@@ -1,1 +1,1 @@\n"
+                + "-class Bar {}\n"
+                + "+class Bar { }\n";
+
+        String result = applyPatchTool.execute(args(patch));
+
+        assertTrue("应返回错误结果: " + result, result.contains("\"error\""));
+        assertTrue("应提示补丁包含多个文件", result.contains("more than one file"));
+        assertEquals("文件不应被修改", ORIGINAL, readFile());
+    }
+
+    /**
+     * 测试缺少必需参数。
+     */
+    public void testMissingRequiredParameters() {
+        Map<String, String> args = new HashMap<>();
+        args.put("filePath", tempFile.toString());
+
+        String result = applyPatchTool.execute(args);
+
+        assertTrue("应返回错误结果", result.contains("\"error\""));
+        assertTrue("应提示缺少参数", result.contains("Missing required parameter"));
+    }
+
+    private Map<String, String> args(String patch) {
+        Map<String, String> args = new HashMap<>();
+        args.put("filePath", tempFile.toString());
+        args.put("patch", patch);
+        return args;
+    }
+
+    private String readFile() throws Exception {
+        return new String(Files.readAllBytes(tempFile), StandardCharsets.UTF_8);
+    }
+}
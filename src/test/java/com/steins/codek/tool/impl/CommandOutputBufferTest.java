@@ -0,0 +1,99 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.steins.codek.tool.ToolOutputBudget;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CommandOutputBuffer 命令输出缓冲区的单元测试类。
+ * @author 0027013824
+ */
+public class CommandOutputBufferTest extends BasePlatformTestCase {
+
+    /**
+     * 测试超出容量后只保留最后若干行，总行数仍按全部输出计算。
+     */
+    public void testRingKeepsLastLines() {
+        CommandOutputBuffer buffer = new CommandOutputBuffer(3);
+        for (int i = 1; i <= 10; i++) {
+            buffer.append("line " + i + "\n");
+        }
+
+        assertEquals(10, buffer.getTotalLines());
+        assertEquals(Arrays.asList("line 8", "line 9", "line 10"), buffer.tail(ToolOutputBudget.DEFAULT));
+    }
+
+    /**
+     * 测试回车覆盖只保留最后一次的内容，不完整的行在 flush 时写入。
+     */
+    public void testCarriageReturnOverwritesLine() {
+        CommandOutputBuffer buffer = new CommandOutputBuffer(10);
+        buffer.append("progress 10%\rprogress 50%\r");
+        buffer.append("progress 100%\ndone");
+        buffer.flush();
+
+        assertEquals(Arrays.asList("progress 100%", "done"), buffer.tail(ToolOutputBudget.DEFAULT));
+    }
+
+    /**
+     * 测试拆在两段输出中的 CRLF 仍然结束当前行。
+     */
+    public void testSplitCrlfEndsLine() {
+        CommandOutputBuffer buffer = new CommandOutputBuffer(10);
+        buffer.append("first\r");
+        buffer.append("\nsecond\r\n");
+        buffer.append("third\r");
+        buffer.flush();
+
+        assertEquals(Arrays.asList("first", "second", "third"), buffer.tail(ToolOutputBudget.DEFAULT));
+        assertEquals(3, buffer.getTotalLines());
+    }
+
+    /**
+     * 测试提取错误行时跳过堆栈帧，超过上限的错误只计数。
+     */
+    public void testExtractsErrorsWithoutStackFrames() {
+        CommandOutputBuffer buffer = new CommandOutputBuffer(10);
+        buffer.append("[INFO] compiling\n");
+        buffer.append("java.lang.IllegalStateException: broken\n");
+        buffer.append("\tat com.example.Foo.bar(Foo.java:10)\n");
+        buffer.append("\t... 3 more\n");
+        buffer.append("\u001B[31m[ERROR] Foo.java:[3,5] cannot find symbol\u001B[0m\n");
+        buffer.append("BUILD SUCCESSFUL\n");
+
+        List<String> errors = buffer.getErrors();
+        assertEquals(Arrays.asList("java.lang.IllegalStateException: broken",
+                "[ERROR] Foo.java:[3,5] cannot find symbol"), errors);
+        assertEquals(0, buffer.getOmittedErrors());
+
+        for (int i = 0; i < CommandOutputBuffer.MAX_ERRORS + 5; i++) {
+            buffer.append("test " + i + " FAILED\n");
+        }
+        assertEquals(CommandOutputBuffer.MAX_ERRORS, buffer.getErrors().size());
+        assertEquals(7, buffer.getOmittedErrors());
+    }
+
+    /**
+     * 测试 tail 只返回预算内的最后若干行，并保持原顺序。
+     */
+    public void testTailStaysWithinBudget() {
+        CommandOutputBuffer buffer = new CommandOutputBuffer(100);
+        for (int i = 1; i <= 100; i++) {
+            buffer.append("output line number " + i + "\n");
+        }
+        ToolOutputBudget budget = new ToolOutputBudget(60);
+
+        List<String> tail = buffer.tail(budget);
+        assertFalse(tail.isEmpty());
+        assertTrue("预算内只能放下部分行", tail.size() < 100);
+        assertEquals("output line number 100", tail.get(tail.size() - 1));
+        int used = 0;
+        for (int i = 0; i < tail.size(); i++) {
+            assertEquals("应按原顺序排列", "output line number " + (101 - tail.size() + i), tail.get(i));
+            used += ToolOutputBudget.estimateTokens(tail.get(i)) + 1;
+        }
+        assertTrue("不应超出预算", used <= budget.getMaxTokens());
+    }
+}
@@ -0,0 +1,101 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FindSymbolTool工具的单元测试类。
+ * @author 0027013824
+ */
+public class FindSymbolToolTest extends BasePlatformTestCase {
+    private FindSymbolTool findSymbolTool;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        findSymbolTool = new FindSymbolTool(getProject());
+        myFixture.addFileToProject("demo/Greeter.java",
+                "package demo;\n" +
+                "\n" +
+                "public class Greeter {\n" +                              // 3
+                "    private int count = 0;\n" +                          // 4
+                "\n" +
+                "    public String greet(String name) {\n" +              // 6
+                "        return \"hi \" + name;\n" +
+                "    }\n" +
+                "\n" +
+                "    public String greet(String name, int times) {\n" +   // 10
+                "        return name + times;\n" +
+                "    }\n" +
+                "}\n");
+    }
+
+    @Override
+    protected boolean runInDispatchThread() {
+        // 工具在后台线程中执行非阻塞读操作并等待结果，测试线程不能占用 EDT
+        return false;
+    }
+
+    /**
+     * 测试按类名和 "Class#member" 查找定义，返回文件、行号和签名。
+     */
+    public void testFindsDefinitions() {
+        String result = findSymbolTool.execute(args("Greeter", "class"));
+        assertTrue("应找到类定义: " + result, result.contains("demo/Greeter.java"));
+        assertTrue(result.contains("\"line\": 3"));
+        assertTrue(result.contains("\"signature\": \"public class Greeter\""));
+
+        result = findSymbolTool.execute(args("Greeter#count", "field"));
+        assertTrue("字段签名应截止到初始化表达式之前: " + result,
+                result.contains("\"signature\": \"Greeter: private int count\""));
+        assertTrue(result.contains("\"line\": 4"));
+
+        result = findSymbolTool.execute(args("Greeter#greet", "method"));
+        assertTrue("应找到两个重载: " + result, result.contains("\"count\": 2"));
+        assertTrue(result.contains("\"signature\": \"Greeter: public String greet(String name)\""));
+        assertTrue(result.contains("\"line\": 10"));
+    }
+
+    /**
+     * 测试结果上限：恰好达到上限时不算截断，超出上限时只返回上限个结果并标记截断。
+     */
+    public void testCapsResults() {
+        Map<String, String> args = args("Greeter#greet", "method");
+        args.put("maxResults", "2");
+        String result = findSymbolTool.execute(args);
+        assertTrue(result, result.contains("\"count\": 2"));
+        assertTrue("恰好达到上限不应标记截断: " + result, result.contains("\"truncated\": false"));
+
+        args.put("maxResults", "1");
+        result = findSymbolTool.execute(args);
+        assertTrue(result, result.contains("\"count\": 1"));
+        assertTrue("超出上限应标记截断: " + result, result.contains("\"truncated\": true"));
+    }
+
+    /**
+     * 测试 PSI 未修改时重复查询直接返回缓存的结果。
+     */
+    public void testReturnsCachedResult() {
+        String first = findSymbolTool.execute(args("Greeter#greet", "method"));
+        String second = findSymbolTool.execute(args("Greeter#greet", "method"));
+
+        assertSame("第二次查询应命中缓存", first, second);
+    }
+
+    /**
+     * 测试缺少必需参数和非法的 kind。
+     */
+    public void testRejectsInvalidArguments() {
+        assertTrue(findSymbolTool.execute(new HashMap<>()).contains("Missing required parameter: name"));
+        assertTrue(findSymbolTool.execute(args("Greeter", "module")).contains("Invalid kind"));
+    }
+
+    private static Map<String, String> args(String name, String kind) {
+        Map<String, String> args = new HashMap<>();
+        args.put("name", name);
+        args.put("kind", kind);
+        return args;
+    }
+}
@@ -0,0 +1,112 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FindUsagesTool工具的单元测试类。
+ * @author 0027013824
+ */
+public class FindUsagesToolTest extends BasePlatformTestCase {
+    private FindUsagesTool findUsagesTool;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        findUsagesTool = new FindUsagesTool(getProject());
+        myFixture.addFileToProject("demo/Greeter.java",
+                "package demo;\n" +
+                "\n" +
+                "public class Greeter {\n" +
+                "    public String greet(String name) {\n" +
+                "        return \"hi \" + name;\n" +
+                "    }\n" +
+                "}\n");
+        myFixture.addFileToProject("demo/Caller.java",
+                "package demo;\n" +
+                "\n" +
+                "public class Caller {\n" +
+                "    void run(Greeter greeter) {\n" +
+                "        greeter.greet(\"a\");\n" +             // 5
+                "        String b = greeter.greet(\"b\");\n" +  // 6
+                "        greeter.greet(b);\n" +                 // 7
+                "    }\n" +
+                "}\n");
+    }
+
+    @Override
+    protected boolean runInDispatchThread() {
+        // 工具在后台线程中执行非阻塞读操作并等待结果，测试线程不能占用 EDT
+        return false;
+    }
+
+    /**
+     * 测试返回每个引用的文件、行号和所在行的代码。
+     */
+    public void testFindsUsages() {
+        String result = findUsagesTool.execute(args("Greeter#greet"));
+
+        assertTrue("应找到全部调用: " + result, result.contains("\"count\": 3"));
+        assertTrue(result.contains("demo/Caller.java"));
+        assertTrue("签名应为引用所在行的代码", result.contains("\"line\": 6, \"signature\": \"String b = greeter.greet(\\\"b\\\");\""));
+        assertTrue(result.contains("\"line\": 5"));
+        assertTrue(result.contains("\"line\": 7"));
+        assertTrue(result.contains("\"truncated\": false"));
+
+        result = findUsagesTool.execute(args("Greeter"));
+        assertTrue("类的引用应包含参数类型: " + result, result.contains("\"line\": 4"));
+    }
+
+    /**
+     * 测试超出结果上限时只返回上限个引用并标记截断。
+     */
+    public void testCapsResults() {
+        Map<String, String> args = args("Greeter#greet");
+        args.put("maxResults", "2");
+
+        String result = findUsagesTool.execute(args);
+
+        assertTrue(result, result.contains("\"count\": 2"));
+        assertTrue("超出上限应标记截断: " + result, result.contains("\"truncated\": true"));
+    }
+
+    /**
+     * 测试同名声明超过上限时标记截断、说明有声明未被搜索，且结果不缓存。
+     */
+    public void testReportsSkippedDeclarations() {
+        StringBuilder pinger = new StringBuilder("package demo;\n\npublic class Pinger {\n");
+        for (int i = 0; i < 6; i++) {
+            pinger.append("    void ping(");
+            for (int j = 0; j < i; j++) {
+                pinger.append(j > 0 ? ", " : "").append("int a").append(j);
+            }
+            pinger.append(") {}\n");
+        }
+        myFixture.addFileToProject("demo/Pinger.java", pinger.append("}\n").toString());
+
+        String first = findUsagesTool.execute(args("Pinger#ping"));
+        assertTrue("有声明未被搜索时应标记截断: " + first, first.contains("\"truncated\": true"));
+        assertTrue("应说明有声明未被搜索: " + first, first.contains("declarations match this name"));
+
+        String second = findUsagesTool.execute(args("Pinger#ping"));
+        assertNotSame("不完整的结果不应缓存", first, second);
+    }
+
+    /**
+     * 测试 PSI 未修改时重复查询直接返回缓存的结果。
+     */
+    public void testReturnsCachedResult() {
+        String first = findUsagesTool.execute(args("Greeter#greet"));
+        String second = findUsagesTool.execute(args("Greeter#greet"));
+
+        assertSame("第二次查询应命中缓存", first, second);
+    }
+
+    private static Map<String, String> args(String name) {
+        Map<String, String> args = new HashMap<>();
+        args.put("name", name);
+        return args;
+    }
+}
@@ -0,0 +1,135 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolOutputBudget;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * GrepFileTool工具的单元测试类。
+ * @author 0027013824
+ */
+public class GrepFileToolTest extends BasePlatformTestCase {
+    private static final Pattern NEXT_START_LINE = Pattern.compile("\"nextStartLine\": (\\d+)");
+    private static final Pattern MATCH_LINE = Pattern.compile("(?:^|\\\\n|\")(\\d+): ");
+
+    private GrepFileTool grepFileTool;
+    private Path tempFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        grepFileTool = new GrepFileTool(getProject());
+        tempFile = Files.createTempFile("grepFileToolTest", ".log");
+        StringBuilder content = new StringBuilder();
+        for (int i = 1; i <= 1000; i++) {
+            content.append("line ").append(i).append(i % 100 == 0 ? " ERROR timeout" : " ok").append(i % 7 == 0 ? "\r\n" : "\n");
+        }
+        Files.write(tempFile, content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(tempFile);
+        super.tearDown();
+    }
+
+    /**
+     * 测试返回匹配行及前后的上下文行。
+     */
+    public void testReturnsMatchesWithContext() {
+        Map<String, String> args = args("ERROR");
+        args.put("literal", "true");
+        args.put("contextLines", "1");
+
+        String result = grepFileTool.execute(args, ToolContext.EMPTY);
+
+        assertTrue("应返回全部匹配: " + result, result.contains("\"matchCount\": 10"));
+        assertTrue("应包含匹配行", result.contains("100: line 100 ERROR timeout"));
+        assertTrue("应包含前置上下文", result.contains("99- line 99 ok"));
+        assertTrue("应包含后置上下文", result.contains("101- line 101 ok"));
+        assertFalse("不应包含上下文之外的行", result.contains("98- line 98"));
+        assertFalse("行尾的 \\r 应被去掉", result.contains("\\r"));
+        assertTrue("不应被截断", result.contains("\"truncated\": false"));
+    }
+
+    /**
+     * 测试相距不超过上下文行数的匹配合并为一组。
+     */
+    public void testMergesAdjacentMatches() {
+        Map<String, String> args = args("line 1[05] ");
+        args.put("contextLines", "3");
+
+        String result = grepFileTool.execute(args, ToolContext.EMPTY);
+
+        assertTrue("相邻匹配应合并为一组: " + result, result.contains("\"startLine\": 7, \"endLine\": 18"));
+        assertTrue("组内的行不应重复", result.split("10- line 10 ").length <= 2);
+    }
+
+    /**
+     * 测试达到匹配数上限或 token 预算后，可从 nextStartLine 继续查找到文件末尾。
+     */
+    public void testContinuesFromNextStartLine() {
+        Map<String, String> args = args("ERROR");
+        args.put("ignoreCase", "true");
+        args.put("maxMatches", "3");
+        ToolContext context = new ToolContext(null, null, new ToolOutputBudget(200));
+
+        int found = 0;
+        int calls = 0;
+        String result;
+        do {
+            result = grepFileTool.execute(args, context);
+            Matcher matcher = MATCH_LINE.matcher(result);
+            while (matcher.find()) {
+                assertEquals("每个匹配只应返回一次", (found + 1) * 100, Integer.parseInt(matcher.group(1)));
+                found++;
+            }
+            Matcher next = NEXT_START_LINE.matcher(result);
+            if (next.find()) {
+                args.put("startLine", next.group(1));
+            }
+            calls++;
+        } while (result.contains("\"truncated\": true") && calls < 20);
+
+        assertEquals("续查应找到全部匹配", 10, found);
+        assertTrue("应分多次返回", calls > 1);
+    }
+
+    /**
+     * 测试无效的正则表达式。
+     */
+    public void testInvalidPattern() {
+        String result = grepFileTool.execute(args("[unclosed"), ToolContext.EMPTY);
+
+        assertTrue("应返回错误结果", result.contains("Invalid pattern"));
+    }
+
+    /**
+     * 测试没有未保存修改的文件通过内存映射扫描，不创建 Document。
+     */
+    public void testScansFileWithoutDocument() {
+        grepFileTool.execute(args("ERROR"), ToolContext.EMPTY);
+
+        VirtualFile virtualFile = LocalFileSystem.getInstance().findFileByNioFile(tempFile);
+        assertNotNull(virtualFile);
+        assertNull("不应创建 Document", FileDocumentManager.getInstance().getCachedDocument(virtualFile));
+    }
+
+    private Map<String, String> args(String pattern) {
+        Map<String, String> args = new HashMap<>();
+        args.put("filePath", tempFile.toString());
+        args.put("pattern", pattern);
+        return args;
+    }
+}
@@ -0,0 +1,184 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.steins.codek.tool.FileTransaction;
+import com.steins.codek.tool.ToolContext;
+import com.steins.codek.tool.ToolOutputBudget;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ReadFileTool工具的单元测试类。
+ * @author 0027013824
+ */
+public class ReadFileToolTest extends BasePlatformTestCase {
+    private static final Pattern CURSOR = Pattern.compile("\"nextCursor\": \"([^\"]+)\"");
+    private static final Pattern END_LINE = Pattern.compile("\"endLine\": (\\d+)");
+
+    private ReadFileTool readFileTool;
+    private Path tempFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        readFileTool = new ReadFileTool(getProject());
+        tempFile = Files.createTempFile("readFileToolTest", ".txt");
+        StringBuilder content = new StringBuilder();
+        for (int i = 1; i <= 200; i++) {
+            content.append("line number ").append(i).append(" with some padding text\n");
+        }
+        Files.write(tempFile, content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(tempFile);
+        super.tearDown();
+    }
+
+    /**
+     * 测试预算充足时一次读完整个文件。
+     */
+    public void testReadWholeFileWithinBudget() {
+        String result = readFileTool.execute(args(), ToolContext.EMPTY);
+
+        assertTrue("不应被截断", result.contains("\"truncated\": false"));
+        assertTrue("应读到最后一行", result.contains("line number 200 "));
+        assertFalse("不应返回游标", result.contains("nextCursor"));
+    }
+
+    /**
+     * 测试预算不足时按整行截断，并可通过游标续读到文件末尾。
+     */
+    public void testTruncatesAtLineBoundaryAndContinuesWithCursor() {
+        ToolContext context = new ToolContext(null, null, new ToolOutputBudget(300));
+
+        String result = readFileTool.execute(args(), context);
+        assertTrue("应被截断", result.contains("\"truncated\": true"));
+        int pages = 1;
+        int lastEndLine = endLine(result);
+        while (result.contains("nextCursor")) {
+            Matcher matcher = CURSOR.matcher(result);
+            assertTrue("应返回游标", matcher.find());
+            Map<String, String> next = new HashMap<>();
+            next.put("cursor", matcher.group(1));
+            result = readFileTool.execute(next, context);
+            assertTrue("续读应从上一页之后开始", result.contains("\"startLine\": " + (lastEndLine + 1)));
+            assertFalse("每页只包含整行", result.contains("\"content\": \"with"));
+            lastEndLine = endLine(result);
+            pages++;
+        }
+        assertTrue("应分为多页", pages > 1);
+        assertEquals("最后一页应读到文件末尾", 200, lastEndLine);
+    }
+
+    /**
+     * 测试无效游标。
+     */
+    public void testInvalidCursor() {
+        Map<String, String> args = new HashMap<>();
+        args.put("cursor", "not-a-cursor");
+
+        String result = readFileTool.execute(args, ToolContext.EMPTY);
+
+        assertTrue("应返回错误结果", result.contains("Invalid cursor"));
+    }
+
+    /**
+     * 测试读取本轮暂存的修改：读到覆盖层中的内容，磁盘不变；回滚后读到磁盘上的内容。
+     */
+    public void testReadsStagedOverlay() throws Exception {
+        VirtualFile virtualFile = LocalFileSystem.getInstance().refreshAndFindFileByNioFile(tempFile);
+        assertNotNull(virtualFile);
+        Path createdFile = tempFile.resolveSibling(tempFile.getFileName() + ".new");
+        FileTransaction transaction = new FileTransaction(getProject());
+        transaction.stageWrite(virtualFile, "staged line 1\nstaged line 2\n", "call-1");
+        transaction.stageCreate(createdFile.toString(), "created\n", "call-2");
+        ToolContext context = new ToolContext(null, transaction);
+
+        String result = readFileTool.execute(args(), context);
+        assertTrue("应读到暂存的内容: " + result, result.contains("\"content\": \"staged line 1\\nstaged line 2\""));
+        assertTrue("磁盘上的文件不应被修改", new String(Files.readAllBytes(tempFile), StandardCharsets.UTF_8).startsWith("line number 1 "));
+
+        Map<String, String> args = new HashMap<>();
+        args.put("filePath", createdFile.toString());
+        assertTrue("应能读取暂存的新文件", readFileTool.execute(args, context).contains("\"content\": \"created\""));
+        assertFalse("新文件不应写入磁盘", Files.exists(createdFile));
+
+        transaction.rollback();
+        assertTrue("回滚后应读到磁盘上的内容", readFileTool.execute(args(), context).contains("line number 1 "));
+    }
+
+    /**
+     * 测试大文件通过内存映射读取：不创建 Document，行号与续读游标与普通读取一致。
+     */
+    public void testReadsLargeFileWithoutDocument() throws Exception {
+        Path largeFile = Files.createTempFile("readFileToolLarge", ".log");
+        try {
+            int lineCount = 60_000;
+            StringBuilder content = new StringBuilder();
+            for (int i = 1; i <= lineCount; i++) {
+                content.append("line number ").append(i).append(" of a generated log with enough padding to be large");
+                if (i < lineCount) {
+                    content.append(i % 3 == 0 ? "\r\n" : "\n");
+                }
+            }
+            Files.write(largeFile, content.toString().getBytes(StandardCharsets.UTF_8));
+            assertTrue("测试文件应超过映射阈值", Files.size(largeFile) > ReadFileTool.MAPPED_READ_THRESHOLD_BYTES);
+
+            Map<String, String> args = new HashMap<>();
+            args.put("filePath", largeFile.toString());
+            args.put("startLine", "50000");
+            args.put("endLine", "50002");
+            String result = readFileTool.execute(args, ToolContext.EMPTY);
+            assertTrue("应返回总行数: " + result, result.contains("\"totalLines\": " + lineCount));
+            assertTrue("应从指定行开始", result.contains("\"content\": \"line number 50000 "));
+            assertTrue("应读到结束行", result.contains("line number 50002 "));
+            assertFalse("不应包含范围外的行", result.contains("line number 50003 "));
+            assertFalse("换行符应统一为 \\n", result.contains("\\r"));
+
+            ToolContext context = new ToolContext(null, null, new ToolOutputBudget(300));
+            args.put("startLine", "59990");
+            args.remove("endLine");
+            result = readFileTool.execute(args, context);
+            int lastEndLine = endLine(result);
+            while (result.contains("nextCursor")) {
+                Matcher matcher = CURSOR.matcher(result);
+                assertTrue("应返回游标", matcher.find());
+                Map<String, String> next = new HashMap<>();
+                next.put("cursor", matcher.group(1));
+                result = readFileTool.execute(next, context);
+                assertTrue("续读应从上一页之后开始", result.contains("\"startLine\": " + (lastEndLine + 1)));
+                lastEndLine = endLine(result);
+            }
+            assertEquals("最后一页应读到文件末尾", lineCount, lastEndLine);
+
+            VirtualFile virtualFile = LocalFileSystem.getInstance().findFileByNioFile(largeFile);
+            assertNotNull(virtualFile);
+            assertNull("大文件不应创建 Document", FileDocumentManager.getInstance().getCachedDocument(virtualFile));
+        } finally {
+            Files.deleteIfExists(largeFile);
+        }
+    }
+
+    private Map<String, String> args() {
+        Map<String, String> args = new HashMap<>();
+        args.put("filePath", tempFile.toString());
+        return args;
+    }
+
+    private static int endLine(String result) {
+        Matcher matcher = END_LINE.matcher(result);
+        assertTrue("结果应包含 endLine", matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+}
@@ -0,0 +1,83 @@
+package com.steins.codek.tool.impl;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.steins.codek.config.CodekConfig;
+import com.steins.codek.tool.ToolContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RunCommandTool工具的单元测试类。
+ * @author 0027013824
+ */
+public class RunCommandToolTest extends BasePlatformTestCase {
+    private RunCommandTool runCommandTool;
+    private CodekConfig config;
+    private List<String> savedDirs;
+    private Path allowedDir;
+    private Path outsideDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        runCommandTool = new RunCommandTool(getProject());
+        allowedDir = Files.createTempDirectory("runCommandAllowed");
+        outsideDir = Files.createTempDirectory("runCommandOutside");
+        config = ApplicationManager.getApplication().getService(CodekConfig.class);
+        savedDirs = config.getCommandWorkingDirectoryAllowlist();
+        config.setCommandWorkingDirectoryAllowlist(Collections.singletonList(allowedDir.toString()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            config.setCommandWorkingDirectoryAllowlist(savedDirs);
+            FileUtil.delete(allowedDir.toFile());
+            FileUtil.delete(outsideDir.toFile());
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    /**
+     * 测试项目目录和配置的目录之外的工作目录被拒绝，命令不会执行。
+     */
+    public void testRejectsWorkingDirectoryOutsideAllowlist() {
+        Path marker = outsideDir.resolve("marker.txt");
+        Map<String, String> args = new HashMap<>();
+        args.put("command", SystemInfo.isWindows ? "cmd /c echo x > marker.txt" : "touch marker.txt");
+        args.put("workingDirectory", outsideDir.toString());
+
+        String result = runCommandTool.execute(args, ToolContext.EMPTY);
+
+        assertTrue("应拒绝不在允许列表中的目录: " + result, result.contains("Working directory is not allowed"));
+        assertFalse("命令不应被执行", Files.exists(marker));
+    }
+
+    /**
+     * 测试命令超时后被结束，结果标记为超时且不成功。
+     */
+    public void testTimeoutStopsCommand() {
+        Map<String, String> args = new HashMap<>();
+        args.put("command", SystemInfo.isWindows ? "ping -n 30 127.0.0.1" : "sleep 30");
+        args.put("workingDirectory", allowedDir.toString());
+        args.put("timeoutSeconds", "1");
+
+        long start = System.nanoTime();
+        String result = runCommandTool.execute(args, ToolContext.EMPTY);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+
+        assertTrue("应标记为超时: " + result, result.contains("\"timedOut\": true"));
+        assertTrue(result.contains("\"success\": false"));
+        assertTrue(result.contains("\"cancelled\": false"));
+        assertTrue("超时后应结束进程而不是等待命令完成: " + elapsedMs, elapsedMs < 15_000);
+    }
+}